@@ -0,0 +1,72 @@
+/*
+    This file is part of Project MAXS.
+
+    MAXS and its modules is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    MAXS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with MAXS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.projectmaxs.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.projectmaxs.shared.global.Message;
+
+/**
+ * Measures the marshalling of messages. The Parcel based path requires the Android runtime, but it
+ * shares the element encoding of ContentCodec with Message.toBytes(), which is measured here. The
+ * encoded size and the size of the parcelled message, as computed by Message.getParcelSize(), are
+ * printed once per payload.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageMarshallingBenchmark {
+
+	@Param({ "LS_200", "DIRECTORY_TREE", "SMS_50", "CONTACT_DUMP" })
+	public Payloads mPayload;
+
+	private Message mMessage;
+	private byte[] mBytes;
+
+	@Setup
+	public void setup() {
+		mMessage = mPayload.create();
+		mBytes = mMessage.toBytes();
+		System.out.println(mPayload + ": " + mBytes.length + " bytes encoded, "
+				+ mMessage.getParcelSize() + " bytes parcelled");
+	}
+
+	@Benchmark
+	public byte[] marshal() {
+		return mMessage.toBytes();
+	}
+
+	@Benchmark
+	public Message unmarshal() {
+		return Message.fromBytes(mBytes);
+	}
+}
@@ -0,0 +1,132 @@
+/*
+    This file is part of Project MAXS.
+
+    MAXS and its modules is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    MAXS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with MAXS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.projectmaxs.benchmark;
+
+import org.projectmaxs.shared.global.Message;
+import org.projectmaxs.shared.global.messagecontent.Contact;
+import org.projectmaxs.shared.global.messagecontent.Element;
+import org.projectmaxs.shared.global.messagecontent.Sms;
+import org.projectmaxs.shared.global.messagecontent.Text;
+
+/**
+ * Realistic MAXS command results, shaped like the ones created by the modules.
+ */
+public enum Payloads {
+
+	/**
+	 * The result of 'file ls' on a directory with 200 entries, see AbstractFilereadCommand.
+	 */
+	LS_200 {
+		@Override
+		public Message create() {
+			final String dir = "/storage/emulated/0/DCIM/Camera";
+			Message message = new Message();
+			message.add(Text.createBoldNL("Content of " + dir));
+			for (int i = 0; i < 200; i++) {
+				if (i % 10 == 0) {
+					String path = dir + "/folder-" + i;
+					message.add(new Element("directory", path, path + '/'));
+					continue;
+				}
+				String path = dir + "/IMG_20140101_" + (100000 + i * 37) + ".jpg";
+				long size = 1024L * (700 + i * 13);
+				Element file = new Element("file", path, new Text(path + " " + size / 1024
+						+ " KiB"));
+				file.addChildElement(Element.newNonHumandReadable("size", Long.toString(size)));
+				message.add(file);
+			}
+			return message;
+		}
+	},
+
+	/**
+	 * A recursive listing of 20 directories with 20 files each, every file element carrying a
+	 * nested size element.
+	 */
+	DIRECTORY_TREE {
+		@Override
+		public Message create() {
+			final String root = "/storage/emulated/0/Music";
+			Message message = new Message();
+			message.add(Text.createBoldNL("Content of " + root));
+			for (int i = 0; i < 20; i++) {
+				String dirPath = root + "/Album " + i;
+				Element dir = new Element("directory", dirPath, dirPath + '/');
+				for (int j = 0; j < 20; j++) {
+					String path = dirPath + "/Track " + j + ".mp3";
+					long size = 1024L * (3000 + i * 17 + j * 31);
+					Element file = new Element("file", path, new Text(path + " " + size / 1024
+							+ " KiB"));
+					file.addChildElement(Element.newNonHumandReadable("size", Long.toString(size)));
+					dir.addChildElement(file);
+				}
+				message.add(dir);
+			}
+			return message;
+		}
+	},
+
+	/**
+	 * The result of 'sms show' listing 50 messages, see SmsShow.
+	 */
+	SMS_50 {
+		@Override
+		public Message create() {
+			Message message = new Message();
+			message.add(Text.createBoldNL("Last 50 SMS"));
+			long date = 1388534400000L;
+			for (int i = 0; i < 50; i++) {
+				String contact = "Contact " + (i % 7) + " (+49 170 55500" + (i % 7) + ")";
+				Sms.Type type = i % 3 == 0 ? Sms.Type.SENT : Sms.Type.INBOX;
+				message.add(new Sms(contact, BODIES[i % BODIES.length], type, date + i * 60000L));
+			}
+			return message;
+		}
+	},
+
+	/**
+	 * The result of 'contact show' matching many contacts, see AbstractContactCommand.
+	 */
+	CONTACT_DUMP {
+		@Override
+		public Message create() {
+			Message message = new Message();
+			for (int i = 0; i < 100; i++) {
+				Contact contact = new Contact("Firstname" + i + " Lastname" + i, "lookup-key-"
+						+ i);
+				if (i % 4 == 0) contact.setNickname("Nick" + i);
+				// Mobile, home and work numbers, see ContactsContract.CommonDataKinds.Phone
+				contact.addNumber("+49 170 " + (1000000 + i), 2, null, true);
+				if (i % 2 == 0) contact.addNumber("+49 30 " + (2000000 + i), 1, null, false);
+				if (i % 3 == 0) contact.addNumber("+49 89 " + (3000000 + i), 3, "Office", false);
+				message.add(contact);
+			}
+			return message;
+		}
+	};
+
+	private static final String[] BODIES = {
+			"Ok",
+			"I'm on my way, be there in about 20 minutes.",
+			"Did you see the news today?\nCall me when you have time.",
+			"Don't forget to buy milk, bread, eggs and some apples on your way home. "
+					+ "And maybe something for dinner tonight, I'm too tired to cook.",
+			"Meeting moved to 3pm" };
+
+	public abstract Message create();
+}
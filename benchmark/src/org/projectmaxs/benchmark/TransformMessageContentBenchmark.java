@@ -0,0 +1,96 @@
+/*
+    This file is part of Project MAXS.
+
+    MAXS and its modules is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    MAXS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with MAXS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.projectmaxs.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.projectmaxs.shared.global.Message;
+import org.projectmaxs.shared.global.messagecontent.FormatedText;
+import org.projectmaxs.shared.global.messagecontent.Text;
+import org.projectmaxs.shared.transport.transform.TransformMessageContent;
+import org.projectmaxs.transport.xmpp.util.XHTMLIMUtil;
+
+/**
+ * Measures the steps the XMPP transport performs for every outgoing command result: The
+ * transformation into a plain text body and into formated text, and the creation of the XHTML-IM
+ * body from the latter. Also measures Text.addWithNewLines(), which the modules use to add
+ * multiline strings like command output.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TransformMessageContentBenchmark {
+
+	@Param({ "LS_200", "SMS_50", "CONTACT_DUMP" })
+	public Payloads mPayload;
+
+	private Message mMessage;
+	private List<FormatedText> mFormatedText;
+	private String mString;
+
+	@Setup
+	public void setup() {
+		mMessage = mPayload.create();
+		mFormatedText = TransformMessageContent.toFormatedText(mMessage);
+		mString = TransformMessageContent.toString(mMessage);
+	}
+
+	@Benchmark
+	public String transformToString() {
+		return TransformMessageContent.toString(mMessage);
+	}
+
+	@Benchmark
+	public List<FormatedText> transformToFormatedText() {
+		return TransformMessageContent.toFormatedText(mMessage);
+	}
+
+	@Benchmark
+	public org.jivesoftware.smack.packet.Message addXHTMLIM() {
+		org.jivesoftware.smack.packet.Message message = new org.jivesoftware.smack.packet.Message();
+		message.setBody(mString);
+		return XHTMLIMUtil.addXHTMLIM(message, mFormatedText);
+	}
+
+	@Benchmark
+	public org.jivesoftware.smack.packet.Message transformAndAddXHTMLIM() {
+		org.jivesoftware.smack.packet.Message message = new org.jivesoftware.smack.packet.Message();
+		message.setBody(TransformMessageContent.toString(mMessage));
+		return XHTMLIMUtil.addXHTMLIM(message, TransformMessageContent.toFormatedText(mMessage));
+	}
+
+	@Benchmark
+	public Text textAddWithNewLines() {
+		return new Text().addWithNewLines(mString);
+	}
+}
@@ -0,0 +1,189 @@
+/*
+    This file is part of Project MAXS.
+
+    MAXS and its modules is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    MAXS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with MAXS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.projectmaxs.main.database;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.projectmaxs.shared.maintransport.CommandOrigin;
+
+/**
+ * Compares the command round trip, i.e. storing a command and looking up its origin when the reply
+ * arrives, of the former synchronous CommandTable with the cached write-behind path. The commands
+ * arrive in bursts of the given size. Runs against an on-disk SQLite database with the schema of
+ * {@link CommandTable}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CommandOriginBenchmark {
+
+	private static final String INSERT = "INSERT INTO commands (commandId, timestamp, command, "
+			+ "subcommand, args, orignPackage, originIntentAction, originIssuerInfo, originId) "
+			+ "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+	private static final String SELECT = "SELECT orignPackage, originIntentAction, "
+			+ "originIssuerInfo, originId FROM commands WHERE commandId = ?";
+
+	@Param({ "1", "16", "128" })
+	public int mBurstSize;
+
+	private File mDatabaseFile;
+	private Connection mConnection;
+	private PreparedStatement mInsert;
+	private PreparedStatement mSelect;
+	private CommandOriginCache mCache;
+	private int mNextId;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException, SQLException {
+		mDatabaseFile = File.createTempFile("maxs-commands", ".db");
+		mConnection = DriverManager.getConnection("jdbc:sqlite:" + mDatabaseFile);
+		Statement statement = mConnection.createStatement();
+		statement.execute(CommandTable.CREATE_TABLE);
+		statement.execute(CommandTable.CREATE_INDEX);
+		statement.close();
+		mInsert = mConnection.prepareStatement(INSERT);
+		mSelect = mConnection.prepareStatement(SELECT);
+		mCache = new CommandOriginCache(256);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws SQLException {
+		mConnection.close();
+		mDatabaseFile.delete();
+	}
+
+	/**
+	 * Every command is inserted within its own transaction, and every reply queries the database.
+	 */
+	@Benchmark
+	public int synchronousInsertAndLookup() throws SQLException {
+		final int first = mNextId;
+		for (int i = 0; i < mBurstSize; i++) {
+			insert(mNextId++);
+		}
+		int found = 0;
+		for (int id = first; id < mNextId; id++) {
+			if (lookup(id) != null) found++;
+		}
+		return found;
+	}
+
+	/**
+	 * The commands are cached and written within a single transaction, and the replies are served
+	 * from the cache. This is the work of the write-behind thread and the command path combined.
+	 */
+	@Benchmark
+	public int cachedWriteBehind() throws SQLException {
+		final int first = mNextId;
+		List<CommandTable.Entry> burst = new ArrayList<CommandTable.Entry>(mBurstSize);
+		for (int i = 0; i < mBurstSize; i++) {
+			CommandTable.Entry entry = new CommandTable.Entry(mNextId++, origin());
+			mCache.put(entry);
+			burst.add(entry);
+		}
+		mConnection.setAutoCommit(false);
+		try {
+			for (CommandTable.Entry entry : burst)
+				insert(entry.mId);
+			mConnection.commit();
+		} finally {
+			mConnection.setAutoCommit(true);
+		}
+		int found = 0;
+		for (int id = first; id < mNextId; id++) {
+			if (mCache.get(id) != null) found++;
+		}
+		return found;
+	}
+
+	/**
+	 * Only the command path of the cached write-behind variant, without the database write
+	 * performed by the write-behind thread.
+	 */
+	@Benchmark
+	public int cachedHotPath() {
+		final int first = mNextId;
+		for (int i = 0; i < mBurstSize; i++) {
+			mCache.put(new CommandTable.Entry(mNextId++, origin()));
+		}
+		int found = 0;
+		for (int id = first; id < mNextId; id++) {
+			if (mCache.get(id) != null) found++;
+		}
+		return found;
+	}
+
+	private void insert(int id) throws SQLException {
+		CommandOrigin origin = origin();
+		mInsert.setInt(1, id);
+		mInsert.setLong(2, System.currentTimeMillis());
+		mInsert.setString(3, "sms");
+		mInsert.setString(4, "send");
+		mInsert.setString(5, "Alice Hello, how are you?");
+		mInsert.setString(6, origin.getPackage());
+		mInsert.setString(7, origin.getIntentAction());
+		mInsert.setString(8, origin.getOriginIssuerInfo());
+		mInsert.setString(9, origin.getOriginId());
+		mInsert.executeUpdate();
+	}
+
+	private CommandOrigin lookup(int id) throws SQLException {
+		mSelect.setInt(1, id);
+		ResultSet rs = mSelect.executeQuery();
+		try {
+			if (!rs.next()) return null;
+			return new CommandOrigin(rs.getString(1), rs.getString(2), rs.getString(3),
+					rs.getString(4));
+		} finally {
+			rs.close();
+		}
+	}
+
+	private static CommandOrigin origin() {
+		return new CommandOrigin("org.projectmaxs.transport.xmpp",
+				"org.projectmaxs.transport.xmpp.ACTION_SEND_AS_MESSAGE",
+				"user@example.org/Smartphone", "thread-1");
+	}
+}
@@ -0,0 +1,105 @@
+/*
+    This file is part of Project MAXS.
+
+    MAXS and its modules is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    MAXS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with MAXS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.projectmaxs.module.shell;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.projectmaxs.module.shell.ShellSessionPool.Session;
+import org.projectmaxs.shared.global.util.Log;
+
+/**
+ * Compares the per-command overhead of running a trivial command in a pooled shell session with
+ * starting a new shell for every command, which the shell module did before the pool. /bin/sh
+ * stands in for the Android shell, starting su on a device is considerably more expensive.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ShellSessionPoolBenchmark {
+
+	private static final String[] SHELL = { "/bin/sh" };
+
+	private static final Log LOG = Log.getLog();
+
+	private static final ShellSessionPool.LineListener DISCARD =
+			new ShellSessionPool.LineListener() {
+		@Override
+		public void onLine(String line) {
+		}
+	};
+
+	private ShellSessionPool mPool;
+	private ShellSessionPool mUnpooled;
+
+	@Setup
+	public void setup() {
+		// Debug logging ends in android.util.Log, which requires the Android runtime
+		LOG.initialize(new Log.DebugLogSettings() {
+			@Override
+			public boolean isDebugLogEnabled() {
+				return false;
+			}
+		});
+		mPool = new ShellSessionPool(SHELL, SHELL);
+		mUnpooled = new ShellSessionPool(SHELL, SHELL);
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		// Close the idle session, the benchmark thread leaves at most one behind
+		mPool.acquire(false).close();
+		mPool.getScheduler().shutdownNow();
+		mUnpooled.getScheduler().shutdownNow();
+	}
+
+	@Benchmark
+	public int pooled() throws IOException {
+		Session session = mPool.acquire(false);
+		try {
+			return session.execute("true", DISCARD);
+		} finally {
+			mPool.release(session);
+		}
+	}
+
+	@Benchmark
+	public int unpooled() throws IOException {
+		// The session is never released, so every acquire starts a new shell
+		Session session = mUnpooled.acquire(false);
+		try {
+			return session.execute("true", DISCARD);
+		} finally {
+			session.close();
+		}
+	}
+}
@@ -0,0 +1,225 @@
+/*
+    This file is part of Project MAXS.
+
+    MAXS and its modules is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    MAXS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with MAXS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.projectmaxs.shared.global.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.channels.Channels;
+import java.nio.channels.Pipe;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Pushes a large file through local pipes, like an outgoing file transfer does, and reports the
+ * throughput and the number of started threads of the former and the current data path.
+ * <p>
+ * The module writes the file into the write side of a pipe, and Smack reads the data to send from
+ * an input stream. Formerly, a TransferThread copied the pipe into a PipedOutputStream, using 1
+ * KiB buffers, and Smack read the connected PipedInputStream. Now Smack reads the read side of the
+ * pipe directly, and the module writes with {@link TransferUtil}. Run with
+ * </p>
+ * 
+ * <pre>
+ * gradle fileTransferBenchmark -PsizeMiB=256 -Pruns=3
+ * </pre>
+ */
+public class FileTransferBenchmark {
+
+	private static final int LEGACY_BUFFER_SIZE = 1024;
+
+	/**
+	 * The buffer size Smack uses to read the stream of an outgoing file transfer.
+	 */
+	private static final int SMACK_BUFFER_SIZE = 8192;
+
+	private static final ThreadMXBean THREAD_MX_BEAN = ManagementFactory.getThreadMXBean();
+
+	public static void main(String[] args) throws Exception {
+		final int sizeMiB = args.length > 0 ? Integer.parseInt(args[0]) : 256;
+		final int runs = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+
+		File file = createFile(sizeMiB);
+		try {
+			for (int i = 0; i < runs; i++) {
+				report("legacy", file, legacyTransfer(file));
+				report("TransferUtil", file, transfer(file));
+			}
+		} finally {
+			file.delete();
+		}
+	}
+
+	private static File createFile(int sizeMiB) throws IOException {
+		File file = File.createTempFile("maxs-transfer", ".bin");
+		byte[] buf = new byte[1024 * 1024];
+		new Random(42).nextBytes(buf);
+		OutputStream out = new FileOutputStream(file);
+		try {
+			for (int i = 0; i < sizeMiB; i++)
+				out.write(buf);
+		} finally {
+			out.close();
+		}
+		return file;
+	}
+
+	private static Result legacyTransfer(final File file) throws Exception {
+		final long startedThreads = THREAD_MX_BEAN.getTotalStartedThreadCount();
+		final long start = System.nanoTime();
+
+		final Pipe pipe = Pipe.open();
+		final PipedInputStream smackIn = new PipedInputStream();
+		final PipedOutputStream pipedOut = new PipedOutputStream(smackIn);
+		// ParcelFileDescriptorUtil.pipeTo() started a TransferThread for every transfer
+		Thread transferThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				InputStream in = Channels.newInputStream(pipe.source());
+				try {
+					copy(in, pipedOut, LEGACY_BUFFER_SIZE);
+				} catch (IOException e) {
+					throw new IllegalStateException(e);
+				} finally {
+					TransferUtil.closeQuietly(in);
+					TransferUtil.closeQuietly(pipedOut);
+				}
+			}
+		}, "TransferThread");
+		transferThread.start();
+
+		Reader reader = new Reader(smackIn);
+		reader.start();
+		writeFile(file, Channels.newOutputStream(pipe.sink()), LEGACY_BUFFER_SIZE);
+		reader.join();
+		transferThread.join();
+
+		return new Result(reader.get(), System.nanoTime() - start,
+				THREAD_MX_BEAN.getTotalStartedThreadCount() - startedThreads);
+	}
+
+	private static Result transfer(File file) throws Exception {
+		final long startedThreads = THREAD_MX_BEAN.getTotalStartedThreadCount();
+		final long start = System.nanoTime();
+
+		final Pipe pipe = Pipe.open();
+		Reader reader = new Reader(Channels.newInputStream(pipe.source()));
+		reader.start();
+		writeFile(file, Channels.newOutputStream(pipe.sink()), TransferUtil.DEFAULT_BUFFER_SIZE);
+		reader.join();
+
+		return new Result(reader.get(), System.nanoTime() - start,
+				THREAD_MX_BEAN.getTotalStartedThreadCount() - startedThreads);
+	}
+
+	/**
+	 * Write the file like the fileread module does, within the calling thread.
+	 */
+	private static void writeFile(File file, OutputStream out, int bufferSize) throws IOException {
+		InputStream in = new FileInputStream(file);
+		try {
+			if (bufferSize == LEGACY_BUFFER_SIZE) {
+				copy(in, out, bufferSize);
+			} else {
+				TransferUtil.copy(in, out);
+			}
+		} finally {
+			in.close();
+			out.close();
+		}
+	}
+
+	private static long copy(InputStream in, OutputStream out, int bufferSize)
+			throws IOException {
+		byte[] buf = new byte[bufferSize];
+		long transferred = 0;
+		int len;
+		while ((len = in.read(buf)) > 0) {
+			out.write(buf, 0, len);
+			transferred += len;
+		}
+		out.flush();
+		return transferred;
+	}
+
+	private static void report(String path, File file, Result result) {
+		if (result.mBytes != file.length()) {
+			throw new IllegalStateException(path + ": transferred " + result.mBytes + " of "
+					+ file.length() + " bytes");
+		}
+		final double seconds = result.mNanos / 1e9;
+		System.out.println(String.format("%-12s %6d MiB in %6.2f s: %8.1f MiB/s, %d threads "
+				+ "started", path, result.mBytes / (1024 * 1024), seconds, result.mBytes
+				/ (1024.0 * 1024.0) / seconds, result.mStartedThreads));
+	}
+
+	/**
+	 * Reads the stream like Smack does when sending a file, without sending the data anywhere.
+	 */
+	private static class Reader extends Thread {
+		private final InputStream mIn;
+		private final AtomicLong mBytes = new AtomicLong();
+		private final AtomicReference<IOException> mException = new AtomicReference<IOException>();
+
+		Reader(InputStream in) {
+			super("Smack File Transfer");
+			mIn = in;
+		}
+
+		@Override
+		public void run() {
+			byte[] buf = new byte[SMACK_BUFFER_SIZE];
+			int len;
+			try {
+				while ((len = mIn.read(buf)) > 0) {
+					mBytes.addAndGet(len);
+				}
+			} catch (IOException e) {
+				mException.set(e);
+			} finally {
+				TransferUtil.closeQuietly(mIn);
+			}
+		}
+
+		long get() throws IOException {
+			IOException e = mException.get();
+			if (e != null) throw e;
+			return mBytes.get();
+		}
+	}
+
+	private static class Result {
+		final long mBytes;
+		final long mNanos;
+		final long mStartedThreads;
+
+		Result(long bytes, long nanos, long startedThreads) {
+			mBytes = bytes;
+			mNanos = nanos;
+			mStartedThreads = startedThreads;
+		}
+	}
+}
@@ -0,0 +1,93 @@
+/*
+    This file is part of Project MAXS.
+
+    MAXS and its modules is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    MAXS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with MAXS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.projectmaxs.shared.global.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares a package lookup via the InstalledPackageRegistry with the former approach, which
+ * retrieved the list of all installed packages for every lookup. The fake package source holds
+ * 400 packages, a typical number on a device, but does not include the cost of the IPC call.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InstalledPackageRegistryBenchmark {
+
+	private static final int PACKAGES = 400;
+
+	private InstalledPackageRegistry.PackageSource mPackageSource;
+	private InstalledPackageRegistry mRegistry;
+	private String mLookedUpPackage;
+	private int mLookup;
+
+	@Setup
+	public void setup() {
+		final List<String> packages = new ArrayList<String>(PACKAGES);
+		for (int i = 0; i < PACKAGES; i++) {
+			packages.add("com.example.vendor" + (i % 40) + ".app" + i);
+		}
+		packages.add("org.projectmaxs.module.smssend");
+		mPackageSource = new InstalledPackageRegistry.PackageSource() {
+			@Override
+			public Collection<String> getInstalledPackageNames() {
+				// The package manager creates a new list on every call
+				return new ArrayList<String>(packages);
+			}
+		};
+		mRegistry = new InstalledPackageRegistry(mPackageSource);
+		mLookedUpPackage = "org.projectmaxs.module.smssend";
+	}
+
+	@Benchmark
+	public boolean registryLookup() {
+		return mRegistry.isInstalled(mLookedUpPackage);
+	}
+
+	@Benchmark
+	public boolean registryLookupWithEvent() {
+		// A package event every 100 lookups
+		if (++mLookup % 100 == 0) mRegistry.onPackageAdded("com.example.new" + mLookup % 10);
+		return mRegistry.isInstalled(mLookedUpPackage);
+	}
+
+	@Benchmark
+	public boolean scanAllPackages() {
+		for (String packageName : mPackageSource.getInstalledPackageNames()) {
+			if (packageName.equals(mLookedUpPackage)) return true;
+		}
+		return false;
+	}
+}
@@ -0,0 +1,82 @@
+/*
+    This file is part of Project MAXS.
+
+    MAXS and its modules is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    MAXS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with MAXS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.projectmaxs.shared.global.util;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the cost of a debug log call while debug logging is disabled, which is the default.
+ * The former call sites concatenated the message before calling {@link Log#d(CharSequence)}, the
+ * parameterized variant only creates the argument array. Enabled debug logging is not measured,
+ * as it ends in android.util.Log, which requires the Android runtime.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LogBenchmark {
+
+	private static final Log LOG = Log.getLog(LogBenchmark.class);
+
+	private String mStanzaId;
+	private String mFrom;
+	private int mSize;
+
+	@Setup
+	public void setup() {
+		LOG.initialize(new Log.DebugLogSettings() {
+			@Override
+			public boolean isDebugLogEnabled() {
+				return false;
+			}
+		});
+		mStanzaId = "Xk3m9-42";
+		mFrom = "master@example.org/phone";
+		mSize = 1234;
+	}
+
+	@Benchmark
+	public void concatenated() {
+		LOG.d("processStanza: id=" + mStanzaId + " from=" + mFrom + " size=" + mSize);
+	}
+
+	@Benchmark
+	public void parameterized() {
+		LOG.d("processStanza: id={} from={} size={}", mStanzaId, mFrom, mSize);
+	}
+
+	@Benchmark
+	public void guarded() {
+		if (LOG.isDebugLogEnabled()) {
+			LOG.d("processStanza: id=" + mStanzaId + " from=" + mFrom + " size=" + mSize);
+		}
+	}
+}
@@ -0,0 +1,221 @@
+/*
+    This file is part of Project MAXS.
+
+    MAXS and its modules is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    MAXS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with MAXS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.projectmaxs.shared.global.util;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.projectmaxs.shared.global.Message;
+import org.projectmaxs.shared.global.aidl.IMAXSMessageChannel;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.content.Intent;
+import android.content.ServiceConnection;
+import android.os.IBinder;
+
+/**
+ * Compares the throughput, in messages per second, of sending a burst of replies one message per
+ * transaction, like the SEND_MESSAGE Intents do, with sending them over a {@link MessageChannel}.
+ * <p>
+ * The service is bound in process. Every transaction crosses a stand-in process boundary: the
+ * messages are marshalled by the caller, and unmarshalled and handled by a single service thread,
+ * while the caller waits for the transaction to complete.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageChannelBenchmark {
+
+	private static final int BURST = 256;
+
+	/**
+	 * The length of the message text, e.g. a notification or a SMS.
+	 */
+	@Param({ "60", "600" })
+	public int mLength;
+
+	private final List<Message> mMessages = new ArrayList<Message>(BURST);
+
+	private ExecutorService mServiceThread;
+	private LocalMessageChannelService mService;
+	private MessageChannel mChannel;
+
+	@Setup
+	public void setup() {
+		// android.util.Log requires the Android runtime
+		Log.getLog().initialize(new Log.DebugLogSettings() {
+			@Override
+			public boolean isDebugLogEnabled() {
+				return false;
+			}
+		});
+		StringBuilder sb = new StringBuilder(mLength);
+		while (sb.length() < mLength) {
+			sb.append("Notification from org.example.app ");
+		}
+		sb.setLength(mLength);
+		for (int i = 0; i < BURST; i++) {
+			mMessages.add(new Message(sb.toString()));
+		}
+		mServiceThread = Executors.newSingleThreadExecutor();
+		mService = new LocalMessageChannelService();
+		mChannel = new MessageChannel(new LocalServiceContext(mService), new Intent()) {
+			@Override
+			protected void sendViaIntent(Message message) {
+				throw new IllegalStateException("Message channel not used");
+			}
+		};
+	}
+
+	@TearDown
+	public void tearDown() {
+		mServiceThread.shutdown();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BURST)
+	public long single() throws InterruptedException, ExecutionException {
+		long handled = 0;
+		for (Message message : mMessages) {
+			handled += transaction(Collections.singletonList(message));
+		}
+		return handled;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BURST)
+	public long batched() throws InterruptedException {
+		final long target = mChannel.getDeliveredMessages() + BURST;
+		for (Message message : mMessages) {
+			mChannel.send(message);
+		}
+		return mService.awaitDelivered(target);
+	}
+
+	private int transaction(List<Message> messages) throws InterruptedException,
+			ExecutionException {
+		final List<byte[]> marshalled = new ArrayList<byte[]>(messages.size());
+		for (Message message : messages) {
+			marshalled.add(message.toBytes());
+		}
+		return mServiceThread.submit(new Callable<Integer>() {
+			@Override
+			public Integer call() {
+				int handled = 0;
+				for (byte[] bytes : marshalled) {
+					if (Message.fromBytes(bytes).isSuccess()) handled++;
+				}
+				return handled;
+			}
+		}).get();
+	}
+
+	private class LocalMessageChannelService implements IMAXSMessageChannel {
+		private long mDelivered;
+
+		@Override
+		public void deliver(List<Message> messages) {
+			try {
+				transaction(messages);
+			} catch (InterruptedException | ExecutionException e) {
+				throw new IllegalStateException(e);
+			}
+			synchronized (this) {
+				mDelivered += messages.size();
+				notifyAll();
+			}
+		}
+
+		@Override
+		public IBinder asBinder() {
+			return null;
+		}
+
+		private synchronized long awaitDelivered(long target) throws InterruptedException {
+			// The channel counts a batch as delivered only after deliver() returned
+			while (mDelivered < target || mChannel.getDeliveredMessages() < target) {
+				wait(1);
+			}
+			return mDelivered;
+		}
+	}
+
+	/**
+	 * A context binding the service in process. The binder only answers queryLocalInterface().
+	 */
+	private static class LocalServiceContext extends ContextWrapper {
+		private final IBinder mBinder;
+
+		private LocalServiceContext(final IMAXSMessageChannel service) {
+			super(null);
+			mBinder = (IBinder) Proxy.newProxyInstance(IBinder.class.getClassLoader(),
+					new Class<?>[] { IBinder.class }, new InvocationHandler() {
+						@Override
+						public Object invoke(Object proxy, Method method, Object[] args) {
+							if (method.getName().equals("queryLocalInterface")) return service;
+							if (method.getReturnType() == boolean.class) return true;
+							return null;
+						}
+					});
+		}
+
+		@Override
+		public Context getApplicationContext() {
+			return this;
+		}
+
+		@Override
+		public boolean bindService(Intent service, ServiceConnection conn, int flags) {
+			conn.onServiceConnected(new ComponentName("org.projectmaxs.benchmark", "Local"),
+					mBinder);
+			return true;
+		}
+
+		@Override
+		public void unbindService(ServiceConnection conn) {
+		}
+	}
+}
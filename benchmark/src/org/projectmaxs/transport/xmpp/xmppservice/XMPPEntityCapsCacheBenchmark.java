@@ -0,0 +1,220 @@
+/*
+    This file is part of Project MAXS.
+
+    MAXS and its modules is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    MAXS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with MAXS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.projectmaxs.transport.xmpp.xmppservice;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+
+import org.jivesoftware.smack.util.PacketParserUtils;
+import org.jivesoftware.smackx.disco.packet.DiscoverInfo;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.projectmaxs.shared.global.util.Log;
+import org.projectmaxs.transport.xmpp.database.XMPPEntityCapsTable;
+
+/**
+ * A presence storm after a reconnect: every contact sends its presence, and the contacts share a
+ * dozen caps nodes. Compares the former lookup, which queried the table and parsed the stored XML
+ * for every presence, with {@link XMPPEntityCapsCache} starting cold. Runs against an on-disk
+ * SQLite database with the schema of {@link XMPPEntityCapsTable}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class XMPPEntityCapsCacheBenchmark {
+
+	private static final int CAPS_NODES = 12;
+
+	private static final String INSERT = "INSERT OR IGNORE INTO xmppEntityCaps (node, timestamp) "
+			+ "VALUES (?, ?)";
+
+	private static final String SELECT = "SELECT timestamp FROM xmppEntityCaps WHERE node = ?";
+
+	@Param({ "100", "300" })
+	public int mContacts;
+
+	private File mXmlDatabaseFile;
+	private File mDatabaseFile;
+	private Connection mXmlConnection;
+	private Connection mConnection;
+	private PreparedStatement mXmlSelect;
+	private XMPPEntityCapsCache.Storage mStorage;
+	private XMPPEntityCapsCache mCache;
+
+	private String[] mPresenceNodes;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException, SQLException {
+		// android.util.Log requires the Android runtime
+		Log.getLog().initialize(new Log.DebugLogSettings() {
+			@Override
+			public boolean isDebugLogEnabled() {
+				return false;
+			}
+		});
+
+		mXmlDatabaseFile = File.createTempFile("maxs-caps-xml", ".db");
+		mXmlConnection = open(mXmlDatabaseFile);
+		mDatabaseFile = File.createTempFile("maxs-caps", ".db");
+		mConnection = open(mDatabaseFile);
+
+		PreparedStatement xmlInsert = mXmlConnection.prepareStatement(INSERT);
+		PreparedStatement insert = mConnection.prepareStatement(INSERT);
+		for (int i = 0; i < CAPS_NODES; i++) {
+			DiscoverInfo info = discoverInfo(i);
+			xmlInsert.setString(1, node(i));
+			xmlInsert.setString(2, info.toXML(null).toString());
+			xmlInsert.executeUpdate();
+			insert.setString(1, node(i));
+			insert.setString(2, XMPPEntityCapsCache.toStoredForm(info));
+			insert.executeUpdate();
+		}
+		xmlInsert.close();
+		insert.close();
+
+		mXmlSelect = mXmlConnection.prepareStatement(SELECT);
+		mStorage = new SqliteStorage(mConnection);
+
+		mPresenceNodes = new String[mContacts];
+		for (int i = 0; i < mContacts; i++) {
+			mPresenceNodes[i] = node(i % CAPS_NODES);
+		}
+	}
+
+	@Setup(Level.Invocation)
+	public void newCache() {
+		mCache = new XMPPEntityCapsCache(mStorage);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws SQLException {
+		mXmlConnection.close();
+		mConnection.close();
+		mXmlDatabaseFile.delete();
+		mDatabaseFile.delete();
+	}
+
+	/**
+	 * Every presence queries the table and parses the stored XML.
+	 */
+	@Benchmark
+	public int tableAndXmlParser() throws Exception {
+		int features = 0;
+		for (String node : mPresenceNodes) {
+			mXmlSelect.setString(1, node);
+			ResultSet rs = mXmlSelect.executeQuery();
+			try {
+				rs.next();
+				DiscoverInfo info = (DiscoverInfo) PacketParserUtils.parseStanza(rs.getString(1));
+				features += info.getFeatures().size();
+			} finally {
+				rs.close();
+			}
+		}
+		return features;
+	}
+
+	/**
+	 * Only the first presence of every caps node queries the table, the compact form is loaded
+	 * without the XML parser.
+	 */
+	@Benchmark
+	public int cache() {
+		int features = 0;
+		for (String node : mPresenceNodes) {
+			features += mCache.lookup(node).getFeatures().size();
+		}
+		return features;
+	}
+
+	private static Connection open(File file) throws SQLException {
+		Connection connection = DriverManager.getConnection("jdbc:sqlite:" + file);
+		Statement statement = connection.createStatement();
+		statement.execute(XMPPEntityCapsTable.CREATE_TABLE);
+		statement.close();
+		return connection;
+	}
+
+	private static String node(int number) {
+		return "http://example.org/client" + number + "#ver" + number;
+	}
+
+	private static DiscoverInfo discoverInfo(int number) {
+		DiscoverInfo info = new DiscoverInfo();
+		info.setNode(node(number));
+		info.addIdentity(new DiscoverInfo.Identity("client", "phone", "Client " + number, "en"));
+		for (int i = 0; i < 40; i++) {
+			info.addFeature("urn:xmpp:feature:" + number + ":" + i);
+		}
+		return info;
+	}
+
+	private static class SqliteStorage implements XMPPEntityCapsCache.Storage {
+		private final PreparedStatement mSelect;
+
+		SqliteStorage(Connection connection) throws SQLException {
+			mSelect = connection.prepareStatement(SELECT);
+		}
+
+		@Override
+		public void addDiscoverInfo(String node, String storedForm) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public String getDiscoverInfo(String node) {
+			try {
+				mSelect.setString(1, node);
+				ResultSet rs = mSelect.executeQuery();
+				try {
+					return rs.next() ? rs.getString(1) : null;
+				} finally {
+					rs.close();
+				}
+			} catch (SQLException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+
+		@Override
+		public void emptyTable() {
+			throw new UnsupportedOperationException();
+		}
+	}
+}
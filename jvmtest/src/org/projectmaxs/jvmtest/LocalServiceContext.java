@@ -0,0 +1,81 @@
+/*
+    This file is part of Project MAXS.
+
+    MAXS and its modules is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    MAXS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with MAXS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.projectmaxs.jvmtest;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.content.Intent;
+import android.content.ServiceConnection;
+import android.os.IBinder;
+import android.os.IInterface;
+
+/**
+ * A context binding every service in process to the given service interface. The binder handed to
+ * the service connection only answers queryLocalInterface() with the service.
+ */
+public class LocalServiceContext extends ContextWrapper {
+
+	private final IBinder mBinder;
+
+	private int mBindCount;
+
+	public LocalServiceContext(final IInterface service) {
+		super(null);
+		mBinder = (IBinder) Proxy.newProxyInstance(IBinder.class.getClassLoader(),
+				new Class<?>[] { IBinder.class }, new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) {
+						if (method.getName().equals("queryLocalInterface")) return service;
+						if (method.getReturnType() == boolean.class) return true;
+						return null;
+					}
+				});
+	}
+
+	public IBinder getBinder() {
+		return mBinder;
+	}
+
+	public synchronized int getBindCount() {
+		return mBindCount;
+	}
+
+	@Override
+	public Context getApplicationContext() {
+		return this;
+	}
+
+	@Override
+	public boolean bindService(Intent service, ServiceConnection conn, int flags) {
+		synchronized (this) {
+			mBindCount++;
+		}
+		conn.onServiceConnected(new ComponentName("org.projectmaxs.jvmtest", "LocalService"),
+				mBinder);
+		return true;
+	}
+
+	@Override
+	public void unbindService(ServiceConnection conn) {
+	}
+}
@@ -0,0 +1,57 @@
+/*
+    This file is part of Project MAXS.
+
+    MAXS and its modules is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    MAXS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with MAXS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.projectmaxs.jvmtest;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.robolectric.annotation.Implementation;
+import org.robolectric.annotation.Implements;
+import org.robolectric.shadows.ShadowParcelFileDescriptor;
+
+import android.os.ParcelFileDescriptor;
+
+/**
+ * Robolectric's ParcelFileDescriptor shadow backs a pipe with a regular file, which can not be
+ * read while it is written. This shadow creates a real pipe instead, using a named pipe.
+ */
+@Implements(ParcelFileDescriptor.class)
+public class ShadowPipeParcelFileDescriptor extends ShadowParcelFileDescriptor {
+
+	@Implementation
+	public static ParcelFileDescriptor[] createPipe() throws IOException {
+		File dir = Files.createTempDirectory("maxs-pipe").toFile();
+		File fifo = new File(dir, "pipe");
+		try {
+			Process mkfifo = new ProcessBuilder("mkfifo", fifo.getAbsolutePath()).start();
+			if (mkfifo.waitFor() != 0) throw new IOException("mkfifo failed");
+		} catch (InterruptedException e) {
+			throw new IOException(e);
+		}
+		// Open the write side first: The shadow opens it for reading and writing, which does not
+		// block. Opening the read side does not block either once there is a writer.
+		ParcelFileDescriptor writeSide = ParcelFileDescriptor.open(fifo,
+				ParcelFileDescriptor.MODE_WRITE_ONLY);
+		ParcelFileDescriptor readSide = ParcelFileDescriptor.open(fifo,
+				ParcelFileDescriptor.MODE_READ_ONLY);
+		fifo.delete();
+		dir.delete();
+		return new ParcelFileDescriptor[] { readSide, writeSide };
+	}
+}
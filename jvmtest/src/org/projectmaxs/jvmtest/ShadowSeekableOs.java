@@ -0,0 +1,54 @@
+/*
+    This file is part of Project MAXS.
+
+    MAXS and its modules is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    MAXS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with MAXS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.projectmaxs.jvmtest;
+
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+import org.robolectric.annotation.Implementation;
+import org.robolectric.annotation.Implements;
+
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
+
+/**
+ * Robolectric's Os ignores lseek(). This shadow sets the offset of the descriptor through a file
+ * channel. Only SEEK_SET is supported.
+ */
+@Implements(Os.class)
+public class ShadowSeekableOs {
+
+	@Implementation
+	public static long lseek(FileDescriptor fd, long offset, int whence) throws ErrnoException {
+		if (whence != OsConstants.SEEK_SET) throw new ErrnoException("lseek", OsConstants.EINVAL);
+		// The stream must not close the descriptor once it gets finalized
+		FileInputStream stream = new FileInputStream(fd) {
+			@Override
+			protected void finalize() {
+			}
+		};
+		try {
+			stream.getChannel().position(offset);
+		} catch (IOException e) {
+			throw new ErrnoException("lseek", OsConstants.EIO, e);
+		}
+		return offset;
+	}
+}
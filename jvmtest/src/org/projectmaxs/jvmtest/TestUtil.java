@@ -0,0 +1,74 @@
+/*
+    This file is part of Project MAXS.
+
+    MAXS and its modules is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    MAXS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with MAXS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.projectmaxs.jvmtest;
+
+import java.lang.reflect.Field;
+
+public class TestUtil {
+
+	/**
+	 * Reset the static singleton field of the given class. Robolectric closes the databases after
+	 * every test, so singletons holding a database must not survive into the next test.
+	 * 
+	 * @param clazz
+	 * @param fieldName
+	 */
+	public static void resetSingleton(Class<?> clazz, String fieldName) {
+		setSingleton(clazz, fieldName, null);
+	}
+
+	/**
+	 * Set the static singleton field of the given class, e.g. to an instance using a fake
+	 * dependency.
+	 * 
+	 * @param clazz
+	 * @param fieldName
+	 * @param instance
+	 */
+	public static void setSingleton(Class<?> clazz, String fieldName, Object instance) {
+		try {
+			Field field = clazz.getDeclaredField(fieldName);
+			field.setAccessible(true);
+			field.set(null, instance);
+		} catch (NoSuchFieldException e) {
+			throw new IllegalStateException(e);
+		} catch (IllegalAccessException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Get the static singleton field of the given class.
+	 * 
+	 * @param clazz
+	 * @param fieldName
+	 * @return the singleton instance or null
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> T getSingleton(Class<T> clazz, String fieldName) {
+		try {
+			Field field = clazz.getDeclaredField(fieldName);
+			field.setAccessible(true);
+			return (T) field.get(null);
+		} catch (NoSuchFieldException e) {
+			throw new IllegalStateException(e);
+		} catch (IllegalAccessException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
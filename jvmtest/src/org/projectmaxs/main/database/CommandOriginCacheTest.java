@@ -0,0 +1,100 @@
+/*
+    This file is part of Project MAXS.
+
+    MAXS and its modules is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    MAXS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with MAXS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.projectmaxs.main.database;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+import org.projectmaxs.shared.maintransport.CommandOrigin;
+
+public class CommandOriginCacheTest {
+
+	private static CommandTable.Entry entry(int id) {
+		return new CommandTable.Entry(id, new CommandOrigin("org.projectmaxs.transport.xmpp",
+				"ACTION", "user@example.org/resource", "origin-" + id));
+	}
+
+	@Test
+	public void getReturnsPutEntry() {
+		CommandOriginCache cache = new CommandOriginCache(4);
+		CommandTable.Entry entry = entry(1);
+		cache.put(entry);
+		assertSame(entry, cache.get(1));
+		assertNull(cache.get(2));
+		assertEquals(1, cache.getHits());
+		assertEquals(1, cache.getMisses());
+	}
+
+	@Test
+	public void evictsLeastRecentlyUsed() {
+		CommandOriginCache cache = new CommandOriginCache(3);
+		cache.put(entry(1));
+		cache.put(entry(2));
+		cache.put(entry(3));
+		// Access 1, so that 2 is the least recently used entry
+		cache.get(1);
+		cache.put(entry(4));
+		assertEquals(3, cache.size());
+		assertNull(cache.get(2));
+		assertEquals(1, cache.get(1).mId);
+		assertEquals(3, cache.get(3).mId);
+		assertEquals(4, cache.get(4).mId);
+	}
+
+	@Test
+	public void putReplacesEntryWithSameId() {
+		CommandOriginCache cache = new CommandOriginCache(2);
+		cache.put(entry(1));
+		CommandTable.Entry replacement = entry(1);
+		cache.put(replacement);
+		assertEquals(1, cache.size());
+		assertSame(replacement, cache.get(1));
+	}
+
+	@Test
+	public void removeAndClear() {
+		CommandOriginCache cache = new CommandOriginCache(10);
+		for (int i = 0; i < 5; i++)
+			cache.put(entry(i));
+		cache.remove(new int[] { 0, 2, 42 });
+		assertEquals(3, cache.size());
+		assertNull(cache.get(0));
+		assertNull(cache.get(2));
+		cache.clear();
+		assertEquals(0, cache.size());
+	}
+
+	@Test
+	public void burstLargerThanCacheKeepsMostRecent() {
+		final int size = 256;
+		CommandOriginCache cache = new CommandOriginCache(size);
+		for (int i = 0; i < 10 * size; i++)
+			cache.put(entry(i));
+		assertEquals(size, cache.size());
+		for (int i = 9 * size; i < 10 * size; i++)
+			assertEquals(i, cache.get(i).mId);
+		assertNull(cache.get(9 * size - 1));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsZeroSize() {
+		new CommandOriginCache(0);
+	}
+}
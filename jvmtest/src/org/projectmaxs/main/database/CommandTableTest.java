@@ -0,0 +1,175 @@
+/*
+    This file is part of Project MAXS.
+
+    MAXS and its modules is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    MAXS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with MAXS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.projectmaxs.main.database;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.projectmaxs.jvmtest.TestUtil;
+import org.projectmaxs.shared.maintransport.CommandOrigin;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27, manifest = Config.NONE)
+public class CommandTableTest {
+
+	private CommandTable mCommandTable;
+
+	@Before
+	public void setUp() {
+		TestUtil.resetSingleton(MAXSDatabase.class, "sMAXSDatabase");
+		TestUtil.resetSingleton(CommandTable.class, "sCommandTable");
+		mCommandTable = CommandTable.getInstance(RuntimeEnvironment.application);
+	}
+
+	private static CommandOrigin origin(int i) {
+		return new CommandOrigin("org.projectmaxs.transport.xmpp", "ACTION_" + i, "issuer-" + i,
+				"origin-" + i);
+	}
+
+	@Test
+	public void entryIsAvailableBeforeWriteBehind() {
+		mCommandTable.addCommand(1, "sms", "send", "foo", origin(1));
+		CommandTable.Entry entry = mCommandTable.geEntry(1);
+		assertEquals("ACTION_1", entry.mOrigin.getIntentAction());
+		assertNull(mCommandTable.geEntry(2));
+		assertNull(mCommandTable.geEntry(-1));
+	}
+
+	@Test
+	public void burstIsPersisted() {
+		final int count = 1000;
+		for (int i = 0; i < count; i++)
+			mCommandTable.addCommand(i, "cmd", "sub", "args " + i, origin(i));
+		// Queries flush the pending inserts first
+		assertEquals(count, mCommandTable.getEntryCount());
+		CommandTable.FullEntry entry = (CommandTable.FullEntry) mCommandTable.getFullEntry(42);
+		assertEquals("args 42", entry.mArgs);
+		assertEquals("ACTION_42", entry.mOrigin.getIntentAction());
+		assertEquals("issuer-42", mCommandTable.getOrigin(42).getOriginIssuerInfo());
+	}
+
+	@Test
+	public void entryIsLoadedFromDatabaseAfterPurgeOfCache() {
+		mCommandTable.addCommand(7, "cmd", null, null, origin(7));
+		assertEquals(1, mCommandTable.getEntryCount());
+		// Recreate the table instance, so that the origin cache is empty
+		TestUtil.resetSingleton(CommandTable.class, "sCommandTable");
+		CommandTable commandTable = CommandTable.getInstance(RuntimeEnvironment.application);
+		assertEquals("origin-7", commandTable.geEntry(7).mOrigin.getOriginId());
+	}
+
+	@Test
+	public void purgedEntriesAreRemovedFromCache() {
+		for (int i = 0; i < 10; i++)
+			mCommandTable.addCommand(i, "cmd", null, null, origin(i));
+		assertEquals(3, mCommandTable.purgeEntries(new int[] { 1, 2, 3 }));
+		assertNull(mCommandTable.geEntry(2));
+		assertEquals(7, mCommandTable.getEntryCount());
+	}
+
+	private static final int HISTORY = 50000;
+	private static final long SECOND = 1000;
+	private static final long START = 1500000000000L;
+
+	/**
+	 * Add a large command history, command i is issued i seconds after START.
+	 */
+	private void addHistory() {
+		for (int i = 0; i < HISTORY; i++)
+			mCommandTable.addCommand(i, "cmd", null, null, origin(i), START + i * SECOND);
+	}
+
+	/**
+	 * Assert that exactly the commands from first to end (exclusive) remain.
+	 */
+	private void assertRemaining(int first, int end) {
+		assertEquals(end - first, mCommandTable.getEntryCount());
+		// The origin cache must not answer for purged commands
+		assertNull(mCommandTable.geEntry(first - 1));
+		assertNotNull(mCommandTable.getFullEntry(first));
+		assertNotNull(mCommandTable.getFullEntry(end - 1));
+	}
+
+	@Test
+	public void purgeByAge() {
+		addHistory();
+		final long now = START + HISTORY * SECOND;
+		CommandTable.PurgeReport report = mCommandTable.purge(20000 * SECOND, 0, now);
+
+		assertEquals(30000, report.mRemoved);
+		assertEquals(30000, report.mCommandIds.length);
+		assertEquals(20000, report.mRemaining);
+		assertRemaining(30000, HISTORY);
+	}
+
+	@Test
+	public void purgeByCount() {
+		addHistory();
+		CommandTable.PurgeReport report = mCommandTable.purge(0, 1000, START + HISTORY * SECOND);
+
+		assertEquals(HISTORY - 1000, report.mRemoved);
+		assertEquals(1000, report.mRemaining);
+		assertRemaining(HISTORY - 1000, HISTORY);
+	}
+
+	@Test
+	public void purgeByAgeAndCount() {
+		addHistory();
+		final long now = START + HISTORY * SECOND;
+		// The age limit removes more than the count limit
+		CommandTable.PurgeReport report = mCommandTable.purge(100 * SECOND, 1000, now);
+		assertEquals(HISTORY - 100, report.mRemoved);
+		assertRemaining(HISTORY - 100, HISTORY);
+
+		// The count limit removes more than the age limit
+		report = mCommandTable.purge(100 * SECOND, 10, now);
+		assertEquals(90, report.mRemoved);
+		assertRemaining(HISTORY - 10, HISTORY);
+	}
+
+	@Test
+	public void purgeWithoutLimitsKeepsEverything() {
+		addHistory();
+		CommandTable.PurgeReport report = mCommandTable.purge(0, 0, START + HISTORY * SECOND);
+		assertEquals(0, report.mRemoved);
+		assertEquals(HISTORY, report.mRemaining);
+
+		report = mCommandTable.purge(HISTORY * SECOND, HISTORY, START + HISTORY * SECOND);
+		assertEquals(0, report.mRemoved);
+		assertEquals(0, report.mCommandIds.length);
+		assertEquals(HISTORY, report.mRemaining);
+	}
+
+	@Test
+	public void purgeIncludesPendingInserts() {
+		for (int i = 0; i < 10; i++)
+			mCommandTable.addCommand(i, "cmd", null, null, origin(i), START + i * SECOND);
+		CommandTable.PurgeReport report = mCommandTable.purge(0, 5, START + 10 * SECOND);
+		assertEquals(5, report.mRemoved);
+		assertTrue(report.toString().startsWith("Purged 5 of 5 commands in "));
+		assertRemaining(5, 10);
+	}
+}
@@ -0,0 +1,104 @@
+/*
+    This file is part of Project MAXS.
+
+    MAXS and its modules is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    MAXS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with MAXS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.projectmaxs.main.database;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.sql.Timestamp;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.projectmaxs.jvmtest.TestUtil;
+import org.projectmaxs.main.util.Constants;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27, manifest = Config.NONE)
+public class MAXSDatabaseTest {
+
+	// The commands table of database version 2, which stored the timestamps as text
+	private static final String CREATE_COMMANDS_V2 = "CREATE TABLE commands (commandId INTEGER "
+			+ "PRIMARY KEY, timestamp TIMESTAMP NOT NULL, command TEXT NOT NULL, subcommand TEXT, "
+			+ "args TEXT, orignPackage TEXT NOT NULL, originIntentAction TEXT NOT NULL, "
+			+ "originIssuerInfo TEXT NOT NULL, originId TEXT)";
+
+	private static final long START = 1500000000123L;
+
+	@Before
+	public void setUp() {
+		TestUtil.resetSingleton(MAXSDatabase.class, "sMAXSDatabase");
+		TestUtil.resetSingleton(CommandTable.class, "sCommandTable");
+	}
+
+	@Test
+	public void upgradeFromVersion2KeepsCommands() {
+		File path = RuntimeEnvironment.application.getDatabasePath(Constants.MAIN_PACKAGE + ".db");
+		path.getParentFile().mkdirs();
+		SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(path, null);
+		db.execSQL(CREATE_COMMANDS_V2);
+		for (int i = 0; i < 100; i++) {
+			db.execSQL("INSERT INTO commands VALUES (?, ?, 'cmd', NULL, 'args " + i
+					+ "', 'pkg', 'action', 'issuer', NULL)", new Object[] { i,
+					new Timestamp(START + i * 1000L).toString() });
+		}
+		db.execSQL("INSERT INTO commands VALUES (100, 'garbage', 'cmd', NULL, NULL, 'pkg', "
+				+ "'action', 'issuer', NULL)");
+		db.setVersion(2);
+		db.close();
+
+		CommandTable commandTable = CommandTable.getInstance(RuntimeEnvironment.application);
+		assertEquals(101, commandTable.getEntryCount());
+		for (int i = 0; i < 100; i++) {
+			CommandTable.FullEntry entry = (CommandTable.FullEntry) commandTable.getFullEntry(i);
+			assertEquals("args " + i, entry.mArgs);
+			assertEquals(START + i * 1000L, entry.mTimestamp.getTime());
+		}
+
+		SQLiteDatabase upgraded = MAXSDatabase.getInstance(RuntimeEnvironment.application)
+				.getWritableDatabase();
+		assertEquals(3, upgraded.getVersion());
+		assertEquals(101, DatabaseUtils.longForQuery(upgraded,
+				"SELECT COUNT(*) FROM commands WHERE typeof(timestamp) = 'integer'", null));
+		assertEquals(1, DatabaseUtils.longForQuery(upgraded,
+				"SELECT COUNT(*) FROM sqlite_master WHERE type = 'index' AND tbl_name = 'commands' "
+						+ "AND name = 'commands_timestamp'", null));
+		Cursor c = upgraded.rawQuery("EXPLAIN QUERY PLAN SELECT commandId FROM commands WHERE "
+				+ "timestamp < 1", null);
+		try {
+			assertTrue(c.moveToFirst());
+			String plan = c.getString(c.getColumnIndexOrThrow("detail"));
+			assertTrue(plan, plan.contains("commands_timestamp"));
+		} finally {
+			c.close();
+		}
+
+		// The unparseable timestamp became 0 and the command is purged by age
+		CommandTable.PurgeReport report = commandTable.purge(1000, 0, START);
+		assertEquals(1, report.mRemoved);
+		assertEquals(100, report.mRemaining);
+	}
+}
@@ -0,0 +1,66 @@
+/*
+    This file is part of Project MAXS.
+
+    MAXS and its modules is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    MAXS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with MAXS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.projectmaxs.main.misc;
+
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.projectmaxs.shared.global.util.LogBuffer;
+import org.projectmaxs.shared.transport.transform.TransformMessageContent;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27, manifest = Config.NONE)
+public class ComposeStatusTest {
+
+	@Before
+	public void clearLogBuffer() {
+		LogBuffer.getInstance().clear();
+	}
+
+	private static String getLog(String transportLog) {
+		return TransformMessageContent.toString(ComposeStatus.getStatus("log", transportLog));
+	}
+
+	@Test
+	public void logContainsMainAndTransportLog() {
+		LogBuffer.getInstance().add('I', "MAXS/MAXSService", "performCommand: maxs log");
+		String log = getLog("12:00:00.000 D/MAXS/XMPPTCPConnection: SENT (0): <iq/>\n"
+				+ "12:00:00.100 D/MAXS/XMPPTCPConnection: RECV (0): <iq/>\n");
+
+		int main = log.indexOf("main");
+		int mainLine = log.indexOf("I/MAXS/MAXSService: performCommand: maxs log");
+		int transport = log.indexOf("transport");
+		int sent = log.indexOf("D/MAXS/XMPPTCPConnection: SENT (0): <iq/>");
+		int received = log.indexOf("D/MAXS/XMPPTCPConnection: RECV (0): <iq/>");
+		assertTrue(log, main != -1 && main < mainLine);
+		assertTrue(log, mainLine < transport);
+		assertTrue(log, transport < sent);
+		assertTrue(log, sent < received);
+	}
+
+	@Test
+	public void missingTransportLogIsReported() {
+		String log = getLog(null);
+		assertTrue(log, log.contains("Log buffer is empty"));
+		assertTrue(log, log.contains("The transport did not provide its log"));
+	}
+}
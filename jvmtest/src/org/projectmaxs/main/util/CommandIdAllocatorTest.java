@@ -0,0 +1,248 @@
+/*
+    This file is part of Project MAXS.
+
+    MAXS and its modules is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    MAXS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with MAXS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.projectmaxs.main.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class CommandIdAllocatorTest {
+
+	private static final int THREADS = 8;
+	private static final int IDS_PER_THREAD = 10000;
+
+	/**
+	 * An in-memory lease store. It can simulate a crash: once crashed, every write fails, as if
+	 * the process died before the lease end was persisted.
+	 */
+	private static class TestLeaseStore implements CommandIdAllocator.LeaseStore {
+		volatile int mLeaseEnd;
+		final AtomicInteger mWrites = new AtomicInteger();
+		final AtomicBoolean mWriting = new AtomicBoolean();
+		volatile int mCrashAtWrite = -1;
+
+		TestLeaseStore(int leaseEnd) {
+			mLeaseEnd = leaseEnd;
+		}
+
+		@Override
+		public int readLeaseEnd() {
+			return mLeaseEnd;
+		}
+
+		@Override
+		public void writeLeaseEnd(int leaseEnd) {
+			if (!mWriting.compareAndSet(false, true)) fail("Concurrent writes");
+			try {
+				int write = mWrites.incrementAndGet();
+				if (mCrashAtWrite != -1 && write >= mCrashAtWrite) {
+					throw new IllegalStateException("Crashed");
+				}
+				if (leaseEnd <= mLeaseEnd) fail("Lease end not increasing: " + leaseEnd);
+				// Widen the window for races between the threads
+				Thread.yield();
+				mLeaseEnd = leaseEnd;
+			} finally {
+				mWriting.set(false);
+			}
+		}
+	}
+
+	@Test
+	public void sequentialIds() {
+		TestLeaseStore store = new TestLeaseStore(0);
+		CommandIdAllocator allocator = new CommandIdAllocator(store);
+		for (int i = 0; i < 1000; i++) {
+			assertEquals(i, allocator.nextId());
+			// The lease end is persisted before an ID of the block is handed out
+			assertTrue(i < store.mLeaseEnd);
+		}
+		assertEquals(1000 / CommandIdAllocator.DEFAULT_BLOCK_SIZE, store.mWrites.get());
+		assertEquals(1000, store.mLeaseEnd);
+	}
+
+	@Test
+	public void invalidBlockSize() {
+		try {
+			new CommandIdAllocator(new TestLeaseStore(0), 0);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void restartSkipsTheRestOfTheBlock() {
+		TestLeaseStore store = new TestLeaseStore(0);
+		CommandIdAllocator allocator = new CommandIdAllocator(store, 100);
+		for (int i = 0; i < 150; i++)
+			allocator.nextId();
+
+		// The process is killed, the IDs 150 to 199 were leased but never handed out
+		allocator = new CommandIdAllocator(store, 100);
+		assertEquals(200, allocator.nextId());
+		assertEquals(300, store.mLeaseEnd);
+	}
+
+	@Test
+	public void crashWhileLeasingNeverReusesIds() {
+		TestLeaseStore store = new TestLeaseStore(0);
+		CommandIdAllocator allocator = new CommandIdAllocator(store, 10);
+		int last = -1;
+		for (int crashAtWrite : new int[] { 1, 3, 4, 10 }) {
+			store.mWrites.set(0);
+			store.mCrashAtWrite = crashAtWrite;
+			try {
+				while (true) {
+					int id = allocator.nextId();
+					assertTrue(id > last);
+					assertTrue(id < store.mLeaseEnd);
+					last = id;
+				}
+			} catch (IllegalStateException e) {
+				assertEquals("Crashed", e.getMessage());
+			}
+			// The failed lease was not persisted, the allocator keeps failing instead of handing
+			// out IDs beyond the persisted lease end
+			try {
+				allocator.nextId();
+				fail();
+			} catch (IllegalStateException e) {
+				// expected
+			}
+
+			// Restart
+			store.mCrashAtWrite = -1;
+			allocator = new CommandIdAllocator(store, 10);
+			int id = allocator.nextId();
+			assertTrue(id > last);
+			last = id;
+		}
+	}
+
+	@Test
+	public void exhaustion() {
+		TestLeaseStore store = new TestLeaseStore(Integer.MAX_VALUE - 150);
+		CommandIdAllocator allocator = new CommandIdAllocator(store, 100);
+		for (int i = 0; i < 100; i++)
+			assertEquals(Integer.MAX_VALUE - 150 + i, allocator.nextId());
+		try {
+			allocator.nextId();
+			fail();
+		} catch (IllegalStateException e) {
+			assertEquals("Command IDs exhausted", e.getMessage());
+		}
+		assertEquals(Integer.MAX_VALUE - 50, store.mLeaseEnd);
+	}
+
+	/**
+	 * Let THREADS threads allocate IDS_PER_THREAD IDs each. Every thread checks that its IDs
+	 * increase and are leased, the returned IDs of all threads are collected.
+	 */
+	private static BitSet allocateConcurrently(final CommandIdAllocator allocator,
+			final TestLeaseStore store, final int idsPerThread) throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+		final CountDownLatch start = new CountDownLatch(1);
+		List<Future<List<Integer>>> futures = new ArrayList<Future<List<Integer>>>();
+		try {
+			for (int t = 0; t < THREADS; t++) {
+				futures.add(executor.submit(new Callable<List<Integer>>() {
+					@Override
+					public List<Integer> call() throws Exception {
+						start.await();
+						List<Integer> ids = new ArrayList<Integer>(idsPerThread);
+						for (int i = 0; i < idsPerThread; i++) {
+							final int id;
+							try {
+								id = allocator.nextId();
+							} catch (IllegalStateException e) {
+								break;
+							}
+							if (!ids.isEmpty() && id <= ids.get(ids.size() - 1)) {
+								fail("IDs not increasing");
+							}
+							if (id >= store.mLeaseEnd) fail("ID not leased: " + id);
+							ids.add(id);
+						}
+						return ids;
+					}
+				}));
+			}
+			start.countDown();
+
+			BitSet res = new BitSet();
+			for (Future<List<Integer>> future : futures) {
+				for (int id : future.get()) {
+					assertFalse("Duplicate ID " + id, res.get(id));
+					res.set(id);
+				}
+			}
+			return res;
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void concurrentAllocation() throws Exception {
+		TestLeaseStore store = new TestLeaseStore(0);
+		CommandIdAllocator allocator = new CommandIdAllocator(store);
+		BitSet ids = allocateConcurrently(allocator, store, IDS_PER_THREAD);
+
+		final int total = THREADS * IDS_PER_THREAD;
+		assertEquals(total, ids.cardinality());
+		// No gaps without a restart, and exactly one write per block
+		assertEquals(total, ids.nextClearBit(0));
+		assertEquals(total / CommandIdAllocator.DEFAULT_BLOCK_SIZE, store.mWrites.get());
+		assertEquals(total, store.mLeaseEnd);
+	}
+
+	@Test
+	public void concurrentAllocationWithCrash() throws Exception {
+		TestLeaseStore store = new TestLeaseStore(0);
+		store.mCrashAtWrite = 300;
+		CommandIdAllocator allocator = new CommandIdAllocator(store);
+		BitSet before = allocateConcurrently(allocator, store, IDS_PER_THREAD);
+		// Every thread stopped at the crash, the IDs up to the last persisted lease end were
+		// handed out
+		assertEquals(299 * CommandIdAllocator.DEFAULT_BLOCK_SIZE, before.cardinality());
+		assertEquals(before.cardinality(), store.mLeaseEnd);
+
+		// Restart, the new IDs must not overlap with the IDs handed out before the crash
+		store.mCrashAtWrite = -1;
+		allocator = new CommandIdAllocator(store);
+		BitSet after = allocateConcurrently(allocator, store, IDS_PER_THREAD);
+		assertEquals(THREADS * IDS_PER_THREAD, after.cardinality());
+		assertEquals(before.length(), after.nextSetBit(0));
+		assertFalse(before.intersects(after));
+	}
+}
@@ -0,0 +1,195 @@
+/*
+    This file is part of Project MAXS.
+
+    MAXS and its modules is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    MAXS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with MAXS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.projectmaxs.module.fileread;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.projectmaxs.jvmtest.ShadowPipeParcelFileDescriptor;
+import org.projectmaxs.jvmtest.ShadowSeekableOs;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import android.os.ParcelFileDescriptor;
+
+/**
+ * Reads files from 0 bytes up to several hundred MiB and checks their content, and that reading
+ * them does not require heap proportional to the file size.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27, manifest = Config.NONE, shadows = { ShadowPipeParcelFileDescriptor.class,
+		ShadowSeekableOs.class })
+public class FileReadUtilTest {
+
+	private static final long MiB = 1024 * 1024;
+
+	private static final long LARGE_FILE_SIZE = 300 * MiB;
+
+	/**
+	 * The maximum growth of the tenured heap while reading a large file. A whole-file buffer would
+	 * exceed it by far.
+	 */
+	private static final long MAX_TENURED_GROWTH = 32 * MiB;
+
+	@Rule
+	public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+	/**
+	 * The content of the test files, a function of the position that is not periodic within a
+	 * buffer size, so that misplaced ranges are detected.
+	 */
+	private static byte expected(long position) {
+		return (byte) (position ^ (position >>> 9) ^ (position >>> 17) * 7);
+	}
+
+	private File createFile(long size) throws IOException {
+		File file = mTemporaryFolder.newFile(size + ".bin");
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 64 * 1024);
+		try {
+			for (long i = 0; i < size; i++)
+				out.write(expected(i));
+		} finally {
+			out.close();
+		}
+		return file;
+	}
+
+	/**
+	 * Read the descriptor until its end, checking every byte.
+	 * 
+	 * @return the number of read bytes
+	 */
+	private static long readAndVerify(ParcelFileDescriptor pfd, long offset) throws IOException {
+		InputStream in = new ParcelFileDescriptor.AutoCloseInputStream(pfd);
+		byte[] buf = new byte[64 * 1024];
+		long position = offset;
+		try {
+			int len;
+			while ((len = in.read(buf)) > 0) {
+				for (int i = 0; i < len; i++) {
+					if (buf[i] != expected(position)) {
+						throw new AssertionError("Unexpected byte at position " + position);
+					}
+					position++;
+				}
+			}
+		} finally {
+			in.close();
+		}
+		return position - offset;
+	}
+
+	private static void assertReads(File file, long offset, long length, long expectedLength)
+			throws IOException {
+		ParcelFileDescriptor pfd = FileReadUtil.openFile(file, offset, length);
+		assertEquals(expectedLength, readAndVerify(pfd, offset));
+	}
+
+	@Test
+	public void readsSmallFiles() throws IOException {
+		for (long size : new long[] { 0, 1, 4095, 4096, 64 * 1024 + 1, MiB + 3 }) {
+			File file = createFile(size);
+			assertReads(file, 0, -1, size);
+			assertReads(file, size / 2, -1, size - size / 2);
+			assertReads(file, 0, size / 3, size / 3);
+			assertReads(file, size / 3, size / 3, size / 3);
+			// The range is limited by the end of the file
+			assertReads(file, size / 2, size, size - size / 2);
+			assertReads(file, size, -1, 0);
+		}
+	}
+
+	@Test
+	public void readFileBytesReturnsContent() throws IOException {
+		File file = createFile(100 * 1024 + 7);
+		byte[] bytes = FileReadUtil.readFileBytes(file);
+		byte[] expected = new byte[(int) file.length()];
+		for (int i = 0; i < expected.length; i++)
+			expected[i] = expected(i);
+		assertArrayEquals(expected, bytes);
+	}
+
+	@Test(expected = IOException.class)
+	public void rejectsOffsetBeyondEnd() throws IOException {
+		File file = createFile(10);
+		FileReadUtil.openFile(file, 11, -1);
+	}
+
+	@Test
+	public void readsLargeFileWithConstantMemory() throws IOException {
+		File file = createFile(LARGE_FILE_SIZE);
+
+		resetTenuredPeakUsage();
+		final long before = tenuredUsage();
+		assertReads(file, 0, -1, LARGE_FILE_SIZE);
+		// Tail and resume, i.e. a range at the end and a range in the middle
+		assertReads(file, LARGE_FILE_SIZE - MiB, -1, MiB);
+		assertReads(file, 100 * MiB, 150 * MiB, 150 * MiB);
+		final long growth = tenuredPeakUsage() - before;
+
+		assertTrue("Tenured heap grew by " + growth / MiB + " MiB", growth < MAX_TENURED_GROWTH);
+	}
+
+	private static void resetTenuredPeakUsage() {
+		System.gc();
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (isTenured(pool)) pool.resetPeakUsage();
+		}
+	}
+
+	private static long tenuredUsage() {
+		long res = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (isTenured(pool)) res += pool.getUsage().getUsed();
+		}
+		return res;
+	}
+
+	private static long tenuredPeakUsage() {
+		long res = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (isTenured(pool)) res += pool.getPeakUsage().getUsed();
+		}
+		return res;
+	}
+
+	/**
+	 * Large arrays, like a whole-file buffer, are allocated in the tenured generation. Unlike the
+	 * young generation, it does not fill up with the garbage of short lived objects.
+	 */
+	private static boolean isTenured(MemoryPoolMXBean pool) {
+		final String name = pool.getName();
+		return pool.getType() == MemoryType.HEAP && !name.contains("Eden")
+				&& !name.contains("Survivor");
+	}
+}
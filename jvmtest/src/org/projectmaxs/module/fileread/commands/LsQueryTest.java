@@ -0,0 +1,300 @@
+/*
+    This file is part of Project MAXS.
+
+    MAXS and its modules is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    MAXS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with MAXS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.projectmaxs.module.fileread.commands;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.projectmaxs.shared.global.Message;
+import org.projectmaxs.shared.global.messagecontent.AbstractElement;
+import org.projectmaxs.shared.global.messagecontent.Element;
+
+/**
+ * Parses ls arguments and lists pages of a directory with 50k files.
+ */
+public class LsQueryTest {
+
+	private static final int FILES = 50000;
+
+	/**
+	 * Every LARGE_FILE_STEP'th file is 2 KiB large, all other files are empty.
+	 */
+	private static final int LARGE_FILE_STEP = 1000;
+
+	@Rule
+	public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+	private File mCwd;
+
+	@Before
+	public void setUp() throws IOException {
+		mCwd = mTemporaryFolder.newFolder("cwd");
+	}
+
+	@Test
+	public void parseOptions() {
+		LsQuery query = LsQuery.parse("-n 10 -o 20 -g *.txt -s +1k -m -2d -S /sdcard", mCwd);
+		assertEquals(10, query.mPageSize);
+		assertEquals(20, query.mOffset);
+		assertEquals("*.txt", query.mGlob);
+		assertEquals(1024, query.mSize);
+		assertEquals(-2 * 24 * 60 * 60 * 1000, query.mAge);
+		assertTrue(query.mSummary);
+		assertEquals(new File("/sdcard"), query.mPath);
+		assertTrue(query.requiresStat());
+	}
+
+	@Test
+	public void parseDefaults() {
+		LsQuery query = LsQuery.parse("", mCwd);
+		assertEquals(LsQuery.DEFAULT_PAGE_SIZE, query.mPageSize);
+		assertEquals(0, query.mOffset);
+		assertNull(query.mGlob);
+		assertFalse(query.mSummary);
+		assertFalse(query.requiresStat());
+		assertEquals(mCwd, query.mPath);
+		assertEquals(mCwd, LsQuery.parse(null, mCwd).mPath);
+	}
+
+	@Test
+	public void parsePaths() {
+		assertEquals(new File(mCwd, "sub dir"), LsQuery.parse("sub dir", mCwd).mPath);
+		assertEquals(new File(mCwd, "a b"), LsQuery.parse("-n 5   a b", mCwd).mPath);
+		assertEquals(new File("/a b/c"), LsQuery.parse("-g x* /a b/c", mCwd).mPath);
+	}
+
+	@Test
+	public void parseInvalid() {
+		String[] invalid = { "-n", "-n 0 /", "-o -1 /", "-x 1 /", "-s +0 /", "-s 1x /",
+				"-n foo /" };
+		for (String arguments : invalid) {
+			try {
+				LsQuery.parse(arguments, mCwd);
+				fail("Expected IllegalArgumentException for: " + arguments);
+			} catch (IllegalArgumentException e) {
+				// expected, NumberFormatException is an IllegalArgumentException
+			}
+		}
+	}
+
+	@Test
+	public void toArgumentsRoundTrip() {
+		LsQuery query = LsQuery.parse("-n 10 -g a?c* -s -5m -m +1h -S sub dir", mCwd);
+		LsQuery next = LsQuery.parse(query.toArguments(30), mCwd);
+		assertEquals(10, next.mPageSize);
+		assertEquals(30, next.mOffset);
+		assertEquals("a?c*", next.mGlob);
+		assertEquals(query.mSize, next.mSize);
+		assertEquals(query.mAge, next.mAge);
+		assertTrue(next.mSummary);
+		assertEquals(query.mPath.getAbsoluteFile(), next.mPath);
+	}
+
+	@Test
+	public void listFile() throws IOException {
+		File file = new File(mCwd, "file");
+		assertTrue(file.createNewFile());
+		LsQuery.Page page = LsQuery.forPath(file).list(failingSender());
+		assertFalse(page.mListed);
+
+		page = LsQuery.forPath(new File(mCwd, "missing")).list(failingSender());
+		assertFalse(page.mListed);
+	}
+
+	@Test
+	public void listEmptyDirectory() {
+		LsQuery.Page page = LsQuery.forPath(mCwd).list(failingSender());
+		assertFalse(page.mListed);
+		assertEquals(1, count(page.mMessage, "empty-directory"));
+	}
+
+	@Test
+	public void listPagesOf50kFiles() throws IOException {
+		createFiles();
+
+		final int pageSize = 4096;
+		List<String> listed = new ArrayList<String>(FILES);
+		List<Message> chunks = new ArrayList<Message>();
+		String arguments = "-n " + pageSize + " " + mCwd.getAbsolutePath();
+		int pages = 0;
+		while (arguments != null) {
+			chunks.clear();
+			LsQuery.Page page = LsQuery.parse(arguments, mCwd).list(collectingSender(chunks));
+			assertTrue(page.mListed);
+			pages++;
+
+			int pageEntries = 0;
+			for (Message chunk : chunks) {
+				final int entries = count(chunk, "file");
+				assertEquals(LsQuery.CHUNK_SIZE, entries);
+				pageEntries += entries;
+				listed.addAll(paths(chunk));
+			}
+			final int lastEntries = count(page.mMessage, "file");
+			assertTrue(lastEntries < LsQuery.CHUNK_SIZE);
+			pageEntries += lastEntries;
+			listed.addAll(paths(page.mMessage));
+
+			arguments = page.mContinuation;
+			if (arguments != null) {
+				assertEquals(pageSize, pageEntries);
+				assertEquals(1, count(page.mMessage, "continuation"));
+			} else {
+				assertEquals(1, count(page.mMessage, "end"));
+			}
+		}
+
+		assertEquals((FILES + pageSize - 1) / pageSize, pages);
+		assertEquals(FILES, listed.size());
+		for (int i = 0; i < FILES; i++) {
+			assertEquals(new File(mCwd, name(i)).getAbsolutePath(), listed.get(i));
+		}
+	}
+
+	@Test
+	public void filter50kFiles() throws IOException {
+		createFiles();
+
+		// The glob is matched against the names only, without stat()'ing the entries
+		LsQuery.Page page = LsQuery.parse("-g f1234?", mCwd).list(failingSender());
+		assertEquals(10, count(page.mMessage, "file"));
+		assertNull(page.mContinuation);
+
+		List<Message> chunks = new ArrayList<Message>();
+		page = LsQuery.parse("-s +1k", mCwd).list(collectingSender(chunks));
+		assertEquals(FILES / LARGE_FILE_STEP / LsQuery.CHUNK_SIZE, chunks.size());
+		List<String> paths = new ArrayList<String>();
+		for (Message chunk : chunks) {
+			paths.addAll(paths(chunk));
+		}
+		paths.addAll(paths(page.mMessage));
+		assertEquals(FILES / LARGE_FILE_STEP, paths.size());
+		for (int i = 0; i < paths.size(); i++) {
+			assertEquals(new File(mCwd, name(i * LARGE_FILE_STEP)).getAbsolutePath(),
+					paths.get(i));
+		}
+
+		// Only the large files are older than one hour
+		page = LsQuery.parse("-m +1h -n 20 -o 40", mCwd).list(failingSender());
+		assertEquals(FILES / LARGE_FILE_STEP - 40, count(page.mMessage, "file"));
+		assertEquals(1, count(page.mMessage, "end"));
+
+		page = LsQuery.parse("-o " + FILES, mCwd).list(failingSender());
+		assertEquals(1, count(page.mMessage, "no-match"));
+		assertNull(page.mContinuation);
+	}
+
+	@Test
+	public void summary50kFiles() throws IOException {
+		createFiles();
+		assertTrue(new File(mCwd, "dir").mkdir());
+
+		LsQuery.Page page = LsQuery.parse("-S", mCwd).list(failingSender());
+		assertEquals(String.valueOf(1), text(page.mMessage, "directories"));
+		assertEquals(String.valueOf(FILES), text(page.mMessage, "files"));
+		assertEquals(String.valueOf(FILES / LARGE_FILE_STEP * 2048), text(page.mMessage, "size"));
+
+		page = LsQuery.parse("-S -s -1", mCwd).list(failingSender());
+		assertEquals(String.valueOf(0), text(page.mMessage, "directories"));
+		assertEquals(String.valueOf(FILES - FILES / LARGE_FILE_STEP),
+				text(page.mMessage, "files"));
+	}
+
+	private static String name(int i) {
+		return String.format("f%05d", i);
+	}
+
+	private void createFiles() throws IOException {
+		final long old = System.currentTimeMillis() - 2 * 60 * 60 * 1000;
+		final byte[] content = new byte[2048];
+		// Create the files in reverse order, the listing must not depend on the directory order
+		for (int i = FILES - 1; i >= 0; i--) {
+			File file = new File(mCwd, name(i));
+			if (i % LARGE_FILE_STEP == 0) {
+				FileOutputStream out = new FileOutputStream(file);
+				try {
+					out.write(content);
+				} finally {
+					out.close();
+				}
+				assertTrue(file.setLastModified(old));
+			} else {
+				assertTrue(file.createNewFile());
+			}
+		}
+	}
+
+	private static LsQuery.ChunkSender collectingSender(final List<Message> chunks) {
+		return new LsQuery.ChunkSender() {
+			@Override
+			public void send(Message chunk) {
+				chunks.add(chunk);
+			}
+		};
+	}
+
+	private static LsQuery.ChunkSender failingSender() {
+		return new LsQuery.ChunkSender() {
+			@Override
+			public void send(Message chunk) {
+				fail("Unexpected chunk");
+			}
+		};
+	}
+
+	private static List<Element> elements(Message message, String xmlName) {
+		List<Element> elements = new ArrayList<Element>();
+		for (Iterator<AbstractElement> it = message.getElementsIt(); it.hasNext();) {
+			AbstractElement element = it.next();
+			if (!(element instanceof Element)) continue;
+			if (xmlName.equals(((Element) element).getXMLName())) elements.add((Element) element);
+		}
+		return elements;
+	}
+
+	private static int count(Message message, String xmlName) {
+		return elements(message, xmlName).size();
+	}
+
+	private static List<String> paths(Message message) {
+		List<String> paths = new ArrayList<String>();
+		for (Element element : elements(message, "file")) {
+			paths.add(element.getText());
+		}
+		return paths;
+	}
+
+	private static String text(Message message, String xmlName) {
+		List<Element> elements = elements(message, xmlName);
+		assertEquals(1, elements.size());
+		return elements.get(0).getText();
+	}
+}
@@ -0,0 +1,246 @@
+/*
+    This file is part of Project MAXS.
+
+    MAXS and its modules is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    MAXS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with MAXS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.projectmaxs.module.locationfine.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.projectmaxs.module.locationfine.service.AdaptiveLocationPolicy.Fix;
+import org.projectmaxs.module.locationfine.service.AdaptiveLocationPolicy.Mode;
+
+/**
+ * Replays synthetic tracks through the policy and checks the resulting modes, accepted fixes and
+ * sent tracks.
+ */
+public class AdaptiveLocationPolicyTest {
+
+	private static final float MIN_DISTANCE = 25;
+	private static final long TRACK_INTERVAL = 60 * 1000;
+
+	private static final long START = 1000000000L;
+
+	private static final double LATITUDE = 48.0;
+	private static final double LONGITUDE = 11.0;
+
+	/**
+	 * The meters per degree of latitude.
+	 */
+	private static final double METERS_PER_DEGREE = 6371000 * Math.PI / 180;
+
+	private static final long SECOND = 1000;
+	private static final long MINUTE = 60 * SECOND;
+
+	/**
+	 * Builds a track moving north, one fix per step.
+	 */
+	private static class TrackBuilder {
+		final List<Fix> mFixes = new ArrayList<Fix>();
+		double mNorth;
+		long mTime = START;
+
+		/**
+		 * Move with the given speed.
+		 * 
+		 * @param speed
+		 *            in meters per second
+		 * @param reportSpeed
+		 *            if the fixes carry the speed, otherwise the policy has to estimate it
+		 * @param accuracy
+		 * @param step
+		 *            the time between two fixes
+		 * @param duration
+		 */
+		TrackBuilder move(double speed, boolean reportSpeed, float accuracy, long step,
+				long duration) {
+			for (long elapsed = step; elapsed <= duration; elapsed += step) {
+				mTime += step;
+				mNorth += speed * step / 1000;
+				mFixes.add(fix(mNorth, accuracy, reportSpeed ? (float) speed : -1, mTime));
+			}
+			return this;
+		}
+
+		/**
+		 * Stay at the current position, the fixes jitter by up to the given accuracy.
+		 */
+		TrackBuilder stay(float accuracy, long step, long duration) {
+			int i = 0;
+			for (long elapsed = step; elapsed <= duration; elapsed += step) {
+				mTime += step;
+				final double jitter = (i++ % 2 == 0 ? 0.5 : -0.5) * accuracy;
+				mFixes.add(fix(mNorth + jitter, accuracy, -1, mTime));
+			}
+			return this;
+		}
+	}
+
+	private static Fix fix(double north, float accuracy, float speed, long time) {
+		return new Fix(LATITUDE + north / METERS_PER_DEGREE, LONGITUDE, accuracy, speed, time,
+				null);
+	}
+
+	/**
+	 * The outcome of a replay.
+	 */
+	private static class Replay {
+		final AdaptiveLocationPolicy mPolicy = new AdaptiveLocationPolicy(MIN_DISTANCE,
+				TRACK_INTERVAL, START);
+		final List<List<Fix>> mTracks = new ArrayList<List<Fix>>();
+		final List<Long> mTrackTimes = new ArrayList<Long>();
+		final List<Mode> mModes = new ArrayList<Mode>();
+
+		Replay(List<Fix> fixes) {
+			for (Fix fix : fixes) {
+				mPolicy.onFix(fix, fix.mTime);
+				mModes.add(mPolicy.getMode());
+				if (mPolicy.isTrackDue(fix.mTime)) {
+					assertTrue(mPolicy.getTrackDueTime() <= fix.mTime);
+					mTrackTimes.add(fix.mTime);
+					mTracks.add(mPolicy.drainTrack());
+				}
+			}
+		}
+
+		int acceptedFixes() {
+			int accepted = 0;
+			for (List<Fix> track : mTracks)
+				accepted += track.size();
+			return accepted;
+		}
+	}
+
+	@Test
+	public void walking() {
+		// 1.4 m/s with a fix every 5 seconds, i.e. 7 meters between two fixes
+		List<Fix> fixes = new TrackBuilder().move(1.4, false, 3, 5 * SECOND, 10 * MINUTE).mFixes;
+		Replay replay = new Replay(fixes);
+
+		for (Mode mode : replay.mModes)
+			assertEquals(Mode.SLOW, mode);
+		assertEquals(0, replay.mPolicy.getModeChanges());
+
+		// The first fix is send right away, then every fourth fix (28 m) is accepted and the
+		// accepted fixes are send once per track interval
+		assertEquals(1, replay.mTracks.get(0).size());
+		assertEquals(fixes.get(0).mTime, (long) replay.mTrackTimes.get(0));
+		assertAccepted(replay);
+		final int pending = replay.mPolicy.drainTrack().size();
+		assertEquals(1 + (fixes.size() - 1) / 4, replay.acceptedFixes() + pending);
+		assertEquals(fixes.size(), replay.acceptedFixes() + pending
+				+ replay.mPolicy.getSuppressedFixes());
+		// A track starts with the first fix accepted after the previous one was send
+		for (int i = 1; i < replay.mTrackTimes.size(); i++) {
+			final long interval = replay.mTrackTimes.get(i) - replay.mTrackTimes.get(i - 1);
+			assertTrue(interval >= TRACK_INTERVAL);
+			assertTrue(interval <= TRACK_INTERVAL + 4 * 5 * SECOND);
+		}
+
+		// GPS was requested the whole time
+		final long end = fixes.get(fixes.size() - 1).mTime;
+		assertEquals(end - START, replay.mPolicy.getGpsOnMillis(end));
+	}
+
+	@Test
+	public void drivingThenParking() {
+		List<Fix> fixes = new TrackBuilder().move(15, true, 5, 10 * SECOND, 5 * MINUTE)
+				.stay(20, 5 * MINUTE, 60 * MINUTE).mFixes;
+		Replay replay = new Replay(fixes);
+
+		final int driving = 30;
+		for (int i = 0; i < driving; i++)
+			assertEquals(Mode.FAST, replay.mModes.get(i));
+		// The policy switches to stationary after STATIONARY_FIXES stationary fixes
+		final int switchIndex = driving + AdaptiveLocationPolicy.STATIONARY_FIXES - 1;
+		for (int i = driving; i < switchIndex; i++)
+			assertEquals(Mode.FAST, replay.mModes.get(i));
+		for (int i = switchIndex; i < fixes.size(); i++)
+			assertEquals(Mode.STATIONARY, replay.mModes.get(i));
+		assertEquals(2, replay.mPolicy.getModeChanges());
+
+		// While parked, only the heartbeat fixes every 10 minutes are accepted
+		int parkedAccepted = 0;
+		for (List<Fix> track : replay.mTracks) {
+			for (Fix fix : track) {
+				if (fix.mTime > fixes.get(driving - 1).mTime) parkedAccepted++;
+			}
+		}
+		parkedAccepted += replay.mPolicy.drainTrack().size();
+		assertEquals(60 / 10, parkedAccepted);
+
+		// GPS is off from the switch to stationary on
+		final long switchTime = fixes.get(switchIndex).mTime;
+		final long end = fixes.get(fixes.size() - 1).mTime;
+		assertEquals(switchTime - START, replay.mPolicy.getGpsOnMillis(end));
+		replay.mPolicy.stop(end);
+		assertEquals(switchTime - START, replay.mPolicy.getGpsOnMillis(end + MINUTE));
+	}
+
+	@Test
+	public void poorAccuracyKeepsGps() {
+		List<Fix> fixes = new TrackBuilder().stay(500, MINUTE, 10 * MINUTE).mFixes;
+		Replay replay = new Replay(fixes);
+		for (Mode mode : replay.mModes)
+			assertEquals(Mode.SLOW, mode);
+		assertTrue(replay.mModes.get(replay.mModes.size() - 1).mUsesGps);
+	}
+
+	@Test
+	public void moreAccurateFixIsAccepted() {
+		AdaptiveLocationPolicy policy = new AdaptiveLocationPolicy(MIN_DISTANCE, TRACK_INTERVAL,
+				START);
+		policy.onFix(fix(0, 100, 0, START + SECOND), START + SECOND);
+		policy.onFix(fix(1, 80, 0, START + 2 * SECOND), START + 2 * SECOND);
+		policy.onFix(fix(2, 40, 0, START + 3 * SECOND), START + 3 * SECOND);
+		assertEquals(2, policy.drainTrack().size());
+		assertEquals(1, policy.getSuppressedFixes());
+	}
+
+	@Test
+	public void fullTrackIsDueBeforeTheInterval() {
+		// 30 m/s, every fix is accepted
+		List<Fix> fixes = new TrackBuilder().move(30, true, 5, SECOND,
+				(AdaptiveLocationPolicy.MAX_TRACK_SIZE * 2 + 1) * SECOND).mFixes;
+		Replay replay = new Replay(fixes);
+		assertEquals(3, replay.mTracks.size());
+		assertEquals(1, replay.mTracks.get(0).size());
+		assertEquals(AdaptiveLocationPolicy.MAX_TRACK_SIZE, replay.mTracks.get(1).size());
+		assertEquals(AdaptiveLocationPolicy.MAX_TRACK_SIZE, replay.mTracks.get(2).size());
+		assertFalse(replay.mPolicy.isTrackDue(fixes.get(fixes.size() - 1).mTime));
+		assertEquals(-1, replay.mPolicy.getTrackDueTime());
+	}
+
+	/**
+	 * Check that the accepted fixes are in order and at least the minimum distance apart.
+	 */
+	private static void assertAccepted(Replay replay) {
+		Fix last = null;
+		for (List<Fix> track : replay.mTracks) {
+			for (Fix fix : track) {
+				if (last != null) {
+					assertTrue(fix.mTime > last.mTime);
+					assertTrue(AdaptiveLocationPolicy.distance(last, fix) >= MIN_DISTANCE);
+				}
+				last = fix;
+			}
+		}
+	}
+}
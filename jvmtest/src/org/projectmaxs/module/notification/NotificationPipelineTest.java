@@ -0,0 +1,226 @@
+/*
+    This file is part of Project MAXS.
+
+    MAXS and its modules is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    MAXS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with MAXS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.projectmaxs.module.notification;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.projectmaxs.module.notification.NotificationPipeline.Event;
+
+/**
+ * Drives the pipeline with an injected clock.
+ */
+public class NotificationPipelineTest {
+
+	private static final long WINDOW = 5000;
+	private static final long REFILL_INTERVAL = 60 * 1000;
+
+	private long mNow = 1000000;
+
+	private final NotificationPipeline.Clock mClock = new NotificationPipeline.Clock() {
+		@Override
+		public long currentTimeMillis() {
+			return mNow;
+		}
+	};
+
+	private final List<List<String>> mDelivered = new ArrayList<List<String>>();
+	private final List<Integer> mDropped = new ArrayList<Integer>();
+
+	private final NotificationPipeline.Sink mSink = new NotificationPipeline.Sink() {
+		@Override
+		public void deliver(List<Event> events, int dropped) {
+			List<String> texts = new ArrayList<String>(events.size());
+			for (Event event : events)
+				texts.add(event.mText);
+			mDelivered.add(texts);
+			mDropped.add(dropped);
+		}
+	};
+
+	private NotificationPipeline mPipeline;
+
+	@Before
+	public void setUp() {
+		mPipeline = newPipeline(2, 100);
+	}
+
+	private NotificationPipeline newPipeline(int bucketCapacity, int maxPending) {
+		return new NotificationPipeline(WINDOW, bucketCapacity, REFILL_INTERVAL, maxPending,
+				mClock, mSink);
+	}
+
+	private static Event posted(String key, String text) {
+		return new Event(key, "org.example", true, text, 0);
+	}
+
+	@Test
+	public void coalescesEventsOfAWindow() {
+		final long start = mNow;
+		assertEquals(start + WINDOW, mPipeline.offer(posted("a", "a1")));
+		mNow += 1000;
+		assertEquals(start + WINDOW, mPipeline.offer(posted("b", "b1")));
+
+		// The window has not ended yet
+		assertEquals(start + WINDOW, mPipeline.flush());
+		assertEquals(0, mDelivered.size());
+
+		mNow = start + WINDOW;
+		assertEquals(-1, mPipeline.flush());
+		assertEquals(Arrays.asList(Arrays.asList("a1", "b1")), mDelivered);
+		assertEquals(2, mPipeline.getDelivered());
+		assertEquals(-1, mPipeline.flush());
+	}
+
+	@Test
+	public void deduplicatesByKey() {
+		mPipeline.offer(posted("a", "a1"));
+		mPipeline.offer(posted("b", "b1"));
+		mPipeline.offer(posted("a", "a2"));
+		// A removal does not replace the posted event
+		mPipeline.offer(new Event("a", "org.example", false, "removed", 0));
+
+		mNow += WINDOW;
+		mPipeline.flush();
+		assertEquals(Arrays.asList(Arrays.asList("b1", "a2", "removed")), mDelivered);
+		assertEquals(1, mPipeline.getDeduplicated());
+	}
+
+	@Test
+	public void appliesPackageRules() {
+		mPipeline.setPackageRules(Arrays.asList("org.allowed", "org.both"),
+				Arrays.asList("org.both"));
+		assertEquals(-1, mPipeline.offer(new Event("a", "org.other", true, "other", 0)));
+		assertEquals(-1, mPipeline.offer(new Event("b", "org.both", true, "both", 0)));
+		mPipeline.offer(new Event("c", "org.allowed", true, "allowed", 0));
+
+		mNow += WINDOW;
+		mPipeline.flush();
+		assertEquals(Arrays.asList(Arrays.asList("allowed")), mDelivered);
+		assertEquals(2, mPipeline.getDroppedByRule());
+	}
+
+	@Test
+	public void emptyBucketKeepsTheWindow() {
+		final long start = mNow;
+		deliverWindow("1");
+		deliverWindow("2");
+		assertEquals(2, mDelivered.size());
+
+		// The bucket is empty, the window stays open until the next token is available
+		mPipeline.offer(posted("a", "3a"));
+		mNow += WINDOW;
+		final long nextToken = start + REFILL_INTERVAL;
+		assertEquals(nextToken, mPipeline.flush());
+		assertEquals(2, mDelivered.size());
+		assertEquals(1, mPipeline.getPending());
+
+		// Later events join the open window
+		mNow += 1000;
+		assertEquals(nextToken, mPipeline.offer(posted("b", "3b")));
+		assertEquals(nextToken, mPipeline.offer(posted("a", "3a'")));
+		mNow = nextToken - 1;
+		assertEquals(nextToken, mPipeline.flush());
+		assertEquals(2, mDelivered.size());
+
+		mNow = nextToken;
+		assertEquals(-1, mPipeline.flush());
+		assertEquals(Arrays.asList("3b", "3a'"), mDelivered.get(2));
+		assertEquals(Integer.valueOf(0), mDropped.get(2));
+		assertEquals(0, mPipeline.getDroppedByRateLimit());
+		assertEquals(4, mPipeline.getDelivered());
+	}
+
+	@Test
+	public void flushNowRespectsTheRateLimit() {
+		deliverWindow("1");
+		deliverWindow("2");
+		mPipeline.offer(posted("a", "3"));
+		mPipeline.flushNow();
+		assertEquals(2, mDelivered.size());
+		assertEquals(1, mPipeline.getPending());
+	}
+
+	@Test
+	public void overflowWhileWaitingDropsTheOldestEvents() {
+		mPipeline = newPipeline(1, 3);
+		final long start = mNow;
+		deliverWindow("0");
+
+		for (int i = 1; i <= 5; i++)
+			mPipeline.offer(posted(Integer.toString(i), Integer.toString(i)));
+		assertEquals(3, mPipeline.getPending());
+		assertEquals(2, mPipeline.getDroppedByRateLimit());
+
+		mNow = start + REFILL_INTERVAL;
+		mPipeline.flush();
+		assertEquals(Arrays.asList("3", "4", "5"), mDelivered.get(1));
+		assertEquals(Integer.valueOf(2), mDropped.get(1));
+
+		// The drops are only reported once
+		mNow += REFILL_INTERVAL;
+		deliverWindow("6");
+		assertEquals(Integer.valueOf(0), mDropped.get(2));
+	}
+
+	@Test
+	public void bucketRefillsUpToItsCapacity() {
+		deliverWindow("1");
+		deliverWindow("2");
+
+		// After a long idle period, only a burst of the bucket capacity is delivered right away
+		mNow += 10 * REFILL_INTERVAL;
+		deliverWindow("3");
+		deliverWindow("4");
+		mPipeline.offer(posted("a", "5"));
+		mNow += WINDOW;
+		mPipeline.flush();
+		assertEquals(4, mDelivered.size());
+		assertEquals(1, mPipeline.getPending());
+	}
+
+	@Test
+	public void counters() {
+		mPipeline.setPackageRules(Collections.<String> emptyList(), Arrays.asList("org.denied"));
+		mPipeline.offer(new Event("d", "org.denied", true, "denied", 0));
+		mPipeline.offer(posted("a", "a1"));
+		mPipeline.offer(posted("a", "a2"));
+		assertEquals("delivered=0 deduplicated=1 dropped-by-rule=1 dropped-by-rate-limit=0"
+				+ " pending=1", mPipeline.getCounters());
+		mNow += WINDOW;
+		mPipeline.flush();
+		assertEquals("delivered=1 deduplicated=1 dropped-by-rule=1 dropped-by-rate-limit=0"
+				+ " pending=0", mPipeline.getCounters());
+	}
+
+	/**
+	 * Offer an event and flush it once its window ended.
+	 */
+	private void deliverWindow(String text) {
+		final int delivered = mDelivered.size();
+		mPipeline.offer(posted(text, text));
+		mNow += WINDOW;
+		assertEquals(-1, mPipeline.flush());
+		assertEquals(delivered + 1, mDelivered.size());
+	}
+}
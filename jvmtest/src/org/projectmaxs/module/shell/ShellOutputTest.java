@@ -0,0 +1,110 @@
+/*
+    This file is part of Project MAXS.
+
+    MAXS and its modules is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    MAXS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with MAXS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.projectmaxs.module.shell;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+public class ShellOutputTest {
+
+	private static class CollectingOutput extends ShellOutput {
+		final List<String> mSent = Collections.synchronizedList(new ArrayList<String>());
+
+		CollectingOutput(int lineBatchSize) {
+			super(lineBatchSize);
+		}
+
+		@Override
+		protected void send(String lines) {
+			mSent.add(lines);
+		}
+	}
+
+	@Test
+	public void sendsFullBatches() {
+		CollectingOutput output = new CollectingOutput(2);
+		output.append("a");
+		assertEquals(0, output.mSent.size());
+		output.append("b");
+		output.append("c");
+		assertEquals(Collections.singletonList("a\nb\n"), output.mSent);
+		assertEquals("c\n", output.finish());
+	}
+
+	@Test
+	public void finishWithoutPendingLines() {
+		CollectingOutput output = new CollectingOutput(1);
+		output.append("a");
+		assertNull(output.finish());
+		assertEquals(Collections.singletonList("a\n"), output.mSent);
+	}
+
+	@Test
+	public void nothingIsSendAfterFinish() {
+		CollectingOutput output = new CollectingOutput(10);
+		output.append("a");
+		assertEquals("a\n", output.finish());
+		output.append("b");
+		output.flush();
+		assertEquals(0, output.mSent.size());
+		assertNull(output.finish());
+	}
+
+	/**
+	 * Flush concurrently while lines are appended and the output is finished, like the periodic
+	 * flusher does. Every line must be send or returned by finish() exactly once.
+	 */
+	@Test
+	public void concurrentFlushSendsEveryLineOnce() throws InterruptedException {
+		for (int run = 0; run < 50; run++) {
+			final CollectingOutput output = new CollectingOutput(7);
+			final AtomicBoolean done = new AtomicBoolean();
+			Thread flusher = new Thread() {
+				@Override
+				public void run() {
+					while (!done.get())
+						output.flush();
+				}
+			};
+			flusher.start();
+
+			final int lines = 1000;
+			for (int i = 0; i < lines; i++)
+				output.append(String.valueOf(i));
+			final String remaining = output.finish();
+			done.set(true);
+			flusher.join();
+
+			StringBuilder all = new StringBuilder();
+			for (String sent : output.mSent)
+				all.append(sent);
+			if (remaining != null) all.append(remaining);
+
+			StringBuilder expected = new StringBuilder();
+			for (int i = 0; i < lines; i++)
+				expected.append(i).append('\n');
+			assertEquals(expected.toString(), all.toString());
+		}
+	}
+}
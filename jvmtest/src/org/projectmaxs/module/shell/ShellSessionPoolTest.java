@@ -0,0 +1,274 @@
+/*
+    This file is part of Project MAXS.
+
+    MAXS and its modules is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    MAXS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with MAXS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.projectmaxs.module.shell;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.projectmaxs.module.shell.ShellSessionPool.Session;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+/**
+ * Runs commands in pooled sessions of bash, which stands in for the Android shell and su. Like
+ * mksh, and unlike dash, it supports job control without a terminal.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27, manifest = Config.NONE)
+public class ShellSessionPoolTest {
+
+	private static final String[] SHELL = { "/bin/bash" };
+
+	private static final int COMMAND_ID = 42;
+
+	private ShellSessionPool mPool;
+
+	@Before
+	public void setUp() {
+		mPool = new ShellSessionPool(SHELL, SHELL);
+	}
+
+	private static class CollectingListener implements ShellSessionPool.LineListener {
+		final List<String> mLines = Collections.synchronizedList(new ArrayList<String>());
+
+		@Override
+		public void onLine(String line) {
+			mLines.add(line);
+		}
+	}
+
+	private static List<String> execute(Session session, String command) throws IOException {
+		CollectingListener listener = new CollectingListener();
+		assertEquals(0, session.execute(command, listener));
+		return listener.mLines;
+	}
+
+	@Test
+	public void executeReturnsOutputAndExitCode() throws IOException {
+		Session session = mPool.acquire(false);
+		CollectingListener listener = new CollectingListener();
+		assertEquals(3, session.execute("echo out; echo err >&2; exit 3", listener));
+		assertEquals(Arrays.asList("out", "err"), listener.mLines);
+		assertTrue(session.isAlive());
+
+		assertEquals(Arrays.asList("foo"), execute(session, "printf foo"));
+		assertEquals(Arrays.asList("a", "b"), execute(session, "echo a # comment\necho b"));
+		mPool.release(session);
+	}
+
+	@Test
+	public void sessionsAreReused() throws IOException {
+		Session session = mPool.acquire(false);
+		mPool.release(session);
+		assertSame(session, mPool.acquire(false));
+
+		Session rootSession = mPool.acquire(true);
+		assertNotSame(session, rootSession);
+		mPool.release(rootSession);
+		mPool.release(session);
+	}
+
+	@Test
+	public void stateDoesNotLeakIntoTheNextCommand() throws IOException {
+		Session session = mPool.acquire(false);
+		final String cwd = execute(session, "pwd").get(0);
+		final String parent = new File(cwd).getParent();
+
+		execute(session, "cd ..; export MAXS_TEST=leaked; MAXS_TEST2=leaked; umask 077");
+		assertEquals(Arrays.asList(cwd, ":", "0022"),
+				execute(session, "pwd; echo \"$MAXS_TEST:$MAXS_TEST2\"; umask"));
+		assertEquals(Arrays.asList(parent), execute(session, "cd ..; pwd"));
+		mPool.release(session);
+	}
+
+	@Test
+	public void commandCanNotConsumeTheSessionInput() throws IOException {
+		Session session = mPool.acquire(false);
+		assertEquals(Arrays.asList("eof"), execute(session, "cat; read line || echo eof"));
+		assertEquals(Arrays.asList("still alive"), execute(session, "echo still alive"));
+		mPool.release(session);
+	}
+
+	@Test
+	public void cancelRunningCommand() throws Exception {
+		final Session session = mPool.acquire(false);
+		mPool.addRunningCommand(COMMAND_ID, session);
+		final CountDownLatch started = new CountDownLatch(1);
+		final int[] pipelinePid = new int[1];
+		Thread canceller = new Thread() {
+			@Override
+			public void run() {
+				try {
+					started.await();
+				} catch (InterruptedException e) {
+					return;
+				}
+				assertTrue(mPool.cancel(COMMAND_ID));
+			}
+		};
+		canceller.start();
+
+		final long start = System.nanoTime();
+		final int exitCode = session.execute(
+				"sleep 30 | cat & echo \"started $!\"; sleep 30; echo finished",
+				new ShellSessionPool.LineListener() {
+					@Override
+					public void onLine(String line) {
+						// The shell may report the terminated subshell after this line
+						if (!line.startsWith("started ")) return;
+						pipelinePid[0] = Integer.parseInt(line.substring("started ".length()));
+						started.countDown();
+					}
+				});
+		canceller.join();
+		// 128 + SIGTERM
+		assertEquals(143, exitCode);
+		assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(10));
+		assertFalse(mPool.removeRunningCommand(COMMAND_ID));
+		// The whole process group was terminated, not only the subshell
+		assertTrue(awaitTerminated(pipelinePid[0]));
+
+		// A cancelled session is not returned to the pool
+		assertFalse(session.isReusable());
+		mPool.release(session);
+		assertFalse(session.isAlive());
+		Session newSession = mPool.acquire(false);
+		assertNotSame(session, newSession);
+		assertEquals(Arrays.asList("ok"), execute(newSession, "echo ok"));
+		mPool.release(newSession);
+	}
+
+	private static boolean awaitTerminated(int pid) throws Exception {
+		final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		while (isRunning(pid)) {
+			if (System.nanoTime() > deadline) return false;
+			Thread.sleep(20);
+		}
+		return true;
+	}
+
+	private static boolean isRunning(int pid) {
+		final String stat = readStat(pid);
+		if (stat == null) return false;
+		// Terminated processes may not be reaped, since their parent, the subshell, is gone
+		final char state = stat.charAt(stat.lastIndexOf(')') + 2);
+		return state != 'Z' && state != 'X';
+	}
+
+	/**
+	 * Read /proc/[pid]/stat.
+	 * 
+	 * @return the status line, or null if there is no such process
+	 */
+	private static String readStat(int pid) {
+		try {
+			BufferedReader reader = new BufferedReader(new FileReader("/proc/" + pid + "/stat"));
+			try {
+				return reader.readLine();
+			} finally {
+				reader.close();
+			}
+		} catch (IOException e) {
+			// The process does not exist, or it terminated while reading
+			return null;
+		}
+	}
+
+	@Test
+	public void cancelIncompleteCommand() throws Exception {
+		final Session session = mPool.acquire(false);
+		mPool.addRunningCommand(COMMAND_ID, session);
+		mPool.getScheduler().schedule(new Runnable() {
+			@Override
+			public void run() {
+				mPool.cancel(COMMAND_ID);
+			}
+		}, 200, TimeUnit.MILLISECONDS);
+
+		try {
+			// The unterminated quote makes the shell wait for more input
+			session.execute("echo \"unterminated", new CollectingListener());
+			fail("Expected IOException");
+		} catch (IOException e) {
+			// expected
+		}
+		assertFalse(session.isAlive());
+
+		// A terminated session is not returned to the pool
+		mPool.release(session);
+		Session newSession = mPool.acquire(false);
+		assertNotSame(session, newSession);
+		assertEquals(Arrays.asList("ok"), execute(newSession, "echo ok"));
+		mPool.release(newSession);
+	}
+
+	/**
+	 * Subsequent commands run in the same shell, and running them does not leave processes behind.
+	 * The overhead saved by the pool is measured by ShellSessionPoolBenchmark.
+	 */
+	@Test
+	public void commandsReuseTheShell() throws IOException {
+		final int commands = 50;
+		final int childrenBefore = countChildProcesses();
+		String shellPid = null;
+		for (int i = 0; i < commands; i++) {
+			Session session = mPool.acquire(false);
+			// In the subshell, $$ still is the pid of the session's shell
+			final String pid = execute(session, "echo $$").get(0);
+			if (shellPid == null) shellPid = pid;
+			assertEquals(shellPid, pid);
+			mPool.release(session);
+		}
+		// At most the one pooled shell was added
+		assertTrue(countChildProcesses() <= childrenBefore + 1);
+	}
+
+	/**
+	 * Count the running child processes of this JVM.
+	 */
+	private static int countChildProcesses() throws IOException {
+		final String jvmPid = new File("/proc/self").getCanonicalFile().getName();
+		int res = 0;
+		for (File process : new File("/proc").listFiles()) {
+			if (!process.getName().matches("\\d+")) continue;
+			final String stat = readStat(Integer.parseInt(process.getName()));
+			if (stat == null) continue;
+			// The fields after the command name are the state and the parent's pid
+			final String[] fields = stat.substring(stat.lastIndexOf(')') + 2).split(" ");
+			if (fields[1].equals(jvmPid) && !fields[0].equals("Z")) res++;
+		}
+		return res;
+	}
+}
@@ -0,0 +1,169 @@
+/*
+    This file is part of Project MAXS.
+
+    MAXS and its modules is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    MAXS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with MAXS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.projectmaxs.module.smsread;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.robolectric.shadows.ShadowContentResolver;
+
+import android.content.ContentProvider;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.CursorWrapper;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+
+/**
+ * A stand-in for the SMS content provider backed by an in-memory SQLite database. Like the real
+ * provider, it accepts a limit appended to the sort order.
+ * <p>
+ * SQLite lacks Android's PHONE_NUMBERS_EQUAL() function, it is replaced by a comparison of the
+ * numbers without separators. The provider counts the queries and the rows the caller moved to.
+ * </p>
+ */
+public class FakeSmsProvider extends ContentProvider {
+
+	private static final String TABLE_NAME = "sms";
+
+	private SQLiteDatabase mDatabase;
+
+	public final AtomicInteger mQueries = new AtomicInteger();
+	public final AtomicInteger mReadRows = new AtomicInteger();
+
+	/**
+	 * Register a new fake SMS provider for the "sms" authority.
+	 * 
+	 * @return the fake SMS provider
+	 */
+	public static FakeSmsProvider register() {
+		FakeSmsProvider provider = new FakeSmsProvider();
+		provider.onCreate();
+		ShadowContentResolver.registerProviderInternal("sms", provider);
+		return provider;
+	}
+
+	@Override
+	public boolean onCreate() {
+		mDatabase = SQLiteDatabase.create(null);
+		mDatabase.execSQL("CREATE TABLE " + TABLE_NAME + " (_id INTEGER PRIMARY KEY, address TEXT, "
+				+ "body TEXT, date INTEGER, type INTEGER, read INTEGER)");
+		mDatabase.execSQL("CREATE INDEX date_index ON " + TABLE_NAME + " (date)");
+		return true;
+	}
+
+	/**
+	 * Insert messages with a single statement. Inserting many messages one by one is slow under
+	 * Robolectric.
+	 * 
+	 * @param count
+	 *            the number of messages, numbered from 0
+	 * @param columns
+	 *            the SQL expressions of the address, body, date, type and read columns, in terms of
+	 *            the message number i
+	 */
+	public void addSms(int count, String... columns) {
+		// The message numbers are built from the cross join of one digits table per decimal digit
+		mDatabase.execSQL("CREATE TEMP TABLE IF NOT EXISTS digits (d INTEGER)");
+		mDatabase.execSQL("DELETE FROM digits");
+		for (int d = 0; d < 10; d++) {
+			mDatabase.execSQL("INSERT INTO digits VALUES (" + d + ")");
+		}
+		StringBuilder number = new StringBuilder("0");
+		StringBuilder from = new StringBuilder();
+		for (int digit = 0, factor = 1; digit == 0 || factor < count; digit++, factor *= 10) {
+			number.append(" + ").append(factor).append(" * d").append(digit).append(".d");
+			if (from.length() > 0) from.append(", ");
+			from.append("digits d").append(digit);
+		}
+
+		StringBuilder sb = new StringBuilder("INSERT INTO ").append(TABLE_NAME)
+				.append(" (address, body, date, type, read) SELECT ");
+		for (int i = 0; i < columns.length; i++) {
+			if (i > 0) sb.append(", ");
+			sb.append(columns[i]);
+		}
+		sb.append(" FROM (SELECT ").append(number).append(" AS i FROM ").append(from)
+				.append(") WHERE i < ").append(count);
+		mDatabase.execSQL(sb.toString());
+	}
+
+	public void resetCounters() {
+		mQueries.set(0);
+		mReadRows.set(0);
+	}
+
+	@Override
+	public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
+			String sortOrder) {
+		mQueries.incrementAndGet();
+		if (selection != null && selection.contains("PHONE_NUMBERS_EQUAL")) {
+			selection = selection.replaceAll("PHONE_NUMBERS_EQUAL\\((\\w+), \\?\\)",
+					stripped("$1") + " = ?");
+			// Only the address arguments are numbers, stripping the others does not change them
+			selectionArgs = strip(selectionArgs);
+		}
+		Cursor cursor = mDatabase.query(TABLE_NAME, projection, selection, selectionArgs, null,
+				null, sortOrder);
+		return new CursorWrapper(cursor) {
+			@Override
+			public boolean moveToNext() {
+				boolean res = super.moveToNext();
+				if (res) mReadRows.incrementAndGet();
+				return res;
+			}
+
+			@Override
+			public boolean moveToFirst() {
+				boolean res = super.moveToFirst();
+				if (res) mReadRows.incrementAndGet();
+				return res;
+			}
+		};
+	}
+
+	private static String stripped(String column) {
+		return "replace(replace(" + column + ", ' ', ''), '-', '')";
+	}
+
+	private static String[] strip(String[] args) {
+		String[] res = new String[args.length];
+		for (int i = 0; i < args.length; i++)
+			res[i] = args[i].replace(" ", "").replace("-", "");
+		return res;
+	}
+
+	@Override
+	public String getType(Uri uri) {
+		return null;
+	}
+
+	@Override
+	public Uri insert(Uri uri, ContentValues values) {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public int delete(Uri uri, String selection, String[] selectionArgs) {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+		throw new UnsupportedOperationException();
+	}
+}
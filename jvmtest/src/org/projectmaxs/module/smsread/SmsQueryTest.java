@@ -0,0 +1,126 @@
+/*
+    This file is part of Project MAXS.
+
+    MAXS and its modules is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    MAXS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with MAXS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.projectmaxs.module.smsread;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import org.junit.Test;
+
+public class SmsQueryTest {
+
+	private static long date(String date) throws Exception {
+		SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd", Locale.US);
+		return format.parse(date).getTime();
+	}
+
+	@Test
+	public void defaults() {
+		SmsQuery query = SmsQuery.parse("");
+		assertEquals(SmsQuery.DEFAULT_COUNT, query.getCount());
+		assertFalse(query.hasContactInfo());
+		assertFalse(query.hasAddresses());
+
+		List<String> args = new ArrayList<String>();
+		assertNull(query.toSelection(args));
+		assertTrue(args.isEmpty());
+		assertEquals("Last 5 SMS messages", query.describe());
+
+		assertEquals(SmsQuery.DEFAULT_COUNT, SmsQuery.parse(null).getCount());
+	}
+
+	@Test
+	public void legacyCount() {
+		SmsQuery query = SmsQuery.parse("10");
+		assertEquals(10, query.getCount());
+		assertFalse(query.hasContactInfo());
+	}
+
+	@Test
+	public void options() throws Exception {
+		SmsQuery query = SmsQuery.parse("-n 3 -f sent -u -s 2020-01-01 -e 2020-01-02 Alice Smith");
+		assertEquals(3, query.getCount());
+		assertTrue(query.hasContactInfo());
+		assertEquals("Alice Smith", query.getContactInfo());
+
+		List<String> args = new ArrayList<String>();
+		assertEquals("type = ? AND date >= ? AND date < ? AND read = ?", query.toSelection(args));
+		assertEquals(Arrays.asList("2", Long.toString(date("2020-01-01")),
+				Long.toString(date("2020-01-02")), "0"), args);
+		assertEquals("Last 3 unread SMS messages in sent with Alice Smith", query.describe());
+	}
+
+	@Test
+	public void readAndFolderAreCaseInsensitive() {
+		SmsQuery query = SmsQuery.parse("-r -f INBOX");
+		List<String> args = new ArrayList<String>();
+		assertEquals("type = ? AND read = ?", query.toSelection(args));
+		assertEquals(Arrays.asList("1", "1"), args);
+		assertEquals("Last 5 read SMS messages in inbox", query.describe());
+	}
+
+	@Test
+	public void addresses() throws Exception {
+		SmsQuery query = SmsQuery.parse("-s 2020-01-01 Bob");
+		query.addAddresses(Arrays.asList("+49 (170) 123-45", "+4917012345", "0301234"));
+		assertTrue(query.hasAddresses());
+
+		List<String> args = new ArrayList<String>();
+		assertEquals("(PHONE_NUMBERS_EQUAL(address, ?) OR PHONE_NUMBERS_EQUAL(address, ?)) AND "
+				+ "date >= ?", query.toSelection(args));
+		assertEquals(Arrays.asList("+4917012345", "0301234", Long.toString(date("2020-01-01"))),
+				args);
+	}
+
+	@Test
+	public void addressesAreCapped() {
+		SmsQuery query = SmsQuery.parse("Bob");
+		List<String> numbers = new ArrayList<String>();
+		for (int i = 0; i < SmsQuery.MAX_ADDRESSES + 50; i++) {
+			numbers.add("+49170" + (1000000 + i));
+		}
+		query.addAddresses(numbers);
+
+		List<String> args = new ArrayList<String>();
+		String selection = query.toSelection(args);
+		assertEquals(SmsQuery.MAX_ADDRESSES, args.size());
+		assertEquals(SmsQuery.MAX_ADDRESSES, selection.split("PHONE_NUMBERS_EQUAL").length - 1);
+	}
+
+	@Test
+	public void invalidArguments() {
+		for (String arguments : new String[] { "-n 0", "-n many", "-n", "-f spam", "-s 2020-13-01",
+				"-e yesterday", "-x 1", "0" }) {
+			try {
+				SmsQuery.parse(arguments);
+				fail("No exception for: " + arguments);
+			} catch (IllegalArgumentException e) {
+				// expected
+			}
+		}
+	}
+}
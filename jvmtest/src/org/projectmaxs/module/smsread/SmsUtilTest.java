@@ -0,0 +1,194 @@
+/*
+    This file is part of Project MAXS.
+
+    MAXS and its modules is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    MAXS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with MAXS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.projectmaxs.module.smsread;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.projectmaxs.module.smsread.SmsUtil.SmsConsumer;
+import org.projectmaxs.shared.global.messagecontent.Sms;
+import org.projectmaxs.shared.module.FakeContactsProvider;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27, manifest = Config.NONE)
+public class SmsUtilTest {
+
+	private static final int MESSAGES = 100000;
+	private static final int ADDRESSES = 100;
+	private static final int CHUNK_SIZE = 25;
+	private static final long MINUTE = 60 * 1000;
+
+	private FakeContactsProvider mContacts;
+	private FakeSmsProvider mSmsProvider;
+	private long mStart;
+
+	private static String number(int i) {
+		return "+49 170 " + (1000000 + i);
+	}
+
+	// Message i is sent to or from address i % ADDRESSES, one message per minute. Only the even
+	// addresses belong to a contact.
+	private static int type(int i) {
+		return i % 3 == 0 ? 2 : 1;
+	}
+
+	private static boolean read(int i) {
+		return i % 5 != 0;
+	}
+
+	private long date(int i) {
+		return mStart + i * MINUTE;
+	}
+
+	private static long date(String date) throws Exception {
+		return new SimpleDateFormat("yyyy-MM-dd", Locale.US).parse(date).getTime();
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		mContacts = FakeContactsProvider.setUpContactsModule();
+		for (int i = 0; i < ADDRESSES; i += 2) {
+			mContacts.addContact("lookup-" + i, "Contact " + i, number(i));
+		}
+		mStart = date("2020-01-01");
+		mSmsProvider = FakeSmsProvider.register();
+		// The same messages as described by number(), date(), type() and read()
+		mSmsProvider.addSms(MESSAGES, "'+49 170 ' || (1000000 + i % " + ADDRESSES + ")",
+				"'Message ' || i", mStart + " + i * " + MINUTE,
+				"CASE WHEN i % 3 = 0 THEN 2 ELSE 1 END", "i % 5 != 0");
+		mContacts.resetCounters();
+		mSmsProvider.resetCounters();
+	}
+
+	private static class CollectingConsumer implements SmsConsumer {
+		final List<Sms> mSms = new ArrayList<Sms>();
+		final List<Integer> mChunkSizes = new ArrayList<Integer>();
+
+		@Override
+		public void consume(List<Sms> sms) {
+			mSms.addAll(sms);
+			mChunkSizes.add(sms.size());
+		}
+	}
+
+	private CollectingConsumer query(SmsQuery query) {
+		CollectingConsumer consumer = new CollectingConsumer();
+		int count = SmsUtil.query(query, CHUNK_SIZE, RuntimeEnvironment.application, consumer);
+		assertEquals(consumer.mSms.size(), count);
+		return consumer;
+	}
+
+	@Test
+	public void streamsChunksWhileIterating() {
+		final int[] readRows = new int[1];
+		final int[] contactQueries = new int[1];
+		CollectingConsumer consumer = new CollectingConsumer() {
+			@Override
+			public void consume(List<Sms> sms) {
+				if (mChunkSizes.isEmpty()) {
+					readRows[0] = mSmsProvider.mReadRows.get();
+					contactQueries[0] = mContacts.mQueries.get();
+				}
+				super.consume(sms);
+			}
+		};
+
+		int count = SmsUtil.query(SmsQuery.parse("-n " + MESSAGES), CHUNK_SIZE,
+				RuntimeEnvironment.application, consumer);
+
+		assertEquals(MESSAGES, count);
+		assertEquals(MESSAGES, consumer.mSms.size());
+		// The first chunk is emitted after reading its rows and resolving its contacts only
+		assertEquals(CHUNK_SIZE, readRows[0]);
+		assertTrue("Contact queries before the first chunk: " + contactQueries[0],
+				contactQueries[0] <= 2);
+		assertEquals(Collections.nCopies(MESSAGES / CHUNK_SIZE, CHUNK_SIZE), consumer.mChunkSizes);
+		assertEquals(1, mSmsProvider.mQueries.get());
+
+		// Newest first, with the contacts resolved per chunk
+		for (int j = 0; j < MESSAGES; j += 997) {
+			int i = MESSAGES - 1 - j;
+			Sms sms = consumer.mSms.get(j);
+			assertEquals("Message " + i, sms.getBody());
+			assertEquals(date(i), sms.getDate());
+			assertEquals(SmsUtil.getType(type(i)), sms.getType());
+			int address = i % ADDRESSES;
+			String expected = address % 2 == 0 ? "Contact " + address + " (" + number(address)
+					+ ")" : number(address);
+			assertEquals(expected, sms.getContact());
+		}
+	}
+
+	@Test
+	public void readsOnlyTheRequestedCount() {
+		CollectingConsumer consumer = query(SmsQuery.parse("-n 30"));
+		assertEquals(30, consumer.mSms.size());
+		assertEquals(30, mSmsProvider.mReadRows.get());
+		assertEquals(Integer.valueOf(CHUNK_SIZE), consumer.mChunkSizes.get(0));
+		assertEquals(Integer.valueOf(5), consumer.mChunkSizes.get(1));
+		assertEquals("Message " + (MESSAGES - 1), consumer.mSms.get(0).getBody());
+	}
+
+	@Test
+	public void filtersInTheProvider() {
+		SmsQuery query = SmsQuery.parse("-n " + MESSAGES + " -f sent -u Contact 10");
+		query.addAddresses(Collections.singleton(number(10)));
+		CollectingConsumer consumer = query(query);
+
+		int expected = 0;
+		for (int i = 0; i < MESSAGES; i++) {
+			if (i % ADDRESSES == 10 && type(i) == 2 && !read(i)) expected++;
+		}
+		assertTrue(expected > 0);
+		assertEquals(expected, consumer.mSms.size());
+		// Only the matching rows are read
+		assertEquals(expected, mSmsProvider.mReadRows.get());
+		for (Sms sms : consumer.mSms) {
+			assertEquals("Contact 10 (" + number(10) + ")", sms.getContact());
+			assertEquals(Sms.Type.SENT, sms.getType());
+		}
+	}
+
+	@Test
+	public void filtersByDate() throws Exception {
+		CollectingConsumer consumer = query(SmsQuery.parse("-n " + MESSAGES
+				+ " -s 2020-02-01 -e 2020-02-03"));
+		long since = date("2020-02-01");
+		long until = date("2020-02-03");
+		int expected = 0;
+		for (int i = 0; i < MESSAGES; i++) {
+			if (date(i) >= since && date(i) < until) expected++;
+		}
+		assertEquals(expected, consumer.mSms.size());
+		for (Sms sms : consumer.mSms) {
+			assertTrue(sms.getDate() >= since && sms.getDate() < until);
+		}
+	}
+}
@@ -0,0 +1,169 @@
+/*
+    This file is part of Project MAXS.
+
+    MAXS and its modules is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    MAXS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with MAXS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.projectmaxs.module.smssend;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.projectmaxs.module.smssend.DeliveryTracker.Report;
+import org.projectmaxs.module.smssend.DeliveryTracker.TrackedSms;
+
+public class DeliveryTrackerTest {
+
+	private static final long TIMEOUT = 1000;
+	private static final int OK = DeliveryTracker.STATUS_OK;
+	private static final int PENDING = DeliveryTracker.STATUS_PENDING;
+	private static final int UNTRACKED = DeliveryTracker.STATUS_UNTRACKED;
+
+	private DeliveryTracker mTracker;
+
+	@Before
+	public void setUp() {
+		mTracker = new DeliveryTracker(TIMEOUT);
+	}
+
+	private Report sent(int cmdId, int part) {
+		return mTracker.onPartStatus(cmdId, part, false, OK);
+	}
+
+	private Report delivered(int cmdId, int part) {
+		return mTracker.onPartStatus(cmdId, part, true, OK);
+	}
+
+	@Test
+	public void deliveredBeforeSent() {
+		mTracker.track(1, "Alice", "Hello", 3, true, true, 0);
+
+		assertNull(delivered(1, 2));
+		assertNull(delivered(1, 0));
+		assertNull(sent(1, 1));
+		// A delivered part counts as sent, the missing sent callbacks are not waited for
+		Report report = delivered(1, 1);
+		assertEquals(1, report.mCmdId);
+		assertEquals("SMS to Alice: sent 3 of 3, delivered 3 of 3: Hello", report.mText);
+		assertFalse(mTracker.isTracked(1));
+
+		// Late callbacks of an already reported SMS message are ignored
+		assertNull(sent(1, 0));
+		assertNull(sent(1, 2));
+	}
+
+	@Test
+	public void partsInReverseOrder() {
+		mTracker.track(1, "Alice", "Hello", 3, true, false, 0);
+
+		assertNull(sent(1, 2));
+		assertNull(sent(1, 1));
+		assertEquals("SMS to Alice: sent 3 of 3: Hello", sent(1, 0).mText);
+	}
+
+	@Test
+	public void interleavedMessages() {
+		mTracker.track(1, "Alice", "Hello", 2, true, true, 0);
+		mTracker.track(2, "Bob", "Hi", 2, true, true, 0);
+
+		assertNull(delivered(2, 1));
+		assertNull(sent(1, 1));
+		assertNull(delivered(1, 0));
+		assertNull(sent(2, 0));
+		assertEquals("SMS to Alice: sent 2 of 2, delivered 2 of 2: Hello", delivered(1, 1).mText);
+		assertFalse(mTracker.isTracked(1));
+		assertTrue(mTracker.isTracked(2));
+		assertEquals("SMS to Bob: sent 2 of 2, delivered 2 of 2: Hi", delivered(2, 0).mText);
+		assertEquals(-1, mTracker.nextDeadline());
+	}
+
+	@Test
+	public void failureDoesNotWaitForDelivery() {
+		mTracker.track(1, "Alice", "Hello", 3, true, true, 0);
+
+		assertNull(delivered(1, 2));
+		// The failed part is resolved, but the other parts are not
+		assertNull(mTracker.onPartStatus(1, 1, false, DeliveryTracker.STATUS_NO_SERVICE));
+		assertNull(sent(1, 0));
+		Report report = delivered(1, 0);
+		assertEquals("SMS to Alice: sent 2 of 3, delivered 2 of 3, failed 1 of 3 (no service): "
+				+ "Hello", report.mText);
+	}
+
+	@Test
+	public void duplicateAndInvalidCallbacksAreIgnored() {
+		mTracker.track(1, "Alice", "Hello", 2, true, false, 0);
+
+		assertNull(sent(1, 0));
+		assertNull(sent(1, 0));
+		// Delivery is not tracked, invalid parts and unknown messages are ignored
+		assertNull(delivered(1, 1));
+		assertNull(sent(1, 2));
+		assertNull(sent(1, -1));
+		assertNull(sent(2, 1));
+		assertTrue(mTracker.isTracked(1));
+
+		assertEquals("SMS to Alice: sent 2 of 2: Hello", sent(1, 1).mText);
+		assertNull(sent(1, 1));
+	}
+
+	@Test
+	public void expire() {
+		mTracker.track(1, "Alice", "Hello", 2, true, true, 0);
+		mTracker.track(2, "Bob", "Hi", 1, true, false, 500);
+		assertEquals(TIMEOUT, mTracker.nextDeadline());
+
+		assertNull(sent(1, 0));
+		assertNull(delivered(1, 0));
+		assertTrue(mTracker.expire(TIMEOUT - 1).isEmpty());
+
+		List<Report> reports = mTracker.expire(TIMEOUT);
+		assertEquals(1, reports.size());
+		assertEquals("SMS to Alice: sent 1 of 2, delivered 1 of 2, timed out: Hello",
+				reports.get(0).mText);
+		assertEquals(500 + TIMEOUT, mTracker.nextDeadline());
+
+		// Callbacks arriving after the timeout are ignored
+		assertNull(sent(1, 1));
+		assertEquals("SMS to Bob: sent 1 of 1: Hi", sent(2, 0).mText);
+		assertEquals(-1, mTracker.nextDeadline());
+	}
+
+	@Test
+	public void restore() {
+		// The status as restored from the database after a process restart
+		mTracker.restore(new TrackedSms(1, "Alice", "Hello", new int[] { OK, PENDING, PENDING },
+				new int[] { OK, OK, PENDING }, TIMEOUT));
+		assertTrue(mTracker.isTracked(1));
+
+		// Restoring an already tracked SMS message keeps its current status
+		mTracker.restore(new TrackedSms(1, "Alice", "Hello", new int[] { PENDING, PENDING,
+				PENDING }, new int[] { PENDING, PENDING, PENDING }, TIMEOUT));
+		assertNull(sent(1, 2));
+		assertEquals("SMS to Alice: sent 3 of 3, delivered 3 of 3: Hello", delivered(1, 2).mText);
+	}
+
+	@Test
+	public void restoreUntracked() {
+		mTracker.restore(new TrackedSms(1, "Alice", "Hello", new int[] { OK, PENDING },
+				new int[] { UNTRACKED, UNTRACKED }, TIMEOUT));
+		assertEquals("SMS to Alice: sent 2 of 2: Hello", sent(1, 1).mText);
+	}
+}
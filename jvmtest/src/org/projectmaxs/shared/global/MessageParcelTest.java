@@ -0,0 +1,257 @@
+/*
+    This file is part of Project MAXS.
+
+    MAXS and its modules is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    MAXS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with MAXS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.projectmaxs.shared.global;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.projectmaxs.shared.global.messagecontent.AbstractElement;
+import org.projectmaxs.shared.global.messagecontent.CommandHelp;
+import org.projectmaxs.shared.global.messagecontent.Contact;
+import org.projectmaxs.shared.global.messagecontent.Element;
+import org.projectmaxs.shared.global.messagecontent.Sms;
+import org.projectmaxs.shared.global.messagecontent.Text;
+import org.projectmaxs.shared.transport.transform.TransformMessageContent;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+/**
+ * Checks that messages in the current Parcel format and in the legacy format, where the elements
+ * were written with {@link Parcel#writeList(List)}, are read, and that elements without a
+ * registered type ID survive the round trip.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27, manifest = Config.NONE)
+public class MessageParcelTest {
+
+	/**
+	 * An element unknown to ContentCodec, like one a module could define.
+	 */
+	public static class Location extends AbstractElement {
+		final double mLatitude;
+		final double mLongitude;
+
+		public Location(double latitude, double longitude) {
+			mLatitude = latitude;
+			mLongitude = longitude;
+		}
+
+		@Override
+		public int describeContents() {
+			return 0;
+		}
+
+		@Override
+		public void writeToParcel(Parcel dest, int flags) {
+			dest.writeDouble(mLatitude);
+			dest.writeDouble(mLongitude);
+		}
+
+		public static final Parcelable.Creator<Location> CREATOR = new Creator<Location>() {
+			@Override
+			public Location createFromParcel(Parcel source) {
+				return new Location(source.readDouble(), source.readDouble());
+			}
+
+			@Override
+			public Location[] newArray(int size) {
+				return new Location[size];
+			}
+		};
+	}
+
+	private static Message createMessage() {
+		Message message = new Message(7);
+		message.setSuccess(false);
+		message.add(Text.createBoldNL("Header"));
+		message.add(new Text("a < b & c", false));
+
+		Element dir = new Element("directory", "/sdcard", "/sdcard/");
+		Element file = new Element("file", "/sdcard/a.txt", new Text("/sdcard/a.txt 1 KiB"));
+		file.addChildElement(Element.newNonHumandReadable("size", "1024"));
+		dir.addChildElement(file);
+		dir.addChildElement(new Element("hidden"));
+		message.add(dir);
+
+		Contact contact = new Contact("Jane Doe", "lookup-1");
+		contact.setNickname("Jane");
+		contact.addNumber("+49 170 1234567", 2, null, true);
+		contact.addNumber("+49 30 1234567", 0, "Office", false);
+		message.add(contact);
+
+		message.add(new Sms("Jane Doe", "Hi\nthere", Sms.Type.INBOX, 1388534400000L));
+		message.add(new CommandHelp("sms", "send", "<number> <text>", "Send a SMS"));
+		message.add(new CommandHelp("file", "ls", CommandHelp.ArgType.PATH, "List a directory"));
+		return message;
+	}
+
+	/**
+	 * A directory listing with three levels of nested elements.
+	 */
+	private static Message createNestedMessage() {
+		Message message = new Message();
+		for (int i = 0; i < 10; i++) {
+			Element dir = new Element("directory", "/sdcard/dir" + i, "/sdcard/dir" + i + '/');
+			for (int j = 0; j < 10; j++) {
+				String path = "/sdcard/dir" + i + "/file" + j;
+				Element file = new Element("file", path, new Text(path + " 4 KiB"));
+				file.addChildElement(Element.newNonHumandReadable("size", "4096"));
+				dir.addChildElement(file);
+			}
+			message.add(dir);
+		}
+		return message;
+	}
+
+	private static List<AbstractElement> elements(Message message) {
+		List<AbstractElement> elements = new ArrayList<AbstractElement>();
+		Iterator<AbstractElement> it = message.getElementsIt();
+		while (it.hasNext())
+			elements.add(it.next());
+		return elements;
+	}
+
+	private static Parcel writeCurrent(Message message) {
+		Parcel parcel = Parcel.obtain();
+		message.writeToParcel(parcel, 0);
+		parcel.setDataPosition(0);
+		return parcel;
+	}
+
+	/**
+	 * Write the message like MAXS did before ContentCodec was introduced.
+	 */
+	private static Parcel writeLegacy(Message message) {
+		Parcel parcel = Parcel.obtain();
+		parcel.writeByte((byte) (message.isSuccess() ? 1 : 0));
+		parcel.writeInt(message.getId());
+		parcel.writeList(elements(message));
+		parcel.setDataPosition(0);
+		return parcel;
+	}
+
+	private static Message read(Parcel parcel) {
+		Message message = Message.CREATOR.createFromParcel(parcel);
+		assertEquals("Not all bytes read", parcel.dataSize(), parcel.dataPosition());
+		parcel.recycle();
+		return message;
+	}
+
+	private static void assertSameContent(Message expected, Message actual) {
+		assertEquals(expected.getId(), actual.getId());
+		assertEquals(expected.isSuccess(), actual.isSuccess());
+		assertEquals(TransformMessageContent.toXML(expected),
+				TransformMessageContent.toXML(actual));
+		assertArrayEquals(expected.toBytes(), actual.toBytes());
+	}
+
+	@Test
+	public void currentFormatRoundTrip() {
+		Message message = createMessage();
+		assertSameContent(message, read(writeCurrent(message)));
+	}
+
+	@Test
+	public void legacyFormatIsRead() {
+		Message message = createMessage();
+		assertSameContent(message, read(writeLegacy(message)));
+	}
+
+	@Test
+	public void legacyFormatOfSuccessfulMessageIsRead() {
+		Message message = new Message("done", 3);
+		Message read = read(writeLegacy(message));
+		assertTrue(read.isSuccess());
+		assertSameContent(message, read);
+	}
+
+	@Test
+	public void legacyFormatOfEmptyMessageIsRead() {
+		Message message = new Message(Message.NO_ID);
+		message.setSuccess(false);
+		assertSameContent(message, read(writeLegacy(message)));
+	}
+
+	@Test
+	public void unregisteredElementRoundTrip() {
+		Message message = new Message(new Location(52.52, 13.405));
+		Element nested = new Element("place", "Berlin", "Berlin");
+		nested.addChildElement(new Location(48.137, 11.575));
+		message.add(nested);
+
+		for (Message read : new Message[] { read(writeCurrent(message)),
+				Message.fromBytes(message.toBytes()) }) {
+			List<AbstractElement> elements = elements(read);
+			assertEquals(2, elements.size());
+			Location location = (Location) elements.get(0);
+			assertEquals(52.52, location.mLatitude, 0);
+			assertEquals(13.405, location.mLongitude, 0);
+
+			Iterator<AbstractElement> children = ((Element) elements.get(1))
+					.getChildElementIterator();
+			Location child = (Location) children.next();
+			assertEquals(48.137, child.mLatitude, 0);
+			assertFalse(children.hasNext());
+		}
+	}
+
+	@Test
+	public void subclassOfRegisteredElementRoundTrip() {
+		Element subclass = new Element("file", "/sdcard/a.txt", "a.txt") {
+		};
+		Message message = new Message(subclass);
+		Message read = read(writeCurrent(message));
+		// Without its own CREATOR the subclass is read as Element
+		Element element = (Element) elements(read).get(0);
+		assertSame(Element.class, element.getClass());
+		assertEquals("/sdcard/a.txt", element.getText());
+		assertEquals(TransformMessageContent.toXML(message), TransformMessageContent.toXML(read));
+	}
+
+	@Test
+	public void nullElementRoundTrip() {
+		Message message = new Message();
+		message.add(null);
+		assertNull(elements(read(writeCurrent(message))).get(0));
+		assertNull(elements(read(writeLegacy(message))).get(0));
+	}
+
+	@Test
+	public void currentFormatIsSmallerThanLegacyFormat() {
+		Message message = createNestedMessage();
+		Parcel current = writeCurrent(message);
+		Parcel legacy = writeLegacy(message);
+		assertTrue(current.dataSize() + " >= " + legacy.dataSize(),
+				current.dataSize() < legacy.dataSize());
+		assertSameContent(message, read(current));
+		assertSameContent(message, read(legacy));
+	}
+}
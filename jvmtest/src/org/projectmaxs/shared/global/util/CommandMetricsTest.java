@@ -0,0 +1,118 @@
+/*
+    This file is part of Project MAXS.
+
+    MAXS and its modules is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    MAXS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with MAXS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.projectmaxs.shared.global.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import android.os.Bundle;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27, manifest = Config.NONE)
+public class CommandMetricsTest {
+
+	@Before
+	public void setUp() {
+		CommandMetrics.reset();
+	}
+
+	@After
+	public void tearDown() {
+		CommandMetrics.setForwarder(null);
+		CommandMetrics.reset();
+	}
+
+	@Test
+	public void histogramsAreKeyedByHopAndCommand() {
+		CommandMetrics.record(CommandMetrics.MODULE_EXECUTE, "ping", 3);
+		CommandMetrics.record(CommandMetrics.MODULE_EXECUTE, "ping", 5);
+		CommandMetrics.record(CommandMetrics.MODULE_EXECUTE, "shell", 300);
+		CommandMetrics.record(CommandMetrics.TRANSPORT_SEND, null, 1);
+
+		Map<String, LatencyHistogram> histograms = CommandMetrics.getHistograms();
+		assertEquals(3, histograms.size());
+		assertEquals(2, histograms.get("module-execute ping").getCount());
+		assertEquals(300, histograms.get("module-execute shell").getMax());
+		assertEquals(1, histograms.get("transport-send").getCount());
+		assertTrue(CommandMetrics.dump().startsWith("module-execute ping: n=2 "));
+	}
+
+	@Test
+	public void roundTripEndsWithFirstReply() {
+		CommandMetrics.commandStarted(42, "sysinfo");
+		CommandMetrics.commandReplied(42);
+		CommandMetrics.commandReplied(42);
+		CommandMetrics.commandReplied(43);
+
+		Map<String, LatencyHistogram> histograms = CommandMetrics.getHistograms();
+		assertEquals(1, histograms.size());
+		assertEquals(1, histograms.get("round-trip sysinfo").getCount());
+	}
+
+	@Test
+	public void forwardedMetricsAreMergedIntoMain() {
+		final AtomicInteger recorded = new AtomicInteger();
+		CommandMetrics.setForwarder(new CommandMetrics.Forwarder() {
+			@Override
+			public void onRecorded() {
+				recorded.incrementAndGet();
+			}
+		});
+
+		// The module process
+		CommandMetrics.record(CommandMetrics.MODULE_QUEUED, "shell", 2);
+		CommandMetrics.record(CommandMetrics.MODULE_EXECUTE, "shell", 700);
+		assertEquals(2, recorded.get());
+		Bundle bundle = MetricsForwarder.toBundle(CommandMetrics.drain());
+		assertEquals(0, CommandMetrics.getHistograms().get("module-execute shell").getCount());
+		assertTrue(CommandMetrics.drain().isEmpty());
+
+		// The main process, which already recorded some metrics of its own
+		CommandMetrics.reset();
+		CommandMetrics.setForwarder(null);
+		CommandMetrics.record(CommandMetrics.TRANSPORT_RECEIVE, null, 4);
+		CommandMetrics.record(CommandMetrics.MODULE_EXECUTE, "shell", 100);
+		CommandMetrics.merge(MetricsForwarder.fromBundle(bundle));
+		CommandMetrics.merge(MetricsForwarder.fromBundle(bundle));
+
+		Map<String, LatencyHistogram> histograms = CommandMetrics.getHistograms();
+		assertEquals(3, histograms.size());
+		assertEquals(1, histograms.get("transport-receive").getCount());
+		assertEquals(2, histograms.get("module-queued shell").getCount());
+		LatencyHistogram execute = histograms.get("module-execute shell");
+		assertEquals(3, execute.getCount());
+		assertEquals(700, execute.getMax());
+		assertEquals(500, execute.getMean());
+	}
+
+	@Test
+	public void emptyBundle() {
+		assertTrue(MetricsForwarder.fromBundle(null).isEmpty());
+		assertTrue(MetricsForwarder.fromBundle(new Bundle()).isEmpty());
+	}
+}
@@ -0,0 +1,156 @@
+/*
+    This file is part of Project MAXS.
+
+    MAXS and its modules is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    MAXS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with MAXS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.projectmaxs.shared.global.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class InstalledPackageRegistryTest {
+
+	private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+
+	@After
+	public void tearDown() {
+		mExecutor.shutdownNow();
+	}
+
+	/**
+	 * A package source that returns a snapshot of its packages, taken when the query starts, and
+	 * optionally blocks before returning it.
+	 */
+	private static class FakePackageSource implements InstalledPackageRegistry.PackageSource {
+		final List<String> mPackages = new ArrayList<String>();
+		final AtomicInteger mQueries = new AtomicInteger();
+		final CountDownLatch mQueryStarted = new CountDownLatch(1);
+		CountDownLatch mBlock;
+
+		FakePackageSource(String... packages) {
+			for (String p : packages)
+				mPackages.add(p);
+		}
+
+		@Override
+		public Collection<String> getInstalledPackageNames() {
+			mQueries.incrementAndGet();
+			List<String> snapshot;
+			synchronized (mPackages) {
+				snapshot = new ArrayList<String>(mPackages);
+			}
+			mQueryStarted.countDown();
+			if (mBlock != null) {
+				try {
+					mBlock.await(10, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					throw new IllegalStateException(e);
+				}
+			}
+			return snapshot;
+		}
+	}
+
+	@Test
+	public void queriesSourceOnlyOnce() {
+		FakePackageSource source = new FakePackageSource("a", "b");
+		InstalledPackageRegistry registry = new InstalledPackageRegistry(source);
+		assertTrue(registry.isInstalled("a"));
+		assertFalse(registry.isInstalled("c"));
+		assertTrue(registry.isInstalled("b"));
+		assertEquals(1, source.mQueries.get());
+		assertEquals(1, registry.getMisses());
+		assertEquals(2, registry.getHits());
+	}
+
+	@Test
+	public void appliesPackageEvents() {
+		InstalledPackageRegistry registry = new InstalledPackageRegistry(new FakePackageSource(
+				"a"));
+		assertTrue(registry.isInstalled("a"));
+		registry.onPackageAdded("b");
+		registry.onPackageRemoved("a");
+		assertTrue(registry.isInstalled("b"));
+		assertFalse(registry.isInstalled("a"));
+	}
+
+	@Test
+	public void eventsDuringBuildAreNotLost() throws InterruptedException, ExecutionException {
+		final FakePackageSource source = new FakePackageSource("a", "b");
+		source.mBlock = new CountDownLatch(1);
+		final InstalledPackageRegistry registry = new InstalledPackageRegistry(source);
+
+		Future<Boolean> lookup = mExecutor.submit(new Callable<Boolean>() {
+			@Override
+			public Boolean call() {
+				return registry.isInstalled("c");
+			}
+		});
+		assertTrue(source.mQueryStarted.await(10, TimeUnit.SECONDS));
+		// The snapshot of the source is already taken, it does not contain these changes
+		registry.onPackageAdded("c");
+		registry.onPackageRemoved("a");
+		source.mBlock.countDown();
+
+		assertTrue(lookup.get());
+		assertTrue(registry.isInstalled("c"));
+		assertFalse(registry.isInstalled("a"));
+		assertTrue(registry.isInstalled("b"));
+		assertEquals(1, source.mQueries.get());
+	}
+
+	@Test
+	public void invalidationDuringBuildDiscardsSnapshot() throws InterruptedException,
+			ExecutionException {
+		final FakePackageSource source = new FakePackageSource("a");
+		source.mBlock = new CountDownLatch(1);
+		final InstalledPackageRegistry registry = new InstalledPackageRegistry(source);
+
+		Future<Boolean> lookup = mExecutor.submit(new Callable<Boolean>() {
+			@Override
+			public Boolean call() {
+				return registry.isInstalled("a");
+			}
+		});
+		assertTrue(source.mQueryStarted.await(10, TimeUnit.SECONDS));
+		registry.invalidate();
+		source.mBlock.countDown();
+		assertTrue(lookup.get());
+
+		source.mBlock = null;
+		synchronized (source.mPackages) {
+			source.mPackages.clear();
+		}
+		// The snapshot taken before the invalidation must not be used
+		assertFalse(registry.isInstalled("a"));
+		assertEquals(2, source.mQueries.get());
+	}
+}
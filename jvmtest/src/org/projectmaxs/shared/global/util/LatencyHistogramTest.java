@@ -0,0 +1,198 @@
+/*
+    This file is part of Project MAXS.
+
+    MAXS and its modules is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    MAXS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with MAXS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.projectmaxs.shared.global.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+	@Test
+	public void bucketBoundaries() {
+		assertEquals(0, LatencyHistogram.bucketFor(0));
+		assertEquals(0, LatencyHistogram.bucketFor(1));
+		assertEquals(1, LatencyHistogram.bucketFor(2));
+		assertEquals(1, LatencyHistogram.bucketFor(3));
+		assertEquals(2, LatencyHistogram.bucketFor(4));
+		assertEquals(2, LatencyHistogram.bucketFor(7));
+		assertEquals(9, LatencyHistogram.bucketFor(1023));
+		assertEquals(10, LatencyHistogram.bucketFor(1024));
+		assertEquals(LatencyHistogram.BUCKET_COUNT - 1, LatencyHistogram.bucketFor(1L << 40));
+		assertEquals(LatencyHistogram.BUCKET_COUNT - 1,
+				LatencyHistogram.bucketFor(Long.MAX_VALUE));
+	}
+
+	@Test
+	public void upperBounds() {
+		assertEquals(1, LatencyHistogram.upperBoundOf(0));
+		assertEquals(3, LatencyHistogram.upperBoundOf(1));
+		assertEquals(1023, LatencyHistogram.upperBoundOf(9));
+		assertEquals(Long.MAX_VALUE, LatencyHistogram.upperBoundOf(LatencyHistogram.BUCKET_COUNT
+				- 1));
+		// Every value lies within the upper bound of its bucket and above the previous one
+		for (long millis = 0; millis < 5000; millis++) {
+			int bucket = LatencyHistogram.bucketFor(millis);
+			assertTrue(millis <= LatencyHistogram.upperBoundOf(bucket));
+			if (bucket > 0) assertTrue(millis > LatencyHistogram.upperBoundOf(bucket - 1));
+		}
+	}
+
+	@Test
+	public void emptyHistogram() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		assertEquals(0, histogram.getCount());
+		assertEquals(0, histogram.getMean());
+		assertEquals(0, histogram.getMax());
+		assertEquals(0, histogram.getPercentile(50));
+		assertEquals(0, histogram.getPercentile(100));
+		assertNull(histogram.drain());
+	}
+
+	@Test
+	public void percentilesAreBucketUpperBounds() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (int millis = 1; millis <= 100; millis++) {
+			histogram.record(millis);
+		}
+		assertEquals(100, histogram.getCount());
+		assertEquals(50, histogram.getMean());
+		assertEquals(100, histogram.getMax());
+		// Rank 1 is 1ms, in bucket [0, 1]
+		assertEquals(1, histogram.getPercentile(0));
+		assertEquals(1, histogram.getPercentile(1));
+		// Rank 50 is 50ms, in bucket [32, 63]
+		assertEquals(63, histogram.getPercentile(50));
+		// Rank 64 is 64ms, in bucket [64, 127], which is capped by the max
+		assertEquals(63, histogram.getPercentile(63));
+		assertEquals(100, histogram.getPercentile(64));
+		assertEquals(100, histogram.getPercentile(90));
+		assertEquals(100, histogram.getPercentile(100));
+	}
+
+	@Test
+	public void singleOutlier() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (int i = 0; i < 99; i++) {
+			histogram.record(5);
+		}
+		histogram.record(10000);
+		assertEquals(7, histogram.getPercentile(50));
+		assertEquals(7, histogram.getPercentile(99));
+		assertEquals(10000, histogram.getPercentile(99.5));
+		assertEquals(10000, histogram.getMax());
+		assertEquals((99 * 5 + 10000) / 100, histogram.getMean());
+	}
+
+	@Test
+	public void negativeLatenciesAreRecordedAsZero() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		histogram.record(-5);
+		assertEquals(1, histogram.getCount());
+		assertEquals(0, histogram.getMax());
+		assertEquals(0, histogram.getMean());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void invalidPercentile() {
+		new LatencyHistogram().getPercentile(100.1);
+	}
+
+	@Test
+	public void drainAndAdd() {
+		LatencyHistogram source = new LatencyHistogram();
+		LatencyHistogram expected = new LatencyHistogram();
+		for (int millis = 0; millis < 1000; millis += 7) {
+			source.record(millis);
+			expected.record(millis);
+		}
+		LatencyHistogram target = new LatencyHistogram();
+		target.add(source.drain());
+
+		assertEquals(0, source.getCount());
+		assertNull(source.drain());
+		assertEquals(expected.getCount(), target.getCount());
+		assertEquals(expected.getMean(), target.getMean());
+		assertEquals(expected.getMax(), target.getMax());
+		for (double percentile : new double[] { 0, 10, 50, 90, 99, 100 }) {
+			assertEquals(expected.getPercentile(percentile), target.getPercentile(percentile));
+		}
+
+		// Adding keeps the max of both
+		LatencyHistogram other = new LatencyHistogram();
+		other.record(3);
+		target.add(other.drain());
+		assertEquals(expected.getCount() + 1, target.getCount());
+		assertEquals(expected.getMax(), target.getMax());
+	}
+
+	@Test
+	public void drainWhileRecordingLosesNothing() throws InterruptedException {
+		final LatencyHistogram source = new LatencyHistogram();
+		final LatencyHistogram target = new LatencyHistogram();
+		final int threads = 4;
+		final int perThread = 100000;
+		final CountDownLatch done = new CountDownLatch(threads);
+		for (int t = 0; t < threads; t++) {
+			new Thread() {
+				@Override
+				public void run() {
+					for (int i = 0; i < perThread; i++) {
+						source.record(i % 100);
+					}
+					done.countDown();
+				}
+			}.start();
+		}
+		while (done.getCount() > 0) {
+			long[] drained = source.drain();
+			if (drained != null) target.add(drained);
+		}
+		long[] drained = source.drain();
+		if (drained != null) target.add(drained);
+
+		assertEquals(threads * perThread, target.getCount());
+		long[] all = target.drain();
+		long bucketSum = 0;
+		for (int i = 3; i < all.length; i++) {
+			bucketSum += all[i];
+		}
+		assertEquals(threads * perThread, bucketSum);
+		assertEquals(threads * (long) perThread * 99 / 2, all[1]);
+		assertEquals(99, all[2]);
+	}
+
+	@Test
+	public void drainedArrayLayout() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		histogram.record(1);
+		histogram.record(6);
+		long[] expected = new long[LatencyHistogram.ARRAY_LENGTH];
+		expected[0] = 2;
+		expected[1] = 7;
+		expected[2] = 6;
+		expected[3 + 0] = 1;
+		expected[3 + 2] = 1;
+		assertArrayEquals(expected, histogram.drain());
+	}
+}
@@ -0,0 +1,343 @@
+/*
+    This file is part of Project MAXS.
+
+    MAXS and its modules is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    MAXS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with MAXS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.projectmaxs.shared.global.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.projectmaxs.jvmtest.LocalServiceContext;
+import org.projectmaxs.shared.global.Message;
+import org.projectmaxs.shared.global.aidl.IMAXSMessageChannel;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import android.content.Intent;
+import android.os.IBinder;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27, manifest = Config.NONE)
+public class MessageChannelTest {
+
+	@Test
+	public void batchesAreLimitedByCount() throws InterruptedException {
+		RecordingService service = new RecordingService();
+		RecordingMessageChannel channel = new RecordingMessageChannel(service);
+
+		final int count = MessageChannel.MAX_BATCH_SIZE * 10;
+		for (int i = 0; i < count; i++) {
+			channel.send(new Message("Notification #" + i, i + 1));
+		}
+		service.awaitMessages(count);
+
+		// The channel counts a batch after the service returned from deliver()
+		channel.awaitDelivered(count);
+		assertEquals(0, channel.mSentViaIntent.size());
+		for (List<Message> batch : service.mBatches) {
+			assertTrue(batch.size() <= MessageChannel.MAX_BATCH_SIZE);
+		}
+		assertInOrder(service.getMessages(), count);
+	}
+
+	@Test
+	public void handOffIsRecordedPerMessage() throws InterruptedException {
+		CommandMetrics.reset();
+		RecordingService service = new RecordingService();
+		RecordingMessageChannel channel = new RecordingMessageChannel(service);
+
+		final int count = MessageChannel.MAX_BATCH_SIZE * 2;
+		for (int i = 0; i < count; i++) {
+			channel.send(new Message("Notification #" + i, i + 1));
+		}
+		service.awaitMessages(count);
+		channel.awaitDelivered(count);
+		channel.sendNow(new Message("Urgent", count + 1));
+
+		LatencyHistogram histogram = CommandMetrics.getHistograms().get(
+				CommandMetrics.MODULE_HAND_OFF);
+		assertEquals(count + 1, histogram.getCount());
+		CommandMetrics.reset();
+	}
+
+	@Test
+	public void batchesAreLimitedByParcelSize() throws InterruptedException {
+		RecordingService service = new RecordingService();
+		RecordingMessageChannel channel = new RecordingMessageChannel(service);
+
+		// About 100 KiB per parcelled message, so that only a few messages fit into one batch
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 50 * 1024; i++) {
+			sb.append('x');
+		}
+		final String line = sb.toString();
+		final int count = 40;
+		for (int i = 0; i < count; i++) {
+			channel.send(new Message("SMS #" + i + ' ' + line, i + 1));
+		}
+		service.awaitMessages(count);
+
+		// The channel counts a batch after the service returned from deliver()
+		channel.awaitDelivered(count);
+		assertEquals(0, channel.mSentViaIntent.size());
+		for (List<Message> batch : service.mBatches) {
+			int bytes = 4;
+			for (Message message : batch) {
+				bytes += 4 + message.getParcelSize();
+			}
+			assertTrue(bytes + " bytes", bytes <= MessageChannel.MAX_BATCH_BYTES);
+		}
+		assertTrue(service.mBatches.size() >= count / 4);
+		assertInOrder(service.getMessages(), count);
+	}
+
+	@Test
+	public void oversizedMessageIsDeliveredAlone() throws InterruptedException {
+		RecordingService service = new RecordingService();
+		RecordingMessageChannel channel = new RecordingMessageChannel(service);
+
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < MessageChannel.MAX_BATCH_BYTES; i++) {
+			sb.append('x');
+		}
+		channel.send(new Message("Huge"));
+		channel.send(new Message(sb.toString()));
+		channel.send(new Message("Small"));
+		service.awaitMessages(3);
+
+		for (List<Message> batch : service.mBatches) {
+			for (Message message : batch) {
+				if (message.getParcelSize() > MessageChannel.MAX_BATCH_BYTES) {
+					assertEquals(1, batch.size());
+				}
+			}
+		}
+	}
+
+	@Test
+	public void drainedCallbackWaitsForHandOff() throws InterruptedException {
+		RecordingService service = new RecordingService();
+		service.mRelease = new CountDownLatch(1);
+		RecordingMessageChannel channel = new RecordingMessageChannel(service);
+
+		// Nothing to deliver, the callback runs right away
+		final AtomicBoolean drained = new AtomicBoolean();
+		channel.runWhenDrained(new Runnable() {
+			@Override
+			public void run() {
+				drained.set(true);
+			}
+		});
+		assertTrue(drained.getAndSet(false));
+
+		channel.send(new Message("Reply", 1));
+		final CountDownLatch callback = new CountDownLatch(1);
+		channel.runWhenDrained(new Runnable() {
+			@Override
+			public void run() {
+				callback.countDown();
+			}
+		});
+		assertFalse(channel.isDrained());
+		assertFalse(callback.await(100, TimeUnit.MILLISECONDS));
+
+		service.mRelease.countDown();
+		assertTrue(callback.await(10, TimeUnit.SECONDS));
+		assertTrue(channel.isDrained());
+		assertInOrder(service.getMessages(), 1);
+	}
+
+	@Test
+	public void sendNowDoesNotOvertakeQueuedMessages() throws InterruptedException {
+		RecordingService service = new RecordingService();
+		service.mRelease = new CountDownLatch(1);
+		RecordingMessageChannel channel = new RecordingMessageChannel(service);
+
+		final int count = 10;
+		for (int i = 0; i < count; i++) {
+			channel.send(new Message("Notification #" + i, i + 1));
+		}
+		Thread release = new Thread() {
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(100);
+				} catch (InterruptedException e) {
+					return;
+				}
+				service.mRelease.countDown();
+			}
+		};
+		release.start();
+		// Blocks until the batch in flight was delivered
+		channel.sendNow(new Message("Last", count + 1));
+		release.join();
+		assertTrue(channel.isDrained());
+
+		assertInOrder(service.getHandedOff(), count + 1);
+	}
+
+	@Test
+	public void queueFullFallbackKeepsOrder() throws InterruptedException {
+		RecordingService service = new RecordingService();
+		service.mRelease = new CountDownLatch(1);
+		RecordingMessageChannel channel = new RecordingMessageChannel(service);
+
+		// The first batch is blocked in deliver(), then the queue fills up and the offer of the
+		// last message times out
+		final int count = MessageChannel.MAX_BATCH_SIZE + MessageChannel.QUEUE_CAPACITY + 1;
+		Thread release = new Thread() {
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(3000);
+				} catch (InterruptedException e) {
+					return;
+				}
+				service.mRelease.countDown();
+			}
+		};
+		release.start();
+		for (int i = 0; i < count; i++) {
+			channel.send(new Message("Notification #" + i, i + 1));
+		}
+		release.join();
+		final CountDownLatch drained = new CountDownLatch(1);
+		channel.runWhenDrained(new Runnable() {
+			@Override
+			public void run() {
+				drained.countDown();
+			}
+		});
+		assertTrue(drained.await(10, TimeUnit.SECONDS));
+		assertFalse(channel.mSentViaIntent.isEmpty());
+
+		// Once the fallback sent a message, the following messages are queued again
+		assertInOrder(service.getHandedOff(), count);
+	}
+
+	private static void assertInOrder(List<Message> messages, int count) {
+		assertEquals(count, messages.size());
+		for (int i = 0; i < count; i++) {
+			assertEquals(i + 1, messages.get(i).getId());
+		}
+	}
+
+	private static class RecordingService implements IMAXSMessageChannel {
+		private final List<List<Message>> mBatches = new ArrayList<List<Message>>();
+
+		/**
+		 * The messages in the order they were handed off, either to the service or with
+		 * sendViaIntent().
+		 */
+		private final List<Message> mHandedOff = new ArrayList<Message>();
+
+		private int mMessageCount;
+
+		/**
+		 * If set, deliver() blocks until the latch is released.
+		 */
+		private volatile CountDownLatch mRelease;
+
+		@Override
+		public void deliver(List<Message> messages) {
+			CountDownLatch release = mRelease;
+			if (release != null) {
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					throw new AssertionError(e);
+				}
+			}
+			synchronized (this) {
+				mBatches.add(new ArrayList<Message>(messages));
+				mHandedOff.addAll(messages);
+				mMessageCount += messages.size();
+				notifyAll();
+			}
+		}
+
+		@Override
+		public IBinder asBinder() {
+			return null;
+		}
+
+		synchronized void sentViaIntent(Message message) {
+			mHandedOff.add(message);
+		}
+
+		synchronized List<Message> getHandedOff() {
+			return new ArrayList<Message>(mHandedOff);
+		}
+
+		synchronized List<Message> getMessages() {
+			List<Message> res = new ArrayList<Message>();
+			for (List<Message> batch : mBatches) {
+				res.addAll(batch);
+			}
+			return res;
+		}
+
+		synchronized void awaitMessages(int count) throws InterruptedException {
+			final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+			while (mMessageCount < count) {
+				final long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+				if (remaining <= 0) {
+					throw new AssertionError("Only " + mMessageCount + " messages delivered");
+				}
+				wait(remaining);
+			}
+		}
+	}
+
+	private static class RecordingMessageChannel extends MessageChannel {
+		private final RecordingService mService;
+		private final List<Message> mSentViaIntent = new ArrayList<Message>();
+
+		private RecordingMessageChannel(RecordingService service) {
+			super(new LocalServiceContext(service), new Intent());
+			mService = service;
+		}
+
+		@Override
+		protected void sendViaIntent(Message message) {
+			synchronized (mSentViaIntent) {
+				mSentViaIntent.add(message);
+			}
+			mService.sentViaIntent(message);
+		}
+
+		void awaitDelivered(long count) throws InterruptedException {
+			final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+			while (getDeliveredMessages() < count) {
+				if (System.nanoTime() > deadline) {
+					throw new AssertionError("Only " + getDeliveredMessages() + " counted");
+				}
+				Thread.sleep(1);
+			}
+			assertEquals(count, getDeliveredMessages());
+		}
+	}
+}
@@ -0,0 +1,270 @@
+/*
+    This file is part of Project MAXS.
+
+    MAXS and its modules is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    MAXS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with MAXS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.projectmaxs.shared.module;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CommandExecutorTest {
+
+	private static final long TIMEOUT_SECONDS = 10;
+
+	private CommandExecutor mExecutor;
+
+	@Before
+	public void setUp() {
+		mExecutor = new CommandExecutor("test");
+	}
+
+	@After
+	public void tearDown() throws InterruptedException {
+		mExecutor.shutdown();
+		assertTrue(mExecutor.awaitTermination(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void quickCommandIsNotStarvedBehindBlockingCommand() throws InterruptedException {
+		final SupraCommand locate = new SupraCommand("locate").setConcurrent();
+		final SupraCommand ping = new SupraCommand("ping").setConcurrent();
+		final CountDownLatch release = new CountDownLatch(1);
+
+		// More blocking commands than workers, the quick commands are queued after all of them
+		for (int i = 0; i < CommandExecutor.DEFAULT_WORKER_COUNT * 2; i++) {
+			mExecutor.execute(new BlockingTask(locate.setMaxConcurrency(1), release));
+		}
+		final CountDownLatch pinged = new CountDownLatch(10);
+		for (int i = 0; i < 10; i++) {
+			mExecutor.execute(new CountingTask(ping, pinged));
+		}
+
+		assertTrue(pinged.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+		// The blocking commands are still waiting for their turn
+		awaitRunning(1);
+		assertEquals(CommandExecutor.DEFAULT_WORKER_COUNT * 2 - 1, mExecutor.getQueueDepth());
+		assertTrue(mExecutor.getMaxQueueDepth() >= CommandExecutor.DEFAULT_WORKER_COUNT * 2 - 1);
+
+		release.countDown();
+		awaitIdle();
+		assertEquals(CommandExecutor.DEFAULT_WORKER_COUNT * 2 + 10, mExecutor.getExecutedCount());
+	}
+
+	@Test
+	public void quickCommandIsNotStarvedWithAllWorkersBusyButOne() throws InterruptedException {
+		final SupraCommand shell = new SupraCommand("shell").setConcurrent();
+		final SupraCommand sysinfo = new SupraCommand("sysinfo").setConcurrent();
+		final CountDownLatch release = new CountDownLatch(1);
+
+		for (int i = 0; i < CommandExecutor.DEFAULT_WORKER_COUNT - 1; i++) {
+			mExecutor.execute(new BlockingTask(shell, release));
+		}
+		final CountDownLatch done = new CountDownLatch(1);
+		mExecutor.execute(new CountingTask(sysinfo, done));
+
+		assertTrue(done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+		release.countDown();
+		awaitIdle();
+	}
+
+	@Test
+	public void serialCommandRunsExclusively() throws InterruptedException {
+		final SupraCommand serial = new SupraCommand("serial");
+		final SupraCommand other = new SupraCommand("other").setConcurrent();
+		final AtomicInteger concurrent = new AtomicInteger();
+		final AtomicInteger maxConcurrentWithSerial = new AtomicInteger();
+		final CountDownLatch done = new CountDownLatch(20);
+
+		for (int i = 0; i < 20; i++) {
+			final boolean isSerial = i % 4 == 0;
+			mExecutor.execute(new CommandExecutor.Task(isSerial ? serial : other) {
+				@Override
+				public void run() {
+					int running = concurrent.incrementAndGet();
+					if (isSerial && running > maxConcurrentWithSerial.get()) {
+						maxConcurrentWithSerial.set(running);
+					}
+					sleep(5);
+					if (isSerial && concurrent.get() > maxConcurrentWithSerial.get()) {
+						maxConcurrentWithSerial.set(concurrent.get());
+					}
+					concurrent.decrementAndGet();
+					done.countDown();
+				}
+
+				@Override
+				protected void onTimeout() {
+				}
+			});
+		}
+
+		assertTrue(done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+		assertEquals(1, maxConcurrentWithSerial.get());
+	}
+
+	@Test
+	public void blockingCommandTimesOut() throws InterruptedException {
+		final SupraCommand slow = new SupraCommand("slow").setTimeout(50);
+		final CountDownLatch timedOut = new CountDownLatch(1);
+		final CountDownLatch never = new CountDownLatch(1);
+		final BlockingTask task = new BlockingTask(slow, never) {
+			@Override
+			protected void onTimeout() {
+				timedOut.countDown();
+			}
+		};
+		mExecutor.execute(task);
+
+		assertTrue(timedOut.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+		awaitIdle();
+		assertTrue(task.isTimedOut());
+		assertTrue(task.mInterrupted);
+		assertFalse(task.claimReply());
+		assertEquals(1, mExecutor.getTimedOutCount());
+	}
+
+	@Test
+	public void exactlyOneReplyWhenTimeoutRacesCompletion() throws InterruptedException {
+		final int count = 500;
+		final AtomicInteger replies = new AtomicInteger();
+		final CountDownLatch done = new CountDownLatch(count);
+		// The timeout fires about when the task sends its result
+		final SupraCommand racy = new SupraCommand("racy").setConcurrent().setTimeout(1);
+
+		for (int i = 0; i < count; i++) {
+			mExecutor.execute(new CommandExecutor.Task(racy) {
+				@Override
+				public void run() {
+					long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(1);
+					while (System.nanoTime() < end) {
+						// Busy wait, as the result is computed even if the task was interrupted
+					}
+					if (claimReply()) replies.incrementAndGet();
+					done.countDown();
+				}
+
+				@Override
+				protected void onTimeout() {
+					replies.incrementAndGet();
+				}
+			});
+		}
+
+		assertTrue(done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+		awaitIdle();
+		// Give late timeout handlers the chance to (wrongly) send a second reply
+		sleep(50);
+		assertEquals(count, replies.get());
+	}
+
+	@Test
+	public void shutdownStopsTimeoutThread() throws InterruptedException {
+		final SupraCommand slow = new SupraCommand("slow").setTimeout(TimeUnit.HOURS.toMillis(1));
+		final CountDownLatch done = new CountDownLatch(1);
+		mExecutor.execute(new CountingTask(slow, done));
+		assertTrue(done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+		Thread timeoutThread = null;
+		for (Thread thread : Thread.getAllStackTraces().keySet()) {
+			if (thread.getName().startsWith("test Timeout")) timeoutThread = thread;
+		}
+		assertTrue(timeoutThread != null);
+		assertTrue(timeoutThread.isDaemon());
+
+		mExecutor.shutdown();
+		assertTrue(mExecutor.awaitTermination(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+		timeoutThread.join(TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS));
+		assertFalse(timeoutThread.isAlive());
+	}
+
+	private void awaitIdle() throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+		while (!mExecutor.isIdle()) {
+			if (System.nanoTime() > deadline) throw new AssertionError("Executor not idle");
+			Thread.sleep(1);
+		}
+	}
+
+	private void awaitRunning(int running) throws InterruptedException {
+		// The workers finish their bookkeeping after the task signaled its completion
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+		while (mExecutor.getRunningCount() != running) {
+			if (System.nanoTime() > deadline) {
+				assertEquals(running, mExecutor.getRunningCount());
+			}
+			Thread.sleep(1);
+		}
+	}
+
+	private static void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static class BlockingTask extends CommandExecutor.Task {
+		private final CountDownLatch mRelease;
+
+		private volatile boolean mInterrupted;
+
+		private BlockingTask(SupraCommand supraCommand, CountDownLatch release) {
+			super(supraCommand);
+			mRelease = release;
+		}
+
+		@Override
+		public void run() {
+			try {
+				mRelease.await();
+			} catch (InterruptedException e) {
+				mInterrupted = true;
+			}
+		}
+
+		@Override
+		protected void onTimeout() {
+		}
+	}
+
+	private static class CountingTask extends CommandExecutor.Task {
+		private final CountDownLatch mDone;
+
+		private CountingTask(SupraCommand supraCommand, CountDownLatch done) {
+			super(supraCommand);
+			mDone = done;
+		}
+
+		@Override
+		public void run() {
+			mDone.countDown();
+		}
+
+		@Override
+		protected void onTimeout() {
+		}
+	}
+}
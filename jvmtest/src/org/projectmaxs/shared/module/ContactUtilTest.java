@@ -0,0 +1,119 @@
+/*
+    This file is part of Project MAXS.
+
+    MAXS and its modules is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    MAXS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with MAXS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.projectmaxs.shared.module;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.projectmaxs.shared.global.messagecontent.Contact;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27, manifest = Config.NONE)
+public class ContactUtilTest {
+
+	private static final int CONTACTS = 1000;
+
+	private FakeContactsProvider mProvider;
+	private ContactUtil mContactUtil;
+
+	static String number(int i) {
+		return "+49 170 " + (1000000 + i);
+	}
+
+	@Before
+	public void setUp() {
+		mProvider = FakeContactsProvider.setUpContactsModule();
+		for (int i = 0; i < CONTACTS; i++) {
+			mProvider.addContact("lookup-" + i, "Contact " + i, number(i), "030-" + (2000000 + i));
+		}
+		mContactUtil = ContactUtil.getInstance(RuntimeEnvironment.application);
+		mProvider.resetCounters();
+	}
+
+	@Test
+	public void resolvesNumbersWithoutFullScan() {
+		Map<String, Contact> res = mContactUtil.contactsByNumbers(Arrays.asList("+491701000001",
+				"+49 170 1000500", "0302000002", "+15555555555", "not a number"));
+
+		assertEquals("Contact 1", res.get("+491701000001").getDisplayName());
+		assertEquals("Contact 500", res.get("+49 170 1000500").getDisplayName());
+		assertEquals("Contact 2", res.get("0302000002").getDisplayName());
+		assertNull(res.get("+15555555555"));
+		assertTrue(res.containsKey("not a number"));
+		assertNull(res.get("not a number"));
+		// The contacts are returned with all their numbers
+		assertEquals(2, res.get("+491701000001").getNumbers().size());
+
+		// One query matching the numbers, one retrieving the numbers of the matched contacts
+		assertEquals(2, mProvider.mQueries.get());
+		assertTrue(mProvider.mSelections.get(0).contains("PHONE_NUMBERS_EQUAL"));
+		// Only the matching number rows, and the numbers of the three contacts
+		assertEquals(3 + 3 * 2, mProvider.mReturnedRows.get());
+	}
+
+	@Test
+	public void resolvesManyNumbersInChunks() {
+		List<String> numbers = new ArrayList<String>();
+		for (int i = 0; i < 120; i++)
+			numbers.add(number(i * 5));
+		Map<String, Contact> res = mContactUtil.contactsByNumbers(numbers);
+		for (int i = 0; i < 120; i++)
+			assertEquals("Contact " + (i * 5), res.get(number(i * 5)).getDisplayName());
+		// Three chunks of matching numbers, one query retrieving the contact numbers
+		assertEquals(4, mProvider.mQueries.get());
+	}
+
+	@Test
+	public void cachedNumbersAreNotQueriedAgain() {
+		List<String> numbers = Arrays.asList(number(1), number(2), number(3));
+		mContactUtil.contactsByNumbers(numbers);
+		mProvider.resetCounters();
+		Map<String, Contact> res = mContactUtil.contactsByNumbers(numbers);
+		assertEquals(0, mProvider.mQueries.get());
+		assertEquals("Contact 3", res.get(number(3)).getDisplayName());
+		assertEquals("Contact 2", mContactUtil.contactByNumber(number(2)).getDisplayName());
+		assertEquals(0, mProvider.mQueries.get());
+	}
+
+	@Test
+	public void cacheHandsOutCopies() {
+		Contact first = mContactUtil.contactByNumber(number(7));
+		first.addNumber("+1234567890");
+		first.setNickname("modified");
+
+		Contact second = mContactUtil.contactByNumber(number(7));
+		assertNotSame(first, second);
+		assertEquals(2, second.getNumbers().size());
+		assertNull(second.getNickname());
+		// The phone lookup and the numbers query of the first lookup only
+		assertEquals(2, mProvider.mQueries.get());
+	}
+}
@@ -0,0 +1,175 @@
+/*
+    This file is part of Project MAXS.
+
+    MAXS and its modules is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    MAXS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with MAXS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.projectmaxs.shared.module;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.projectmaxs.jvmtest.TestUtil;
+import org.projectmaxs.shared.global.util.InstalledPackageRegistry;
+import org.projectmaxs.shared.global.util.PackageManagerUtil;
+import org.robolectric.shadows.ShadowContentResolver;
+
+import android.content.ContentProvider;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.provider.ContactsContract.CommonDataKinds.Phone;
+
+/**
+ * A stand-in for the contacts provider, as proxied by the contactsread module, backed by an
+ * in-memory SQLite database. It supports the data and the phone lookup URIs.
+ * <p>
+ * SQLite lacks Android's PHONE_NUMBERS_EQUAL() function, it is replaced by a comparison of the
+ * numbers without separators. The provider counts the queries and the returned rows.
+ * </p>
+ */
+public class FakeContactsProvider extends ContentProvider {
+
+	private static final String TABLE_NAME = "data";
+
+	private SQLiteDatabase mDatabase;
+
+	public final AtomicInteger mQueries = new AtomicInteger();
+	public final AtomicInteger mReturnedRows = new AtomicInteger();
+	public final List<String> mSelections = new ArrayList<String>();
+
+	@Override
+	public boolean onCreate() {
+		mDatabase = SQLiteDatabase.create(null);
+		mDatabase.execSQL("CREATE TABLE " + TABLE_NAME + " (_id INTEGER PRIMARY KEY, lookup TEXT, "
+				+ "display_name TEXT, mimetype TEXT, data1 TEXT, data2 INTEGER, data3 TEXT, "
+				+ "is_super_primary INTEGER)");
+		return true;
+	}
+
+	/**
+	 * Set up the contactsread module as installed and backed by a fake contacts provider.
+	 * 
+	 * @return the fake contacts provider
+	 */
+	public static FakeContactsProvider setUpContactsModule() {
+		TestUtil.resetSingleton(PackageManagerUtil.class, "sPackageManagerUtil");
+		TestUtil.setSingleton(InstalledPackageRegistry.class, "sInstalledPackageRegistry",
+				new InstalledPackageRegistry(new InstalledPackageRegistry.PackageSource() {
+					@Override
+					public Collection<String> getInstalledPackageNames() {
+						return Collections.singleton(ContactUtil.CONTACTS_MODULE_PACKAGE);
+					}
+				}));
+		TestUtil.resetSingleton(ContactUtil.class, "sContactUtil");
+
+		FakeContactsProvider provider = new FakeContactsProvider();
+		provider.onCreate();
+		ShadowContentResolver.registerProviderInternal(ContactUtil.CONTACTS_MODULE_PACKAGE,
+				provider);
+		return provider;
+	}
+
+	public void addContact(String lookupKey, String displayName, String... numbers) {
+		mDatabase.beginTransaction();
+		try {
+			ContentValues values = new ContentValues();
+			values.put("lookup", lookupKey);
+			values.put("display_name", displayName);
+			values.put("mimetype", Phone.CONTENT_ITEM_TYPE);
+			for (int i = 0; i < numbers.length; i++) {
+				values.put("data1", numbers[i]);
+				values.put("data2", i == 0 ? Phone.TYPE_MOBILE : Phone.TYPE_HOME);
+				values.put("is_super_primary", i == 0 ? 1 : 0);
+				mDatabase.insert(TABLE_NAME, null, values);
+			}
+			mDatabase.setTransactionSuccessful();
+		} finally {
+			mDatabase.endTransaction();
+		}
+	}
+
+	public void resetCounters() {
+		mQueries.set(0);
+		mReturnedRows.set(0);
+		synchronized (mSelections) {
+			mSelections.clear();
+		}
+	}
+
+	@Override
+	public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
+			String sortOrder) {
+		mQueries.incrementAndGet();
+		synchronized (mSelections) {
+			mSelections.add(selection);
+		}
+		final Cursor cursor;
+		if (uri.getPathSegments().contains("phone_lookup")) {
+			String number = uri.getLastPathSegment();
+			cursor = mDatabase.query(true, TABLE_NAME, projection, stripped("data1") + " = ?",
+					new String[] { strip(number) }, null, null, null, null);
+		} else {
+			if (selection != null && selection.contains("PHONE_NUMBERS_EQUAL")) {
+				selection = selection.replaceAll("PHONE_NUMBERS_EQUAL\\((\\w+), \\?\\)",
+						stripped("$1") + " = ?");
+				selectionArgs = strip(selectionArgs);
+			}
+			cursor = mDatabase.query(TABLE_NAME, projection, selection, selectionArgs, null, null,
+					sortOrder);
+		}
+		mReturnedRows.addAndGet(cursor.getCount());
+		return cursor;
+	}
+
+	private static String stripped(String column) {
+		return "replace(replace(" + column + ", ' ', ''), '-', '')";
+	}
+
+	private static String strip(String number) {
+		return number.replace(" ", "").replace("-", "");
+	}
+
+	private static String[] strip(String[] args) {
+		if (args == null) return null;
+		String[] res = new String[args.length];
+		for (int i = 0; i < args.length; i++)
+			res[i] = strip(args[i]);
+		return res;
+	}
+
+	@Override
+	public String getType(Uri uri) {
+		return null;
+	}
+
+	@Override
+	public Uri insert(Uri uri, ContentValues values) {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public int delete(Uri uri, String selection, String[] selectionArgs) {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+		throw new UnsupportedOperationException();
+	}
+}
@@ -0,0 +1,285 @@
+/*
+    This file is part of Project MAXS.
+
+    MAXS and its modules is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    MAXS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with MAXS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.projectmaxs.transport.xmpp.database;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.projectmaxs.jvmtest.TestUtil;
+import org.projectmaxs.shared.global.Message;
+import org.projectmaxs.shared.global.messagecontent.AbstractElement;
+import org.projectmaxs.shared.global.messagecontent.Element;
+import org.projectmaxs.shared.transport.transform.TransformMessageContent;
+import org.projectmaxs.transport.xmpp.database.MessagesTable.Entry;
+import org.projectmaxs.transport.xmpp.database.MessagesTable.EntryConsumer;
+import org.projectmaxs.transport.xmpp.util.Constants;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import android.content.ContentValues;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Parcel;
+
+/**
+ * Tests the durable message queue, including a process that gets killed while the queue is
+ * flushed, and the upgrade of a database with queued messages from before the queue.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27, manifest = Config.NONE)
+public class MessagesTableTest {
+
+	private MessagesTable mTable;
+
+	@Before
+	public void setUp() {
+		restart();
+	}
+
+	/**
+	 * Simulate a restart of the process, the database is opened again.
+	 */
+	private void restart() {
+		TestUtil.resetSingleton(XMPPDatabase.class, "sXMPPDatabase");
+		TestUtil.resetSingleton(MessagesTable.class, "sXMPPMessageTable");
+		mTable = MessagesTable.getInstance(RuntimeEnvironment.application);
+	}
+
+	private static Message message(int i) {
+		return new Message("Reply " + i);
+	}
+
+	private static String text(Message message) {
+		return TransformMessageContent.toString(message).trim();
+	}
+
+	private void addMessages(int from, int to) {
+		for (int i = from; i < to; i++)
+			mTable.addMessage(message(i), Constants.ACTION_SEND_AS_MESSAGE, "master@example.org/"
+					+ i, "thread-" + i);
+	}
+
+	private List<String> consumeAll() {
+		final List<String> texts = new ArrayList<String>();
+		mTable.consumeAll(new EntryConsumer() {
+			@Override
+			public boolean consume(Entry entry) {
+				texts.add(text(entry.mMessage));
+				return true;
+			}
+		});
+		return texts;
+	}
+
+	private static List<String> texts(int from, int to) {
+		List<String> texts = new ArrayList<String>();
+		for (int i = from; i < to; i++)
+			texts.add("Reply " + i);
+		return texts;
+	}
+
+	@Test
+	public void entriesAreConsumedInOrder() {
+		addMessages(0, 25);
+		assertEquals(texts(0, 25), consumeAll());
+		assertEquals(0, mTable.size());
+	}
+
+	@Test
+	public void originIsKept() {
+		addMessages(3, 4);
+		mTable.consumeAll(new EntryConsumer() {
+			@Override
+			public boolean consume(Entry entry) {
+				assertEquals(Constants.ACTION_SEND_AS_MESSAGE, entry.mOrigin.getIntentAction());
+				assertEquals("master@example.org/3", entry.mOrigin.getOriginIssuerInfo());
+				assertEquals("thread-3", entry.mOrigin.getOriginId());
+				return true;
+			}
+		});
+	}
+
+	@Test
+	public void abortedFlushKeepsRemainingEntries() {
+		addMessages(0, 30);
+		final int consumed = mTable.consumeAll(new EntryConsumer() {
+			int mCount;
+
+			@Override
+			public boolean consume(Entry entry) {
+				return ++mCount <= 17;
+			}
+		});
+		assertEquals(17, consumed);
+		assertEquals(texts(17, 30), consumeAll());
+	}
+
+	/**
+	 * A process killed while flushing the queue loses no message. Consumed entries are deleted in
+	 * chunks, so the ones of the last, not yet deleted chunk are send again.
+	 */
+	@Test
+	public void killMidFlushLosesNoMessage() {
+		addMessages(0, 35);
+		try {
+			mTable.consumeAll(new EntryConsumer() {
+				int mCount;
+
+				@Override
+				public boolean consume(Entry entry) {
+					// The process dies while sending the 25th message
+					if (++mCount == 25) throw new IllegalStateException("killed");
+					return true;
+				}
+			});
+			fail();
+		} catch (IllegalStateException e) {
+			// The process died
+		}
+
+		restart();
+		// The first two chunks of 10 entries got deleted, 20 to 23 are send again
+		assertEquals(texts(20, 35), consumeAll());
+	}
+
+	@Test
+	public void killMidFlushWithNewEntries() {
+		addMessages(0, 15);
+		try {
+			mTable.consumeAll(new EntryConsumer() {
+				@Override
+				public boolean consume(Entry entry) {
+					// A new message gets queued while flushing, then the process dies
+					if (text(entry.mMessage).equals("Reply 12")) {
+						addMessages(15, 16);
+						throw new IllegalStateException("killed");
+					}
+					return true;
+				}
+			});
+			fail();
+		} catch (IllegalStateException e) {
+			// The process died
+		}
+
+		restart();
+		assertEquals(texts(10, 16), consumeAll());
+	}
+
+	@Test
+	public void limitsDropOldestEntries() {
+		mTable.setLimits(5, 60 * 60 * 1000L);
+		addMessages(0, 8);
+		assertEquals(5, mTable.size());
+		assertEquals(3, mTable.getDroppedCount());
+		assertEquals(texts(3, 8), consumeAll());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void invalidLimitsAreRejected() {
+		mTable.setLimits(0, 1000);
+	}
+
+	/**
+	 * Write the message like MessagesTable did before the content codec was introduced.
+	 */
+	private static byte[] marshallLegacy(Message message) {
+		List<AbstractElement> elements = new ArrayList<AbstractElement>();
+		Iterator<AbstractElement> it = message.getElementsIt();
+		while (it.hasNext())
+			elements.add(it.next());
+		Parcel parcel = Parcel.obtain();
+		parcel.writeByte((byte) (message.isSuccess() ? 1 : 0));
+		parcel.writeInt(message.getId());
+		parcel.writeList(elements);
+		byte[] bytes = parcel.marshall();
+		parcel.recycle();
+		return bytes;
+	}
+
+	private static void insertVersion3(SQLiteDatabase db, byte[] message, String issuerInfo) {
+		ContentValues values = new ContentValues();
+		values.put("message", message);
+		values.put("intentAction", Constants.ACTION_SEND_AS_MESSAGE);
+		values.put("issuerInfo", issuerInfo);
+		values.put("issuerId", (String) null);
+		db.insert("messages", null, values);
+	}
+
+	@Test
+	public void upgradeKeepsQueuedMessages() {
+		TestUtil.resetSingleton(XMPPDatabase.class, "sXMPPDatabase");
+		TestUtil.resetSingleton(MessagesTable.class, "sXMPPMessageTable");
+		File file = RuntimeEnvironment.application.getDatabasePath(Constants.PACKAGE + ".db");
+		RuntimeEnvironment.application.deleteDatabase(file.getName());
+		file.getParentFile().mkdirs();
+
+		// The schema of database version 2
+		SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(file, null);
+		db.execSQL("CREATE TABLE xmppEntityCaps (node TEXT PRIMARY KEY, timestamp TEXT NOT NULL)");
+		db.execSQL("CREATE TABLE messages (intentAction TEXT NOT NULL, issuerInfo TEXT, "
+				+ "issuerId TEXT, message BLOB)");
+		db.execSQL("CREATE TABLE sendunackedstanzas (stanzaId TEXT NOT NULL, "
+				+ "stanzaXml TEXT NOT NULL)");
+		Message nested = new Message(new Element("file", "/sdcard/a.txt", "a.txt"));
+		insertVersion3(db, marshallLegacy(message(0)), "master@example.org/0");
+		insertVersion3(db, message(1).toBytes(), "master@example.org/1");
+		insertVersion3(db, new byte[] { 1, 2, 3 }, "master@example.org/broken");
+		insertVersion3(db, marshallLegacy(nested), "master@example.org/2");
+		db.setVersion(2);
+		db.close();
+
+		mTable = MessagesTable.getInstance(RuntimeEnvironment.application);
+		final List<Message> messages = new ArrayList<Message>();
+		final List<String> issuers = new ArrayList<String>();
+		mTable.consumeAll(new EntryConsumer() {
+			@Override
+			public boolean consume(Entry entry) {
+				messages.add(entry.mMessage);
+				issuers.add(entry.mOrigin.getOriginIssuerInfo());
+				return true;
+			}
+		});
+		assertEquals(3, messages.size());
+		assertEquals("Reply 0", text(messages.get(0)));
+		assertEquals("Reply 1", text(messages.get(1)));
+		assertEquals(TransformMessageContent.toXML(nested),
+				TransformMessageContent.toXML(messages.get(2)));
+		assertEquals("master@example.org/2", issuers.get(2));
+
+		// New entries are queued after the migrated ones
+		addMessages(5, 6);
+		assertEquals(texts(5, 6), consumeAll());
+
+		SQLiteDatabase upgraded = XMPPDatabase.getInstance(RuntimeEnvironment.application)
+				.getReadableDatabase();
+		assertEquals(4, upgraded.getVersion());
+		assertEquals(1, DatabaseUtils.longForQuery(upgraded,
+				"SELECT COUNT(*) FROM sqlite_master WHERE type='index' AND "
+						+ "name='sendunackedstanzas_stanzaId_idx'", null));
+	}
+}
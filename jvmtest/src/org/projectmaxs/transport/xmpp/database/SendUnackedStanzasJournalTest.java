@@ -0,0 +1,163 @@
+/*
+    This file is part of Project MAXS.
+
+    MAXS and its modules is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    MAXS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with MAXS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.projectmaxs.transport.xmpp.database;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.jivesoftware.smack.packet.Message;
+import org.jivesoftware.smack.packet.Stanza;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.projectmaxs.jvmtest.TestUtil;
+import org.projectmaxs.transport.xmpp.database.SendUnackedStanzasTable.StanzaConsumer;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+/**
+ * Tests the unacked stanza journal, and replays thousands of stanza send and ack events against
+ * the in-process SQLite database, both through the journal and with synchronous writes.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27, manifest = Config.NONE)
+public class SendUnackedStanzasJournalTest {
+
+	/**
+	 * The number of sent stanzas of a replay.
+	 */
+	private static final int REPLAY_STANZAS = 2000;
+
+	/**
+	 * The number of stanzas the server acks are lagging behind during a replay.
+	 */
+	private static final int ACK_LAG = 20;
+
+	private SendUnackedStanzasJournal mJournal;
+	private SendUnackedStanzasTable mTable;
+
+	@Before
+	public void setUp() {
+		TestUtil.resetSingleton(XMPPDatabase.class, "sXMPPDatabase");
+		TestUtil.resetSingleton(SendUnackedStanzasTable.class, "sXMPPMessageTable");
+		TestUtil.resetSingleton(SendUnackedStanzasJournal.class, "sSendUnackedStanzasJournal");
+		mJournal = SendUnackedStanzasJournal.getInstance(RuntimeEnvironment.application);
+		mTable = SendUnackedStanzasTable.getInstance(RuntimeEnvironment.application);
+	}
+
+	private static Message stanza(int i) {
+		Message message = new Message();
+		message.setBody("Reply number " + i + ": the quick brown fox jumps over the lazy dog");
+		message.setStanzaId("stanza-" + i);
+		return message;
+	}
+
+	private List<String> consumeAllIds() {
+		final List<String> ids = new ArrayList<String>();
+		mJournal.consumeAll(new StanzaConsumer() {
+			@Override
+			public boolean consume(Stanza stanza) {
+				ids.add(stanza.getStanzaId());
+				return true;
+			}
+		});
+		return ids;
+	}
+
+	@Test
+	public void onlyUnackedStanzasAreResentInOrder() {
+		for (int i = 0; i < 10; i++)
+			mJournal.add(stanza(i));
+		for (int i = 1; i < 10; i += 2)
+			mJournal.remove("stanza-" + i);
+
+		assertEquals(Arrays.asList("stanza-0", "stanza-2", "stanza-4", "stanza-6",
+				"stanza-8"), consumeAllIds());
+		// Consumed stanzas are deleted
+		assertEquals(0, consumeAllIds().size());
+	}
+
+	@Test
+	public void ackOfWrittenStanzaRemovesRow() {
+		mJournal.add(stanza(1));
+		mJournal.add(stanza(2));
+		mJournal.flush();
+		mJournal.remove("stanza-1");
+		assertEquals(Collections.singletonList("stanza-2"), consumeAllIds());
+	}
+
+	@Test
+	public void abortedConsumeKeepsRemainingStanzas() {
+		for (int i = 0; i < 250; i++)
+			mJournal.add(stanza(i));
+		final int consumed = mJournal.consumeAll(new StanzaConsumer() {
+			int mCount;
+
+			@Override
+			public boolean consume(Stanza stanza) {
+				return ++mCount <= 150;
+			}
+		});
+		assertEquals(150, consumed);
+		List<String> remaining = consumeAllIds();
+		assertEquals(100, remaining.size());
+		assertEquals("stanza-150", remaining.get(0));
+	}
+
+	@Test
+	public void replayJournal() {
+		for (int i = 0; i < REPLAY_STANZAS; i++) {
+			mJournal.add(stanza(i));
+			if (i >= ACK_LAG) mJournal.remove("stanza-" + (i - ACK_LAG));
+		}
+		mJournal.flush();
+
+		assertUnackedTail();
+	}
+
+	@Test
+	public void replaySynchronous() {
+		final Map<String, String> noAdds = Collections.emptyMap();
+		final List<String> noRemoves = Collections.emptyList();
+		for (int i = 0; i < REPLAY_STANZAS; i++) {
+			Message stanza = stanza(i);
+			mTable.removeAndAdd(noRemoves, Collections.singletonMap(stanza.getStanzaId(), stanza
+					.toXML(null).toString()));
+			if (i >= ACK_LAG) {
+				mTable.removeAndAdd(Collections.singletonList("stanza-" + (i - ACK_LAG)), noAdds);
+			}
+		}
+
+		assertUnackedTail();
+	}
+
+	/**
+	 * Assert that exactly the last ACK_LAG stanzas of the replay remain unacked.
+	 */
+	private void assertUnackedTail() {
+		List<String> remaining = consumeAllIds();
+		assertEquals(ACK_LAG, remaining.size());
+		assertEquals("stanza-" + (REPLAY_STANZAS - ACK_LAG), remaining.get(0));
+	}
+}
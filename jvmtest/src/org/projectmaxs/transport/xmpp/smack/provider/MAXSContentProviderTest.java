@@ -0,0 +1,265 @@
+/*
+    This file is part of Project MAXS.
+
+    MAXS and its modules is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    MAXS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with MAXS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.projectmaxs.transport.xmpp.smack.provider;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.jivesoftware.smack.util.PacketParserUtils;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.jxmpp.jid.impl.JidCreate;
+import org.projectmaxs.shared.global.Message;
+import org.projectmaxs.shared.global.messagecontent.AbstractElement;
+import org.projectmaxs.shared.global.messagecontent.CommandHelp;
+import org.projectmaxs.shared.global.messagecontent.Contact;
+import org.projectmaxs.shared.global.messagecontent.ContactNumber;
+import org.projectmaxs.shared.global.messagecontent.Element;
+import org.projectmaxs.shared.global.messagecontent.FormatedText;
+import org.projectmaxs.shared.global.messagecontent.NewLine;
+import org.projectmaxs.shared.global.messagecontent.Sms;
+import org.projectmaxs.shared.global.messagecontent.Text;
+import org.projectmaxs.shared.transport.transform.TransformMessageContent;
+import org.projectmaxs.transport.xmpp.smack.stanza.MAXSContent;
+import org.projectmaxs.transport.xmpp.smack.stanza.MAXSContentIQ;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+/**
+ * Serializes every message content type as {@link MAXSContentIQ} and as {@link MAXSContent}
+ * message extension, and parses it back with the providers.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27, manifest = Config.NONE)
+public class MAXSContentProviderTest {
+
+	private static final String SPECIAL = "a < b & c > 'd' \"e\"";
+
+	@BeforeClass
+	public static void setUpProviders() {
+		MAXSContentIQProvider.setup();
+		MAXSContentProvider.setup();
+	}
+
+	private static Message roundTripIQ(Message message) throws Exception {
+		MAXSContentIQ iq = new MAXSContentIQ(new MAXSContent(message, null));
+		iq.setTo(JidCreate.from("master@example.org/phone"));
+		iq.setStanzaId("x1");
+		MAXSContentIQ parsed = (MAXSContentIQ) PacketParserUtils.parseStanza(iq.toXML(null)
+				.toString());
+		assertEquals("x1", parsed.getStanzaId());
+		assertNull(parsed.getContent().getRequestId());
+		return parsed.getContent().getMessage();
+	}
+
+	private static Message roundTripMessage(Message message) throws Exception {
+		org.jivesoftware.smack.packet.Message packet = new org.jivesoftware.smack.packet.Message(
+				JidCreate.from("master@example.org/phone"));
+		packet.addExtension(new MAXSContent(message, "x1"));
+		org.jivesoftware.smack.packet.Message parsed = PacketParserUtils
+				.parseStanza(packet.toXML(null).toString());
+		MAXSContent content = MAXSContent.from(parsed);
+		assertEquals("x1", content.getRequestId());
+		return content.getMessage();
+	}
+
+	/**
+	 * Round trip the element in both forms and return the parsed element.
+	 */
+	@SuppressWarnings("unchecked")
+	private static <E extends AbstractElement> E roundTrip(E element) throws Exception {
+		Message message = new Message(element);
+		message.setId(42);
+		message.setSuccess(false);
+		final String xml = TransformMessageContent.toXML(message);
+
+		Message viaMessage = roundTripMessage(message);
+		assertEquals(xml, TransformMessageContent.toXML(viaMessage));
+
+		Message parsed = roundTripIQ(message);
+		assertEquals(42, parsed.getId());
+		assertFalse(parsed.isSuccess());
+		assertEquals(xml, TransformMessageContent.toXML(parsed));
+		List<AbstractElement> elements = elements(parsed);
+		assertEquals(1, elements.size());
+		assertSame(element.getClass(), elements.get(0).getClass());
+		return (E) elements.get(0);
+	}
+
+	private static List<AbstractElement> elements(Message message) {
+		List<AbstractElement> elements = new ArrayList<AbstractElement>();
+		Iterator<AbstractElement> it = message.getElementsIt();
+		while (it.hasNext())
+			elements.add(it.next());
+		return elements;
+	}
+
+	@Test
+	public void text() throws Exception {
+		Text text = new Text();
+		text.add("plain ");
+		text.addBold("bold");
+		text.addItalicNL(SPECIAL);
+		text.add(new FormatedText("mono", "monospace", true, true));
+		text.add(NewLine.getInstance());
+
+		List<FormatedText> parsed = roundTrip(text).getTexts();
+		assertEquals(6, parsed.size());
+		assertEquals("plain ", parsed.get(0).toString());
+		assertFalse(parsed.get(0).isBold());
+		assertTrue(parsed.get(1).isBold());
+		assertEquals(SPECIAL, parsed.get(2).toString());
+		assertTrue(parsed.get(2).isItalic());
+		assertSame(NewLine.getInstance(), parsed.get(3));
+		assertEquals("monospace", parsed.get(4).getFont());
+		assertTrue(parsed.get(4).isBold());
+		assertTrue(parsed.get(4).isItalic());
+		assertSame(NewLine.getInstance(), parsed.get(5));
+	}
+
+	@Test
+	public void contact() throws Exception {
+		Contact contact = new Contact("Alice & Bob", "lookup-1");
+		contact.setNickname("ab");
+		contact.addNumber(new ContactNumber(ContactNumber.NumberType.MOBILE, "+4912345", "Cell",
+				true));
+		contact.addNumber(new ContactNumber(ContactNumber.NumberType.WORK, "555", null, false));
+
+		Contact parsed = roundTrip(contact);
+		assertEquals("Alice & Bob", parsed.getDisplayName());
+		assertEquals("lookup-1", parsed.getLookupKey());
+		assertEquals("ab", parsed.getNickname());
+		assertEquals(2, parsed.getNumbers().size());
+		ContactNumber mobile = parsed.getNumbers().get(0);
+		assertEquals("+4912345", mobile.getNumber());
+		assertEquals(ContactNumber.NumberType.MOBILE, mobile.getType());
+		assertEquals("Cell", mobile.getLabel());
+		assertTrue(mobile.isSuperPrimary());
+		assertNull(parsed.getNumbers().get(1).getLabel());
+	}
+
+	@Test
+	public void contactWithoutNumbers() throws Exception {
+		Contact parsed = roundTrip(new Contact("Carol"));
+		assertEquals("Carol", parsed.getDisplayName());
+		assertFalse(parsed.hasNumbers());
+		assertNull(parsed.getLookupKey());
+	}
+
+	@Test
+	public void contactNumber() throws Exception {
+		ContactNumber parsed = roundTrip(new ContactNumber(ContactNumber.NumberType.HOME,
+				"0301234"));
+		assertEquals("0301234", parsed.getNumber());
+		assertEquals(ContactNumber.NumberType.HOME, parsed.getType());
+	}
+
+	@Test
+	public void sms() throws Exception {
+		for (Sms.Type type : Sms.Type.values()) {
+			Sms parsed = roundTrip(new Sms("Alice", SPECIAL + "\nsecond line", type,
+					1400000000000L));
+			assertEquals(type, parsed.getType());
+			assertEquals("Alice", parsed.getContact());
+			assertEquals(SPECIAL + "\nsecond line", parsed.getBody());
+			assertEquals(1400000000000L, parsed.getDate());
+		}
+	}
+
+	@Test
+	public void commandHelp() throws Exception {
+		for (CommandHelp.ArgType argType : CommandHelp.ArgType.values()) {
+			CommandHelp parsed = roundTrip(new CommandHelp("sms", "send", argType, SPECIAL));
+			assertEquals(new CommandHelp("sms", "send", argType, SPECIAL), parsed);
+		}
+		CommandHelp parsed = roundTrip(new CommandHelp("file", "ls", "[directory]", "List"));
+		assertEquals(CommandHelp.ArgType.OTHER_STRING, parsed.mArgType);
+		assertEquals("[directory]", parsed.mArgString);
+		assertEquals("List", parsed.mHelp);
+	}
+
+	@Test
+	public void elementTree() throws Exception {
+		Element location = new Element("location", "Location");
+		location.addChildElement(Element.newNonHumandReadable("latitude", "52.5"));
+		location.addChildElement(Element.newNonHumandReadable("provider", SPECIAL));
+		Element recent = new Element("recentContact");
+		recent.addChildElement(new Contact("Alice").addNumber("12345"));
+		recent.addChildElement(new Sms("Alice", "Hi", Sms.Type.INBOX, 1));
+		location.addChildElement(recent);
+
+		Element parsed = roundTrip(location);
+		assertEquals("location", parsed.getXMLName());
+		assertNull(parsed.getText());
+		Iterator<AbstractElement> it = parsed.getChildElementIterator();
+		Element latitude = (Element) it.next();
+		assertEquals("52.5", latitude.getText());
+		assertEquals(SPECIAL, ((Element) it.next()).getText());
+		Iterator<AbstractElement> recentIt = ((Element) it.next()).getChildElementIterator();
+		assertEquals("Alice", ((Contact) recentIt.next()).getDisplayName());
+		assertEquals("Hi", ((Sms) recentIt.next()).getBody());
+		assertFalse(it.hasNext());
+	}
+
+	@Test
+	public void severalElementsKeepTheirOrder() throws Exception {
+		Message message = new Message();
+		message.add(new Text("Header"));
+		message.add(new Sms("Alice", "1", Sms.Type.INBOX, 1));
+		message.add(new Sms("Bob", "2", Sms.Type.SENT, 2));
+		message.add(Element.newNonHumandReadable("continuation", "true"));
+		message.setId(7);
+
+		Message parsed = roundTripIQ(message);
+		assertEquals(7, parsed.getId());
+		assertTrue(parsed.isSuccess());
+		assertEquals(TransformMessageContent.toXML(message), TransformMessageContent
+				.toXML(parsed));
+		assertEquals(4, elements(parsed).size());
+	}
+
+	@Test
+	public void emptyContent() throws Exception {
+		Message parsed = roundTripIQ(new Message());
+		assertEquals(Message.NO_ID, parsed.getId());
+		assertTrue(elements(parsed).isEmpty());
+	}
+
+	@Test
+	public void whitespaceOfPrettyPrintedContentIsIgnored() throws Exception {
+		String xml = "<iq type='result' id='x1'>\n"
+				+ "  <content xmlns='https://projectmaxs.org/content' id='3' success='true'>\n"
+				+ "    <location>\n"
+				+ "      <latitude>52.5</latitude>\n"
+				+ "    </location>\n"
+				+ "  </content>\n"
+				+ "</iq>";
+		MAXSContentIQ iq = (MAXSContentIQ) PacketParserUtils.parseStanza(xml);
+		Element location = (Element) elements(iq.getContent().getMessage()).get(0);
+		assertNull(location.getText());
+		assertEquals("52.5", ((Element) location.getChildElementIterator().next()).getText());
+	}
+}
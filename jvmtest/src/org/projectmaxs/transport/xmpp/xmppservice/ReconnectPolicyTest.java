@@ -0,0 +1,135 @@
+/*
+    This file is part of Project MAXS.
+
+    MAXS and its modules is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    MAXS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with MAXS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.projectmaxs.transport.xmpp.xmppservice;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class ReconnectPolicyTest {
+
+	private static final long BASE = 10 * 1000;
+	private static final long MAX = 30 * 60 * 1000;
+
+	private static class FakeClock implements ReconnectPolicy.Clock {
+		long mNow = 1000000;
+
+		@Override
+		public long currentTimeMillis() {
+			return mNow;
+		}
+	}
+
+	/**
+	 * Always returns the same value from nextDouble().
+	 */
+	private static class FixedRandom extends Random {
+		private static final long serialVersionUID = 1L;
+
+		double mValue;
+
+		FixedRandom(double value) {
+			mValue = value;
+		}
+
+		@Override
+		public double nextDouble() {
+			return mValue;
+		}
+	}
+
+	private final FakeClock mClock = new FakeClock();
+
+	@Test
+	public void lowestJitterKeepsBaseDelay() {
+		ReconnectPolicy policy = new ReconnectPolicy(BASE, MAX, mClock, new FixedRandom(0));
+		for (int i = 0; i < 10; i++) {
+			assertEquals(BASE, policy.nextDelay("error"));
+		}
+		assertEquals(10, policy.getAttempts());
+	}
+
+	@Test
+	public void highestJitterTriplesUpToMaximum() {
+		ReconnectPolicy policy = new ReconnectPolicy(BASE, MAX, mClock, new FixedRandom(1));
+		long expected = BASE;
+		for (int i = 0; i < 12; i++) {
+			expected = Math.min(MAX, expected * 3);
+			assertEquals(expected, policy.nextDelay(null));
+		}
+		assertEquals(MAX, policy.nextDelay(null));
+	}
+
+	@Test
+	public void delaysStayWithinBounds() {
+		ReconnectPolicy policy = new ReconnectPolicy(BASE, MAX, mClock, new Random(42));
+		long previous = BASE;
+		for (int i = 0; i < 10000; i++) {
+			long delay = policy.nextDelay(null);
+			assertTrue(delay >= BASE);
+			assertTrue(delay <= Math.min(MAX, previous * 3));
+			previous = delay;
+		}
+	}
+
+	@Test
+	public void nextAttemptFollowsClock() {
+		FixedRandom random = new FixedRandom(0.5);
+		ReconnectPolicy policy = new ReconnectPolicy(BASE, MAX, mClock, random);
+		assertEquals(-1, policy.getNextAttemptAt());
+
+		// Between base and three times the base
+		long delay = policy.nextDelay("Connection refused");
+		assertEquals(BASE + BASE, delay);
+		assertEquals(mClock.mNow + delay, policy.getNextAttemptAt());
+		assertEquals("Connection refused", policy.getLastError());
+
+		mClock.mNow += 5000;
+		assertTrue(policy.toString().contains("nextAttemptInMillis=" + (delay - 5000)));
+
+		policy.suspend();
+		assertEquals(-1, policy.getNextAttemptAt());
+		policy.attemptNow();
+		assertEquals(mClock.mNow, policy.getNextAttemptAt());
+	}
+
+	@Test
+	public void resetRestartsBackoff() {
+		ReconnectPolicy policy = new ReconnectPolicy(BASE, MAX, mClock, new FixedRandom(1));
+		for (int i = 0; i < 5; i++) {
+			policy.nextDelay(null);
+		}
+		policy.reset();
+		assertEquals(0, policy.getAttempts());
+		assertEquals(-1, policy.getNextAttemptAt());
+		assertEquals(3 * BASE, policy.nextDelay(null));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void maximumBelowBaseIsRejected() {
+		new ReconnectPolicy(BASE, BASE - 1, mClock, new Random());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void zeroBaseIsRejected() {
+		new ReconnectPolicy(0, MAX, mClock, new Random());
+	}
+}
@@ -0,0 +1,119 @@
+/*
+    This file is part of Project MAXS.
+
+    MAXS and its modules is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    MAXS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with MAXS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.projectmaxs.transport.xmpp.xmppservice;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27, manifest = Config.NONE)
+public class ReconnectSchedulerTest {
+
+	private static final long BASE = 10 * 1000;
+
+	private int mReconnects;
+	private ReconnectScheduler mScheduler;
+
+	@Before
+	public void setUp() {
+		// nextDouble() always returns 0, so every delay is the base delay
+		Random random = new Random() {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			public double nextDouble() {
+				return 0;
+			}
+		};
+		ReconnectPolicy policy = new ReconnectPolicy(BASE, 30 * 60 * 1000,
+				ReconnectPolicy.SYSTEM_CLOCK, random);
+		mScheduler = new ReconnectScheduler(policy, new Runnable() {
+			@Override
+			public void run() {
+				mReconnects++;
+			}
+		});
+	}
+
+	private static void advance(long millis) {
+		ShadowLooper.idleMainLooper(millis, TimeUnit.MILLISECONDS);
+	}
+
+	@Test
+	public void attemptAfterBackoffDelay() {
+		mScheduler.schedule("error");
+		advance(BASE - 1);
+		assertEquals(0, mReconnects);
+		advance(1);
+		assertEquals(1, mReconnects);
+		assertEquals(1, mScheduler.getAttempts());
+	}
+
+	@Test
+	public void networkAvailableKeepsBackoffDelay() {
+		mScheduler.schedule("error");
+		// E.g. a repeated connect() while waiting for the retry
+		mScheduler.onNetworkAvailable();
+		advance(2000);
+		assertEquals(0, mReconnects);
+		advance(BASE);
+		assertEquals(1, mReconnects);
+	}
+
+	@Test
+	public void suspendedAttemptIsPerformedOnNetwork() {
+		mScheduler.schedule("error");
+		mScheduler.onNetworkLost();
+		advance(2 * BASE);
+		assertEquals(0, mReconnects);
+		assertEquals(-1, mScheduler.getNextAttemptAt());
+
+		mScheduler.onNetworkAvailable();
+		advance(1000);
+		assertEquals(1, mReconnects);
+
+		// Not suspended anymore
+		mScheduler.onNetworkAvailable();
+		advance(2 * BASE);
+		assertEquals(1, mReconnects);
+	}
+
+	@Test
+	public void cancelAndConnectedStopAttempts() {
+		mScheduler.schedule("error");
+		mScheduler.cancel();
+		advance(2 * BASE);
+		assertEquals(0, mReconnects);
+
+		mScheduler.schedule("error");
+		mScheduler.onConnected();
+		mScheduler.onNetworkAvailable();
+		advance(2 * BASE);
+		assertEquals(0, mReconnects);
+		assertEquals(0, mScheduler.getAttempts());
+	}
+}
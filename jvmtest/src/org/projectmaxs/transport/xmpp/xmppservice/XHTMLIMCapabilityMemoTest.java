@@ -0,0 +1,264 @@
+/*
+    This file is part of Project MAXS.
+
+    MAXS and its modules is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    MAXS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with MAXS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.projectmaxs.transport.xmpp.xmppservice;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jivesoftware.smack.StanzaListener;
+import org.jivesoftware.smack.XMPPConnection;
+import org.jivesoftware.smack.filter.StanzaFilter;
+import org.jivesoftware.smack.packet.Presence;
+import org.jivesoftware.smack.packet.Stanza;
+import org.junit.Before;
+import org.junit.Test;
+import org.jxmpp.jid.Jid;
+import org.jxmpp.jid.impl.JidCreate;
+
+public class XHTMLIMCapabilityMemoTest {
+
+	private static final Jid MASTER = JidCreate.fromOrThrowUnchecked("master@example.org/phone");
+	private static final Jid CONTACT = JidCreate.fromOrThrowUnchecked("contact@example.org/pc");
+
+	/**
+	 * Answers the disco queries of the memo with mSupported and counts them. If mBlocked is set,
+	 * then the queries wait for a permit of mRelease.
+	 */
+	private static class FakeDiscoResponder extends XHTMLIMCapabilityMemo {
+		final AtomicInteger mQueries = new AtomicInteger();
+		final AtomicBoolean mSupported = new AtomicBoolean(true);
+		volatile boolean mBlocked;
+		final Semaphore mRelease = new Semaphore(0);
+		final Semaphore mQueried = new Semaphore(0);
+
+		FakeDiscoResponder() {
+			super(new StanzaFilter() {
+				@Override
+				public boolean accept(Stanza stanza) {
+					return MASTER.equals(stanza.getFrom());
+				}
+			});
+		}
+
+		@Override
+		boolean query(XMPPConnection connection, Jid jid) throws Exception {
+			mQueries.incrementAndGet();
+			mQueried.release();
+			if (mBlocked) mRelease.acquire();
+			return mSupported.get();
+		}
+	}
+
+	/**
+	 * A connection that only remembers the presence listener.
+	 */
+	private static class FakeConnection implements InvocationHandler {
+		StanzaListener mPresenceListener;
+
+		XMPPConnection newProxy() {
+			return (XMPPConnection) Proxy.newProxyInstance(getClass().getClassLoader(),
+					new Class<?>[] { XMPPConnection.class }, this);
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) {
+			if (method.getName().equals("addAsyncStanzaListener")) {
+				mPresenceListener = (StanzaListener) args[0];
+			}
+			return null;
+		}
+
+		void presence(Jid from, Presence.Type type) throws Exception {
+			Presence presence = new Presence(type);
+			presence.setFrom(from);
+			mPresenceListener.processStanza(presence);
+		}
+	}
+
+	private FakeDiscoResponder mMemo;
+	private FakeConnection mConnection;
+
+	@Before
+	public void setUp() {
+		mMemo = new FakeDiscoResponder();
+		mConnection = new FakeConnection();
+		mMemo.newConnection(mConnection.newProxy());
+	}
+
+	private void awaitQueried() throws InterruptedException {
+		assertTrue(mMemo.mQueried.tryAcquire(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void unknownJidIsQueriedOnce() throws InterruptedException, ExecutionException {
+		assertFalse(mMemo.supportsXHTMLIM(CONTACT));
+		mMemo.awaitPendingQueries();
+		assertTrue(mMemo.supportsXHTMLIM(CONTACT));
+		assertTrue(mMemo.supportsXHTMLIM(CONTACT));
+		assertEquals(1, mMemo.mQueries.get());
+	}
+
+	@Test
+	public void concurrentLookupsShareQuery() throws Exception {
+		mMemo.mBlocked = true;
+		assertFalse(mMemo.supportsXHTMLIM(CONTACT));
+		awaitQueried();
+		for (int i = 0; i < 10; i++) {
+			assertFalse(mMemo.supportsXHTMLIM(CONTACT));
+		}
+		mMemo.mRelease.release();
+		mMemo.awaitPendingQueries();
+		assertTrue(mMemo.supportsXHTMLIM(CONTACT));
+		assertEquals(1, mMemo.mQueries.get());
+	}
+
+	@Test
+	public void masterPresenceResolvesEagerly() throws Exception {
+		mConnection.presence(MASTER, Presence.Type.available);
+		mConnection.presence(CONTACT, Presence.Type.available);
+		mMemo.awaitPendingQueries();
+		assertEquals(1, mMemo.mQueries.get());
+		assertTrue(mMemo.supportsXHTMLIM(MASTER));
+		assertEquals(1, mMemo.mQueries.get());
+	}
+
+	@Test
+	public void presenceInvalidatesEntry() throws Exception {
+		mMemo.supportsXHTMLIM(CONTACT);
+		mMemo.awaitPendingQueries();
+		assertTrue(mMemo.supportsXHTMLIM(CONTACT));
+
+		mMemo.mSupported.set(false);
+		mConnection.presence(CONTACT, Presence.Type.available);
+		assertFalse(mMemo.supportsXHTMLIM(CONTACT));
+		mMemo.awaitPendingQueries();
+		assertFalse(mMemo.supportsXHTMLIM(CONTACT));
+		assertEquals(2, mMemo.mQueries.get());
+	}
+
+	@Test
+	public void inFlightQueryDoesNotOverwriteNewerInvalidation() throws Exception {
+		mMemo.mBlocked = true;
+		mMemo.supportsXHTMLIM(CONTACT);
+		awaitQueried();
+
+		// The capabilities change while the first query is in flight, its answer is stale
+		mConnection.presence(CONTACT, Presence.Type.available);
+		mMemo.mSupported.set(false);
+		mMemo.mRelease.release();
+		awaitQueried();
+		mMemo.mRelease.release();
+		mMemo.awaitPendingQueries();
+
+		assertFalse(mMemo.supportsXHTMLIM(CONTACT));
+		assertEquals(2, mMemo.mQueries.get());
+	}
+
+	@Test
+	public void newConnectionDiscardsInFlightQuery() throws Exception {
+		mMemo.mBlocked = true;
+		mMemo.supportsXHTMLIM(CONTACT);
+		awaitQueried();
+
+		mMemo.newConnection(new FakeConnection().newProxy());
+		mMemo.mRelease.release();
+		mMemo.awaitPendingQueries();
+		assertEquals(1, mMemo.mQueries.get());
+
+		// Not stored, so the new connection queries again. The query stays blocked until the
+		// result was checked, otherwise it may already be stored.
+		assertFalse(mMemo.supportsXHTMLIM(CONTACT));
+		mMemo.mRelease.release();
+		mMemo.awaitPendingQueries();
+		assertEquals(2, mMemo.mQueries.get());
+		assertTrue(mMemo.supportsXHTMLIM(CONTACT));
+	}
+
+	@Test
+	public void presenceStormWhileQueryInFlight() throws Exception {
+		mMemo.mBlocked = true;
+		mMemo.supportsXHTMLIM(MASTER);
+		awaitQueried();
+
+		final CountDownLatch done = new CountDownLatch(1);
+		Thread storm = new Thread() {
+			@Override
+			public void run() {
+				try {
+					for (int i = 0; i < 100; i++) {
+						mConnection.presence(MASTER, Presence.Type.available);
+					}
+				} catch (Exception e) {
+					throw new IllegalStateException(e);
+				}
+				done.countDown();
+			}
+		};
+		storm.start();
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+
+		// The stale answer is discarded and exactly one query of the last generation follows,
+		// the storm's own resolves are deduplicated while the query is pending
+		mMemo.mBlocked = false;
+		mMemo.mRelease.release();
+		mMemo.awaitPendingQueries();
+		assertEquals(2, mMemo.mQueries.get());
+		assertTrue(mMemo.supportsXHTMLIM(MASTER));
+	}
+
+	@Test
+	public void unavailablePresenceForgetsJid() throws Exception {
+		for (int i = 0; i < 100; i++) {
+			Jid jid = JidCreate.from("contact@example.org/resource" + i);
+			mConnection.presence(jid, Presence.Type.available);
+			mConnection.presence(jid, Presence.Type.unavailable);
+		}
+		assertEquals(0, mMemo.size());
+
+		mMemo.supportsXHTMLIM(CONTACT);
+		mMemo.awaitPendingQueries();
+		assertEquals(1, mMemo.size());
+		mConnection.presence(CONTACT, Presence.Type.unavailable);
+		assertEquals(0, mMemo.size());
+		assertEquals(1, mMemo.mQueries.get());
+	}
+
+	@Test
+	public void inFlightQueryOfUnavailableJidIsNotStored() throws Exception {
+		mMemo.mBlocked = true;
+		mMemo.supportsXHTMLIM(CONTACT);
+		awaitQueried();
+
+		mConnection.presence(CONTACT, Presence.Type.unavailable);
+		mMemo.mRelease.release();
+		mMemo.awaitPendingQueries();
+		assertEquals(0, mMemo.size());
+		assertEquals(1, mMemo.mQueries.get());
+	}
+}
@@ -0,0 +1,224 @@
+/*
+    This file is part of Project MAXS.
+
+    MAXS and its modules is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    MAXS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with MAXS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.projectmaxs.transport.xmpp.xmppservice;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.jivesoftware.smackx.disco.packet.DiscoverInfo;
+import org.jivesoftware.smackx.xdata.FormField;
+import org.jivesoftware.smackx.xdata.packet.DataForm;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.projectmaxs.jvmtest.TestUtil;
+import org.projectmaxs.transport.xmpp.database.XMPPDatabase;
+import org.projectmaxs.transport.xmpp.database.XMPPEntityCapsTable;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import android.content.Intent;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27, manifest = Config.NONE)
+public class XMPPEntityCapsCacheTest {
+
+	/**
+	 * A storage counting the lookups.
+	 */
+	private static class MapStorage implements XMPPEntityCapsCache.Storage {
+		final Map<String, String> mMap = Collections.synchronizedMap(new HashMap<String, String>());
+		int mLookups;
+
+		@Override
+		public void addDiscoverInfo(String node, String storedForm) {
+			if (!mMap.containsKey(node)) mMap.put(node, storedForm);
+		}
+
+		@Override
+		public String getDiscoverInfo(String node) {
+			mLookups++;
+			return mMap.get(node);
+		}
+
+		@Override
+		public void emptyTable() {
+			mMap.clear();
+		}
+	}
+
+	private MapStorage mStorage;
+
+	@Before
+	public void setUp() {
+		TestUtil.resetSingleton(XMPPDatabase.class, "sXMPPDatabase");
+		TestUtil.resetSingleton(XMPPEntityCapsTable.class, "sXMPPEntityCapsTable");
+		TestUtil.resetSingleton(XMPPEntityCapsCache.class, "sXMPPEntityCapsCache");
+		mStorage = new MapStorage();
+	}
+
+	static DiscoverInfo discoverInfo(int number) {
+		DiscoverInfo info = new DiscoverInfo();
+		info.setNode("http://example.org/client" + number);
+		info.addIdentity(new DiscoverInfo.Identity("client", "phone", "Client " + number, "en"));
+		info.addIdentity(new DiscoverInfo.Identity("client", "pc"));
+		for (int i = 0; i < 30; i++) {
+			info.addFeature("urn:xmpp:feature:" + number + ":" + i);
+		}
+		return info;
+	}
+
+	private static void assertDiscoverInfoEquals(DiscoverInfo expected, DiscoverInfo actual) {
+		assertNotNull(actual);
+		assertEquals(expected.getChildElementXML().toString(),
+				actual.getChildElementXML().toString());
+	}
+
+	@Test
+	public void compactFormRoundTrip() {
+		DiscoverInfo info = discoverInfo(1);
+		String storedForm = XMPPEntityCapsCache.toStoredForm(info);
+		assertTrue(storedForm.startsWith("C1\n"));
+		assertDiscoverInfoEquals(info, XMPPEntityCapsCache.fromStoredForm(storedForm));
+	}
+
+	@Test
+	public void extendedInfoIsStoredAsXml() {
+		DiscoverInfo info = discoverInfo(2);
+		DataForm form = new DataForm(DataForm.Type.result);
+		FormField formType = new FormField("FORM_TYPE");
+		formType.setType(FormField.Type.hidden);
+		formType.addValue("urn:xmpp:dataforms:softwareinfo");
+		form.addField(formType);
+		info.addExtension(form);
+
+		String storedForm = XMPPEntityCapsCache.toStoredForm(info);
+		assertFalse(storedForm.startsWith("C1\n"));
+		assertDiscoverInfoEquals(info, XMPPEntityCapsCache.fromStoredForm(storedForm));
+	}
+
+	@Test
+	public void separatorInFieldIsStoredAsXml() {
+		DiscoverInfo info = new DiscoverInfo();
+		info.addIdentity(new DiscoverInfo.Identity("client", "pc", "Tab\tName", null));
+		String storedForm = XMPPEntityCapsCache.toStoredForm(info);
+		assertFalse(storedForm.startsWith("C1\n"));
+		assertDiscoverInfoEquals(info, XMPPEntityCapsCache.fromStoredForm(storedForm));
+	}
+
+	@Test
+	public void malformedCompactFormIsNull() {
+		assertNull(XMPPEntityCapsCache.fromStoredForm("C1\nn"));
+		assertNull(XMPPEntityCapsCache.fromStoredForm("C1\nf"));
+		assertNull(XMPPEntityCapsCache.fromStoredForm("C1\ni\tclient\tpc"));
+		assertNull(XMPPEntityCapsCache.fromStoredForm("C1\ni\tclient\tpc\tname\ten\textra"));
+		assertNull(XMPPEntityCapsCache.fromStoredForm("C1\nx\tunknown"));
+		assertNull(XMPPEntityCapsCache.fromStoredForm("<iq><query"));
+	}
+
+	@Test
+	public void malformedStoredFormIsNotCached() {
+		XMPPEntityCapsCache cache = new XMPPEntityCapsCache(mStorage);
+		mStorage.mMap.put("node", "C1\ni\tclient");
+		assertNull(cache.lookup("node"));
+		assertNull(cache.lookup("node"));
+		assertEquals(2, mStorage.mLookups);
+	}
+
+	@Test
+	public void lookupIsServedFromMemory() throws InterruptedException {
+		XMPPEntityCapsCache cache = new XMPPEntityCapsCache(mStorage);
+		DiscoverInfo info = discoverInfo(3);
+		cache.addDiscoverInfoByNodePersistent("node", info);
+		assertSame(info, cache.lookup("node"));
+		assertEquals(0, mStorage.mLookups);
+
+		cache.awaitPendingWrites();
+		assertTrue(mStorage.mMap.get("node").startsWith("C1\n"));
+	}
+
+	@Test
+	public void lookupLoadsFromStorageOnce() throws InterruptedException {
+		XMPPEntityCapsCache writer = new XMPPEntityCapsCache(mStorage);
+		DiscoverInfo info = discoverInfo(4);
+		writer.addDiscoverInfoByNodePersistent("node", info);
+		writer.awaitPendingWrites();
+
+		XMPPEntityCapsCache cache = new XMPPEntityCapsCache(mStorage);
+		assertDiscoverInfoEquals(info, cache.lookup("node"));
+		assertDiscoverInfoEquals(info, cache.lookup("node"));
+		assertEquals(1, mStorage.mLookups);
+		assertNull(cache.lookup("unknown"));
+	}
+
+	@Test
+	public void emptyCacheEmptiesStorage() throws InterruptedException {
+		XMPPEntityCapsCache cache = new XMPPEntityCapsCache(mStorage);
+		cache.addDiscoverInfoByNodePersistent("node", discoverInfo(5));
+		cache.emptyCache();
+		cache.awaitPendingWrites();
+		assertTrue(mStorage.mMap.isEmpty());
+		assertNull(cache.lookup("node"));
+	}
+
+	@Test
+	public void storageLowEmptiesTable() throws InterruptedException {
+		XMPPEntityCapsCache.onCreate(RuntimeEnvironment.application);
+		XMPPEntityCapsTable table = XMPPEntityCapsTable.getInstance(RuntimeEnvironment.application);
+		table.addDiscoverInfo("node", XMPPEntityCapsCache.toStoredForm(discoverInfo(6)));
+
+		RuntimeEnvironment.application.sendBroadcast(new Intent(Intent.ACTION_DEVICE_STORAGE_LOW));
+		// The table is emptied by the write thread
+		XMPPEntityCapsCache cache = getCache();
+		cache.awaitPendingWrites();
+		assertFalse(table.containsNode("node"));
+		XMPPEntityCapsCache.onDestroy(RuntimeEnvironment.application);
+	}
+
+	@Test
+	public void onDestroyPerformsPendingWritesAndRejectsNewOnes() throws InterruptedException {
+		XMPPEntityCapsCache.onCreate(RuntimeEnvironment.application);
+		XMPPEntityCapsCache cache = getCache();
+		cache.addDiscoverInfoByNodePersistent("pending", discoverInfo(7));
+		XMPPEntityCapsCache.onDestroy(RuntimeEnvironment.application);
+		assertNull(getCache());
+
+		// Waits for the termination of the write thread
+		cache.awaitPendingWrites();
+		XMPPEntityCapsTable table = XMPPEntityCapsTable.getInstance(RuntimeEnvironment.application);
+		assertTrue(table.containsNode("pending"));
+
+		cache.addDiscoverInfoByNodePersistent("late", discoverInfo(8));
+		cache.emptyCache();
+		assertTrue(table.containsNode("pending"));
+		assertFalse(table.containsNode("late"));
+	}
+
+	private static XMPPEntityCapsCache getCache() {
+		return TestUtil.getSingleton(XMPPEntityCapsCache.class, "sXMPPEntityCapsCache");
+	}
+}
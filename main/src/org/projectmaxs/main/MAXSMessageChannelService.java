@@ -0,0 +1,122 @@
+/*
+    This file is part of Project MAXS.
+
+    MAXS and its modules is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    MAXS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with MAXS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.projectmaxs.main;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CountDownLatch;
+
+import org.projectmaxs.main.MAXSService.LocalBinder;
+import org.projectmaxs.shared.global.Message;
+import org.projectmaxs.shared.global.aidl.IMAXSMessageChannel;
+import org.projectmaxs.shared.global.util.Log;
+
+import android.app.Service;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.ServiceConnection;
+import android.os.Handler;
+import android.os.IBinder;
+
+/**
+ * Receives batches of messages from the modules and hands them to {@link MAXSService}. This is
+ * the bound service counterpart of the SEND_MESSAGE action of {@link MAXSModuleIntentService}.
+ */
+public class MAXSMessageChannelService extends Service {
+
+	private static final Log LOG = Log.getLog();
+
+	/**
+	 * Messages received before MAXSService was bound. Only accessed from the main thread.
+	 */
+	private final Queue<Message> mQueue = new LinkedList<Message>();
+
+	private Handler mHandler;
+	private MAXSService mMAXSService;
+
+	private final IMAXSMessageChannel.Stub mBinder = new IMAXSMessageChannel.Stub() {
+		@Override
+		public void deliver(final List<Message> messages) {
+			final CountDownLatch latch = new CountDownLatch(1);
+			mHandler.post(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						send(messages);
+					} finally {
+						latch.countDown();
+					}
+				}
+			});
+			// Return only once the messages are handed over, so that the sender is throttled
+			try {
+				latch.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	};
+
+	private final ServiceConnection mConnection = new ServiceConnection() {
+		@Override
+		public void onServiceConnected(ComponentName name, IBinder service) {
+			mMAXSService = ((LocalBinder) service).getService();
+			if (!mQueue.isEmpty()) {
+				LOG.d("onServiceConnected: sending " + mQueue.size() + " queued messages");
+				while (!mQueue.isEmpty())
+					mMAXSService.send(mQueue.poll());
+			}
+		}
+
+		@Override
+		public void onServiceDisconnected(ComponentName name) {
+			mMAXSService = null;
+		}
+	};
+
+	@Override
+	public void onCreate() {
+		super.onCreate();
+		mHandler = new Handler();
+		bindService(new Intent(this, MAXSService.class), mConnection, Context.BIND_AUTO_CREATE);
+	}
+
+	@Override
+	public void onDestroy() {
+		super.onDestroy();
+		unbindService(mConnection);
+	}
+
+	@Override
+	public IBinder onBind(Intent intent) {
+		return mBinder;
+	}
+
+	private void send(List<Message> messages) {
+		if (mMAXSService == null) {
+			LOG.d("send: MAXSService not bound, queueing " + messages.size() + " messages");
+			mQueue.addAll(messages);
+			return;
+		}
+		for (Message message : messages) {
+			mMAXSService.send(message);
+		}
+	}
+}
@@ -23,11 +23,14 @@ import org.projectmaxs.shared.global.GlobalConstants;
 import org.projectmaxs.shared.global.Message;
 import org.projectmaxs.shared.global.StatusInformation;
 import org.projectmaxs.shared.global.messagecontent.Contact;
+import org.projectmaxs.shared.global.util.CommandMetrics;
 import org.projectmaxs.shared.global.util.Log;
+import org.projectmaxs.shared.global.util.MetricsForwarder;
 import org.projectmaxs.shared.mainmodule.ModuleInformation;
 import org.projectmaxs.shared.maintransport.CurrentStatus;
 
 import android.content.Intent;
+import android.os.Bundle;
 
 public class MAXSModuleIntentService extends MAXSIntentServiceWithMAXSService {
 
@@ -76,6 +79,10 @@ public class MAXSModuleIntentService extends MAXSIntentServiceWithMAXSService {
 			// only set the status if something has changed
 			if (status != null) maxsService.setStatus(status);
 			break;
+		case GlobalConstants.ACTION_REPORT_METRICS:
+			Bundle metrics = intent.getBundleExtra(GlobalConstants.EXTRA_CONTENT);
+			CommandMetrics.merge(MetricsForwarder.fromBundle(metrics));
+			break;
 		default:
 			throw new IllegalStateException("MAXSModuleIntentService unknown action: " + action);
 		}
@@ -23,6 +23,7 @@ import java.util.Locale;
 
 import org.projectmaxs.main.database.CommandTable;
 import org.projectmaxs.main.misc.ComposeHelp;
+import org.projectmaxs.main.misc.ComposeStatus;
 import org.projectmaxs.main.misc.MAXSAmbientTemperatureManager;
 import org.projectmaxs.main.misc.MAXSBatteryManager;
 import org.projectmaxs.main.misc.StartStopIntentBroadcast;
@@ -31,6 +32,7 @@ import org.projectmaxs.shared.global.GlobalConstants;
 import org.projectmaxs.shared.global.Message;
 import org.projectmaxs.shared.global.messagecontent.Contact;
 import org.projectmaxs.shared.global.messagecontent.Element;
+import org.projectmaxs.shared.global.util.CommandMetrics;
 import org.projectmaxs.shared.global.util.Log;
 import org.projectmaxs.shared.mainmodule.Command;
 import org.projectmaxs.shared.mainmodule.RecentContact;
@@ -165,10 +167,15 @@ public class MAXSService extends Service {
 	 * @param fullCommand
 	 * @param origin
 	 *            the transport the command arrived with
+	 * @param transportLog
+	 *            the recent log of the transport, only set for
+	 *            {@link TransportConstants#LOG_COMMAND}, may be null
 	 */
-	public void performCommand(String fullCommand, CommandOrigin origin) {
+	public void performCommand(String fullCommand, CommandOrigin origin, String transportLog) {
+		final long startNanos = CommandMetrics.now();
 		Message errorMsg = null;
 		Message helpMsg = null;
+		Message statusMsg = null;
 		CommandInformation ci = null;
 		int id = Settings.getInstance(this).getNextCommandId();
 		String[] splitedFullCommand = fullCommand.split(" ", 3);
@@ -181,6 +188,8 @@ public class MAXSService extends Service {
 
 		if ("help".equals(command)) {
 			helpMsg = ComposeHelp.getHelp(subCmd, args, this);
+		} else if ("maxs".equals(command)) {
+			statusMsg = ComposeStatus.getStatus(subCmd, transportLog);
 		} else {
 			ci = mModuleRegistry.get(command);
 			if (ci == null) {
@@ -214,6 +223,7 @@ public class MAXSService extends Service {
 		// No matter what happened (normal command, help command or error message), always add the
 		// received command to the command table
 		mCommandTable.addCommand(id, command, subCmd, args, origin);
+		CommandMetrics.commandStarted(id, command);
 
 		if (errorMsg != null) {
 			errorMsg.setId(id);
@@ -221,12 +231,16 @@ public class MAXSService extends Service {
 		} else if (helpMsg != null) {
 			helpMsg.setId(id);
 			send(helpMsg);
+		} else if (statusMsg != null) {
+			statusMsg.setId(id);
+			send(statusMsg);
 		} else if (ci != null) {
 			String modulePackage = ci.getPackageForSubCommand(subCmd);
 			Intent intent = new Intent(GlobalConstants.ACTION_PERFORM_COMMAND);
 			intent.putExtra(GlobalConstants.EXTRA_COMMAND, new Command(command, subCmd, args, id));
 			intent.setClassName(modulePackage, modulePackage + ".ModuleService");
 			startService(intent);
+			CommandMetrics.recordSince(CommandMetrics.MAIN_DISPATCH, command, startNanos);
 		}
 	}
 
@@ -272,6 +286,7 @@ public class MAXSService extends Service {
 
 		CommandOrigin origin = null;
 		if (id != Message.NO_ID) {
+			CommandMetrics.commandReplied(id);
 			CommandTable.Entry entry = mCommandTable.geEntry(id);
 			origin = entry.mOrigin;
 		}
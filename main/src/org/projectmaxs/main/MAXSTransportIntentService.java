@@ -18,13 +18,16 @@
 package org.projectmaxs.main;
 
 import org.projectmaxs.shared.global.GlobalConstants;
+import org.projectmaxs.shared.global.util.CommandMetrics;
 import org.projectmaxs.shared.global.util.Log;
+import org.projectmaxs.shared.global.util.MetricsForwarder;
 import org.projectmaxs.shared.maintransport.CommandOrigin;
 import org.projectmaxs.shared.maintransport.CurrentStatus;
 import org.projectmaxs.shared.maintransport.TransportConstants;
 import org.projectmaxs.shared.maintransport.TransportInformation;
 
 import android.content.Intent;
+import android.os.Bundle;
 
 public class MAXSTransportIntentService extends MAXSIntentServiceWithMAXSService {
 
@@ -65,7 +68,16 @@ public class MAXSTransportIntentService extends MAXSIntentServiceWithMAXSService
 			String fullCommand = intent.getStringExtra(TransportConstants.EXTRA_COMMAND);
 			CommandOrigin origin = intent
 					.getParcelableExtra(TransportConstants.EXTRA_COMMAND_ORIGIN);
-			maxsService.performCommand(fullCommand, origin);
+			long receivedNanos = intent.getLongExtra(TransportConstants.EXTRA_RECEIVED_NANOS, -1);
+			if (receivedNanos != -1) {
+				CommandMetrics.recordSince(CommandMetrics.TRANSPORT_RECEIVE, null, receivedNanos);
+			}
+			String transportLog = intent.getStringExtra(TransportConstants.EXTRA_TRANSPORT_LOG);
+			maxsService.performCommand(fullCommand, origin, transportLog);
+			break;
+		case GlobalConstants.ACTION_REPORT_METRICS:
+			Bundle metrics = intent.getBundleExtra(GlobalConstants.EXTRA_CONTENT);
+			CommandMetrics.merge(MetricsForwarder.fromBundle(metrics));
 			break;
 		case TransportConstants.ACTION_UPDATE_TRANSPORT_STATUS:
 			String status = intent.getStringExtra(GlobalConstants.EXTRA_CONTENT);
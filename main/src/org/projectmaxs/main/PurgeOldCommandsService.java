@@ -18,6 +18,7 @@
 package org.projectmaxs.main;
 
 import org.projectmaxs.main.database.CommandTable;
+import org.projectmaxs.main.database.CommandTable.PurgeReport;
 import org.projectmaxs.shared.global.GlobalConstants;
 import org.projectmaxs.shared.global.util.Log;
 
@@ -51,20 +52,16 @@ public class PurgeOldCommandsService extends IntentService {
 		LOG.d("onHandleIntent: Alarm intent received. Current entry count: "
 				+ commandTable.getEntryCount());
 
-		int[] oldCommandIds = commandTable.getOldEntries();
-		if (oldCommandIds == null) {
-			LOG.d("onHandleIntent: No old command ids found");
-			return;
-		}
-
-		commandTable.purgeEntries(oldCommandIds);
-
-		LOG.d("onHandleIntent: Deleted " + oldCommandIds.length
-				+ " commands from table. New entry count: " + commandTable.getEntryCount()
-				+ ". Broadcasting purge old commands intent.");
+		Settings settings = Settings.getInstance(this);
+		PurgeReport report = commandTable.purge(settings.getCommandHistoryMaxAge(),
+				settings.getCommandHistoryMaxCount(), System.currentTimeMillis());
+		LOG.i("onHandleIntent: {}", report);
+		if (report.mRemoved == 0) return;
 
+		// Only broadcast the IDs of commands that have been purged, so that the modules purge
+		// their data of the same commands
 		Intent intent = new Intent(GlobalConstants.ACTION_PURGE_OLD_COMMANDS);
-		intent.putExtra(GlobalConstants.EXTRA_CONTENT, oldCommandIds);
+		intent.putExtra(GlobalConstants.EXTRA_CONTENT, report.mCommandIds);
 		sendBroadcast(intent);
 	}
 }
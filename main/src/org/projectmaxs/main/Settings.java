@@ -17,6 +17,9 @@
 
 package org.projectmaxs.main;
 
+import java.util.concurrent.TimeUnit;
+
+import org.projectmaxs.main.util.CommandIdAllocator;
 import org.projectmaxs.shared.global.messagecontent.Contact;
 import org.projectmaxs.shared.global.util.Log.DebugLogSettings;
 import org.projectmaxs.shared.mainmodule.RecentContact;
@@ -39,6 +42,8 @@ public class Settings implements OnSharedPreferenceChangeListener, DebugLogSetti
 	private final String DEBUG_LOG;
 	private final String CONNECT_ON_MAIN_SCREEN;
 	private final String CONNECT_ON_BOOT_COMPLETED;
+	private final String COMMAND_HISTORY_MAX_AGE;
+	private final String COMMAND_HISTORY_MAX_COUNT;
 
 	private static Settings sSettings;
 
@@ -51,6 +56,8 @@ public class Settings implements OnSharedPreferenceChangeListener, DebugLogSetti
 
 	private SharedPreferences mSharedPreferences;
 
+	private final CommandIdAllocator mCommandIdAllocator;
+
 	private Settings(Context context) {
 		// this.mSharedPreferences =
 		// context.getSharedPreferences(Constants.MAIN_PACKAGE,
@@ -61,14 +68,32 @@ public class Settings implements OnSharedPreferenceChangeListener, DebugLogSetti
 		CONNECT_ON_MAIN_SCREEN = context.getString(R.string.pref_app_connect_on_main_screen_key);
 		CONNECT_ON_BOOT_COMPLETED = context
 				.getString(R.string.pref_app_connect_on_boot_completed_key);
+		COMMAND_HISTORY_MAX_AGE = context.getString(R.string.pref_app_command_history_max_age_key);
+		COMMAND_HISTORY_MAX_COUNT = context
+				.getString(R.string.pref_app_command_history_max_count_key);
+
+		// CMD_ID used to store the next command ID, which is also a valid lease end
+		mCommandIdAllocator = new CommandIdAllocator(new CommandIdAllocator.LeaseStore() {
+			@Override
+			public int readLeaseEnd() {
+				return mSharedPreferences.getInt(CMD_ID, 0);
+			}
+
+			@Override
+			public void writeLeaseEnd(int leaseEnd) {
+				// Use commit() instead of apply(), the lease must be persisted before IDs of it
+				// are handed out
+				if (!mSharedPreferences.edit().putInt(CMD_ID, leaseEnd).commit()) {
+					throw new IllegalStateException("Could not persist command ID lease");
+				}
+			}
+		});
 
 		mSharedPreferences.registerOnSharedPreferenceChangeListener(this);
 	}
 
 	public int getNextCommandId() {
-		int id = mSharedPreferences.getInt(CMD_ID, 0);
-		mSharedPreferences.edit().putInt(CMD_ID, id + 1).apply();
-		return id;
+		return mCommandIdAllocator.nextId();
 	}
 
 	public void setServiceState(boolean active) {
@@ -87,6 +112,44 @@ public class Settings implements OnSharedPreferenceChangeListener, DebugLogSetti
 		return mSharedPreferences.getBoolean(CONNECT_ON_BOOT_COMPLETED, false);
 	}
 
+	/**
+	 * Get the maximum age of the commands in the command history.
+	 * 
+	 * @return the maximum age in milliseconds, or 0 if commands are kept regardless of their age
+	 */
+	public long getCommandHistoryMaxAge() {
+		int days = getInt(COMMAND_HISTORY_MAX_AGE, 3);
+		return TimeUnit.DAYS.toMillis(Math.max(0, days));
+	}
+
+	/**
+	 * Get the maximum number of commands in the command history.
+	 * 
+	 * @return the maximum number of commands, or 0 for no limit
+	 */
+	public int getCommandHistoryMaxCount() {
+		int count = getInt(COMMAND_HISTORY_MAX_COUNT, 1000);
+		return Math.max(0, count);
+	}
+
+	/**
+	 * Get the integer value of a preference edited as text. Invalid values, e.g. an empty string,
+	 * yield the default value.
+	 * 
+	 * @param key
+	 * @param defaultValue
+	 * @return the integer value
+	 */
+	private int getInt(String key, int defaultValue) {
+		final String string = mSharedPreferences.getString(key, null);
+		if (string == null) return defaultValue;
+		try {
+			return Integer.parseInt(string.trim());
+		} catch (NumberFormatException e) {
+			return defaultValue;
+		}
+	}
+
 	public boolean isDebugLogEnabled() {
 		return mSharedPreferences.getBoolean(DEBUG_LOG, false);
 	}
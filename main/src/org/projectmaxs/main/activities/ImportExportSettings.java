@@ -17,10 +17,13 @@
 
 package org.projectmaxs.main.activities;
 
+import java.io.ByteArrayOutputStream;
 import java.io.CharArrayWriter;
 import java.io.File;
 import java.io.IOException;
-import java.io.StringReader;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.io.UnsupportedEncodingException;
 import java.io.Writer;
 import java.util.LinkedList;
@@ -43,13 +46,16 @@ import org.projectmaxs.shared.global.util.AsyncServiceTask;
 import org.projectmaxs.shared.global.util.DialogUtil;
 import org.projectmaxs.shared.global.util.Log;
 import org.projectmaxs.shared.global.util.PackageManagerUtil;
+import org.projectmaxs.shared.global.util.TransferUtil;
 
 import android.app.Activity;
 import android.content.Context;
 import android.content.Intent;
+import android.content.SharedPreferences;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.IBinder;
+import android.os.ParcelFileDescriptor;
 import android.os.RemoteException;
 import android.view.View;
 import android.widget.TextView;
@@ -177,11 +183,22 @@ public class ImportExportSettings extends Activity {
 							return;
 						}
 
-						final byte[] bytes = iinterface.readFileBytes(importFile);
-						final String fileContents = new String(bytes, "UTF-8");
-						ImportExportSharedPreferences.importFromReader(
-								Settings.getInstance(ImportExportSettings.this).getSharedPreferences(),
-								new StringReader(fileContents));
+						final ParcelFileDescriptor pfd = iinterface.openFile(importFile, 0, -1);
+						if (pfd == null) {
+							appendStatus(GlobalConstants.MAIN_PACKAGE + ": Error. Could not open "
+									+ importFile);
+							return;
+						}
+						final Reader reader = new InputStreamReader(
+								new ParcelFileDescriptor.AutoCloseInputStream(pfd), "UTF-8");
+						final SharedPreferences sharedPreferences = Settings.getInstance(
+								ImportExportSettings.this).getSharedPreferences();
+						try {
+							ImportExportSharedPreferences.importFromReader(sharedPreferences,
+									reader);
+						} finally {
+							reader.close();
+						}
 						appendStatus(GlobalConstants.MAIN_PACKAGE + ": Imported");
 					}
 				},
@@ -224,8 +241,23 @@ public class ImportExportSettings extends Activity {
 								return;
 							}
 
-							final byte[] bytes = iinterface.readFileBytes(importFile);
-							final String fileContents = new String(bytes, "UTF-8");
+							final ParcelFileDescriptor pfd = iinterface.openFile(importFile, 0, -1);
+							if (pfd == null) {
+								appendStatus(pkg + ": Error. Could not open " + importFile);
+								return;
+							}
+							final InputStream is = new ParcelFileDescriptor.AutoCloseInputStream(
+									pfd);
+							final ByteArrayOutputStream os = new ByteArrayOutputStream();
+							try {
+								TransferUtil.copy(is, os);
+							} catch (IOException e) {
+								appendStatus(pkg + ": Error. Could not read " + importFile);
+								return;
+							} finally {
+								TransferUtil.closeQuietly(is);
+							}
+							final String fileContents = os.toString("UTF-8");
 
 							final Intent intent = new Intent(GlobalConstants.ACTION_IMPORT_SETTINGS);
 							intent.putExtra(GlobalConstants.EXTRA_CONTENT, fileContents);
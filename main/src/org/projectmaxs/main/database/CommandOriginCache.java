@@ -0,0 +1,91 @@
+/*
+    This file is part of Project MAXS.
+
+    MAXS and its modules is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    MAXS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with MAXS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.projectmaxs.main.database;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A size bounded, least recently used cache mapping command ids to their {@link CommandTable.Entry}.
+ * <p>
+ * Replies of modules are routed back to the transport the command arrived with. Since the reply
+ * usually follows the command after a short time, keeping the recent entries in memory allows
+ * {@link CommandTable} to answer those lookups without a database query.
+ * </p>
+ */
+public class CommandOriginCache {
+
+	private final Map<Integer, CommandTable.Entry> mCache;
+
+	private long mHits;
+	private long mMisses;
+
+	public CommandOriginCache(final int maxSize) {
+		if (maxSize <= 0) throw new IllegalArgumentException("maxSize must be greater zero");
+		mCache = new LinkedHashMap<Integer, CommandTable.Entry>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Integer, CommandTable.Entry> eldest) {
+				return size() > maxSize;
+			}
+		};
+	}
+
+	public synchronized void put(CommandTable.Entry entry) {
+		mCache.put(entry.mId, entry);
+	}
+
+	/**
+	 * Get the cached entry for the given command id.
+	 * 
+	 * @param id
+	 * @return the entry or null if there is no cached entry for the id
+	 */
+	public synchronized CommandTable.Entry get(int id) {
+		CommandTable.Entry entry = mCache.get(id);
+		if (entry == null) {
+			mMisses++;
+		} else {
+			mHits++;
+		}
+		return entry;
+	}
+
+	public synchronized void remove(int[] ids) {
+		for (int id : ids) {
+			mCache.remove(id);
+		}
+	}
+
+	public synchronized void clear() {
+		mCache.clear();
+	}
+
+	public synchronized int size() {
+		return mCache.size();
+	}
+
+	public synchronized long getHits() {
+		return mHits;
+	}
+
+	public synchronized long getMisses() {
+		return mMisses;
+	}
+}
@@ -18,8 +18,14 @@
 package org.projectmaxs.main.database;
 
 import java.sql.Timestamp;
-
-import org.projectmaxs.shared.global.util.SharedStringUtil;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.projectmaxs.shared.global.util.Log;
 import org.projectmaxs.shared.maintransport.CommandOrigin;
 
 import android.content.ContentValues;
@@ -27,10 +33,21 @@ import android.content.Context;
 import android.database.Cursor;
 import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
-import android.text.TextUtils;
 
 public class CommandTable {
-	private static final long OLD_ENTRIES_AGE = 1000 * 60 * 60 * 24 * 3;
+	/**
+	 * The maximum number of commands deleted within one transaction. Also keeps the number of
+	 * host parameters of a statement below SQLite's default limit of 999.
+	 */
+	private static final int PURGE_CHUNK_SIZE = 500;
+
+	/**
+	 * The number of command origins kept in memory. Replies usually follow their command shortly,
+	 * so only the most recent commands need to be cached.
+	 */
+	private static final int ORIGIN_CACHE_SIZE = 256;
+
+	private static final Log LOG = Log.getLog();
 
 	private static final String TABLE_NAME = "commands";
 	private static final String COLUMN_NAME_COMMAND_ID = "commandId";
@@ -42,13 +59,14 @@ public class CommandTable {
 	private static final String COLUMN_NAME_ORIGIN_INTENT_ACTION = "originIntentAction";
 	private static final String COLUMN_NAME_ORIGIN_ISSUER_INFO = "originIssuerInfo";
 	private static final String COLUMN_NAME_ORIGIN_ID = "originId";
+	private static final String INDEX_NAME_TIMESTAMP = TABLE_NAME + "_" + COLUMN_NAME_TIMESTAMP;
 
 	// @formatter:off
 	public static final String CREATE_TABLE =
 		"CREATE TABLE " +  TABLE_NAME +
 		" (" +
 		 COLUMN_NAME_COMMAND_ID + MAXSDatabase.INTEGER_TYPE + " PRIMARY KEY" + ',' +
-		 COLUMN_NAME_TIMESTAMP + MAXSDatabase.TIMESTAMP_TYPE + MAXSDatabase.NOT_NULL + ',' +
+		 COLUMN_NAME_TIMESTAMP + MAXSDatabase.INTEGER_TYPE + MAXSDatabase.NOT_NULL + ',' +
 		 COLUMN_NAME_COMMAND + MAXSDatabase.TEXT_TYPE + MAXSDatabase.NOT_NULL + ',' +
 		 COLUMN_NAME_SUBCOMMAND + MAXSDatabase.TEXT_TYPE + ',' +
 		 COLUMN_NAME_ARGS + MAXSDatabase.TEXT_TYPE + ',' +
@@ -57,6 +75,23 @@ public class CommandTable {
 		 COLUMN_NAME_ORIGIN_ISSUER_INFO + MAXSDatabase.TEXT_TYPE + MAXSDatabase.NOT_NULL + ',' +
 		 COLUMN_NAME_ORIGIN_ID + MAXSDatabase.TEXT_TYPE +
 		" )";
+
+	public static final String CREATE_INDEX =
+		"CREATE INDEX " + INDEX_NAME_TIMESTAMP + " ON " + TABLE_NAME + " (" + COLUMN_NAME_TIMESTAMP + ")";
+	// @formatter:on
+
+	/**
+	 * Converts the timestamps of database version 2, which are stored as text in the local time
+	 * zone as created by {@link Timestamp#toString()}, to epoch milliseconds. Timestamps that can't
+	 * be parsed become 0, so that the command is purged. The milliseconds are parsed separately,
+	 * as SQLite's date functions may be off by one millisecond.
+	 */
+	// @formatter:off
+	static final String CONVERT_TIMESTAMPS =
+		"UPDATE " + TABLE_NAME + " SET " + COLUMN_NAME_TIMESTAMP + " = COALESCE(" +
+		"STRFTIME('%s', SUBSTR(" + COLUMN_NAME_TIMESTAMP + ", 1, 19), 'utc') * 1000 + " +
+		"CAST(ROUND(('0' || SUBSTR(" + COLUMN_NAME_TIMESTAMP + ", 20)) * 1000) AS INTEGER), 0)" +
+		" WHERE TYPEOF(" + COLUMN_NAME_TIMESTAMP + ") = 'text'";
 	// @formatter:on
 
 	public static final String DELETE_TABLE = MAXSDatabase.DROP_TABLE + TABLE_NAME;
@@ -70,15 +105,53 @@ public class CommandTable {
 
 	private final SQLiteDatabase mDatabase;
 
+	private final CommandOriginCache mOriginCache = new CommandOriginCache(ORIGIN_CACHE_SIZE);
+
+	/**
+	 * Commands not yet written to the database. Guarded by itself.
+	 */
+	private final List<ContentValues> mPendingInserts = new ArrayList<ContentValues>();
+
+	/**
+	 * Ensures that only one thread at a time writes the pending inserts, and that readers which
+	 * flush the pending inserts see them committed once {@link #writePendingInserts()} returns.
+	 */
+	private final Object mWriteLock = new Object();
+
+	private final Executor mWriteBehindExecutor = new ThreadPoolExecutor(0, 1, 1000L,
+			TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>());
+
+	private final Runnable mWritePendingInsertsRunnable = new Runnable() {
+		@Override
+		public void run() {
+			writePendingInserts();
+		}
+	};
+
 	private CommandTable(Context context) {
 		mDatabase = MAXSDatabase.getInstance(context).getWritableDatabase();
 	}
 
+	/**
+	 * Add a command to the table. The command origin is immediately available via
+	 * {@link #geEntry(int)}, while the database insert is performed asynchronously. Commands
+	 * arriving in bursts are written within a single transaction.
+	 * 
+	 * @param id
+	 * @param command
+	 * @param subCmd
+	 * @param args
+	 * @param origin
+	 */
 	public void addCommand(int id, String command, String subCmd, String args, CommandOrigin origin) {
-		Timestamp timestamp = new Timestamp(System.currentTimeMillis());
+		addCommand(id, command, subCmd, args, origin, System.currentTimeMillis());
+	}
+
+	void addCommand(int id, String command, String subCmd, String args, CommandOrigin origin,
+			long timestamp) {
 		ContentValues values = new ContentValues();
 		values.put(COLUMN_NAME_COMMAND_ID, id);
-		values.put(COLUMN_NAME_TIMESTAMP, timestamp.toString());
+		values.put(COLUMN_NAME_TIMESTAMP, timestamp);
 		values.put(COLUMN_NAME_COMMAND, command);
 		values.put(COLUMN_NAME_SUBCOMMAND, subCmd);
 		values.put(COLUMN_NAME_ARGS, args);
@@ -87,29 +160,58 @@ public class CommandTable {
 		values.put(COLUMN_NAME_ORIGIN_ISSUER_INFO, origin.getOriginIssuerInfo());
 		values.put(COLUMN_NAME_ORIGIN_ID, origin.getOriginId());
 
-		long res = mDatabase.insert(TABLE_NAME, null, values);
-		if (res == -1) throw new IllegalStateException("Could not insert command in database");
+		mOriginCache.put(new Entry(id, origin));
+
+		final boolean scheduleWrite;
+		synchronized (mPendingInserts) {
+			// If there are already pending inserts, then a write is already scheduled
+			scheduleWrite = mPendingInserts.isEmpty();
+			mPendingInserts.add(values);
+		}
+		if (scheduleWrite) mWriteBehindExecutor.execute(mWritePendingInsertsRunnable);
 	}
 
-	public CommandOrigin getOrigin(int id) {
-		final String[] projection = { COLUMN_NAME_ORIGIN_PACKAGE, COLUMN_NAME_ORIGIN_INTENT_ACTION };
-		Cursor c = mDatabase.query(TABLE_NAME, projection, COLUMN_NAME_COMMAND_ID + "= ?",
-				new String[] { String.valueOf(id) }, null, null, null);
-		if (!c.moveToFirst()) {
-			c.close();
-			return null;
+	/**
+	 * Write all pending inserts to the database. Must be called before every query that could
+	 * involve commands which have not been written yet.
+	 */
+	private void writePendingInserts() {
+		synchronized (mWriteLock) {
+			final List<ContentValues> pendingInserts;
+			synchronized (mPendingInserts) {
+				if (mPendingInserts.isEmpty()) return;
+				pendingInserts = new ArrayList<ContentValues>(mPendingInserts);
+				mPendingInserts.clear();
+			}
+
+			mDatabase.beginTransaction();
+			try {
+				for (ContentValues values : pendingInserts) {
+					long res = mDatabase.insert(TABLE_NAME, null, values);
+					if (res == -1) {
+						LOG.e("writePendingInserts: Could not insert command in database: " + values);
+					}
+				}
+				mDatabase.setTransactionSuccessful();
+			} finally {
+				mDatabase.endTransaction();
+			}
 		}
-		String pkg = c.getString(c.getColumnIndexOrThrow(COLUMN_NAME_ORIGIN_PACKAGE));
-		String action = c.getString(c.getColumnIndexOrThrow(COLUMN_NAME_ORIGIN_INTENT_ACTION));
-		String originIssuerInfo = c.getString(c
-				.getColumnIndexOrThrow(COLUMN_NAME_ORIGIN_ISSUER_INFO));
-		String originId = c.getString(c.getColumnIndexOrThrow(COLUMN_NAME_ORIGIN_ID));
+	}
 
-		return new CommandOrigin(pkg, action, originIssuerInfo, originId);
+	public CommandOrigin getOrigin(int id) {
+		Entry entry = geEntry(id);
+		if (entry == null) return null;
+		return entry.mOrigin;
 	}
 
 	public Entry geEntry(int id) {
 		if (id < 0) return null;
+
+		Entry entry = mOriginCache.get(id);
+		if (entry != null) return entry;
+
+		writePendingInserts();
 		// @formatter:off
 		final String[] projection = { 
 				COLUMN_NAME_ORIGIN_PACKAGE,
@@ -131,10 +233,13 @@ public class CommandTable {
 		String originId = c.getString(c.getColumnIndex(COLUMN_NAME_ORIGIN_ID));
 
 		c.close();
-		return new Entry(id, new CommandOrigin(pkg, action, originIssuerInfo, originId));
+		entry = new Entry(id, new CommandOrigin(pkg, action, originIssuerInfo, originId));
+		mOriginCache.put(entry);
+		return entry;
 	}
 
 	public Entry getFullEntry(int id) {
+		writePendingInserts();
 		Cursor c = mDatabase.query(TABLE_NAME, null, COLUMN_NAME_COMMAND_ID + "= ?",
 				new String[] { String.valueOf(id) }, null, null, null);
 		if (!c.moveToFirst()) {
@@ -142,7 +247,7 @@ public class CommandTable {
 			return null;
 		}
 
-		String timestampStr = c.getString(c.getColumnIndex(COLUMN_NAME_TIMESTAMP));
+		long timestamp = c.getLong(c.getColumnIndex(COLUMN_NAME_TIMESTAMP));
 		String command = c.getString(c.getColumnIndex(COLUMN_NAME_COMMAND));
 		String subCmd = c.getString(c.getColumnIndex(COLUMN_NAME_SUBCOMMAND));
 		String args = c.getString(c.getColumnIndex(COLUMN_NAME_ARGS));
@@ -151,43 +256,122 @@ public class CommandTable {
 		String originIssuerInfo = c.getString(c.getColumnIndex(COLUMN_NAME_ORIGIN_ISSUER_INFO));
 		String originId = c.getString(c.getColumnIndex(COLUMN_NAME_ORIGIN_ID));
 
-		Timestamp timestmap = Timestamp.valueOf(timestampStr);
-
 		c.close();
-		return new FullEntry(id, timestmap, command, subCmd, args, new CommandOrigin(pkg, action,
-				originIssuerInfo, originId));
+		return new FullEntry(id, new Timestamp(timestamp), command, subCmd, args,
+				new CommandOrigin(pkg, action, originIssuerInfo, originId));
 	}
 
-	public int[] getOldEntries() {
-		final String oldTimestamp = (new Timestamp(System.currentTimeMillis() - OLD_ENTRIES_AGE))
-				.toString();
-		Cursor c = mDatabase.query(TABLE_NAME, new String[] { COLUMN_NAME_COMMAND_ID },
-				COLUMN_NAME_TIMESTAMP + "<?", new String[] { oldTimestamp }, null, null, null);
-		final int count = c.getCount();
-		if (count == 0) {
-			c.close();
-			return null;
-		}
+	/**
+	 * Purge the commands that are older than the given maximum age, and the oldest commands
+	 * exceeding the given maximum count. The commands are deleted in chunks, every chunk within
+	 * its own transaction.
+	 * 
+	 * @param maxAge
+	 *            the maximum age in milliseconds, or 0 to keep commands regardless of their age
+	 * @param maxCount
+	 *            the maximum number of commands, or 0 for no limit
+	 * @param now
+	 * @return a report of the purge
+	 */
+	public PurgeReport purge(long maxAge, int maxCount, long now) {
+		final long start = System.nanoTime();
+		writePendingInserts();
+		final int[] commandIds = getPurgeCandidates(maxAge, maxCount, now);
+		final int removed = purgeEntries(commandIds);
+		final long duration = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		return new PurgeReport(commandIds, removed, duration, getEntryCount());
+	}
 
-		int i = 0;
-		int[] res = new int[count];
-		while (c.moveToNext()) {
-			res[i++] = c.getInt(c.getColumnIndexOrThrow(COLUMN_NAME_COMMAND_ID));
+	private int[] getPurgeCandidates(long maxAge, int maxCount, long now) {
+		final List<String> selectionArgs = new ArrayList<String>(2);
+		final StringBuilder sql = new StringBuilder();
+		if (maxAge > 0) {
+			// Uses the timestamp index
+			sql.append("SELECT " + COLUMN_NAME_COMMAND_ID + " FROM " + TABLE_NAME + " WHERE "
+					+ COLUMN_NAME_TIMESTAMP + " < ?");
+			selectionArgs.add(Long.toString(now - maxAge));
+		}
+		if (maxCount > 0) {
+			if (sql.length() > 0) sql.append(" UNION ");
+			sql.append("SELECT " + COLUMN_NAME_COMMAND_ID + " FROM (SELECT "
+					+ COLUMN_NAME_COMMAND_ID + " FROM " + TABLE_NAME + " ORDER BY "
+					+ COLUMN_NAME_TIMESTAMP + " DESC LIMIT -1 OFFSET " + maxCount + ")");
+		}
+		if (sql.length() == 0) return new int[0];
+
+		Cursor c = mDatabase.rawQuery(sql.toString(),
+				selectionArgs.toArray(new String[selectionArgs.size()]));
+		try {
+			int i = 0;
+			int[] res = new int[c.getCount()];
+			while (c.moveToNext()) {
+				res[i++] = c.getInt(0);
+			}
+			return res;
+		} finally {
+			c.close();
 		}
-
-		return res;
 	}
 
-	public void purgeEntries(int[] commandIds) {
-		String[] commandIdsStrings = SharedStringUtil.toStringArray(commandIds);
-		mDatabase.delete(TABLE_NAME, COLUMN_NAME_COMMAND_ID + " IN ( ? )",
-				new String[] { TextUtils.join(",", commandIdsStrings) });
+	/**
+	 * Delete the commands with the given IDs. The commands are deleted in chunks of
+	 * {@value #PURGE_CHUNK_SIZE}, every chunk within its own transaction, so that the database is
+	 * not locked for the whole purge.
+	 * 
+	 * @param commandIds
+	 * @return the number of deleted commands
+	 */
+	public int purgeEntries(int[] commandIds) {
+		writePendingInserts();
+		mOriginCache.remove(commandIds);
+		int deleted = 0;
+		for (int start = 0; start < commandIds.length; start += PURGE_CHUNK_SIZE) {
+			final int count = Math.min(PURGE_CHUNK_SIZE, commandIds.length - start);
+			final String[] whereArgs = new String[count];
+			final StringBuilder where = new StringBuilder(COLUMN_NAME_COMMAND_ID).append(" IN (");
+			for (int i = 0; i < count; i++) {
+				if (i > 0) where.append(',');
+				where.append('?');
+				whereArgs[i] = Integer.toString(commandIds[start + i]);
+			}
+			where.append(')');
+
+			mDatabase.beginTransaction();
+			try {
+				deleted += mDatabase.delete(TABLE_NAME, where.toString(), whereArgs);
+				mDatabase.setTransactionSuccessful();
+			} finally {
+				mDatabase.endTransaction();
+			}
+		}
+		return deleted;
 	}
 
 	public long getEntryCount() {
+		writePendingInserts();
 		return DatabaseUtils.queryNumEntries(mDatabase, TABLE_NAME);
 	}
 
+	public static class PurgeReport {
+		public final int[] mCommandIds;
+		public final int mRemoved;
+		public final long mDurationMillis;
+		public final long mRemaining;
+
+		PurgeReport(int[] commandIds, int removed, long durationMillis, long remaining) {
+			mCommandIds = commandIds;
+			mRemoved = removed;
+			mDurationMillis = durationMillis;
+			mRemaining = remaining;
+		}
+
+		@Override
+		public String toString() {
+			return "Purged " + mRemoved + " of " + mCommandIds.length + " commands in "
+					+ mDurationMillis + "ms, " + mRemaining + " remaining";
+		}
+	}
+
 	public static class Entry {
 		public final int mId;
 		public final CommandOrigin mOrigin;
@@ -26,7 +26,7 @@ import android.database.sqlite.SQLiteOpenHelper;
 
 public class MAXSDatabase extends SQLiteOpenHelper {
 
-	private static final int DATABASE_VERSION = 2;
+	private static final int DATABASE_VERSION = 3;
 	private static final String DATABASE_NAME = Constants.MAIN_PACKAGE + ".db";
 
 	private static final Log LOG = Log.getLog();
@@ -42,6 +42,7 @@ public class MAXSDatabase extends SQLiteOpenHelper {
 	// @formatter:off
 	private static final String[] SQL_CREATE_ENTRIES = new String[] {
 				CommandTable.CREATE_TABLE,
+				CommandTable.CREATE_INDEX,
 				ModuleRegistryTable.CREATE_TABLE,
 				StatusTable.CREATE_TABLE,
 				TransportRegistryTable.CREATE_TABLE,
@@ -75,7 +76,15 @@ public class MAXSDatabase extends SQLiteOpenHelper {
 	@Override
 	public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
 		LOG.i("Upgrading MAXS database from version " + oldVersion + " to " + newVersion);
-		recreateDatabase(db);
+		if (oldVersion < 2) {
+			recreateDatabase(db);
+			return;
+		}
+		if (oldVersion < 3) {
+			// Version 3 stores the command timestamps as epoch milliseconds and indexes them
+			db.execSQL(CommandTable.CONVERT_TIMESTAMPS + SEMICOLON_SEP);
+			db.execSQL(CommandTable.CREATE_INDEX + SEMICOLON_SEP);
+		}
 	}
 
 	@Override
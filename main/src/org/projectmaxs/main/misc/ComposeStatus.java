@@ -0,0 +1,100 @@
+/*
+    This file is part of Project MAXS.
+
+    MAXS and its modules is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    MAXS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with MAXS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.projectmaxs.main.misc;
+
+import java.util.Map;
+
+import org.projectmaxs.shared.global.Message;
+import org.projectmaxs.shared.global.messagecontent.Text;
+import org.projectmaxs.shared.global.util.CommandMetrics;
+import org.projectmaxs.shared.global.util.LatencyHistogram;
+import org.projectmaxs.shared.global.util.Log;
+import org.projectmaxs.shared.global.util.LogBuffer;
+import org.projectmaxs.shared.maintransport.TransportConstants;
+
+public class ComposeStatus {
+
+	private static final Log LOG = Log.getLog();
+
+	/**
+	 * Composes the reply of the "maxs" command. Without sub command or with "status" the command
+	 * latency metrics recorded by main, and forwarded to main by the modules and transports, are
+	 * returned. "dump" returns the metrics as plain text, one
+	 * line per histogram, and also writes them to the log. "reset" resets the metrics. "log"
+	 * returns the most recent lines of main's in-memory log buffer, followed by the ones of the
+	 * transport, which include the log of the transport's libraries, e.g. Smack.
+	 * 
+	 * @param subCommand
+	 * @param transportLog
+	 *            the recent log lines of the transport the command arrived with, may be null
+	 * @return a Message with the status
+	 */
+	public final static Message getStatus(String subCommand, String transportLog) {
+		if (subCommand == null || "status".equals(subCommand)) {
+			return getMetrics();
+		} else if ("dump".equals(subCommand)) {
+			String dump = CommandMetrics.dump();
+			LOG.i("Command metrics:\n" + dump);
+			return new Message(dump.isEmpty() ? "No metrics recorded" : dump);
+		} else if ("reset".equals(subCommand)) {
+			CommandMetrics.reset();
+			return new Message("Metrics reset");
+		} else if ("log".equals(subCommand)) {
+			return getLog(transportLog);
+		}
+		return new Message("Unknown sub command: " + subCommand
+				+ ". Known sub commands are status, dump, reset and log");
+	}
+
+	private final static Message getLog(String transportLog) {
+		Text text = new Text();
+		text.addBoldNL("main");
+		addLog(text, LogBuffer.getInstance().dump(TransportConstants.LOG_LINES));
+		text.addBoldNL("transport");
+		if (transportLog == null) {
+			text.addNL("The transport did not provide its log");
+		} else {
+			addLog(text, transportLog);
+		}
+		return new Message(text);
+	}
+
+	private final static void addLog(Text text, String log) {
+		if (log.isEmpty()) {
+			text.addNL("Log buffer is empty");
+		} else {
+			text.addWithNewLines(log);
+		}
+	}
+
+	private final static Message getMetrics() {
+		Map<String, LatencyHistogram> histograms = CommandMetrics.getHistograms();
+		if (histograms.isEmpty()) return new Message("No metrics recorded");
+
+		Text text = new Text();
+		text.addBoldNL("Command latency");
+		for (Map.Entry<String, LatencyHistogram> entry : histograms.entrySet()) {
+			LatencyHistogram histogram = entry.getValue();
+			text.addItalic(entry.getKey() + ": ");
+			text.addNL(histogram.getCount() + " commands, median " + histogram.getPercentile(50)
+					+ "ms, p90 " + histogram.getPercentile(90) + "ms, max " + histogram.getMax()
+					+ "ms");
+		}
+		return new Message(text);
+	}
+}
@@ -0,0 +1,109 @@
+/*
+    This file is part of Project MAXS.
+
+    MAXS and its modules is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    MAXS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with MAXS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.projectmaxs.main.util;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Allocates unique and monotonically increasing command IDs. Instead of persisting every single
+ * ID, blocks of IDs are leased: only the end of the current block is persisted, before the first
+ * ID of the block is handed out. The IDs of a block are then handed out from memory.
+ * <p>
+ * After a crash, or a restart, allocation continues at the persisted end of the last block. The
+ * IDs of the last block that were not handed out yet are skipped, but no ID is ever reused.
+ * </p>
+ * This class has no Android dependencies, persisting the lease is up to the {@link LeaseStore}.
+ */
+public class CommandIdAllocator {
+
+	public static final int DEFAULT_BLOCK_SIZE = 100;
+
+	/**
+	 * Persists the end of the leased block.
+	 */
+	public interface LeaseStore {
+		/**
+		 * Read the persisted lease end.
+		 * 
+		 * @return the first ID that is not leased, or 0 if no ID was leased yet
+		 */
+		int readLeaseEnd();
+
+		/**
+		 * Persist the lease end. Must not return before the value has been durably written.
+		 * 
+		 * @param leaseEnd
+		 *            the first ID that is not leased
+		 */
+		void writeLeaseEnd(int leaseEnd);
+	}
+
+	private final LeaseStore mStore;
+	private final int mBlockSize;
+
+	/**
+	 * The next ID to hand out.
+	 */
+	private final AtomicInteger mNext;
+
+	/**
+	 * The first ID that is not leased. Only increased while holding the lock of this object, and
+	 * always after the new value has been persisted.
+	 */
+	private volatile int mLeaseEnd;
+
+	public CommandIdAllocator(LeaseStore store) {
+		this(store, DEFAULT_BLOCK_SIZE);
+	}
+
+	public CommandIdAllocator(LeaseStore store, int blockSize) {
+		if (blockSize < 1) throw new IllegalArgumentException("Invalid block size: " + blockSize);
+		mStore = store;
+		mBlockSize = blockSize;
+		// Nothing is leased after a restart, the first call to nextId() leases a new block
+		mLeaseEnd = store.readLeaseEnd();
+		mNext = new AtomicInteger(mLeaseEnd);
+	}
+
+	/**
+	 * Get the next command ID. Only performs a write to the lease store once every block size
+	 * calls.
+	 * 
+	 * @return the next command ID
+	 */
+	public int nextId() {
+		while (true) {
+			final int id = mNext.get();
+			if (id < mLeaseEnd) {
+				if (mNext.compareAndSet(id, id + 1)) return id;
+				continue;
+			}
+			synchronized (this) {
+				// Another thread may have leased a new block in the meantime
+				if (mNext.get() >= mLeaseEnd) {
+					final int leaseEnd = mLeaseEnd + mBlockSize;
+					if (leaseEnd < mLeaseEnd) {
+						throw new IllegalStateException("Command IDs exhausted");
+					}
+					mStore.writeLeaseEnd(leaseEnd);
+					mLeaseEnd = leaseEnd;
+				}
+			}
+		}
+	}
+}
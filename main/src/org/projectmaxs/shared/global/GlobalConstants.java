@@ -52,6 +52,8 @@ public class GlobalConstants {
 	public static final String ACTION_INCOMING_FILETRANSFER = PACKAGE + ".INCOMING_FILETRANSFER";
 	public static final String ACTION_BIND_FILEREAD = PACKAGE + ".ACTION_BIND_FILEREAD";
 	public static final String ACTION_BIND_FILEWRITE = PACKAGE + ".ACTION_BIND_FILEWRITE";
+	public static final String ACTION_BIND_MESSAGE_CHANNEL = PACKAGE
+			+ ".ACTION_BIND_MESSAGE_CHANNEL";
 	public static final String ACTION_PURGE_OLD_COMMANDS = PACKAGE + ".PURGE_OLD_COMMANDS";
 	public static final String ACTION_SERVICE_STARTED = PACKAGE + ".SERVICE_STARTED";
 	public static final String ACTION_SERVICE_STOPED = PACKAGE + ".SERVICE_STOPPED";
@@ -63,6 +65,7 @@ public class GlobalConstants {
 	public static final String ACTION_SEND_MESSAGE = MAIN_PACKAGE + ".SEND_MESSAGE";
 	public static final String ACTION_EXPORT_TO_FILE = MAIN_PACKAGE + ".EXPORT_TO_FILE";
 	public static final String ACTION_IMPORT_EXPORT_STATUS = MAIN_PACKAGE + ".IMPORT_EXPORT_STATUS";
+	public static final String ACTION_REPORT_METRICS = MAIN_PACKAGE + ".REPORT_METRICS";
 
 	public static final String EXTRA_MODULE_INFORMATION = PACKAGE + ".MODULE_INFORMATION";
 	public static final String EXTRA_COMMAND = PACKAGE + ".COMMAND";
@@ -23,6 +23,9 @@ import java.util.LinkedList;
 import java.util.List;
 
 import org.projectmaxs.shared.global.messagecontent.AbstractElement;
+import org.projectmaxs.shared.global.messagecontent.ContentCodec;
+import org.projectmaxs.shared.global.messagecontent.FormatedText;
+import org.projectmaxs.shared.global.messagecontent.NewLine;
 import org.projectmaxs.shared.global.messagecontent.Text;
 import org.projectmaxs.shared.global.util.ParcelUtil;
 
@@ -106,14 +109,126 @@ public class Message implements Parcelable {
 		return this;
 	}
 
+	/**
+	 * Append the elements of the given message to this message. A new line is inserted if this
+	 * message does not end with one, so that the content of both messages stays separated.
+	 * 
+	 * @param message
+	 * @return this
+	 */
+	public Message append(Message message) {
+		if (!mElements.isEmpty()) {
+			AbstractElement last = mElements.get(mElements.size() - 1);
+			if (!(last instanceof Text) || !endsWithNewLine((Text) last)) {
+				mElements.add(new Text().add(NewLine.getInstance()));
+			}
+		}
+		mElements.addAll(message.mElements);
+		return this;
+	}
+
+	private static boolean endsWithNewLine(Text text) {
+		List<FormatedText> texts = text.getTexts();
+		if (texts.isEmpty()) return false;
+		FormatedText last = texts.get(texts.size() - 1);
+		return FormatedText.isNewLine(last) || last.toString().endsWith("\n");
+	}
+
 	public Iterator<AbstractElement> getElementsIt() {
 		return mElements.iterator();
 	}
 
+	/**
+	 * The magic bytes that prefix a message encoded with {@link #toBytes()}.
+	 */
+	private static final byte[] MAGIC = new byte[] { 'M', 'X', 'C', 1 };
+
+	/**
+	 * Encode this message into a byte array, suitable for on-disk storage.
+	 * 
+	 * @return the encoded message
+	 */
+	public byte[] toBytes() {
+		ContentCodec.ByteArrayWriter out = new ContentCodec.ByteArrayWriter();
+		for (byte b : MAGIC)
+			out.writeByte(b);
+		out.writeByte((byte) (mSuccess ? 1 : 0));
+		out.writeInt(mId);
+		ContentCodec.writeElements(mElements, out);
+		return out.toByteArray();
+	}
+
+	/**
+	 * Check if the given bytes have been created by {@link #toBytes()}.
+	 * 
+	 * @param bytes
+	 * @return true if the bytes start with the magic of the encoded form
+	 */
+	private static boolean isEncoded(byte[] bytes) {
+		if (bytes == null || bytes.length < MAGIC.length) return false;
+		for (int i = 0; i < MAGIC.length; i++) {
+			if (bytes[i] != MAGIC[i]) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Decode a message previously encoded with {@link #toBytes()}.
+	 * 
+	 * @param bytes
+	 * @return the decoded message
+	 */
+	public static Message fromBytes(byte[] bytes) {
+		if (!isEncoded(bytes)) {
+			throw new IllegalArgumentException("Not an encoded message");
+		}
+		ContentCodec.ByteArrayReader in = new ContentCodec.ByteArrayReader(bytes);
+		for (int i = 0; i < MAGIC.length; i++)
+			in.readByte();
+		Message message = new Message();
+		message.mSuccess = in.readByte() != 0;
+		message.mId = in.readInt();
+		ContentCodec.readElements(message.mElements, AbstractElement.class, in);
+		return message;
+	}
+
+	/**
+	 * The first int of a message written with {@link #writeToParcel(Parcel, int)}, it consists of
+	 * the magic bytes, the last one being the version of the format. The legacy format, where the
+	 * elements are written with {@link Parcel#writeList(List)}, starts with the success boolean,
+	 * i.e. with 0 or 1.
+	 */
+	private static final int PARCEL_MAGIC = (MAGIC[0] << 24) | (MAGIC[1] << 16) | (MAGIC[2] << 8)
+			| MAGIC[3];
+
+	/**
+	 * Get the number of bytes {@link #writeToParcel(Parcel, int)} writes for this message, without
+	 * actually marshalling it.
+	 * 
+	 * @return the size of the parcelled message in bytes
+	 */
+	public int getParcelSize() {
+		ContentCodec.ParcelSizeCounter counter = new ContentCodec.ParcelSizeCounter();
+		counter.writeInt(PARCEL_MAGIC);
+		counter.writeByte((byte) 0);
+		counter.writeInt(mId);
+		ContentCodec.writeElements(mElements, counter);
+		return counter.getSize();
+	}
+
 	private Message(Parcel in) {
+		final int magic = in.readInt();
+		if (magic != PARCEL_MAGIC) {
+			// A message from a peer that still uses the legacy format
+			mSuccess = magic != 0;
+			mId = in.readInt();
+			in.readList(mElements, AbstractElement.class.getClassLoader());
+			return;
+		}
 		mSuccess = ParcelUtil.readBool(in);
 		mId = in.readInt();
-		in.readList(mElements, getClass().getClassLoader());
+		ContentCodec.readElements(mElements, AbstractElement.class,
+				new ContentCodec.ParcelReader(in));
 	}
 
 	@Override
@@ -123,9 +238,10 @@ public class Message implements Parcelable {
 
 	@Override
 	public void writeToParcel(Parcel dest, int flags) {
+		dest.writeInt(PARCEL_MAGIC);
 		ParcelUtil.writeBool(dest, mSuccess);
 		dest.writeInt(mId);
-		dest.writeList(mElements);
+		ContentCodec.writeElements(mElements, new ContentCodec.ParcelWriter(dest));
 	}
 
 	public static final Creator<Message> CREATOR = new Creator<Message>() {
@@ -21,8 +21,10 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.StringBufferInputStream;
 import java.lang.Thread.UncaughtExceptionHandler;
-import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.logging.Formatter;
 import java.util.logging.Handler;
 import java.util.logging.Level;
@@ -32,6 +34,7 @@ import java.util.logging.Logger;
 
 import org.projectmaxs.shared.global.GlobalConstants;
 import org.projectmaxs.shared.global.util.Log.DebugLogSettings;
+import org.projectmaxs.shared.global.util.LogBuffer;
 import org.projectmaxs.shared.global.util.SharedStringUtil;
 
 import android.util.Log;
@@ -63,7 +66,21 @@ public class JULHandler extends Handler {
 
 	private static final Logger LOGGER = Logger.getLogger(CLASS_NAME);
 
-	private static final Set<String> NO_LOG_PKGS = new HashSet<String>();
+	private static final Set<String> NO_LOG_PKGS = new CopyOnWriteArraySet<String>();
+
+	/**
+	 * The result of matching a source class name against NO_LOG_PKGS. Smack logs from a bounded
+	 * set of classes, so after the first record of every class, isLoggable() only needs a single
+	 * hash lookup instead of testing every package prefix. Cleared whenever NO_LOG_PKGS changes.
+	 */
+	private static final ConcurrentMap<String, Boolean> NO_LOG_CLASSES =
+			new ConcurrentHashMap<String, Boolean>();
+
+	/**
+	 * The Android log tags by source class name.
+	 */
+	private static final ConcurrentMap<String, String> TAGS =
+			new ConcurrentHashMap<String, String>();
 
 	/**
 	 * Whether or the stacktraces of throwables attached to INFO or FINE* log levels should also be
@@ -110,10 +127,12 @@ public class JULHandler extends Handler {
 
 	public static void addNoLogPkg(String pkg) {
 		NO_LOG_PKGS.add(pkg);
+		NO_LOG_CLASSES.clear();
 	}
 
 	public static void removeNoLogPkg(String pkg) {
 		NO_LOG_PKGS.remove(pkg);
+		NO_LOG_CLASSES.clear();
 	}
 
 	public JULHandler() {
@@ -129,33 +148,51 @@ public class JULHandler extends Handler {
 	@Override
 	public boolean isLoggable(LogRecord record) {
 		final String sourceClass = record.getSourceClassName();
-		if (sourceClass != null) {
-			for (String noLogPkg : NO_LOG_PKGS) {
-				if (sourceClass.startsWith(noLogPkg)) {
-					return false;
-				}
-			}
+		if (sourceClass != null && isNoLogClass(sourceClass)) {
+			return false;
 		}
 
-		final boolean debugLog = sDebugLogSettings == null ? true : sDebugLogSettings
-				.isDebugLogEnabled();
-
 		if (record.getLevel().intValue() <= FINE_INT) {
-			return debugLog;
+			return sDebugLogSettings == null ? true : sDebugLogSettings.isDebugLogEnabled();
 		}
 		return true;
 	}
 
+	private static boolean isNoLogClass(String sourceClass) {
+		Boolean noLog = NO_LOG_CLASSES.get(sourceClass);
+		if (noLog != null) return noLog;
+
+		noLog = false;
+		for (String noLogPkg : NO_LOG_PKGS) {
+			if (sourceClass.startsWith(noLogPkg)) {
+				noLog = true;
+				break;
+			}
+		}
+		NO_LOG_CLASSES.put(sourceClass, noLog);
+		return noLog;
+	}
+
+	private static String getTag(String sourceClass) {
+		if (sourceClass == null) sourceClass = "null";
+		String tag = TAGS.get(sourceClass);
+		if (tag == null) {
+			tag = GlobalConstants.MAXS + '/' + SharedStringUtil.substringAfterLastDot(sourceClass);
+			TAGS.put(sourceClass, tag);
+		}
+		return tag;
+	}
+
 	@Override
 	public void publish(LogRecord record) {
 		if (!isLoggable(record)) return;
 
 		final int priority = getAndroidPriority(record.getLevel());
-		final String tag = GlobalConstants.MAXS + '/'
-				+ SharedStringUtil.substringAfterLastDot(record.getSourceClassName());
+		final String tag = getTag(record.getSourceClassName());
 		final String msg = getFormatter().format(record);
 
 		Log.println(priority, tag, msg);
+		LogBuffer.getInstance().add(getPriorityChar(priority), tag, msg);
 	}
 
 	private static int getAndroidPriority(Level level) {
@@ -171,6 +208,19 @@ public class JULHandler extends Handler {
 		}
 	}
 
+	private static char getPriorityChar(int priority) {
+		switch (priority) {
+		case Log.ERROR:
+			return 'E';
+		case Log.WARN:
+			return 'W';
+		case Log.INFO:
+			return 'I';
+		default:
+			return 'D';
+		}
+	}
+
 	private static final UncaughtExceptionHandler UNCAUGHT_EXCEPTION_HANDLER = new UncaughtExceptionHandler() {
 		@Override
 		public void uncaughtException(Thread thread, Throwable ex) {
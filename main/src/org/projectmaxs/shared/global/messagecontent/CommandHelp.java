@@ -43,6 +43,18 @@ public class CommandHelp extends AbstractElement {
 		mHelp = help;
 	}
 
+	/**
+	 * Used by {@link ContentCodec}.
+	 */
+	CommandHelp(String command, String subCommand, ArgType argType, String argString,
+			String help) {
+		mCommand = command;
+		mSubCommand = subCommand;
+		mArgType = argType;
+		mArgString = argString;
+		mHelp = help;
+	}
+
 	private CommandHelp(Parcel in) {
 		mCommand = in.readString();
 		mSubCommand = in.readString();
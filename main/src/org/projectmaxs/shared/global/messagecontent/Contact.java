@@ -58,6 +58,11 @@ public class Contact extends AbstractElement {
 		return this;
 	}
 
+	public Contact addNumber(ContactNumber number) {
+		mNumbers.add(number);
+		return this;
+	}
+
 	/**
 	 * Check if the contact has at least one number
 	 * 
@@ -87,6 +92,10 @@ public class Contact extends AbstractElement {
 		return mLookupKey;
 	}
 
+	public String getNickname() {
+		return mNickname;
+	}
+
 	/**
 	 * Get a new Contact with minimal information set. That is, only display
 	 * name and lookup key are set.
@@ -100,6 +109,18 @@ public class Contact extends AbstractElement {
 		return new Contact(mDisplayName, mLookupKey);
 	}
 
+	/**
+	 * Get a copy of this contact. The numbers are immutable and shared with the copy.
+	 * 
+	 * @return a new contact with the same information set
+	 */
+	public Contact copy() {
+		Contact copy = new Contact(mDisplayName, mLookupKey);
+		copy.mNumbers.addAll(mNumbers);
+		copy.mNickname = mNickname;
+		return copy;
+	}
+
 	@Override
 	public int describeContents() {
 		return 0;
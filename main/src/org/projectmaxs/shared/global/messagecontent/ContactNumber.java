@@ -59,6 +59,17 @@ public class ContactNumber extends AbstractElement {
 		mSuperPrimary = superPrimary;
 	}
 
+	/**
+	 * Create a contact number from its serialized form, e.g. by {@link ContentCodec}. The number
+	 * is not validated again.
+	 */
+	public ContactNumber(NumberType type, String number, String label, boolean superPrimary) {
+		mNumberType = type;
+		mNumber = number;
+		mLabel = label;
+		mSuperPrimary = superPrimary;
+	}
+
 	private ContactNumber(Parcel in) {
 		mNumberType = in.readParcelable(NumberType.class.getClassLoader());
 		mNumber = in.readString();
@@ -105,6 +116,10 @@ public class ContactNumber extends AbstractElement {
 		return mLabel;
 	}
 
+	public boolean isSuperPrimary() {
+		return mSuperPrimary;
+	}
+
 	public static enum NumberType implements Parcelable {
 		MOBILE, HOME, WORK, UNKOWN, OTHER;
 
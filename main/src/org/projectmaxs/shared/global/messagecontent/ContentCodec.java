@@ -0,0 +1,524 @@
+/*
+    This file is part of Project MAXS.
+
+    MAXS and its modules is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    MAXS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with MAXS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.projectmaxs.shared.global.messagecontent;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.projectmaxs.shared.global.util.ParcelableUtil;
+
+import android.os.Parcel;
+
+/**
+ * A compact, type-tagged binary codec for the message content elements. Instead of the class
+ * names written by {@link Parcel#writeList(List)}, every element is prefixed by a one byte type
+ * ID from the registry below, and decoded without class loader reflection.
+ * <p>
+ * The codec writes to a {@link Writer}, which is either backed by a {@link Parcel}, or by a byte
+ * array for on-disk storage. Type IDs must never be changed or reused, as they are part of the
+ * stored format.
+ * </p>
+ * <p>
+ * Elements of classes without a registered type ID, e.g. subclasses of the elements above, are
+ * encoded with {@link #TYPE_PARCELABLE}, that is, as a marshalled {@link Parcel} containing the
+ * class name and the element's own Parcelable form. Those are decoded with the class loader of
+ * {@link AbstractElement}, just like {@link Parcel#readList(List, ClassLoader)} did before.
+ * </p>
+ */
+public class ContentCodec {
+
+	// The registry of element type IDs
+	private static final byte TYPE_NULL = 0;
+	private static final byte TYPE_TEXT = 1;
+	private static final byte TYPE_ELEMENT = 2;
+	private static final byte TYPE_CONTACT = 3;
+	private static final byte TYPE_CONTACT_NUMBER = 4;
+	private static final byte TYPE_SMS = 5;
+	private static final byte TYPE_COMMAND_HELP = 6;
+	private static final byte TYPE_PARCELABLE = 7;
+
+	// The type IDs of FormatedText
+	private static final byte FORMATED_TEXT = 1;
+	private static final byte NEW_LINE = 2;
+
+	private static final Map<Class<?>, Byte> sTypeIds = new HashMap<Class<?>, Byte>();
+
+	static {
+		sTypeIds.put(Text.class, TYPE_TEXT);
+		sTypeIds.put(Element.class, TYPE_ELEMENT);
+		sTypeIds.put(Contact.class, TYPE_CONTACT);
+		sTypeIds.put(ContactNumber.class, TYPE_CONTACT_NUMBER);
+		sTypeIds.put(Sms.class, TYPE_SMS);
+		sTypeIds.put(CommandHelp.class, TYPE_COMMAND_HELP);
+	}
+
+	public interface Writer {
+		void writeByte(byte b);
+
+		void writeInt(int i);
+
+		void writeLong(long l);
+
+		/**
+		 * Write a string, which may be null.
+		 * 
+		 * @param string
+		 */
+		void writeString(String string);
+
+		void writeBytes(byte[] bytes);
+	}
+
+	public interface Reader {
+		byte readByte();
+
+		int readInt();
+
+		long readLong();
+
+		String readString();
+
+		byte[] readBytes();
+	}
+
+	public static void writeElements(Collection<? extends AbstractElement> elements, Writer out) {
+		out.writeInt(elements.size());
+		for (AbstractElement element : elements)
+			writeElement(element, out);
+	}
+
+	public static <E extends AbstractElement> void readElements(Collection<E> elements,
+			Class<E> clazz, Reader in) {
+		final int size = in.readInt();
+		for (int i = 0; i < size; i++)
+			elements.add(clazz.cast(readElement(in)));
+	}
+
+	public static void writeElement(AbstractElement element, Writer out) {
+		if (element == null) {
+			out.writeByte(TYPE_NULL);
+			return;
+		}
+		Byte typeId = sTypeIds.get(element.getClass());
+		if (typeId == null) typeId = TYPE_PARCELABLE;
+		out.writeByte(typeId);
+		switch (typeId) {
+		case TYPE_TEXT:
+			writeText((Text) element, out);
+			break;
+		case TYPE_ELEMENT:
+			writeElementElement((Element) element, out);
+			break;
+		case TYPE_CONTACT:
+			writeContact((Contact) element, out);
+			break;
+		case TYPE_CONTACT_NUMBER:
+			writeContactNumber((ContactNumber) element, out);
+			break;
+		case TYPE_SMS:
+			writeSms((Sms) element, out);
+			break;
+		case TYPE_COMMAND_HELP:
+			writeCommandHelp((CommandHelp) element, out);
+			break;
+		case TYPE_PARCELABLE:
+			writeParcelable(element, out);
+			break;
+		default:
+			throw new IllegalStateException();
+		}
+	}
+
+	public static AbstractElement readElement(Reader in) {
+		final byte typeId = in.readByte();
+		switch (typeId) {
+		case TYPE_NULL:
+			return null;
+		case TYPE_TEXT:
+			return readText(in);
+		case TYPE_ELEMENT:
+			return readElementElement(in);
+		case TYPE_CONTACT:
+			return readContact(in);
+		case TYPE_CONTACT_NUMBER:
+			return readContactNumber(in);
+		case TYPE_SMS:
+			return readSms(in);
+		case TYPE_COMMAND_HELP:
+			return readCommandHelp(in);
+		case TYPE_PARCELABLE:
+			return readParcelable(in);
+		default:
+			throw new IllegalArgumentException("Unknown element type ID " + typeId);
+		}
+	}
+
+	static void writeFormatedTexts(List<FormatedText> texts, Writer out) {
+		out.writeInt(texts.size());
+		for (FormatedText text : texts) {
+			if (FormatedText.isNewLine(text)) {
+				out.writeByte(NEW_LINE);
+				continue;
+			}
+			out.writeByte(FORMATED_TEXT);
+			out.writeString(text.toString());
+			out.writeString(text.getFont());
+			out.writeByte((byte) ((text.isBold() ? 1 : 0) | (text.isItalic() ? 2 : 0)));
+		}
+	}
+
+	static void readFormatedTexts(List<FormatedText> texts, Reader in) {
+		final int size = in.readInt();
+		for (int i = 0; i < size; i++) {
+			final byte type = in.readByte();
+			if (type == NEW_LINE) {
+				texts.add(NewLine.getInstance());
+				continue;
+			}
+			final String text = in.readString();
+			final String font = in.readString();
+			final byte flags = in.readByte();
+			texts.add(new FormatedText(text, font, (flags & 1) != 0, (flags & 2) != 0));
+		}
+	}
+
+	private static void writeText(Text text, Writer out) {
+		writeFormatedTexts(text.getTexts(), out);
+	}
+
+	private static Text readText(Reader in) {
+		Text text = new Text();
+		readFormatedTexts(text.getTexts(), in);
+		return text;
+	}
+
+	private static void writeElementElement(Element element, Writer out) {
+		out.writeString(element.getXMLName());
+		out.writeString(element.getText());
+		writeElement(element.getHumanReadableName(), out);
+		writeElements(element.mChildElements, out);
+	}
+
+	private static Element readElementElement(Reader in) {
+		final String xmlName = in.readString();
+		final String text = in.readString();
+		final Text humanReadableName = (Text) readElement(in);
+		Element element = new Element(xmlName, text, humanReadableName);
+		readElements(element.mChildElements, AbstractElement.class, in);
+		return element;
+	}
+
+	private static void writeContact(Contact contact, Writer out) {
+		out.writeString(contact.getDisplayName());
+		out.writeString(contact.getLookupKey());
+		out.writeString(contact.getNickname());
+		writeContactNumbers(contact.getNumbers(), out);
+	}
+
+	private static Contact readContact(Reader in) {
+		final String displayName = in.readString();
+		final String lookupKey = in.readString();
+		Contact contact = new Contact(displayName, lookupKey);
+		contact.setNickname(in.readString());
+		readContactNumbers(contact.getNumbers(), in);
+		return contact;
+	}
+
+	static void writeContactNumbers(List<ContactNumber> numbers, Writer out) {
+		out.writeInt(numbers.size());
+		for (ContactNumber number : numbers)
+			writeContactNumber(number, out);
+	}
+
+	static void readContactNumbers(List<ContactNumber> numbers, Reader in) {
+		final int size = in.readInt();
+		for (int i = 0; i < size; i++)
+			numbers.add(readContactNumber(in));
+	}
+
+	private static void writeContactNumber(ContactNumber number, Writer out) {
+		out.writeByte((byte) number.mNumberType.ordinal());
+		out.writeString(number.mNumber);
+		out.writeString(number.mLabel);
+		out.writeByte((byte) (number.mSuperPrimary ? 1 : 0));
+	}
+
+	private static ContactNumber readContactNumber(Reader in) {
+		final ContactNumber.NumberType type = ContactNumber.NumberType.values()[in.readByte()];
+		final String number = in.readString();
+		final String label = in.readString();
+		final boolean superPrimary = in.readByte() != 0;
+		return new ContactNumber(type, number, label, superPrimary);
+	}
+
+	private static void writeSms(Sms sms, Writer out) {
+		out.writeByte((byte) sms.getType().ordinal());
+		out.writeString(sms.getContact());
+		out.writeString(sms.getBody());
+		out.writeLong(sms.getDate());
+	}
+
+	private static Sms readSms(Reader in) {
+		final Sms.Type type = Sms.Type.values()[in.readByte()];
+		final String contact = in.readString();
+		final String body = in.readString();
+		final long date = in.readLong();
+		return new Sms(contact, body, type, date);
+	}
+
+	private static void writeCommandHelp(CommandHelp commandHelp, Writer out) {
+		out.writeString(commandHelp.mCommand);
+		out.writeString(commandHelp.mSubCommand);
+		out.writeByte((byte) commandHelp.mArgType.ordinal());
+		out.writeString(commandHelp.mArgString);
+		out.writeString(commandHelp.mHelp);
+	}
+
+	private static CommandHelp readCommandHelp(Reader in) {
+		final String command = in.readString();
+		final String subCommand = in.readString();
+		final CommandHelp.ArgType argType = CommandHelp.ArgType.values()[in.readByte()];
+		final String argString = in.readString();
+		final String help = in.readString();
+		return new CommandHelp(command, subCommand, argType, argString, help);
+	}
+
+	private static void writeParcelable(AbstractElement element, Writer out) {
+		Parcel parcel = Parcel.obtain();
+		try {
+			parcel.writeParcelable(element, 0);
+			out.writeBytes(parcel.marshall());
+		} finally {
+			parcel.recycle();
+		}
+	}
+
+	private static AbstractElement readParcelable(Reader in) {
+		Parcel parcel = ParcelableUtil.unmarshall(in.readBytes());
+		try {
+			return parcel.readParcelable(AbstractElement.class.getClassLoader());
+		} finally {
+			parcel.recycle();
+		}
+	}
+
+	public static class ParcelWriter implements Writer {
+		private final Parcel mParcel;
+
+		public ParcelWriter(Parcel parcel) {
+			mParcel = parcel;
+		}
+
+		@Override
+		public void writeByte(byte b) {
+			mParcel.writeByte(b);
+		}
+
+		@Override
+		public void writeInt(int i) {
+			mParcel.writeInt(i);
+		}
+
+		@Override
+		public void writeLong(long l) {
+			mParcel.writeLong(l);
+		}
+
+		@Override
+		public void writeString(String string) {
+			mParcel.writeString(string);
+		}
+
+		@Override
+		public void writeBytes(byte[] bytes) {
+			mParcel.writeByteArray(bytes);
+		}
+	}
+
+	public static class ParcelReader implements Reader {
+		private final Parcel mParcel;
+
+		public ParcelReader(Parcel parcel) {
+			mParcel = parcel;
+		}
+
+		@Override
+		public byte readByte() {
+			return mParcel.readByte();
+		}
+
+		@Override
+		public int readInt() {
+			return mParcel.readInt();
+		}
+
+		@Override
+		public long readLong() {
+			return mParcel.readLong();
+		}
+
+		@Override
+		public String readString() {
+			return mParcel.readString();
+		}
+
+		@Override
+		public byte[] readBytes() {
+			return mParcel.createByteArray();
+		}
+	}
+
+	/**
+	 * A writer that only counts the bytes a {@link ParcelWriter} would write. Parcel stores every
+	 * value in at least 4 bytes, and strings as UTF-16 with a terminating null character, padded
+	 * to a multiple of 4.
+	 */
+	public static class ParcelSizeCounter implements Writer {
+		private int mSize;
+
+		@Override
+		public void writeByte(byte b) {
+			mSize += 4;
+		}
+
+		@Override
+		public void writeInt(int i) {
+			mSize += 4;
+		}
+
+		@Override
+		public void writeLong(long l) {
+			mSize += 8;
+		}
+
+		@Override
+		public void writeString(String string) {
+			mSize += 4;
+			if (string == null) return;
+			mSize += ((string.length() + 1) * 2 + 3) & ~3;
+		}
+
+		@Override
+		public void writeBytes(byte[] bytes) {
+			mSize += 4 + ((bytes.length + 3) & ~3);
+		}
+
+		public int getSize() {
+			return mSize;
+		}
+	}
+
+	/**
+	 * A writer producing a byte array, suitable for on-disk storage. Strings are written as UTF-8
+	 * with their byte length prefixed, null strings have a length of -1.
+	 */
+	public static class ByteArrayWriter implements Writer {
+		private static final Charset UTF8 = Charset.forName("UTF-8");
+
+		private final ByteArrayOutputStream mOut = new ByteArrayOutputStream(256);
+		private final ByteBuffer mBuffer = ByteBuffer.allocate(8);
+
+		@Override
+		public void writeByte(byte b) {
+			mOut.write(b);
+		}
+
+		@Override
+		public void writeInt(int i) {
+			mBuffer.clear();
+			mBuffer.putInt(i);
+			mOut.write(mBuffer.array(), 0, 4);
+		}
+
+		@Override
+		public void writeLong(long l) {
+			mBuffer.clear();
+			mBuffer.putLong(l);
+			mOut.write(mBuffer.array(), 0, 8);
+		}
+
+		@Override
+		public void writeString(String string) {
+			if (string == null) {
+				writeInt(-1);
+				return;
+			}
+			writeBytes(string.getBytes(UTF8));
+		}
+
+		@Override
+		public void writeBytes(byte[] bytes) {
+			writeInt(bytes.length);
+			mOut.write(bytes, 0, bytes.length);
+		}
+
+		public byte[] toByteArray() {
+			return mOut.toByteArray();
+		}
+	}
+
+	public static class ByteArrayReader implements Reader {
+		private static final Charset UTF8 = Charset.forName("UTF-8");
+
+		private final ByteBuffer mBuffer;
+
+		public ByteArrayReader(byte[] bytes) {
+			mBuffer = ByteBuffer.wrap(bytes);
+		}
+
+		@Override
+		public byte readByte() {
+			return mBuffer.get();
+		}
+
+		@Override
+		public int readInt() {
+			return mBuffer.getInt();
+		}
+
+		@Override
+		public long readLong() {
+			return mBuffer.getLong();
+		}
+
+		@Override
+		public String readString() {
+			final int length = mBuffer.getInt();
+			if (length == -1) return null;
+			String string = new String(mBuffer.array(), mBuffer.position(), length, UTF8);
+			mBuffer.position(mBuffer.position() + length);
+			return string;
+		}
+
+		@Override
+		public byte[] readBytes() {
+			byte[] bytes = new byte[mBuffer.getInt()];
+			mBuffer.get(bytes);
+			return bytes;
+		}
+
+		public boolean hasRemaining() {
+			return mBuffer.hasRemaining();
+		}
+	}
+}
@@ -80,6 +80,10 @@ public class Element extends AbstractElement {
 		return element;
 	}
 
+	public String getXMLName() {
+		return mXMLName;
+	}
+
 	public void setText(String text) {
 		mText = text;
 	}
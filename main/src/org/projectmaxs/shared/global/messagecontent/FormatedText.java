@@ -43,6 +43,22 @@ public class FormatedText implements Parcelable {
 		this(charSequence.toString());
 	}
 
+	/**
+	 * Create a formated text from its serialized form, e.g. by {@link ContentCodec}.
+	 * 
+	 * @param text
+	 * @param font
+	 *            the font-family, may be null
+	 * @param bold
+	 * @param italic
+	 */
+	public FormatedText(String text, String font, boolean bold, boolean italic) {
+		mText = text;
+		mFont = font;
+		mIsBold = bold;
+		mIsItalic = italic;
+	}
+
 	private FormatedText(Parcel in) {
 		mText = in.readString();
 		mFont = in.readString();
@@ -55,6 +71,10 @@ public class FormatedText implements Parcelable {
 		return this;
 	}
 
+	public String getFont() {
+		return mFont;
+	}
+
 	public boolean isBold() {
 		return mIsBold;
 	}
@@ -0,0 +1,234 @@
+/*
+    This file is part of Project MAXS.
+
+    MAXS and its modules is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    MAXS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with MAXS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.projectmaxs.shared.global.util;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records the latency of the hops a command takes, from the transport receiving it to the
+ * transport sending the reply. Every MAXS component runs in its own process, so every process
+ * records the hops it is able to observe:
+ * <ul>
+ * <li>main records {@link #TRANSPORT_RECEIVE}, the time from the transport receiving the command
+ * until main handles it, using the timestamp passed along by the transport</li>
+ * <li>main records {@link #ROUND_TRIP}, the time from performCommand() until the first reply for
+ * the command is send</li>
+ * <li>main records {@link #MAIN_DISPATCH}, the time performCommand() takes to dispatch the
+ * command to its module</li>
+ * <li>the modules record {@link #MODULE_QUEUED} and {@link #MODULE_EXECUTE}</li>
+ * <li>the modules record {@link #MODULE_HAND_OFF}, the time from MainUtil.send() until the reply
+ * is handed off to main, either over the message channel or with an Intent</li>
+ * <li>the transport records {@link #TRANSPORT_SEND}</li>
+ * </ul>
+ * The modules and the transport forward their metrics to main with a {@link Forwarder}, where
+ * they are merged with the metrics of main. The histograms are keyed by hop and command. Recording
+ * is lock-free, so it can stay enabled.
+ */
+public class CommandMetrics {
+
+	public static final String TRANSPORT_RECEIVE = "transport-receive";
+	public static final String ROUND_TRIP = "round-trip";
+	public static final String MAIN_DISPATCH = "main-dispatch";
+	public static final String MODULE_QUEUED = "module-queued";
+	public static final String MODULE_EXECUTE = "module-execute";
+	public static final String MODULE_HAND_OFF = "module-hand-off";
+	public static final String TRANSPORT_SEND = "transport-send";
+
+	private static final int MAX_PENDING_COMMANDS = 256;
+	private static final long MAX_PENDING_AGE_NANOS = TimeUnit.MINUTES.toNanos(10);
+
+	private static final ConcurrentMap<String, LatencyHistogram> sHistograms =
+			new ConcurrentHashMap<String, LatencyHistogram>();
+
+	private static final ConcurrentMap<Integer, PendingCommand> sPendingCommands =
+			new ConcurrentHashMap<Integer, PendingCommand>();
+
+	private static volatile boolean sEnabled = true;
+
+	private static volatile Forwarder sForwarder;
+
+	public static void setEnabled(boolean enabled) {
+		sEnabled = enabled;
+	}
+
+	/**
+	 * Set the forwarder notified about recorded latencies. Processes other than main use this to
+	 * forward their metrics to main.
+	 * 
+	 * @param forwarder
+	 */
+	public static void setForwarder(Forwarder forwarder) {
+		sForwarder = forwarder;
+	}
+
+	/**
+	 * Get a timestamp suitable for {@link #recordSince(String, String, long)}. The timestamps are
+	 * comparable between the MAXS processes, as System.nanoTime() uses the system wide monotonic
+	 * clock on Android.
+	 * 
+	 * @return a timestamp in nanoseconds
+	 */
+	public static long now() {
+		return System.nanoTime();
+	}
+
+	/**
+	 * Record the time elapsed since the given timestamp for the given hop and command.
+	 * 
+	 * @param hop
+	 * @param command
+	 *            the command, may be null
+	 * @param startNanos
+	 *            the timestamp returned by {@link #now()}
+	 */
+	public static void recordSince(String hop, String command, long startNanos) {
+		if (!sEnabled) return;
+		record(hop, command, TimeUnit.NANOSECONDS.toMillis(now() - startNanos));
+	}
+
+	public static void record(String hop, String command, long millis) {
+		if (!sEnabled) return;
+		getHistogram(key(hop, command)).record(millis);
+		final Forwarder forwarder = sForwarder;
+		if (forwarder != null) forwarder.onRecorded();
+	}
+
+	/**
+	 * Mark the start of a command round trip.
+	 * 
+	 * @param id
+	 *            the command ID
+	 * @param command
+	 */
+	public static void commandStarted(int id, String command) {
+		if (!sEnabled) return;
+		if (sPendingCommands.size() >= MAX_PENDING_COMMANDS) purgePendingCommands();
+		sPendingCommands.put(id, new PendingCommand(command));
+	}
+
+	/**
+	 * Mark the end of a command round trip. Only the first reply of a command ends its round trip.
+	 * 
+	 * @param id
+	 *            the command ID
+	 */
+	public static void commandReplied(int id) {
+		PendingCommand pending = sPendingCommands.remove(id);
+		if (pending == null) return;
+		recordSince(ROUND_TRIP, pending.mCommand, pending.mStartNanos);
+	}
+
+	/**
+	 * Get a snapshot of the histograms, sorted by key.
+	 * 
+	 * @return the histograms keyed by "hop command"
+	 */
+	public static SortedMap<String, LatencyHistogram> getHistograms() {
+		return new TreeMap<String, LatencyHistogram>(sHistograms);
+	}
+
+	/**
+	 * Get the latencies recorded since the last call and reset the histograms, see
+	 * {@link LatencyHistogram#drain()}.
+	 * 
+	 * @return the drained histograms keyed by "hop command"
+	 */
+	public static Map<String, long[]> drain() {
+		Map<String, long[]> res = new HashMap<String, long[]>();
+		for (Map.Entry<String, LatencyHistogram> entry : sHistograms.entrySet()) {
+			long[] drained = entry.getValue().drain();
+			if (drained != null) res.put(entry.getKey(), drained);
+		}
+		return res;
+	}
+
+	/**
+	 * Merge the histograms drained by another process into the histograms of this process.
+	 * 
+	 * @param drained
+	 *            the drained histograms keyed by "hop command"
+	 */
+	public static void merge(Map<String, long[]> drained) {
+		for (Map.Entry<String, long[]> entry : drained.entrySet()) {
+			getHistogram(entry.getKey()).add(entry.getValue());
+		}
+	}
+
+	public static void reset() {
+		sHistograms.clear();
+		sPendingCommands.clear();
+	}
+
+	/**
+	 * Dump the metrics as text, one histogram per line.
+	 * 
+	 * @return the metrics as text
+	 */
+	public static String dump() {
+		StringBuilder sb = new StringBuilder();
+		for (Map.Entry<String, LatencyHistogram> entry : getHistograms().entrySet()) {
+			sb.append(entry.getKey()).append(": ").append(entry.getValue()).append('\n');
+		}
+		return sb.toString();
+	}
+
+	private static LatencyHistogram getHistogram(String key) {
+		LatencyHistogram histogram = sHistograms.get(key);
+		if (histogram != null) return histogram;
+		histogram = new LatencyHistogram();
+		LatencyHistogram previous = sHistograms.putIfAbsent(key, histogram);
+		return previous != null ? previous : histogram;
+	}
+
+	private static String key(String hop, String command) {
+		return command == null ? hop : hop + ' ' + command;
+	}
+
+	private static void purgePendingCommands() {
+		// Commands without reply never end their round trip, forget about them after a while
+		final long now = now();
+		Iterator<PendingCommand> it = sPendingCommands.values().iterator();
+		while (it.hasNext()) {
+			if (now - it.next().mStartNanos > MAX_PENDING_AGE_NANOS) it.remove();
+		}
+		if (sPendingCommands.size() >= MAX_PENDING_COMMANDS) sPendingCommands.clear();
+	}
+
+	public interface Forwarder {
+		/**
+		 * Invoked after a latency was recorded. Must not block.
+		 */
+		void onRecorded();
+	}
+
+	private static class PendingCommand {
+		private final String mCommand;
+		private final long mStartNanos = now();
+
+		private PendingCommand(String command) {
+			mCommand = command;
+		}
+	}
+}
@@ -0,0 +1,214 @@
+/*
+    This file is part of Project MAXS.
+
+    MAXS and its modules is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    MAXS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with MAXS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.projectmaxs.shared.global.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.net.Uri;
+
+/**
+ * A process wide registry of the installed packages.
+ * <p>
+ * The package names are retrieved once from the {@link PackageSource}, further lookups are
+ * answered from an in-memory set. The set is kept up to date by listening for package added,
+ * removed and replaced broadcasts. Should a broadcast with an unknown package arrive, the set is
+ * simply invalidated and rebuild on the next lookup.
+ * </p>
+ */
+public class InstalledPackageRegistry {
+
+	private static final Log LOG = Log.getLog();
+
+	private static InstalledPackageRegistry sInstalledPackageRegistry;
+
+	public synchronized static InstalledPackageRegistry getInstance(Context context) {
+		if (sInstalledPackageRegistry == null) {
+			final Context applicationContext = context.getApplicationContext();
+			sInstalledPackageRegistry = new InstalledPackageRegistry(
+					new PackageManagerPackageSource(applicationContext.getPackageManager()));
+			sInstalledPackageRegistry.registerPackageReceiver(applicationContext);
+		}
+		return sInstalledPackageRegistry;
+	}
+
+	private final PackageSource mPackageSource;
+
+	private final AtomicLong mHits = new AtomicLong();
+	private final AtomicLong mMisses = new AtomicLong();
+
+	/**
+	 * The installed packages or null if the registry needs to be (re-)build. Guarded by 'this'.
+	 */
+	private Set<String> mInstalledPackages;
+
+	/**
+	 * The number of threads currently building the set of installed packages. Guarded by 'this'.
+	 */
+	private int mBuilds;
+
+	/**
+	 * The package changes received while the set of installed packages is build, mapping the
+	 * package name to its latest installed state. They are applied to the new set, as the package
+	 * source may or may not already reflect them. Guarded by 'this'.
+	 */
+	private final Map<String, Boolean> mChangesDuringBuild = new HashMap<String, Boolean>();
+
+	/**
+	 * True if the registry got invalidated while the set of installed packages was build, in which
+	 * case the new set is not used. Guarded by 'this'.
+	 */
+	private boolean mInvalidatedDuringBuild;
+
+	public InstalledPackageRegistry(PackageSource packageSource) {
+		mPackageSource = packageSource;
+	}
+
+	public boolean isInstalled(String packageName) {
+		synchronized (this) {
+			if (mInstalledPackages != null) {
+				mHits.incrementAndGet();
+				return mInstalledPackages.contains(packageName);
+			}
+			mBuilds++;
+		}
+
+		mMisses.incrementAndGet();
+		Set<String> installedPackages = null;
+		boolean installed = false;
+		try {
+			// Query the package source without holding the lock, it may be an expensive IPC call
+			installedPackages = new HashSet<String>(mPackageSource.getInstalledPackageNames());
+		} finally {
+			synchronized (this) {
+				if (installedPackages != null) {
+					for (Map.Entry<String, Boolean> change : mChangesDuringBuild.entrySet()) {
+						if (change.getValue()) {
+							installedPackages.add(change.getKey());
+						} else {
+							installedPackages.remove(change.getKey());
+						}
+					}
+					if (!mInvalidatedDuringBuild) mInstalledPackages = installedPackages;
+					// Query the set while holding the lock, it may now be modified by other threads
+					installed = installedPackages.contains(packageName);
+				}
+				if (--mBuilds == 0) {
+					mChangesDuringBuild.clear();
+					mInvalidatedDuringBuild = false;
+				}
+			}
+		}
+		return installed;
+	}
+
+	public synchronized void onPackageAdded(String packageName) {
+		onPackageChanged(packageName, true);
+	}
+
+	public synchronized void onPackageRemoved(String packageName) {
+		onPackageChanged(packageName, false);
+	}
+
+	private void onPackageChanged(String packageName, boolean installed) {
+		// Called with 'this' locked
+		if (mBuilds > 0) mChangesDuringBuild.put(packageName, installed);
+		if (mInstalledPackages == null) return;
+		if (installed) {
+			mInstalledPackages.add(packageName);
+		} else {
+			mInstalledPackages.remove(packageName);
+		}
+	}
+
+	public synchronized void invalidate() {
+		mInstalledPackages = null;
+		if (mBuilds > 0) mInvalidatedDuringBuild = true;
+	}
+
+	public long getHits() {
+		return mHits.get();
+	}
+
+	public long getMisses() {
+		return mMisses.get();
+	}
+
+	private void registerPackageReceiver(Context context) {
+		IntentFilter filter = new IntentFilter();
+		filter.addAction(Intent.ACTION_PACKAGE_ADDED);
+		filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+		filter.addAction(Intent.ACTION_PACKAGE_REPLACED);
+		filter.addDataScheme("package");
+		context.registerReceiver(new BroadcastReceiver() {
+			@Override
+			public void onReceive(Context context, Intent intent) {
+				final String action = intent.getAction();
+				final Uri data = intent.getData();
+				if (data == null) {
+					invalidate();
+					return;
+				}
+				final String packageName = data.getEncodedSchemeSpecificPart();
+				LOG.d("onReceive: action=" + action + " packageName=" + packageName);
+				if (Intent.ACTION_PACKAGE_REMOVED.equals(action)) {
+					// A package replacement also causes a ACTION_PACKAGE_REMOVED broadcast
+					if (intent.getBooleanExtra(Intent.EXTRA_REPLACING, false)) return;
+					onPackageRemoved(packageName);
+				} else {
+					onPackageAdded(packageName);
+				}
+			}
+		}, filter);
+	}
+
+	public interface PackageSource {
+		Collection<String> getInstalledPackageNames();
+	}
+
+	private static class PackageManagerPackageSource implements PackageSource {
+
+		private final PackageManager mPackageManager;
+
+		private PackageManagerPackageSource(PackageManager packageManager) {
+			mPackageManager = packageManager;
+		}
+
+		@Override
+		public Collection<String> getInstalledPackageNames() {
+			List<PackageInfo> packageInfos = mPackageManager.getInstalledPackages(0);
+			List<String> packageNames = new ArrayList<String>(packageInfos.size());
+			for (PackageInfo pi : packageInfos) {
+				packageNames.add(pi.packageName);
+			}
+			return packageNames;
+		}
+	}
+}
@@ -0,0 +1,176 @@
+/*
+    This file is part of Project MAXS.
+
+    MAXS and its modules is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    MAXS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with MAXS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.projectmaxs.shared.global.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free latency histogram with power-of-two buckets. Bucket 0 counts latencies below 2ms,
+ * bucket i (i > 0) counts latencies in [2^i, 2^(i+1)) ms. Percentiles are therefore estimates,
+ * reported as the upper bound of the bucket containing them.
+ */
+public class LatencyHistogram {
+
+	static final int BUCKET_COUNT = 32;
+
+	/**
+	 * The length of the arrays returned by {@link #drain()}: count, sum, max and the buckets.
+	 */
+	static final int ARRAY_LENGTH = 3 + BUCKET_COUNT;
+
+	private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKET_COUNT);
+	private final AtomicLong mCount = new AtomicLong();
+	private final AtomicLong mSum = new AtomicLong();
+	private final AtomicLong mMax = new AtomicLong();
+
+	/**
+	 * Record a latency.
+	 * 
+	 * @param millis
+	 *            the latency in milliseconds, negative values are recorded as zero
+	 */
+	public void record(long millis) {
+		if (millis < 0) millis = 0;
+		mBuckets.incrementAndGet(bucketFor(millis));
+		mCount.incrementAndGet();
+		mSum.addAndGet(millis);
+		long max;
+		do {
+			max = mMax.get();
+			if (millis <= max) break;
+		} while (!mMax.compareAndSet(max, millis));
+	}
+
+	public long getCount() {
+		return mCount.get();
+	}
+
+	public long getMax() {
+		return mMax.get();
+	}
+
+	/**
+	 * Get the mean latency.
+	 * 
+	 * @return the mean latency in milliseconds, or zero if nothing was recorded
+	 */
+	public long getMean() {
+		final long count = mCount.get();
+		if (count == 0) return 0;
+		return mSum.get() / count;
+	}
+
+	/**
+	 * Get an estimate of the given percentile.
+	 * 
+	 * @param percentile
+	 *            the percentile, between 0 and 100
+	 * @return the upper bound in milliseconds of the bucket containing the percentile, but never
+	 *         more than the maximum recorded latency
+	 */
+	public long getPercentile(double percentile) {
+		if (percentile < 0 || percentile > 100) {
+			throw new IllegalArgumentException("percentile must be between 0 and 100");
+		}
+		long[] buckets = new long[BUCKET_COUNT];
+		long count = 0;
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			buckets[i] = mBuckets.get(i);
+			count += buckets[i];
+		}
+		if (count == 0) return 0;
+
+		// The rank of the percentile, at least the first recorded value
+		final long rank = Math.max(1, (long) Math.ceil(count * percentile / 100));
+		long seen = 0;
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			seen += buckets[i];
+			if (seen >= rank) return Math.min(upperBoundOf(i), mMax.get());
+		}
+		return mMax.get();
+	}
+
+	/**
+	 * Get the recorded latencies and reset this histogram, e.g. to transfer them to another
+	 * process. Latencies recorded concurrently are either contained in the returned array or stay
+	 * in this histogram, but possibly only partly, as recording is not atomic. The count, the sum
+	 * and the buckets of all arrays drained from a histogram add up to the recorded latencies.
+	 * 
+	 * @return the count, the sum, the max and the buckets, or null if nothing was recorded
+	 */
+	public long[] drain() {
+		if (mCount.get() == 0) return null;
+		long[] res = new long[ARRAY_LENGTH];
+		res[0] = mCount.getAndSet(0);
+		res[1] = mSum.getAndSet(0);
+		res[2] = mMax.getAndSet(0);
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			res[3 + i] = mBuckets.getAndSet(i, 0);
+		}
+		return res;
+	}
+
+	/**
+	 * Add the latencies returned by {@link #drain()} to this histogram.
+	 * 
+	 * @param drained
+	 */
+	public void add(long[] drained) {
+		if (drained.length != ARRAY_LENGTH) {
+			throw new IllegalArgumentException("Invalid array length " + drained.length);
+		}
+		mCount.addAndGet(drained[0]);
+		mSum.addAndGet(drained[1]);
+		long max;
+		do {
+			max = mMax.get();
+			if (drained[2] <= max) break;
+		} while (!mMax.compareAndSet(max, drained[2]));
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			mBuckets.addAndGet(i, drained[3 + i]);
+		}
+	}
+
+	public void reset() {
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			mBuckets.set(i, 0);
+		}
+		mCount.set(0);
+		mSum.set(0);
+		mMax.set(0);
+	}
+
+	@Override
+	public String toString() {
+		return "n=" + getCount() + " mean=" + getMean() + "ms p50=" + getPercentile(50)
+				+ "ms p90=" + getPercentile(90) + "ms p99=" + getPercentile(99) + "ms max="
+				+ getMax() + "ms";
+	}
+
+	static int bucketFor(long millis) {
+		if (millis < 2) return 0;
+		// The index of the highest set bit is floor(log2(millis))
+		return Math.min(BUCKET_COUNT - 1, 63 - Long.numberOfLeadingZeros(millis));
+	}
+
+	static long upperBoundOf(int bucket) {
+		if (bucket >= BUCKET_COUNT - 1) return Long.MAX_VALUE;
+		return (1L << (bucket + 1)) - 1;
+	}
+}
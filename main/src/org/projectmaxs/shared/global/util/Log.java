@@ -17,24 +17,42 @@
 
 package org.projectmaxs.shared.global.util;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
 import org.projectmaxs.shared.global.GlobalConstants;
 
 public class Log {
 
+	private static final ConcurrentMap<String, Log> sLogs = new ConcurrentHashMap<String, Log>();
+
+	private static final LogBuffer sLogBuffer = LogBuffer.getInstance();
+
 	private static DebugLogSettings sDebugLogSettings;
 	private final String mLogTag;
 
 	public static Log getLog(Class<?> c) {
-		return new Log(shortClassName(c));
+		return getLog(shortClassName(c));
 	}
 
+	/**
+	 * Get the Log for the calling class. This determines the caller via a stack trace, so it
+	 * should only be used to initialize static fields. Use {@link #getLog(Class)} or
+	 * {@link #getLog(String)} everywhere else.
+	 * 
+	 * @return the Log of the calling class
+	 */
 	public static Log getLog() {
-		StackTraceElement[] s = new RuntimeException().getStackTrace();
+		StackTraceElement[] s = new Throwable().getStackTrace();
 		return getLog(SharedStringUtil.substringAfterLastDot(s[1].getClassName()));
 	}
 
 	public static Log getLog(String logTag) {
-		return new Log(logTag);
+		Log log = sLogs.get(logTag);
+		if (log != null) return log;
+		log = new Log(logTag);
+		Log existing = sLogs.putIfAbsent(logTag, log);
+		return existing != null ? existing : log;
 	}
 
 	private Log(String logTag) {
@@ -47,37 +65,88 @@ public class Log {
 
 	public void i(String msg) {
 		android.util.Log.i(mLogTag, msg);
+		sLogBuffer.add('I', mLogTag, msg);
 	}
 
 	public void i(String msg, Throwable tr) {
 		android.util.Log.i(mLogTag, msg, tr);
+		sLogBuffer.add('I', mLogTag, msg + " (" + tr + ")");
+	}
+
+	/**
+	 * Log an info message. The message is only formatted if it is going to be logged.
+	 * 
+	 * @param format
+	 *            the message, with "{}" as placeholder for the arguments
+	 * @param args
+	 * @see #format(String, Object...)
+	 */
+	public void i(String format, Object... args) {
+		i(format(format, args));
 	}
 
 	public void w(String msg) {
 		android.util.Log.w(mLogTag, msg);
+		sLogBuffer.add('W', mLogTag, msg);
 	}
 
 	public void w(String msg, Throwable tr) {
 		android.util.Log.w(mLogTag, msg, tr);
+		sLogBuffer.add('W', mLogTag, msg + " (" + tr + ")");
+	}
+
+	public void w(String format, Object... args) {
+		w(format(format, args));
 	}
 
 	public void e(String msg) {
 		android.util.Log.e(mLogTag, msg);
+		sLogBuffer.add('E', mLogTag, msg);
 	}
 
 	public void e(String msg, Throwable tr) {
 		android.util.Log.e(mLogTag, msg, tr);
+		sLogBuffer.add('E', mLogTag, msg + " (" + tr + ")");
+	}
+
+	public void e(String format, Object... args) {
+		e(format(format, args));
 	}
 
+	/**
+	 * Log a debug message. Since the message is only converted to a String if debug logging is
+	 * enabled, a lazy CharSequence can be used to defer expensive message construction.
+	 * 
+	 * @param msg
+	 */
 	public void d(CharSequence msg) {
 		if (isDebugLogEnabled()) {
-			android.util.Log.d(mLogTag, msg.toString());
+			final String string = msg.toString();
+			android.util.Log.d(mLogTag, string);
+			sLogBuffer.add('D', mLogTag, string);
 		}
 	}
 
 	public void d(CharSequence msg, Throwable tr) {
 		if (isDebugLogEnabled()) {
-			android.util.Log.d(mLogTag, msg.toString(), tr);
+			final String string = msg.toString();
+			android.util.Log.d(mLogTag, string, tr);
+			sLogBuffer.add('D', mLogTag, string + " (" + tr + ")");
+		}
+	}
+
+	/**
+	 * Log a debug message. Unlike {@link #d(CharSequence)} with a concatenated String, this does
+	 * not build the message if debug logging is disabled.
+	 * 
+	 * @param format
+	 *            the message, with "{}" as placeholder for the arguments
+	 * @param args
+	 * @see #format(String, Object...)
+	 */
+	public void d(String format, Object... args) {
+		if (isDebugLogEnabled()) {
+			d(format(format, args));
 		}
 	}
 
@@ -89,6 +158,29 @@ public class Log {
 		public boolean isDebugLogEnabled();
 	}
 
+	/**
+	 * Replace every "{}" in format with the String representation of the next argument. Surplus
+	 * placeholders are kept as they are, surplus arguments are ignored.
+	 * 
+	 * @param format
+	 * @param args
+	 * @return the formatted String
+	 */
+	public static String format(String format, Object... args) {
+		if (args == null || args.length == 0) return format;
+		StringBuilder sb = new StringBuilder(format.length() + 16 * args.length);
+		int start = 0;
+		for (Object arg : args) {
+			int placeholder = format.indexOf("{}", start);
+			if (placeholder == -1) break;
+			sb.append(format, start, placeholder);
+			sb.append(arg);
+			start = placeholder + 2;
+		}
+		sb.append(format, start, format.length());
+		return sb.toString();
+	}
+
 	private static String shortClassName(Class<?> c) {
 		String className = c.getName();
 		return SharedStringUtil.substringAfterLastDot(className);
@@ -0,0 +1,99 @@
+/*
+    This file is part of Project MAXS.
+
+    MAXS and its modules is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    MAXS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with MAXS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.projectmaxs.shared.global.util;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * A fixed size in-memory ring buffer of the most recent log lines of the process. Once the
+ * buffer is full, the oldest line is overwritten. The buffer can be dumped, e.g. by a command,
+ * without access to logcat.
+ */
+public class LogBuffer {
+
+	public static final int DEFAULT_CAPACITY = 256;
+
+	private static final LogBuffer sInstance = new LogBuffer(DEFAULT_CAPACITY);
+
+	public static LogBuffer getInstance() {
+		return sInstance;
+	}
+
+	private final long[] mTimestamps;
+	private final char[] mPriorities;
+	private final String[] mTags;
+	private final String[] mMessages;
+
+	/**
+	 * The index of the next slot to write.
+	 */
+	private int mNext;
+	private int mSize;
+
+	public LogBuffer(int capacity) {
+		mTimestamps = new long[capacity];
+		mPriorities = new char[capacity];
+		mTags = new String[capacity];
+		mMessages = new String[capacity];
+	}
+
+	public synchronized void add(char priority, String tag, String message) {
+		mTimestamps[mNext] = System.currentTimeMillis();
+		mPriorities[mNext] = priority;
+		mTags[mNext] = tag;
+		mMessages[mNext] = message;
+		mNext = (mNext + 1) % mMessages.length;
+		if (mSize < mMessages.length) mSize++;
+	}
+
+	public synchronized int size() {
+		return mSize;
+	}
+
+	public synchronized void clear() {
+		for (int i = 0; i < mMessages.length; i++) {
+			mTags[i] = null;
+			mMessages[i] = null;
+		}
+		mNext = 0;
+		mSize = 0;
+	}
+
+	/**
+	 * Dump the buffered lines, oldest first.
+	 * 
+	 * @param maxLines
+	 *            the maximum number of (most recent) lines to return
+	 * @return the buffered lines, separated by newlines
+	 */
+	public synchronized String dump(int maxLines) {
+		final int lines = Math.min(mSize, maxLines);
+		final int capacity = mMessages.length;
+		final SimpleDateFormat format = new SimpleDateFormat("HH:mm:ss.SSS", Locale.US);
+		StringBuilder sb = new StringBuilder(lines * 64);
+		for (int i = lines; i > 0; i--) {
+			final int index = (mNext - i + capacity) % capacity;
+			sb.append(format.format(new Date(mTimestamps[index]))).append(' ');
+			sb.append(mPriorities[index]).append('/').append(mTags[index]).append(": ");
+			sb.append(mMessages[index]).append('\n');
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,394 @@
+/*
+    This file is part of Project MAXS.
+
+    MAXS and its modules is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    MAXS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with MAXS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.projectmaxs.shared.global.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.projectmaxs.shared.global.Message;
+import org.projectmaxs.shared.global.aidl.IMAXSMessageChannel;
+import org.projectmaxs.shared.global.util.ServiceTask.TimeoutException;
+import org.projectmaxs.shared.global.util.SyncServiceTask.PerformSyncTask;
+
+import android.content.Context;
+import android.content.Intent;
+import android.os.IBinder;
+import android.os.RemoteException;
+
+/**
+ * A channel delivering messages in batches over a bound {@link IMAXSMessageChannel} service
+ * instead of using one Intent per message.
+ * <p>
+ * Messages are queued and delivered by a single background thread, in batches of at most
+ * {@link #MAX_BATCH_SIZE} messages and {@link #MAX_BATCH_BYTES} bytes. Consecutive messages with
+ * the same ID are coalesced into one message. The queue is bounded: if it is full, then
+ * {@link #send(Message)} blocks for a short time, throttling the producer to the rate the
+ * receiving service is able to handle. The service stays bound as long as there are messages to
+ * deliver and is unbound after some idle time.
+ * </p>
+ * <p>
+ * If the service can not be bound, e.g. because the receiving side is an older version without
+ * the service, or if the queue stays full, then the messages are sent with
+ * {@link #sendViaIntent(Message)}. The messages are always handed off in the order they were
+ * sent.
+ * </p>
+ * <p>
+ * Queued messages are lost if the process is killed. Callers whose process may be killed once
+ * they return, e.g. BroadcastReceivers, must keep the process alive until the channel is drained,
+ * see {@link #runWhenDrained(Runnable)}, or use {@link #sendNow(Message)}.
+ * </p>
+ */
+public abstract class MessageChannel {
+
+	private static final Log LOG = Log.getLog();
+
+	public static final int QUEUE_CAPACITY = 256;
+	public static final int MAX_BATCH_SIZE = 32;
+
+	/**
+	 * The maximum size of the parcelled messages of one batch. The binder transaction buffer of a
+	 * process is 1 MiB, and it is shared by all transactions in flight, so only use half of it.
+	 */
+	public static final int MAX_BATCH_BYTES = 512 * 1024;
+
+	/**
+	 * The bytes a parcelled list needs for its size and every element needs for its non-null
+	 * marker.
+	 */
+	private static final int LIST_OVERHEAD_BYTES = 4;
+
+	private static final long OFFER_TIMEOUT_MILLIS = 2000;
+	private static final long IDLE_UNBIND_MILLIS = 10000;
+
+	private final LinkedBlockingQueue<QueuedMessage> mQueue =
+			new LinkedBlockingQueue<QueuedMessage>(QUEUE_CAPACITY);
+
+	private final ThreadPoolExecutor mExecutor = new ThreadPoolExecutor(0, 1, 60L,
+			TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+
+	private final SyncServiceTask<IMAXSMessageChannel> mServiceTask;
+
+	/**
+	 * Held while messages are removed from the queue and handed off, so that the messages are
+	 * handed off in order.
+	 */
+	private final Object mHandOffLock = new Object();
+
+	private final Runnable mDrainRunnable = new Runnable() {
+		@Override
+		public void run() {
+			drain();
+		}
+	};
+
+	private final PerformSyncTask<IMAXSMessageChannel, InterruptedException, Void> mDeliverTask =
+			new PerformSyncTask<IMAXSMessageChannel, InterruptedException, Void>() {
+		@Override
+		public Void performTask(IMAXSMessageChannel channel) throws InterruptedException {
+			deliverUntilIdle(channel);
+			return null;
+		}
+	};
+
+	// Guarded by 'this'
+	private boolean mDraining;
+
+	/**
+	 * The number of queued messages that were not handed off yet. Guarded by 'this'.
+	 */
+	private int mUndelivered;
+
+	// Guarded by 'this'
+	private final List<Runnable> mDrainedCallbacks = new ArrayList<Runnable>(1);
+
+	private volatile boolean mUnavailable;
+
+	private long mDeliveredMessages;
+	private long mDeliveredBatches;
+
+	/**
+	 * Create a new message channel.
+	 * 
+	 * @param context
+	 *            the context used to bind the service, the application context is used
+	 * @param bindIntent
+	 *            the intent used to bind the {@link IMAXSMessageChannel} service
+	 */
+	public MessageChannel(Context context, Intent bindIntent) {
+		mServiceTask = SyncServiceTask.builder(context.getApplicationContext(), bindIntent,
+				new SyncServiceTask.IBinderAsInterface<IMAXSMessageChannel>() {
+					@Override
+					public IMAXSMessageChannel asInterface(IBinder iBinder) {
+						return IMAXSMessageChannel.Stub.asInterface(iBinder);
+					}
+				}).build();
+	}
+
+	/**
+	 * Queue the message for delivery.
+	 * 
+	 * @param message
+	 */
+	public final void send(Message message) {
+		final QueuedMessage queuedMessage = new QueuedMessage(message);
+		if (mUnavailable) {
+			sendNow(queuedMessage);
+			return;
+		}
+
+		synchronized (this) {
+			mUndelivered++;
+		}
+		boolean queued;
+		try {
+			queued = mQueue.offer(queuedMessage, OFFER_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			queued = false;
+		}
+		if (!queued) {
+			LOG.w("send: queue full, falling back to Intents");
+			sendNow(queuedMessage);
+			handedOff(1);
+			return;
+		}
+
+		synchronized (this) {
+			// Wake up the drain thread waiting for messages
+			notifyAll();
+			if (mDraining) return;
+			mDraining = true;
+		}
+		mExecutor.execute(mDrainRunnable);
+	}
+
+	/**
+	 * Send the message with {@link #sendViaIntent(Message)} before returning. The messages still
+	 * queued are sent first, so that the message does not overtake them.
+	 * 
+	 * @param message
+	 */
+	public final void sendNow(Message message) {
+		sendNow(new QueuedMessage(message));
+	}
+
+	/**
+	 * Run the callback once all messages sent so far have been handed off, either to the service
+	 * or with {@link #sendViaIntent(Message)}. If there are no such messages, then the callback is
+	 * run right away. Otherwise it is run by the thread delivering the messages.
+	 * 
+	 * @param callback
+	 */
+	public final void runWhenDrained(Runnable callback) {
+		synchronized (this) {
+			if (mUndelivered > 0) {
+				mDrainedCallbacks.add(callback);
+				return;
+			}
+		}
+		callback.run();
+	}
+
+	public final synchronized boolean isDrained() {
+		return mUndelivered == 0;
+	}
+
+	public final synchronized long getDeliveredMessages() {
+		return mDeliveredMessages;
+	}
+
+	public final synchronized long getDeliveredBatches() {
+		return mDeliveredBatches;
+	}
+
+	/**
+	 * Send the given message without using the message channel service.
+	 * 
+	 * @param message
+	 */
+	protected abstract void sendViaIntent(Message message);
+
+	private void sendNow(QueuedMessage queuedMessage) {
+		synchronized (mHandOffLock) {
+			sendQueuedViaIntents();
+			sendViaIntent(queuedMessage.mMessage);
+			queuedMessage.recordHandOff();
+		}
+	}
+
+	private void drain() {
+		while (true) {
+			try {
+				mServiceTask.performSyncTask(mDeliverTask);
+			} catch (IllegalArgumentException e) {
+				// The service does not exist, don't try to bind it again
+				LOG.w("drain: message channel not available, using Intents", e);
+				mUnavailable = true;
+			} catch (TimeoutException | InterruptedException | RemoteException e) {
+				LOG.w("drain: could not bind message channel", e);
+			}
+
+			// Everything still queued at this point could not be delivered over the channel
+			synchronized (mHandOffLock) {
+				sendQueuedViaIntents();
+			}
+
+			synchronized (this) {
+				if (mQueue.isEmpty()) {
+					mDraining = false;
+					return;
+				}
+			}
+		}
+	}
+
+	private void deliverUntilIdle(IMAXSMessageChannel channel) throws InterruptedException {
+		List<QueuedMessage> batch = new ArrayList<QueuedMessage>(MAX_BATCH_SIZE);
+		List<Message> messages = new ArrayList<Message>(MAX_BATCH_SIZE);
+		while (awaitMessages()) {
+			synchronized (mHandOffLock) {
+				int batchBytes = LIST_OVERHEAD_BYTES;
+				QueuedMessage queuedMessage;
+				while (batch.size() < MAX_BATCH_SIZE
+						&& (queuedMessage = mQueue.peek()) != null) {
+					final int messageBytes = parcelSize(queuedMessage.mMessage);
+					// The first message of a batch is always taken, even if it exceeds the limit
+					if (!batch.isEmpty() && batchBytes + messageBytes > MAX_BATCH_BYTES) break;
+					if (messageBytes > MAX_BATCH_BYTES) {
+						LOG.w("deliverUntilIdle: message of " + messageBytes
+								+ " bytes exceeds the limit");
+					}
+					batch.add(mQueue.poll());
+					batchBytes += messageBytes;
+				}
+				// The queue may have been emptied by sendNow()
+				if (batch.isEmpty()) continue;
+
+				final int messageCount = batch.size();
+				for (QueuedMessage batchMessage : batch) {
+					messages.add(batchMessage.mMessage);
+				}
+				List<Message> coalesced = coalesce(messages);
+				messages.clear();
+				try {
+					channel.deliver(coalesced);
+				} catch (RemoteException e) {
+					LOG.w("deliverUntilIdle: could not deliver batch, using Intents", e);
+					for (Message coalescedMessage : coalesced) {
+						sendViaIntent(coalescedMessage);
+					}
+					recordHandOff(batch);
+					handedOff(messageCount);
+					return;
+				}
+				recordHandOff(batch);
+				synchronized (this) {
+					mDeliveredMessages += messageCount;
+					mDeliveredBatches++;
+				}
+				handedOff(messageCount);
+			}
+		}
+	}
+
+	/**
+	 * Wait until there are queued messages.
+	 * 
+	 * @return true if there are queued messages, false if there were none for
+	 *         {@link #IDLE_UNBIND_MILLIS}
+	 * @throws InterruptedException
+	 */
+	private synchronized boolean awaitMessages() throws InterruptedException {
+		final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(IDLE_UNBIND_MILLIS);
+		while (mQueue.isEmpty()) {
+			final long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+			if (remaining <= 0) return false;
+			wait(remaining);
+		}
+		return true;
+	}
+
+	/**
+	 * Send all queued messages with {@link #sendViaIntent(Message)}. Must be called while holding
+	 * {@link #mHandOffLock}.
+	 */
+	private void sendQueuedViaIntents() {
+		QueuedMessage queuedMessage;
+		while ((queuedMessage = mQueue.poll()) != null) {
+			sendViaIntent(queuedMessage.mMessage);
+			queuedMessage.recordHandOff();
+			handedOff(1);
+		}
+	}
+
+	private static void recordHandOff(List<QueuedMessage> batch) {
+		for (QueuedMessage queuedMessage : batch) {
+			queuedMessage.recordHandOff();
+		}
+		batch.clear();
+	}
+
+	private void handedOff(int messageCount) {
+		final List<Runnable> callbacks;
+		synchronized (this) {
+			mUndelivered -= messageCount;
+			if (mUndelivered > 0 || mDrainedCallbacks.isEmpty()) return;
+			callbacks = new ArrayList<Runnable>(mDrainedCallbacks);
+			mDrainedCallbacks.clear();
+		}
+		for (Runnable callback : callbacks) {
+			callback.run();
+		}
+	}
+
+	private static int parcelSize(Message message) {
+		return LIST_OVERHEAD_BYTES + message.getParcelSize();
+	}
+
+	private static List<Message> coalesce(List<Message> messages) {
+		List<Message> res = new ArrayList<Message>(messages.size());
+		Message previous = null;
+		for (Message message : messages) {
+			if (previous != null && previous.getId() != Message.NO_ID
+					&& previous.getId() == message.getId()
+					&& previous.isSuccess() == message.isSuccess()) {
+				previous.append(message);
+				continue;
+			}
+			res.add(message);
+			previous = message;
+		}
+		return res;
+	}
+
+	private static class QueuedMessage {
+		private final Message mMessage;
+		private final long mQueuedNanos = CommandMetrics.now();
+
+		private QueuedMessage(Message message) {
+			mMessage = message;
+		}
+
+		private void recordHandOff() {
+			CommandMetrics.recordSince(CommandMetrics.MODULE_HAND_OFF, null, mQueuedNanos);
+		}
+	}
+}
@@ -0,0 +1,133 @@
+/*
+    This file is part of Project MAXS.
+
+    MAXS and its modules is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    MAXS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with MAXS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.projectmaxs.shared.global.util;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.projectmaxs.shared.global.GlobalConstants;
+
+import android.content.Context;
+import android.content.Intent;
+import android.os.Bundle;
+
+/**
+ * Forwards the {@link CommandMetrics} of a module or transport process to MAXS main. The recorded
+ * latencies are collected for a few seconds and then drained into an Intent, so that a burst of
+ * commands causes only one Intent.
+ */
+public class MetricsForwarder implements CommandMetrics.Forwarder {
+
+	private static final Log LOG = Log.getLog();
+
+	private static final long FORWARD_DELAY_MILLIS = 5000;
+
+	private static MetricsForwarder sMetricsForwarder;
+
+	private final Context mContext;
+	private final String mMainService;
+	private final AtomicBoolean mScheduled = new AtomicBoolean();
+	private final ScheduledThreadPoolExecutor mExecutor;
+
+	private final Runnable mForwardRunnable = new Runnable() {
+		@Override
+		public void run() {
+			mScheduled.set(false);
+			forward();
+		}
+	};
+
+	/**
+	 * Forward the metrics of this process to main.
+	 * 
+	 * @param context
+	 * @param mainService
+	 *            the class name of the service of main handling
+	 *            {@link GlobalConstants#ACTION_REPORT_METRICS} for this component
+	 */
+	public static synchronized void install(Context context, String mainService) {
+		if (sMetricsForwarder != null) return;
+		sMetricsForwarder = new MetricsForwarder(context.getApplicationContext(), mainService);
+		CommandMetrics.setForwarder(sMetricsForwarder);
+	}
+
+	private MetricsForwarder(Context context, String mainService) {
+		mContext = context;
+		mMainService = mainService;
+		mExecutor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "MetricsForwarder");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		mExecutor.setKeepAliveTime(FORWARD_DELAY_MILLIS * 2, TimeUnit.MILLISECONDS);
+		mExecutor.allowCoreThreadTimeOut(true);
+	}
+
+	@Override
+	public void onRecorded() {
+		if (!mScheduled.compareAndSet(false, true)) return;
+		mExecutor.schedule(mForwardRunnable, FORWARD_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+	}
+
+	private void forward() {
+		Map<String, long[]> drained = CommandMetrics.drain();
+		if (drained.isEmpty()) return;
+
+		Intent intent = new Intent(GlobalConstants.ACTION_REPORT_METRICS);
+		intent.setClassName(GlobalConstants.MAIN_PACKAGE, mMainService);
+		intent.putExtra(GlobalConstants.EXTRA_CONTENT, toBundle(drained));
+		try {
+			mContext.startService(intent);
+		} catch (RuntimeException e) {
+			// Merge them back, the next forward will retry
+			LOG.w("forward: could not forward metrics", e);
+			CommandMetrics.merge(drained);
+		}
+	}
+
+	public static Bundle toBundle(Map<String, long[]> drained) {
+		Bundle bundle = new Bundle();
+		for (Map.Entry<String, long[]> entry : drained.entrySet()) {
+			bundle.putLongArray(entry.getKey(), entry.getValue());
+		}
+		return bundle;
+	}
+
+	/**
+	 * Get the drained histograms from the given Bundle, created by {@link #toBundle(Map)}.
+	 * 
+	 * @param bundle
+	 * @return the drained histograms keyed by "hop command"
+	 */
+	public static Map<String, long[]> fromBundle(Bundle bundle) {
+		Map<String, long[]> res = new HashMap<String, long[]>();
+		if (bundle == null) return res;
+		for (String key : bundle.keySet()) {
+			long[] drained = bundle.getLongArray(key);
+			if (drained != null) res.put(key, drained);
+		}
+		return res;
+	}
+}
@@ -38,17 +38,16 @@ public class PackageManagerUtil {
 
 	private final PackageManager mPackageManager;
 	private final String mPackageName;
+	private final InstalledPackageRegistry mInstalledPackageRegistry;
 
 	private PackageManagerUtil(Context context) {
 		mPackageManager = context.getPackageManager();
 		mPackageName = context.getPackageName();
+		mInstalledPackageRegistry = InstalledPackageRegistry.getInstance(context);
 	}
 
 	public boolean isPackageInstalled(String packageName) {
-		for (PackageInfo pi : mPackageManager.getInstalledPackages(0)) {
-			if (packageName.equals(pi.packageName)) return true;
-		}
-		return false;
+		return mInstalledPackageRegistry.isInstalled(packageName);
 	}
 
 	public boolean isIntentAvailable(Intent intent) {
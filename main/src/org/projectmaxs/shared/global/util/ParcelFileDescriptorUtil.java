@@ -25,67 +25,43 @@ import android.os.ParcelFileDescriptor;
 
 public class ParcelFileDescriptorUtil {
 
-	private static final Log LOG = Log.getLog();
-
+	/**
+	 * Create a pipe and asynchronously copy all data from the input stream into it.
+	 * 
+	 * @param inputStream
+	 * @return the read side of the pipe
+	 * @throws IOException
+	 * @see TransferUtil#copyAsync(InputStream, OutputStream)
+	 */
 	public static ParcelFileDescriptor pipeFrom(InputStream inputStream) throws IOException {
 		ParcelFileDescriptor[] pipe = ParcelFileDescriptor.createPipe();
 		ParcelFileDescriptor readSide = pipe[0];
 		ParcelFileDescriptor writeSide = pipe[1];
 
-		// start the transfer thread
-		new TransferThread(inputStream, new ParcelFileDescriptor.AutoCloseOutputStream(writeSide))
-				.start();
+		TransferUtil.copyAsync(inputStream, new ParcelFileDescriptor.AutoCloseOutputStream(
+				writeSide));
 
 		return readSide;
 	}
 
+	/**
+	 * Create a pipe and asynchronously copy all data written into it to the output stream. If
+	 * the output stream is backed by a file, consider handing out a file descriptor of the file
+	 * instead.
+	 * 
+	 * @param outputStream
+	 * @return the write side of the pipe
+	 * @throws IOException
+	 * @see TransferUtil#copyAsync(InputStream, OutputStream)
+	 */
 	public static ParcelFileDescriptor pipeTo(OutputStream outputStream) throws IOException {
 		ParcelFileDescriptor[] pipe = ParcelFileDescriptor.createPipe();
 		ParcelFileDescriptor readSide = pipe[0];
 		ParcelFileDescriptor writeSide = pipe[1];
 
-		// start the transfer thread
-		new TransferThread(new ParcelFileDescriptor.AutoCloseInputStream(readSide), outputStream)
-				.start();
+		TransferUtil.copyAsync(new ParcelFileDescriptor.AutoCloseInputStream(readSide),
+				outputStream);
 
 		return writeSide;
 	}
-
-	static class TransferThread extends Thread {
-		final InputStream mIn;
-		final OutputStream mOut;
-
-		TransferThread(InputStream in, OutputStream out) {
-			super("ParcelFileDescriptor Transfer Thread");
-			mIn = in;
-			mOut = out;
-			setDaemon(true);
-		}
-
-		@Override
-		public void run() {
-			byte[] buf = new byte[1024];
-			int len;
-
-			try {
-				while ((len = mIn.read(buf)) > 0) {
-					mOut.write(buf, 0, len);
-				}
-				mOut.flush(); // just to be safe
-			} catch (IOException e) {
-				LOG.e("TransferThread", e);
-			} finally {
-				try {
-					mIn.close();
-				} catch (IOException e) {
-					LOG.e("run", e);
-				}
-				try {
-					mOut.close();
-				} catch (IOException e) {
-					LOG.e("run", e);
-				}
-			}
-		}
-	}
 }
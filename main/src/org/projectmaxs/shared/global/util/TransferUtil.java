@@ -0,0 +1,235 @@
+/*
+    This file is part of Project MAXS.
+
+    MAXS and its modules is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    MAXS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with MAXS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.projectmaxs.shared.global.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Utilities to copy data between streams, e.g. for file transfers.
+ * <p>
+ * Asynchronous transfers are run by a shared and bounded pool of transfer threads, instead of a
+ * new thread per transfer. Transfers exceeding the pool size are queued.
+ * </p>
+ */
+public class TransferUtil {
+
+	private static final Log LOG = Log.getLog();
+
+	public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * The maximum number of concurrently running asynchronous transfers.
+	 */
+	public static final int MAX_TRANSFER_THREADS = 4;
+
+	/**
+	 * The minimum time between two {@link ProgressListener#onProgress(long, long)} invocations.
+	 */
+	private static final long PROGRESS_INTERVAL_MILLIS = 1000;
+
+	private static final ThreadPoolExecutor TRANSFER_EXECUTOR;
+
+	static {
+		TRANSFER_EXECUTOR = new ThreadPoolExecutor(MAX_TRANSFER_THREADS, MAX_TRANSFER_THREADS,
+				30L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+					private final AtomicInteger mThreadNumber = new AtomicInteger();
+
+					@Override
+					public Thread newThread(Runnable runnable) {
+						Thread thread = new Thread(runnable, "MAXS Transfer Thread #"
+								+ mThreadNumber.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		// Don't keep idle transfer threads around
+		TRANSFER_EXECUTOR.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Copy all data from the input stream to the output stream, using a buffer of
+	 * {@value #DEFAULT_BUFFER_SIZE} bytes. The streams are not closed.
+	 * 
+	 * @param in
+	 * @param out
+	 * @return the number of copied bytes
+	 * @throws IOException
+	 */
+	public static long copy(InputStream in, OutputStream out) throws IOException {
+		return copy(in, out, DEFAULT_BUFFER_SIZE, null);
+	}
+
+	/**
+	 * Copy all data from the input stream to the output stream. The streams are not closed.
+	 * 
+	 * @param in
+	 * @param out
+	 * @param bufferSize
+	 * @param listener
+	 *            an optional listener for progress and throughput information, may be null
+	 * @return the number of copied bytes
+	 * @throws IOException
+	 */
+	public static long copy(InputStream in, OutputStream out, int bufferSize,
+			ProgressListener listener) throws IOException {
+		final byte[] buf = new byte[bufferSize];
+		final long start = elapsedMillis();
+		long lastProgress = start;
+		long transferred = 0;
+		int len;
+		while ((len = in.read(buf)) > 0) {
+			out.write(buf, 0, len);
+			transferred += len;
+			if (listener != null) {
+				final long now = elapsedMillis();
+				if (now - lastProgress >= PROGRESS_INTERVAL_MILLIS) {
+					lastProgress = now;
+					listener.onProgress(transferred, bytesPerSecond(transferred, now - start));
+				}
+			}
+		}
+		out.flush();
+		if (listener != null) {
+			final long duration = elapsedMillis() - start;
+			listener.onFinished(transferred, bytesPerSecond(transferred, duration));
+		}
+		return transferred;
+	}
+
+	/**
+	 * Asynchronously copy all data from the input stream to the output stream, using a buffer of
+	 * {@value #DEFAULT_BUFFER_SIZE} bytes. Both streams are closed once the transfer is finished.
+	 * 
+	 * @param in
+	 * @param out
+	 * @return a future of the transfer
+	 */
+	public static Future<?> copyAsync(InputStream in, OutputStream out) {
+		return copyAsync(in, out, DEFAULT_BUFFER_SIZE, null);
+	}
+
+	/**
+	 * Asynchronously copy all data from the input stream to the output stream using the shared
+	 * transfer thread pool. Both streams are closed once the transfer is finished.
+	 * 
+	 * @param in
+	 * @param out
+	 * @param bufferSize
+	 * @param listener
+	 *            an optional listener for progress and throughput information, may be null
+	 * @return a future of the transfer
+	 */
+	public static Future<?> copyAsync(final InputStream in, final OutputStream out,
+			final int bufferSize, final ProgressListener listener) {
+		return TRANSFER_EXECUTOR.submit(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					copy(in, out, bufferSize, listener);
+				} catch (IOException e) {
+					LOG.e("copyAsync", e);
+					if (listener != null) listener.onError(e);
+				} finally {
+					closeQuietly(in);
+					closeQuietly(out);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Get the number of currently active transfer threads.
+	 * 
+	 * @return the number of active transfer threads
+	 */
+	public static int getActiveTransferThreadCount() {
+		return TRANSFER_EXECUTOR.getActiveCount();
+	}
+
+	/**
+	 * Get the number of asynchronous transfers waiting for a free transfer thread.
+	 * 
+	 * @return the number of queued transfers
+	 */
+	public static int getQueuedTransferCount() {
+		return TRANSFER_EXECUTOR.getQueue().size();
+	}
+
+	public static void closeQuietly(Closeable closeable) {
+		if (closeable == null) return;
+		try {
+			closeable.close();
+		} catch (IOException e) {
+			LOG.e("closeQuietly", e);
+		}
+	}
+
+	/**
+	 * A monotonic clock in milliseconds. Unlike SystemClock, it is also available outside of
+	 * Android, e.g. in the benchmarks.
+	 * 
+	 * @return the elapsed time in milliseconds
+	 */
+	private static long elapsedMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+	}
+
+	private static long bytesPerSecond(long bytes, long millis) {
+		if (millis <= 0) return bytes;
+		return bytes * 1000 / millis;
+	}
+
+	public static abstract class ProgressListener {
+
+		/**
+		 * Invoked periodically while the transfer is running.
+		 * 
+		 * @param transferred
+		 *            the number of bytes transferred so far
+		 * @param bytesPerSecond
+		 *            the average throughput so far
+		 */
+		public void onProgress(long transferred, long bytesPerSecond) {}
+
+		/**
+		 * Invoked once the transfer finished successfully.
+		 * 
+		 * @param transferred
+		 *            the number of bytes transferred
+		 * @param bytesPerSecond
+		 *            the average throughput
+		 */
+		public void onFinished(long transferred, long bytesPerSecond) {}
+
+		/**
+		 * Invoked if an asynchronous transfer failed.
+		 * 
+		 * @param e
+		 */
+		public void onError(IOException e) {}
+	}
+}
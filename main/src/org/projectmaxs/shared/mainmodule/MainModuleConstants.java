@@ -23,6 +23,8 @@ public class MainModuleConstants {
 
 	public static final String MAIN_PACKAGE = GlobalConstants.MAIN_PACKAGE;
 	public static final String MAIN_MODULE_SERVICE = MAIN_PACKAGE + ".MAXSModuleIntentService";
+	public static final String MAIN_MESSAGE_CHANNEL_SERVICE = MAIN_PACKAGE
+			+ ".MAXSMessageChannelService";
 
 	public static final String ACTION_SMS_TO_INBOX = GlobalConstants.MODULE_PACKAGE
 			+ ".ACTION_SMS_TO_INBOX";
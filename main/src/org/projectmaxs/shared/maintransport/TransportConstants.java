@@ -42,6 +42,15 @@ public class TransportConstants {
 
 	public static final String EXTRA_COMMAND = TRANSPORT_PACKAGE + ".COMMAND";
 	public static final String EXTRA_COMMAND_ORIGIN = TRANSPORT_PACKAGE + ".COMMAND_ORIGIN";
+	public static final String EXTRA_RECEIVED_NANOS = TRANSPORT_PACKAGE + ".RECEIVED_NANOS";
+	public static final String EXTRA_TRANSPORT_LOG = TRANSPORT_PACKAGE + ".TRANSPORT_LOG";
+
+	/**
+	 * The command that returns the in-memory logs. Transports add the most recent lines of their
+	 * own log as {@link #EXTRA_TRANSPORT_LOG} when they hand it over to main.
+	 */
+	public static final String LOG_COMMAND = "maxs log";
+	public static final int LOG_LINES = 50;
 
 	public static final String EXTRA_TRANSPORT_INFORMATION = TRANSPORT_PACKAGE
 			+ ".TRANSPORT_INFORMATION";
@@ -17,11 +17,8 @@
 
 package org.projectmaxs.module.fileread;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStream;
 
 import org.projectmaxs.shared.global.aidl.IFileReadModuleService;
 import org.projectmaxs.shared.global.util.Log;
@@ -29,6 +26,7 @@ import org.projectmaxs.shared.global.util.Log;
 import android.app.Service;
 import android.content.Intent;
 import android.os.IBinder;
+import android.os.ParcelFileDescriptor;
 import android.os.RemoteException;
 
 public class FileReadService extends Service {
@@ -49,40 +47,33 @@ public class FileReadService extends Service {
 				LOG.e("readFileBytes: not a file " + file);
 				return null;
 			}
-			if (readFrom.length() > Integer.MAX_VALUE) {
-				// Even if the file had a size of Integer.MAX_VALUE, it would be to big.
-				LOG.e("readFileBytes: file is to big");
-				return null;
-			}
-
-			int len = 0;
-			byte[] buf = new byte[1024];
-			ByteArrayOutputStream os = null;
-			InputStream is = null;
 			try {
-				os = new ByteArrayOutputStream((int) readFrom.length());
-				is = new FileInputStream(readFrom);
-				while ((len = is.read(buf)) != -1) {
-					os.write(buf, 0, len);
-				}
-			} catch (Exception e) {
+				return FileReadUtil.readFileBytes(readFrom);
+			} catch (IOException e) {
 				LOG.e("readFileBytes", e);
 				return null;
-			} finally {
-				if (os != null) try {
-					os.close();
-				} catch (IOException e) {}
-				if (is != null) try {
-					is.close();
-				} catch (IOException e) {}
 			}
-			return os.toByteArray();
 		}
 
 		@Override
 		public boolean isFile(String file) throws RemoteException {
 			return new File(file).isFile();
 		}
-	};
 
+		@Override
+		public ParcelFileDescriptor openFile(String file, long offset, long length)
+				throws RemoteException {
+			final File readFrom = new File(file);
+			if (!readFrom.isFile()) {
+				LOG.e("openFile: not a file " + file);
+				return null;
+			}
+			try {
+				return FileReadUtil.openFile(readFrom, offset, length);
+			} catch (IOException e) {
+				LOG.e("openFile", e);
+				return null;
+			}
+		}
+	};
 }
@@ -0,0 +1,155 @@
+/*
+    This file is part of Project MAXS.
+
+    MAXS and its modules is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    MAXS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with MAXS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.projectmaxs.module.fileread;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.projectmaxs.shared.global.util.ParcelFileDescriptorUtil;
+import org.projectmaxs.shared.global.util.TransferUtil;
+
+import android.os.Build;
+import android.os.ParcelFileDescriptor;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
+
+/**
+ * The file reading of {@link FileReadService}, independent of the Binder interface.
+ */
+public class FileReadUtil {
+
+	/**
+	 * Read the whole file into a byte array.
+	 * 
+	 * @param file
+	 * @return the content of the file
+	 * @throws IOException
+	 */
+	public static byte[] readFileBytes(File file) throws IOException {
+		if (file.length() > Integer.MAX_VALUE) {
+			// Even if the file had a size of Integer.MAX_VALUE, it would be to big.
+			throw new IOException("File is to big: " + file);
+		}
+		ByteArrayOutputStream os = new ByteArrayOutputStream((int) file.length());
+		InputStream is = new FileInputStream(file);
+		try {
+			TransferUtil.copy(is, os);
+		} finally {
+			TransferUtil.closeQuietly(is);
+		}
+		return os.toByteArray();
+	}
+
+	/**
+	 * Open the file for reading, starting at the given offset.
+	 * 
+	 * @param file
+	 * @param offset
+	 * @param length
+	 *            the maximum number of bytes to read, or a negative value to read until the end
+	 *            of the file
+	 * @return a readable descriptor
+	 * @throws IOException
+	 */
+	public static ParcelFileDescriptor openFile(File file, long offset, long length)
+			throws IOException {
+		if (offset < 0 || offset > file.length()) {
+			throw new IOException("Invalid offset " + offset + " for " + file);
+		}
+
+		if (length < 0 && (offset == 0 || Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP)) {
+			// Hand out the descriptor of the file itself, the caller reads directly from it
+			// without any copying in between
+			ParcelFileDescriptor pfd = ParcelFileDescriptor.open(file,
+					ParcelFileDescriptor.MODE_READ_ONLY);
+			if (offset > 0) {
+				// The file offset is shared with the caller's duplicate of the descriptor
+				try {
+					Os.lseek(pfd.getFileDescriptor(), offset, OsConstants.SEEK_SET);
+				} catch (ErrnoException e) {
+					TransferUtil.closeQuietly(pfd);
+					throw new IOException(e);
+				}
+			}
+			return pfd;
+		}
+
+		// The caller must not read beyond offset + length, so we have to pipe the range. Older
+		// Android versions, which lack lseek(), also pipe a range until the end of the file.
+		FileInputStream is = new FileInputStream(file);
+		try {
+			is.getChannel().position(offset);
+			InputStream range = length < 0 ? is : new LimitedInputStream(is, length);
+			return ParcelFileDescriptorUtil.pipeFrom(range);
+		} catch (IOException e) {
+			TransferUtil.closeQuietly(is);
+			throw e;
+		}
+	}
+
+	/**
+	 * An input stream that returns at most a given number of bytes from the underlying stream.
+	 */
+	private static class LimitedInputStream extends FilterInputStream {
+
+		private long mRemaining;
+
+		LimitedInputStream(InputStream in, long limit) {
+			super(in);
+			mRemaining = limit;
+		}
+
+		@Override
+		public int read() throws IOException {
+			if (mRemaining <= 0) return -1;
+			int res = super.read();
+			if (res != -1) mRemaining--;
+			return res;
+		}
+
+		@Override
+		public int read(byte[] buffer, int offset, int count) throws IOException {
+			if (mRemaining <= 0) return -1;
+			int res = super.read(buffer, offset, (int) Math.min(count, mRemaining));
+			if (res > 0) mRemaining -= res;
+			return res;
+		}
+
+		@Override
+		public long skip(long byteCount) throws IOException {
+			long res = super.skip(Math.min(byteCount, mRemaining));
+			mRemaining -= res;
+			return res;
+		}
+
+		@Override
+		public int available() throws IOException {
+			return (int) Math.min(super.available(), mRemaining);
+		}
+
+		@Override
+		public boolean markSupported() {
+			return false;
+		}
+	}
+}
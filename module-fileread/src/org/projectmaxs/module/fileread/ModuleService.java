@@ -22,6 +22,7 @@ import java.util.Set;
 
 import org.projectmaxs.module.fileread.commands.CdPath;
 import org.projectmaxs.module.fileread.commands.CdTilde;
+import org.projectmaxs.module.fileread.commands.LsMore;
 import org.projectmaxs.module.fileread.commands.LsPath;
 import org.projectmaxs.module.fileread.commands.LsTilde;
 import org.projectmaxs.module.fileread.commands.SendPath;
@@ -46,9 +47,12 @@ public class ModuleService extends MAXSModuleIntentService {
 			);
 	// @formatter:on
 
+	// cd and ls change the working directory and the ls continuation, they stay serial. send only
+	// reads the working directory and hands the file off to the transport.
 	public static final SupraCommand CD = new SupraCommand("cd");
 	public static final SupraCommand LS = new SupraCommand("ls");
-	public static final SupraCommand SEND = new SupraCommand("send");
+	public static final SupraCommand SEND = new SupraCommand("send").setConcurrent().setTimeout(
+			60 * 1000);
 
 	public static final SupraCommand[] sCOMMANDS;
 
@@ -57,6 +61,7 @@ public class ModuleService extends MAXSModuleIntentService {
 
 		SupraCommand.register(CdPath.class, commands);
 		SupraCommand.register(CdTilde.class, commands);
+		SupraCommand.register(LsMore.class, commands);
 		SupraCommand.register(LsPath.class, commands);
 		SupraCommand.register(LsTilde.class, commands);
 		SupraCommand.register(SendPath.class, commands);
@@ -33,6 +33,7 @@ public class Settings implements OnSharedPreferenceChangeListener, DebugLogSetti
 	private final String DEBUG_LOG;
 
 	private final String CURRENT_WORKING_DIRECTORY = "CURRENT_WORKING_DIRECTORY";
+	private final String LS_CONTINUATION = "LS_CONTINUATION";
 
 	private static Settings sSettings;
 
@@ -57,7 +58,22 @@ public class Settings implements OnSharedPreferenceChangeListener, DebugLogSetti
 	}
 
 	public void setCwd(File cwd) {
-		mSharedPreferences.edit().putString(CURRENT_WORKING_DIRECTORY, cwd.getAbsolutePath());
+		mSharedPreferences.edit().putString(CURRENT_WORKING_DIRECTORY, cwd.getAbsolutePath())
+				.apply();
+	}
+
+	/**
+	 * Set the arguments of the ls command that lists the next page of the last listing.
+	 * 
+	 * @param arguments
+	 *            the arguments, or null if there is nothing to continue
+	 */
+	public void setLsContinuation(String arguments) {
+		mSharedPreferences.edit().putString(LS_CONTINUATION, arguments).apply();
+	}
+
+	public String getLsContinuation() {
+		return mSharedPreferences.getString(LS_CONTINUATION, null);
 	}
 
 	public File getCwd() {
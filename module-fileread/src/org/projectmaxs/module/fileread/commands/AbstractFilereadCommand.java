@@ -21,9 +21,6 @@ import java.io.File;
 
 import org.projectmaxs.module.fileread.Settings;
 import org.projectmaxs.shared.global.Message;
-import org.projectmaxs.shared.global.messagecontent.Element;
-import org.projectmaxs.shared.global.messagecontent.Text;
-import org.projectmaxs.shared.global.util.SharedStringUtil;
 import org.projectmaxs.shared.mainmodule.Command;
 import org.projectmaxs.shared.module.MAXSModuleIntentService;
 import org.projectmaxs.shared.module.SubCommand;
@@ -57,18 +54,4 @@ public abstract class AbstractFilereadCommand extends SubCommand {
 			return new File(mSettings.getCwd(), path);
 		}
 	}
-
-	static final Element toElement(File file) {
-		final String path = file.getAbsolutePath();
-		Element element;
-		if (file.isDirectory()) {
-			element = new Element("directory", file.getAbsolutePath(), path + '/');
-		} else {
-			final long size = file.length();
-			Text text = new Text(path + " " + SharedStringUtil.humandReadableByteCount(size));
-			element = new Element("file", file.getAbsolutePath(), text);
-			element.addChildElement(Element.newNonHumandReadable("size", String.valueOf(size)));
-		}
-		return element;
-	}
 }
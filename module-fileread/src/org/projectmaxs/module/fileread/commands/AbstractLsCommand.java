@@ -17,13 +17,10 @@
 
 package org.projectmaxs.module.fileread.commands;
 
-import java.io.File;
-import java.io.FileFilter;
-import java.util.Arrays;
-
 import org.projectmaxs.module.fileread.ModuleService;
 import org.projectmaxs.shared.global.Message;
-import org.projectmaxs.shared.global.messagecontent.Element;
+import org.projectmaxs.shared.mainmodule.Command;
+import org.projectmaxs.shared.module.MAXSModuleIntentService;
 
 public abstract class AbstractLsCommand extends AbstractFilereadCommand {
 
@@ -32,56 +29,29 @@ public abstract class AbstractLsCommand extends AbstractFilereadCommand {
 		super(ModuleService.LS, name, isDefaultWithoutArguments, isDefaultWithArguments);
 	}
 
-	final Message list(String path) {
-		if (path == null) {
-			return list(mSettings.getCwd());
-		} else {
-			return list(fileFrom(path));
-		}
+	final Message list(String arguments, Command command, MAXSModuleIntentService service) {
+		return list(LsQuery.parse(arguments, mSettings.getCwd()), command, service);
 	}
 
-	final Message list(File path) {
-		Message message;
-		if (path.isDirectory()) {
-			mSettings.setCwd(path);
-			File[] dirs = path.listFiles(new FileFilter() {
-				@Override
-				public boolean accept(File pathname) {
-					return pathname.isDirectory();
-				}
-			});
-			File[] files = path.listFiles(new FileFilter() {
-				@Override
-				public boolean accept(File pathname) {
-					return pathname.isFile();
-				}
-			});
-
-			message = new Message("Content of " + path.getAbsolutePath());
-
-			if (dirs.length == 0 && files.length == 0) {
-				Element emtpyDirectory = new Element("empty-directory", "[Directory is empty]");
-				message.add(emtpyDirectory);
-			} else {
-
-				if (dirs.length > 0) {
-					Arrays.sort(dirs);
-					for (File d : dirs) {
-						message.add(toElement(d));
-					}
-				}
-				if (files.length > 0) {
-					Arrays.sort(files);
-					for (File f : files) {
-						message.add(toElement(f));
-					}
-				}
+	/**
+	 * List a page of the entries matching the query, see {@link LsQuery#list(LsQuery.ChunkSender)}.
+	 * A listed directory becomes the current working directory.
+	 * 
+	 * @param query
+	 * @param command
+	 * @param service
+	 * @return the last message of the listing
+	 */
+	final Message list(LsQuery query, final Command command,
+			final MAXSModuleIntentService service) {
+		if (query.mPath.isDirectory()) mSettings.setCwd(query.mPath);
+		final LsQuery.Page page = query.list(new LsQuery.ChunkSender() {
+			@Override
+			public void send(Message chunk) {
+				service.send(chunk, command.getId());
 			}
-		} else if (path.isFile()) {
-			message = new Message(path.getAbsolutePath());
-		} else {
-			message = new Message("No such file or directory: " + path);
-		}
-		return message;
+		});
+		if (page.mListed) mSettings.setLsContinuation(page.mContinuation);
+		return page.mMessage;
 	}
 }
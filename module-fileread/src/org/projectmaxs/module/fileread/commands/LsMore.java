@@ -0,0 +1,43 @@
+/*
+    This file is part of Project MAXS.
+
+    MAXS and its modules is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    MAXS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with MAXS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.projectmaxs.module.fileread.commands;
+
+import org.projectmaxs.shared.global.Message;
+import org.projectmaxs.shared.global.messagecontent.CommandHelp.ArgType;
+import org.projectmaxs.shared.mainmodule.Command;
+import org.projectmaxs.shared.module.MAXSModuleIntentService;
+
+public class LsMore extends AbstractLsCommand {
+
+	public LsMore() {
+		super("more", false, false);
+		setHelp(ArgType.NONE, "List the next page of the last listing");
+	}
+
+	@Override
+	public Message execute(String arguments, Command command, MAXSModuleIntentService service)
+			throws Throwable {
+		super.execute(arguments, command, service);
+
+		final String continuation = mSettings.getLsContinuation();
+		if (continuation == null) return new Message("No listing to continue");
+
+		return list(continuation, command, service);
+	}
+
+}
@@ -26,7 +26,8 @@ public class LsPath extends AbstractLsCommand {
 
 	public LsPath() {
 		super("path", false, true);
-		setHelp(ArgType.PATH, "List path");
+		setHelp("[-n count] [-o offset] [-g glob] [-s [+|-]size] [-m [+|-]age] [-S] [path]",
+				"List path, optionally paged and filtered");
 	}
 
 	@Override
@@ -34,7 +35,7 @@ public class LsPath extends AbstractLsCommand {
 			throws Throwable {
 		super.execute(arguments, command, service);
 
-		return list(arguments);
+		return list(arguments, command, service);
 	}
 
 }
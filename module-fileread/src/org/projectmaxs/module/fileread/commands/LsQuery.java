@@ -0,0 +1,374 @@
+/*
+    This file is part of Project MAXS.
+
+    MAXS and its modules is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    MAXS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with MAXS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.projectmaxs.module.fileread.commands;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.regex.Pattern;
+
+import org.projectmaxs.shared.global.Message;
+import org.projectmaxs.shared.global.messagecontent.Element;
+import org.projectmaxs.shared.global.messagecontent.Text;
+import org.projectmaxs.shared.global.util.SharedStringUtil;
+
+/**
+ * The parsed arguments of the ls commands. Options precede the path, which may contain spaces:
+ * <ul>
+ * <li>-n count: the page size</li>
+ * <li>-o offset: the number of matching entries to skip</li>
+ * <li>-g glob: only list entries whose name matches the glob ('*' and '?')</li>
+ * <li>-s [+|-]size: only list files larger (+) or smaller (-) than size, e.g. +10M</li>
+ * <li>-m [+|-]age: only list entries modified more (+) or less (-) than age ago, e.g. -2d</li>
+ * <li>-S: only show a summary of the matching entries</li>
+ * </ul>
+ */
+class LsQuery {
+
+	static final int DEFAULT_PAGE_SIZE = 100;
+
+	/**
+	 * The number of entries after which the listed entries are send as message, so that the first
+	 * entries arrive before the whole page has been listed.
+	 */
+	static final int CHUNK_SIZE = 25;
+
+	/**
+	 * Receives the full chunks of a listing.
+	 */
+	interface ChunkSender {
+		void send(Message chunk);
+	}
+
+	/**
+	 * A listed page.
+	 */
+	static final class Page {
+		/**
+		 * The last message of the listing.
+		 */
+		final Message mMessage;
+
+		/**
+		 * True if a directory was listed, i.e. if {@link #mContinuation} is set.
+		 */
+		final boolean mListed;
+
+		/**
+		 * The arguments to list the next page, or null if the listing ended.
+		 */
+		final String mContinuation;
+
+		private Page(Message message) {
+			this(message, false, null);
+		}
+
+		private Page(Message message, boolean listed, String continuation) {
+			mMessage = message;
+			mListed = listed;
+			mContinuation = continuation;
+		}
+	}
+
+	int mPageSize = DEFAULT_PAGE_SIZE;
+	int mOffset;
+	String mGlob;
+	long mSize;
+	long mAge;
+	boolean mSummary;
+	File mPath;
+
+	private Pattern mGlobPattern;
+
+	private LsQuery() {}
+
+	/**
+	 * Parse the arguments of an ls command.
+	 * 
+	 * @param arguments
+	 * @param cwd
+	 *            the directory relative paths are resolved against, and listed if no path is given
+	 * @return the query
+	 */
+	static LsQuery parse(String arguments, File cwd) {
+		LsQuery query = new LsQuery();
+		String rest = arguments == null ? "" : arguments.trim();
+		while (rest.startsWith("-")) {
+			final String[] split = rest.split("\\s+", 3);
+			final String option = split[0];
+			if ("-S".equals(option)) {
+				query.mSummary = true;
+				rest = rest.substring(option.length()).trim();
+				continue;
+			}
+			if (split.length < 2) {
+				throw new IllegalArgumentException("Option " + option + " requires a value");
+			}
+			final String value = split[1];
+			if ("-n".equals(option)) {
+				query.mPageSize = Integer.parseInt(value);
+				if (query.mPageSize < 1) throw new IllegalArgumentException("Invalid page size");
+			} else if ("-o".equals(option)) {
+				query.mOffset = Integer.parseInt(value);
+				if (query.mOffset < 0) throw new IllegalArgumentException("Invalid offset");
+			} else if ("-g".equals(option)) {
+				query.mGlob = value;
+			} else if ("-s".equals(option)) {
+				query.mSize = parseSigned(value, SIZE_UNITS, SIZE_FACTORS);
+			} else if ("-m".equals(option)) {
+				query.mAge = parseSigned(value, AGE_UNITS, AGE_FACTORS);
+			} else {
+				throw new IllegalArgumentException("Unknown option: " + option);
+			}
+			rest = split.length > 2 ? split[2] : "";
+		}
+
+		if (rest.isEmpty()) {
+			query.mPath = cwd;
+		} else if (rest.startsWith("/")) {
+			query.mPath = new File(rest);
+		} else {
+			query.mPath = new File(cwd, rest);
+		}
+		if (query.mGlob != null) query.mGlobPattern = globToPattern(query.mGlob);
+		return query;
+	}
+
+	static LsQuery forPath(File path) {
+		LsQuery query = new LsQuery();
+		query.mPath = path;
+		return query;
+	}
+
+	/**
+	 * List a page of the entries matching the query. The entries are ordered by name, directories
+	 * are marked with a trailing '/'. Full chunks are send right away, the returned page contains
+	 * the remaining entries and the information how to continue the listing.
+	 * 
+	 * @param sender
+	 * @return the listed page
+	 */
+	Page list(ChunkSender sender) {
+		final File path = mPath;
+		if (path.isFile()) {
+			return new Page(new Message(path.getAbsolutePath()));
+		} else if (!path.isDirectory()) {
+			return new Page(new Message("No such file or directory: " + path));
+		}
+
+		// File.list() only reads the names, the entries are stat()'ed once they are needed
+		final String[] names = path.list();
+		if (names == null) return new Page(new Message("Could not list directory: " + path));
+		if (names.length == 0) {
+			Message message = new Message("Content of " + path.getAbsolutePath());
+			message.add(new Element("empty-directory", "[Directory is empty]"));
+			return new Page(message);
+		}
+		Arrays.sort(names);
+
+		if (mSummary) return new Page(summary(names));
+
+		final long now = System.currentTimeMillis();
+		final int end = mOffset + mPageSize;
+		int matched = 0;
+		int i = 0;
+		Message message = new Message("Content of " + path.getAbsolutePath());
+		int chunkSize = 0;
+		for (; i < names.length && matched < end; i++) {
+			if (!matchesName(names[i])) continue;
+			final File file = new File(path, names[i]);
+			if (requiresStat() && !matchesStat(file, file.isDirectory(), now)) continue;
+			if (matched++ < mOffset) continue;
+
+			message.add(toElement(file));
+			if (++chunkSize == CHUNK_SIZE) {
+				sender.send(message);
+				message = new Message();
+				chunkSize = 0;
+			}
+		}
+
+		final int listed = Math.max(matched - mOffset, 0);
+		if (listed == 0) {
+			message.add(new Element("no-match", "[No matching entries]"));
+		}
+		if (hasMatchFrom(names, i, now)) {
+			message.add(new Element("continuation", "Listed entries " + (mOffset + 1) + "-" + end
+					+ ". Use 'ls more' to list the next " + mPageSize));
+			return new Page(message, true, toArguments(end));
+		}
+		if (listed > 0) {
+			message.add(new Element("end", "Listed entries " + (mOffset + 1) + "-" + matched
+					+ " (end of listing)"));
+		}
+		return new Page(message, true, null);
+	}
+
+	private boolean hasMatchFrom(String[] names, int start, long now) {
+		for (int i = start; i < names.length; i++) {
+			if (!matchesName(names[i])) continue;
+			if (!requiresStat()) return true;
+			final File file = new File(mPath, names[i]);
+			if (matchesStat(file, file.isDirectory(), now)) return true;
+		}
+		return false;
+	}
+
+	private Message summary(String[] names) {
+		final long now = System.currentTimeMillis();
+		int directories = 0;
+		int files = 0;
+		long totalSize = 0;
+		for (String name : names) {
+			if (!matchesName(name)) continue;
+			final File file = new File(mPath, name);
+			final boolean isDirectory = file.isDirectory();
+			if (requiresStat() && !matchesStat(file, isDirectory, now)) continue;
+			if (isDirectory) {
+				directories++;
+			} else {
+				files++;
+				totalSize += file.length();
+			}
+		}
+
+		Message message = new Message("Summary of " + mPath.getAbsolutePath());
+		message.add(Element.newNonHumandReadable("directories", String.valueOf(directories)));
+		message.add(Element.newNonHumandReadable("files", String.valueOf(files)));
+		message.add(Element.newNonHumandReadable("size", String.valueOf(totalSize)));
+		message.add(directories + " directories, " + files + " files, "
+				+ SharedStringUtil.humandReadableByteCount(totalSize), true);
+		return message;
+	}
+
+	static Element toElement(File file) {
+		final String path = file.getAbsolutePath();
+		Element element;
+		if (file.isDirectory()) {
+			element = new Element("directory", file.getAbsolutePath(), path + '/');
+		} else {
+			final long size = file.length();
+			Text text = new Text(path + " " + SharedStringUtil.humandReadableByteCount(size));
+			element = new Element("file", file.getAbsolutePath(), text);
+			element.addChildElement(Element.newNonHumandReadable("size", String.valueOf(size)));
+		}
+		return element;
+	}
+
+	/**
+	 * Check if the name matches. This does not require a stat call.
+	 * 
+	 * @param name
+	 * @return true if the name matches
+	 */
+	boolean matchesName(String name) {
+		return mGlobPattern == null || mGlobPattern.matcher(name).matches();
+	}
+
+	boolean requiresStat() {
+		return mSize != 0 || mAge != 0;
+	}
+
+	/**
+	 * Check if the file matches the size and modification time filters.
+	 * 
+	 * @param file
+	 * @param isDirectory
+	 * @param now
+	 * @return true if the file matches
+	 */
+	boolean matchesStat(File file, boolean isDirectory, long now) {
+		if (mSize != 0) {
+			// The size filter only matches files
+			if (isDirectory) return false;
+			final long length = file.length();
+			if (mSize > 0 ? length <= mSize : length >= -mSize) return false;
+		}
+		if (mAge != 0) {
+			final long age = now - file.lastModified();
+			if (mAge > 0 ? age <= mAge : age >= -mAge) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Create the arguments of the query starting at the given offset.
+	 * 
+	 * @param offset
+	 * @return the arguments
+	 */
+	String toArguments(int offset) {
+		StringBuilder sb = new StringBuilder();
+		sb.append("-n ").append(mPageSize).append(' ');
+		sb.append("-o ").append(offset).append(' ');
+		if (mGlob != null) sb.append("-g ").append(mGlob).append(' ');
+		if (mSize != 0) sb.append("-s ").append(mSize > 0 ? "+" : "").append(mSize).append(' ');
+		if (mAge != 0) sb.append("-m ").append(mAge > 0 ? "+" : "").append(mAge).append(' ');
+		if (mSummary) sb.append("-S ");
+		sb.append(mPath.getAbsolutePath());
+		return sb.toString();
+	}
+
+	private static final String SIZE_UNITS = "kmg";
+	private static final long[] SIZE_FACTORS = { 1024, 1024 * 1024, 1024 * 1024 * 1024 };
+	private static final String AGE_UNITS = "smhd";
+	private static final long[] AGE_FACTORS = { 1000, 60 * 1000, 60 * 60 * 1000,
+			24 * 60 * 60 * 1000 };
+
+	/**
+	 * Parse a value like "+10M" or "-2d". A missing sign means '+'. The unit is case insensitive,
+	 * without unit the value is taken as is.
+	 * 
+	 * @return the value, negative if the sign was '-'
+	 */
+	private static long parseSigned(String value, String units, long[] factors) {
+		boolean negative = false;
+		int start = 0;
+		if (value.startsWith("+")) {
+			start = 1;
+		} else if (value.startsWith("-")) {
+			negative = true;
+			start = 1;
+		}
+		int end = value.length();
+		long factor = 1;
+		if (end > start) {
+			final int unit = units.indexOf(Character.toLowerCase(value.charAt(end - 1)));
+			if (unit != -1) {
+				factor = factors[unit];
+				end--;
+			}
+		}
+		final long result = Long.parseLong(value.substring(start, end)) * factor;
+		if (result == 0) throw new IllegalArgumentException("Invalid value: " + value);
+		return negative ? -result : result;
+	}
+
+	private static Pattern globToPattern(String glob) {
+		StringBuilder sb = new StringBuilder(glob.length() + 8);
+		int literalStart = 0;
+		for (int i = 0; i < glob.length(); i++) {
+			final char c = glob.charAt(i);
+			if (c != '*' && c != '?') continue;
+			if (i > literalStart) sb.append(Pattern.quote(glob.substring(literalStart, i)));
+			sb.append(c == '*' ? ".*" : ".");
+			literalStart = i + 1;
+		}
+		if (literalStart < glob.length()) sb.append(Pattern.quote(glob.substring(literalStart)));
+		return Pattern.compile(sb.toString(), Pattern.DOTALL);
+	}
+}
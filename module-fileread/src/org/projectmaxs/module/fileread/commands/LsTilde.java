@@ -35,7 +35,7 @@ public class LsTilde extends AbstractLsCommand {
 			throws Throwable {
 		super.execute(arguments, command, service);
 
-		return list(GlobalConstants.MAXS_EXTERNAL_STORAGE);
+		return list(LsQuery.forPath(GlobalConstants.MAXS_EXTERNAL_STORAGE), command, service);
 	}
 
 }
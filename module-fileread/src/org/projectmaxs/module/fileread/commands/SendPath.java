@@ -30,6 +30,7 @@ import org.projectmaxs.shared.global.messagecontent.CommandHelp.ArgType;
 import org.projectmaxs.shared.global.util.AsyncServiceTask;
 import org.projectmaxs.shared.global.util.AsyncServiceTask.ExceptionHandler;
 import org.projectmaxs.shared.global.util.Log;
+import org.projectmaxs.shared.global.util.TransferUtil;
 import org.projectmaxs.shared.mainmodule.Command;
 import org.projectmaxs.shared.mainmodule.MAXSContentProviderContract;
 import org.projectmaxs.shared.module.MAXSModuleIntentService;
@@ -95,14 +96,9 @@ public class SendPath extends AbstractFilereadCommand {
 								ParcelFileDescriptor pfd = iinterface.outgoingFileTransfer(toSend.getName(),
 										toSend.length(), toSend.getAbsolutePath(), receiver);
 
-								int len;
-								byte[] buf = new byte[1024];
-
 								is = new FileInputStream(toSend);
 								os = new ParcelFileDescriptor.AutoCloseOutputStream(pfd);
-								while ((len = is.read(buf)) > 0) {
-									os.write(buf, 0, len);
-								}
+								TransferUtil.copy(is, os);
 							} finally {
 								try {
 									if (is != null) is.close();
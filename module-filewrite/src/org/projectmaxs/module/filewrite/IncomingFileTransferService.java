@@ -19,14 +19,10 @@ package org.projectmaxs.module.filewrite;
 
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.io.OutputStream;
 
 import org.projectmaxs.shared.global.GlobalConstants;
 import org.projectmaxs.shared.global.aidl.IMAXSIncomingFileTransferService;
 import org.projectmaxs.shared.global.util.Log;
-import org.projectmaxs.shared.global.util.ParcelFileDescriptorUtil;
 
 import android.app.Service;
 import android.content.Intent;
@@ -57,18 +53,13 @@ public class IncomingFileTransferService extends Service {
 
 			final File inFile = new File(GlobalConstants.MAXS_EXTERNAL_STORAGE, filename);
 
-			OutputStream os;
-			try {
-				os = new FileOutputStream(inFile);
-			} catch (FileNotFoundException e) {
-				LOG.e("incomingFileTransfer", e);
-				return null;
-			}
-
+			// Hand out a descriptor of the file itself, so that the transport writes directly
+			// into it, instead of through a pipe and a transfer thread
 			ParcelFileDescriptor pfd;
 			try {
-				pfd = ParcelFileDescriptorUtil.pipeTo(os);
-			} catch (IOException e) {
+				pfd = ParcelFileDescriptor.open(inFile, ParcelFileDescriptor.MODE_WRITE_ONLY
+						| ParcelFileDescriptor.MODE_CREATE | ParcelFileDescriptor.MODE_TRUNCATE);
+			} catch (FileNotFoundException e) {
 				LOG.e("incomingFileTransfer", e);
 				return null;
 			}
@@ -50,7 +50,9 @@ public class ModuleService extends MAXSModuleIntentService {
 			);
 	// @formatter:on
 
-	public static final SupraCommand LOCATE = new SupraCommand("locate", "l");
+	// Starting and stopping the location service must not be reordered, locate stays serial
+	public static final SupraCommand LOCATE = new SupraCommand("locate", "l")
+			.setTimeout(60 * 1000);
 
 	public static final SupraCommand[] sCOMMANDS;
 
@@ -27,6 +27,8 @@ import android.preference.PreferenceManager;
 public class Settings implements OnSharedPreferenceChangeListener, DebugLogSettings {
 	// App settings
 	private final String DEBUG_LOG;
+	private final String LOCATION_MIN_DISTANCE;
+	private final String LOCATION_TRACK_INTERVAL;
 
 	private static Settings sSettings;
 
@@ -43,6 +45,8 @@ public class Settings implements OnSharedPreferenceChangeListener, DebugLogSetti
 		mSharedPreferences = PreferenceManager.getDefaultSharedPreferences(context);
 
 		DEBUG_LOG = context.getString(R.string.pref_app_debug_log_key);
+		LOCATION_MIN_DISTANCE = context.getString(R.string.pref_location_min_distance_key);
+		LOCATION_TRACK_INTERVAL = context.getString(R.string.pref_location_track_interval_key);
 
 		mSharedPreferences.registerOnSharedPreferenceChangeListener(this);
 	}
@@ -51,7 +55,40 @@ public class Settings implements OnSharedPreferenceChangeListener, DebugLogSetti
 		return mSharedPreferences.getBoolean(DEBUG_LOG, false);
 	}
 
-	public SharedPreferences getSharedPreferences() {
+	/**
+	 * The distance in meters a location has to move to be send while streaming.
+	 * 
+	 * @return the minimum distance in meters
+	 */
+	public int getMinDistance() {
+		return getPositiveInt(LOCATION_MIN_DISTANCE, 25);
+	}
+
+	/**
+	 * The interval in which the locations are send as track while streaming.
+	 * 
+	 * @return the interval in milliseconds
+	 */
+	public long getTrackInterval() {
+		return getPositiveInt(LOCATION_TRACK_INTERVAL, 60) * 1000L;
+	}
+
+	/**
+	 * Get the integer value of a preference edited as text. Invalid values, e.g. an empty
+	 * string, yield the default value.
+	 */
+	private int getPositiveInt(String key, int defaultValue) {
+		final String string = mSharedPreferences.getString(key, null);
+		if (string == null) return defaultValue;
+		try {
+			final int value = Integer.parseInt(string.trim());
+			return value > 0 ? value : defaultValue;
+		} catch (NumberFormatException e) {
+			return defaultValue;
+		}
+	}
+
+		public SharedPreferences getSharedPreferences() {
 		return mSharedPreferences;
 	}
 
@@ -0,0 +1,332 @@
+/*
+    This file is part of Project MAXS.
+
+    MAXS and its modules is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    MAXS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with MAXS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.projectmaxs.module.locationfine.service;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The decision logic of the location streaming. It is pure Java and driven by the caller, which
+ * passes the current time to every method, so that it can be replayed with recorded or synthetic
+ * tracks.
+ * <p>
+ * The policy decides
+ * <ul>
+ * <li>which {@link Mode} to use, based on the observed speed and accuracy. A stationary device
+ * only uses the network provider and a long update interval, a moving one also uses GPS and an
+ * interval depending on the speed.</li>
+ * <li>if a fix is accepted. Fixes that moved less than the minimum distance from the last
+ * accepted fix are suppressed, unless they are considerably more accurate or the heartbeat
+ * interval passed.</li>
+ * <li>when the accepted fixes are send as track. The first fix is send right away, subsequent
+ * fixes are batched for the track interval.</li>
+ * </ul>
+ * It also keeps battery relevant counters, like the time GPS was requested.
+ * </p>
+ */
+public class AdaptiveLocationPolicy {
+
+	public enum Mode {
+		/**
+		 * The device does not move: network provider only.
+		 */
+		STATIONARY(false, 5 * 60 * 1000),
+		/**
+		 * The device moves slowly, e.g. walking.
+		 */
+		SLOW(true, 30 * 1000),
+		/**
+		 * The device moves fast, e.g. in a vehicle.
+		 */
+		FAST(true, 10 * 1000);
+
+		public final boolean mUsesGps;
+		public final long mInterval;
+
+		private Mode(boolean usesGps, long interval) {
+			mUsesGps = usesGps;
+			mInterval = interval;
+		}
+	}
+
+	/**
+	 * Speeds below this value, in meters per second, are considered stationary.
+	 */
+	static final float STATIONARY_SPEED = 0.5f;
+
+	/**
+	 * Speeds above this value, in meters per second, are considered fast.
+	 */
+	static final float FAST_SPEED = 4f;
+
+	/**
+	 * The number of consecutive stationary fixes after which the policy switches to
+	 * {@link Mode#STATIONARY}. Switching to a moving mode happens on the first moving fix.
+	 */
+	static final int STATIONARY_FIXES = 3;
+
+	/**
+	 * If the accuracy of the fixes in stationary mode is worse than this value, in meters, then
+	 * GPS is used nevertheless.
+	 */
+	static final float POOR_ACCURACY = 200f;
+
+	/**
+	 * The interval after which a fix is accepted, even if it did not move.
+	 */
+	static final long HEARTBEAT_INTERVAL = 10 * 60 * 1000;
+
+	/**
+	 * The maximum number of fixes in a track.
+	 */
+	static final int MAX_TRACK_SIZE = 20;
+
+	private final float mMinDistance;
+	private final long mTrackInterval;
+
+	private final List<Fix> mTrack = new ArrayList<Fix>();
+
+	private Mode mMode = Mode.SLOW;
+	private Fix mLastAccepted;
+	private Fix mLastFix;
+	private int mStationaryFixes;
+	private boolean mFirstSent;
+	private long mTrackStart = -1;
+
+	private long mGpsOnSince = -1;
+	private long mGpsOnMillis;
+	private int mFixes;
+	private int mSuppressedFixes;
+	private int mModeChanges;
+	private int mTracksSent;
+
+	/**
+	 * @param minDistance
+	 *            the minimum distance in meters a fix has to move to be accepted
+	 * @param trackInterval
+	 *            the time in milliseconds fixes are batched before they are send as track
+	 * @param now
+	 */
+	public AdaptiveLocationPolicy(float minDistance, long trackInterval, long now) {
+		mMinDistance = minDistance;
+		mTrackInterval = trackInterval;
+		updateGpsOnTime(now);
+	}
+
+	public Mode getMode() {
+		return mMode;
+	}
+
+	/**
+	 * Process a new fix.
+	 * 
+	 * @param fix
+	 * @param now
+	 * @return true if the mode changed, in which case the location updates should be requested
+	 *         according to the new mode
+	 */
+	public boolean onFix(Fix fix, long now) {
+		mFixes++;
+		final boolean modeChanged = updateMode(fix, now);
+		mLastFix = fix;
+
+		if (isAccepted(fix)) {
+			mLastAccepted = fix;
+			if (mTrack.isEmpty()) mTrackStart = now;
+			mTrack.add(fix);
+		} else {
+			mSuppressedFixes++;
+		}
+		return modeChanged;
+	}
+
+	/**
+	 * Check if the current track should be send.
+	 * 
+	 * @param now
+	 * @return true if the track should be send
+	 */
+	public boolean isTrackDue(long now) {
+		if (mTrack.isEmpty()) return false;
+		if (!mFirstSent) return true;
+		return mTrack.size() >= MAX_TRACK_SIZE || now - mTrackStart >= mTrackInterval;
+	}
+
+	/**
+	 * Get the time at which the current track will be due.
+	 * 
+	 * @return the time, or -1 if there is no track
+	 */
+	public long getTrackDueTime() {
+		if (mTrack.isEmpty()) return -1;
+		// The first track and full tracks are due right away
+		if (!mFirstSent || mTrack.size() >= MAX_TRACK_SIZE) return mTrackStart;
+		return mTrackStart + mTrackInterval;
+	}
+
+	/**
+	 * Remove and return the fixes of the current track.
+	 * 
+	 * @return the fixes, in the order they have been accepted
+	 */
+	public List<Fix> drainTrack() {
+		List<Fix> track = new ArrayList<Fix>(mTrack);
+		mTrack.clear();
+		mTrackStart = -1;
+		if (!track.isEmpty()) {
+			mFirstSent = true;
+			mTracksSent++;
+		}
+		return track;
+	}
+
+	/**
+	 * Stop the policy, i.e. stop accounting the GPS time.
+	 * 
+	 * @param now
+	 */
+	public void stop(long now) {
+		if (mGpsOnSince != -1) {
+			mGpsOnMillis += now - mGpsOnSince;
+			mGpsOnSince = -1;
+		}
+	}
+
+	public long getGpsOnMillis(long now) {
+		if (mGpsOnSince == -1) return mGpsOnMillis;
+		return mGpsOnMillis + now - mGpsOnSince;
+	}
+
+	public int getFixes() {
+		return mFixes;
+	}
+
+	public int getSuppressedFixes() {
+		return mSuppressedFixes;
+	}
+
+	public int getModeChanges() {
+		return mModeChanges;
+	}
+
+	public int getTracksSent() {
+		return mTracksSent;
+	}
+
+	private boolean isAccepted(Fix fix) {
+		if (mLastAccepted == null) return true;
+		if (fix.mTime - mLastAccepted.mTime >= HEARTBEAT_INTERVAL) return true;
+		// A considerably more accurate fix is accepted, even if it did not move
+		if (fix.mAccuracy > 0 && fix.mAccuracy < mLastAccepted.mAccuracy / 2) return true;
+		return distance(mLastAccepted, fix) >= mMinDistance;
+	}
+
+	private boolean updateMode(Fix fix, long now) {
+		final float speed = estimateSpeed(fix);
+		Mode mode;
+		if (speed < STATIONARY_SPEED) {
+			mStationaryFixes++;
+			if (mStationaryFixes < STATIONARY_FIXES) {
+				// Not yet sure that the device is stationary, stay in the current mode
+				mode = mMode;
+			} else if (fix.mAccuracy > POOR_ACCURACY) {
+				// The network provider alone is too inaccurate
+				mode = Mode.SLOW;
+			} else {
+				mode = Mode.STATIONARY;
+			}
+		} else {
+			mStationaryFixes = 0;
+			mode = speed > FAST_SPEED ? Mode.FAST : Mode.SLOW;
+		}
+
+		if (mode == mMode) return false;
+		mMode = mode;
+		mModeChanges++;
+		updateGpsOnTime(now);
+		return true;
+	}
+
+	private void updateGpsOnTime(long now) {
+		if (mMode.mUsesGps) {
+			if (mGpsOnSince == -1) mGpsOnSince = now;
+		} else if (mGpsOnSince != -1) {
+			mGpsOnMillis += now - mGpsOnSince;
+			mGpsOnSince = -1;
+		}
+	}
+
+	/**
+	 * Estimate the speed in meters per second. Uses the speed of the fix if it has one, otherwise
+	 * the distance to the previous fix.
+	 */
+	private float estimateSpeed(Fix fix) {
+		if (fix.mSpeed >= 0) return fix.mSpeed;
+		if (mLastFix == null) return 0;
+		final long timeDelta = fix.mTime - mLastFix.mTime;
+		if (timeDelta <= 0) return 0;
+		double distance = distance(mLastFix, fix);
+		// Movements within the accuracy are no movements
+		distance = Math.max(0, distance - Math.max(fix.mAccuracy, mLastFix.mAccuracy));
+		return (float) (distance * 1000 / timeDelta);
+	}
+
+	private static final double EARTH_RADIUS = 6371000;
+
+	/**
+	 * The distance between two fixes in meters, using the haversine formula.
+	 */
+	static double distance(Fix a, Fix b) {
+		final double dLat = Math.toRadians(b.mLatitude - a.mLatitude);
+		final double dLon = Math.toRadians(b.mLongitude - a.mLongitude);
+		final double sinLat = Math.sin(dLat / 2);
+		final double sinLon = Math.sin(dLon / 2);
+		final double h = sinLat * sinLat + Math.cos(Math.toRadians(a.mLatitude))
+				* Math.cos(Math.toRadians(b.mLatitude)) * sinLon * sinLon;
+		return 2 * EARTH_RADIUS * Math.asin(Math.min(1, Math.sqrt(h)));
+	}
+
+	public static class Fix {
+		public final double mLatitude;
+		public final double mLongitude;
+		/**
+		 * The accuracy in meters, 0 if unknown.
+		 */
+		public final float mAccuracy;
+		/**
+		 * The speed in meters per second, -1 if unknown.
+		 */
+		public final float mSpeed;
+		public final long mTime;
+
+		/**
+		 * An object the caller can attach to the fix, e.g. the platform's location object.
+		 */
+		public final Object mTag;
+
+		public Fix(double latitude, double longitude, float accuracy, float speed, long time,
+				Object tag) {
+			mLatitude = latitude;
+			mLongitude = longitude;
+			mAccuracy = accuracy;
+			mSpeed = speed;
+			mTime = time;
+			mTag = tag;
+		}
+	}
+}
@@ -22,10 +22,14 @@ import java.util.List;
 
 import org.projectmaxs.module.locationfine.LocationUtil;
 import org.projectmaxs.module.locationfine.ModuleService;
+import org.projectmaxs.module.locationfine.Settings;
+import org.projectmaxs.module.locationfine.service.AdaptiveLocationPolicy.Fix;
+import org.projectmaxs.module.locationfine.service.AdaptiveLocationPolicy.Mode;
 import org.projectmaxs.module.locationfine.service.gpsenabler.GpsEnablerDisabler;
 import org.projectmaxs.module.locationfine.service.gpsenabler.PowerWidgetFlaw;
 import org.projectmaxs.shared.global.GlobalConstants;
 import org.projectmaxs.shared.global.Message;
+import org.projectmaxs.shared.global.messagecontent.Element;
 import org.projectmaxs.shared.global.util.Log;
 import org.projectmaxs.shared.mainmodule.Command;
 import org.projectmaxs.shared.module.ILocationFineModuleLocationService;
@@ -42,7 +46,9 @@ import android.location.LocationListener;
 import android.location.LocationManager;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
 import android.os.IBinder;
+import android.os.SystemClock;
 
 public class LocationService extends Service {
 
@@ -102,7 +108,14 @@ public class LocationService extends Service {
 	private LocationListener mLocationListener = new LocationServiceLocationListener() {
 		@Override
 		protected void onBetterLocation(Location location) {
-			send(location);
+			onStreamedLocation(location);
+		}
+	};
+
+	private final Runnable mSendTrack = new Runnable() {
+		@Override
+		public void run() {
+			maybeSendTrack();
 		}
 	};
 
@@ -115,6 +128,10 @@ public class LocationService extends Service {
 
 	private boolean mGpsManuallyEnabled = false;
 
+	private AdaptiveLocationPolicy mPolicy;
+
+	private Handler mHandler;
+
 	@Override
 	public IBinder onBind(Intent intent) {
 		return mBinder;
@@ -147,6 +164,7 @@ public class LocationService extends Service {
 
 		mLocationManager = (LocationManager) getSystemService(Context.LOCATION_SERVICE);
 		mAllProviders = mLocationManager.getAllProviders();
+		mHandler = new Handler();
 	}
 
 	// TODO module-locationfine uses a 'dangerous' permission, which requires as of Android 6.0 (23)
@@ -176,12 +194,17 @@ public class LocationService extends Service {
 		case START_SERVICE:
 			if (!tryEnableGps()) send(new Message("GPS was disabled and we could not enable it."));
 
-			for (String provider : mAllProviders)
-				mLocationManager.requestLocationUpdates(provider, 1000 * 30, 5, mLocationListener);
+			if (mPolicy == null) {
+				Settings settings = Settings.getInstance(this);
+				mPolicy = new AdaptiveLocationPolicy(settings.getMinDistance(),
+						settings.getTrackInterval(), System.currentTimeMillis());
+			}
+			requestLocationUpdates(mPolicy.getMode());
 			for (String provider : mAllProviders) {
 				Location location = mLocationManager.getLastKnownLocation(provider);
 				if (location != null && isBetterLocation(location)) {
-					send(location);
+					mCurrentBestLocation = location;
+					onStreamedLocation(location);
 					break;
 				}
 			}
@@ -189,6 +212,7 @@ public class LocationService extends Service {
 			break;
 		case STOP_SERVICE:
 			mLocationManager.removeUpdates(mLocationListener);
+			stopStreaming();
 			if (mGpsManuallyEnabled) {
 				// Only reset to false if disabling GPS was successful
 				if (tryDisableGps()) mGpsManuallyEnabled = false;
@@ -202,6 +226,71 @@ public class LocationService extends Service {
 		return startSticky ? START_STICKY : START_NOT_STICKY;
 	}
 
+	@SuppressLint("MissingPermission")
+	private void requestLocationUpdates(Mode mode) {
+		LOG.d("requestLocationUpdates: mode={}", mode);
+		mLocationManager.removeUpdates(mLocationListener);
+		for (String provider : mAllProviders) {
+			if (!mode.mUsesGps && LocationManager.GPS_PROVIDER.equals(provider)) continue;
+			mLocationManager.requestLocationUpdates(provider, mode.mInterval, 5, mLocationListener);
+		}
+	}
+
+	private void onStreamedLocation(Location location) {
+		if (mPolicy == null) return;
+
+		Fix fix = new Fix(location.getLatitude(), location.getLongitude(),
+				location.hasAccuracy() ? location.getAccuracy() : 0,
+				location.hasSpeed() ? location.getSpeed() : -1, location.getTime(), location);
+		if (mPolicy.onFix(fix, System.currentTimeMillis())) {
+			requestLocationUpdates(mPolicy.getMode());
+		}
+		maybeSendTrack();
+	}
+
+	private void maybeSendTrack() {
+		mHandler.removeCallbacks(mSendTrack);
+		if (mPolicy == null) return;
+
+		final long now = System.currentTimeMillis();
+		if (mPolicy.isTrackDue(now)) {
+			sendTrack(mPolicy.drainTrack());
+			return;
+		}
+		final long dueTime = mPolicy.getTrackDueTime();
+		if (dueTime == -1) return;
+		mHandler.postAtTime(mSendTrack, SystemClock.uptimeMillis() + Math.max(0, dueTime - now));
+	}
+
+	private void sendTrack(List<Fix> track) {
+		if (track.isEmpty()) return;
+		if (track.size() == 1) {
+			send((Location) track.get(0).mTag);
+			return;
+		}
+
+		Element element = new Element("track", "Track of " + track.size() + " locations");
+		for (Fix fix : track)
+			element.addChildElements(SharedLocationUtil.toElements((Location) fix.mTag));
+		send(new Message(element));
+	}
+
+	private void stopStreaming() {
+		mHandler.removeCallbacks(mSendTrack);
+		if (mPolicy == null) return;
+
+		final long now = System.currentTimeMillis();
+		sendTrack(mPolicy.drainTrack());
+		mPolicy.stop(now);
+		send(new Message("Location streaming stopped. GPS was on for "
+				+ mPolicy.getGpsOnMillis(now) / 1000 + " seconds, " + mPolicy.getFixes()
+				+ " fixes received, " + mPolicy.getSuppressedFixes() + " suppressed, "
+				+ mPolicy.getTracksSent() + " tracks send, " + mPolicy.getModeChanges()
+				+ " mode changes"));
+		mPolicy = null;
+		mCurrentBestLocation = null;
+	}
+
 	private boolean gpsEnabled() {
 		return mLocationManager.isProviderEnabled(LocationManager.GPS_PROVIDER);
 	}
@@ -255,8 +344,8 @@ public class LocationService extends Service {
 
 		long timeDelta;
 		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
-			timeDelta = newLocation.getElapsedRealtimeNanos()
-					- mCurrentBestLocation.getElapsedRealtimeNanos();
+			timeDelta = (newLocation.getElapsedRealtimeNanos() - mCurrentBestLocation
+					.getElapsedRealtimeNanos()) / 1000000;
 		} else {
 			timeDelta = newLocation.getTime() - mCurrentBestLocation.getTime();
 		}
@@ -48,11 +48,13 @@ public class ModuleService extends MAXSModuleIntentService {
 			);
 	// @formatter:on
 
-	public static final SupraCommand SYSINFO = new SupraCommand("sysinfo");
-	public static final SupraCommand EXCEPTION = new SupraCommand("exception");
-	public static final SupraCommand RECENT_CONTACT = new SupraCommand("recentcontact", "recent");
-	public static final SupraCommand SENSOR = new SupraCommand("sensor");
-	public static final SupraCommand PING = new SupraCommand("ping");
+	// All commands of this module only read state, they may be executed concurrently
+	public static final SupraCommand SYSINFO = new SupraCommand("sysinfo").setConcurrent();
+	public static final SupraCommand EXCEPTION = new SupraCommand("exception").setConcurrent();
+	public static final SupraCommand RECENT_CONTACT = new SupraCommand("recentcontact", "recent")
+			.setConcurrent();
+	public static final SupraCommand SENSOR = new SupraCommand("sensor").setConcurrent();
+	public static final SupraCommand PING = new SupraCommand("ping").setConcurrent();
 
 	public static final SupraCommand[] sCOMMANDS;
 
@@ -36,7 +36,7 @@ public class SendIntent extends Activity {
 		super.onCreate(savedInstanceState);
 		Intent intent = getIntent();
 		String sharedText = intent.getStringExtra(Intent.EXTRA_TEXT);
-		MainUtil.send(new Message(sharedText), this);
+		MainUtil.sendNow(new Message(sharedText), this);
 		finish();
 	}
 
@@ -79,7 +79,8 @@ public class NfcDiscoveredService extends IntentService {
 			}
 			elements.add(techHandler.handle(tag));
 		}
-		MainUtil.send(new Message(elements), this);
+		// The IntentService stops once this method returns
+		MainUtil.sendNow(new Message(elements), this);
 	}
 
 	private static synchronized <H extends TechHandler> void registerHandler(Class<H> handlerClass) {
@@ -17,13 +17,23 @@
 
 package org.projectmaxs.module.notification;
 
+import java.util.ArrayList;
+import java.util.List;
+
+import org.projectmaxs.module.notification.NotificationPipeline.Event;
 import org.projectmaxs.shared.global.Message;
+import org.projectmaxs.shared.global.StatusInformation;
 import org.projectmaxs.shared.global.messagecontent.Element;
 import org.projectmaxs.shared.global.util.DateTimeUtil;
 import org.projectmaxs.shared.global.util.Log;
+import org.projectmaxs.shared.mainmodule.MAXSStatusUtil;
 import org.projectmaxs.shared.module.MainUtil;
 
 import android.app.Notification;
+import android.content.SharedPreferences;
+import android.content.SharedPreferences.OnSharedPreferenceChangeListener;
+import android.os.Handler;
+import android.os.SystemClock;
 import android.service.notification.NotificationListenerService;
 import android.service.notification.StatusBarNotification;
 
@@ -31,38 +41,143 @@ public class MAXSNotificationListenerService extends NotificationListenerService
 
 	private static final Log LOG = Log.getLog();
 
+	private static final String STATUS_KEY = "notification-pipeline";
+
+	/**
+	 * The minimum interval between two status updates with the pipeline's counters, since every
+	 * update is broadcasted by the transports.
+	 */
+	private static final long STATUS_UPDATE_INTERVAL = 60 * 1000;
+
 	private Settings mSettings;
+	private NotificationPipeline mPipeline;
+	private Handler mHandler;
+	private long mLastStatusUpdate;
+	private boolean mStatusUpdateScheduled;
+	private boolean mDestroyed;
 
 	@Override
 	public void onCreate() {
 		LOG.d("onCreate");
 		mSettings = Settings.getInstance(this);
+		mHandler = new Handler();
+		mPipeline = new NotificationPipeline(new NotificationPipeline.Sink() {
+			@Override
+			public void deliver(List<Event> events, int dropped) {
+				final Message message = toMessage(events, dropped);
+				if (mDestroyed) {
+					// The process may be killed before a queued message is delivered
+					MainUtil.sendNow(message, MAXSNotificationListenerService.this);
+				} else {
+					MainUtil.send(message, MAXSNotificationListenerService.this);
+				}
+			}
+		});
+		updatePackageRules();
+		mSettings.getSharedPreferences().registerOnSharedPreferenceChangeListener(
+				mPreferenceChangeListener);
+	}
+
+	@Override
+	public void onDestroy() {
+		mSettings.getSharedPreferences().unregisterOnSharedPreferenceChangeListener(
+				mPreferenceChangeListener);
+		mHandler.removeCallbacks(mFlush);
+		mHandler.removeCallbacks(mUpdateStatus);
+		// Deliver what is still pending, ignoring the remaining coalescing window
+		mDestroyed = true;
+		mPipeline.flushNow();
+		LOG.d("onDestroy: {}", mPipeline.getCounters());
+		updateStatus();
+		super.onDestroy();
 	}
 
 	@Override
 	public void onNotificationPosted(StatusBarNotification sbn) {
-		LOG.d("onNotificationPosted: sbn=" + sbn);
+		LOG.d("onNotificationPosted: sbn={}", sbn);
 		if (!mSettings.notificationPosted()) return;
 		if (mSettings.notificationTickertext() && !hasTickertextElement(sbn)) return;
 
-		Element element = new Element("notificationPosted", null, "New notification posted");
-		addSbnToElement(sbn, element);
-
-		Message message = new Message(element);
-		MainUtil.send(message, this);
+		offer(sbn, true);
 	}
 
 	@Override
 	public void onNotificationRemoved(StatusBarNotification sbn) {
-		LOG.d("onNotificationRemoved: sbn=" + sbn);
+		LOG.d("onNotificationRemoved: sbn={}", sbn);
 		if (!mSettings.notificationRemoved()) return;
 		if (mSettings.notificationTickertext() && !hasTickertextElement(sbn)) return;
 
-		Element element = new Element("notificationRemoved", null, "Notification removed");
-		addSbnToElement(sbn, element);
+		offer(sbn, false);
+	}
 
-		Message message = new Message(element);
-		MainUtil.send(message, this);
+	private void offer(StatusBarNotification sbn, boolean posted) {
+		Notification notification = sbn.getNotification();
+		String text = null;
+		long when = 0;
+		if (notification != null) {
+			if (notification.tickerText != null) text = notification.tickerText.toString();
+			when = notification.when;
+		}
+		final String key = sbn.getPackageName() + '|' + sbn.getId() + '|' + sbn.getTag();
+		Event event = new Event(key, sbn.getPackageName(), posted, text, when);
+
+		scheduleFlush(mPipeline.offer(event));
+		scheduleStatusUpdate();
+	}
+
+	private void scheduleFlush(long flushTime) {
+		mHandler.removeCallbacks(mFlush);
+		if (flushTime == -1) return;
+		final long delay = Math.max(0, flushTime - System.currentTimeMillis());
+		mHandler.postAtTime(mFlush, SystemClock.uptimeMillis() + delay);
+	}
+
+	private final Runnable mFlush = new Runnable() {
+		@Override
+		public void run() {
+			scheduleFlush(mPipeline.flush());
+			scheduleStatusUpdate();
+		}
+	};
+
+	/**
+	 * Schedule a status update with the pipeline's counters, at most one every
+	 * {@link #STATUS_UPDATE_INTERVAL}.
+	 */
+	private void scheduleStatusUpdate() {
+		if (mStatusUpdateScheduled) return;
+		mStatusUpdateScheduled = true;
+		final long nextUpdate = mLastStatusUpdate + STATUS_UPDATE_INTERVAL;
+		mHandler.postAtTime(mUpdateStatus, Math.max(nextUpdate, SystemClock.uptimeMillis()));
+	}
+
+	private final Runnable mUpdateStatus = new Runnable() {
+		@Override
+		public void run() {
+			updateStatus();
+		}
+	};
+
+	private void updateStatus() {
+		mStatusUpdateScheduled = false;
+		mLastStatusUpdate = SystemClock.uptimeMillis();
+		ArrayList<StatusInformation> infos = new ArrayList<StatusInformation>(1);
+		// Only machine readable, the counters should not show up in the human readable status
+		infos.add(new StatusInformation(STATUS_KEY, null, mPipeline.getCounters()));
+		MAXSStatusUtil.maybeUpdateStatus(this, infos);
+	}
+
+	private final OnSharedPreferenceChangeListener mPreferenceChangeListener =
+			new OnSharedPreferenceChangeListener() {
+				@Override
+				public void onSharedPreferenceChanged(SharedPreferences sharedPreferences,
+						String key) {
+					if (mSettings.isPackageRulesKey(key)) updatePackageRules();
+				}
+			};
+
+	private void updatePackageRules() {
+		mPipeline.setPackageRules(mSettings.getAllowedPackages(), mSettings.getDeniedPackages());
 	}
 
 	private static boolean hasTickertextElement(StatusBarNotification sbn) {
@@ -75,15 +190,39 @@ public class MAXSNotificationListenerService extends NotificationListenerService
 		return true;
 	}
 
-	private static void addSbnToElement(StatusBarNotification sbn, Element element) {
-		Notification notification = sbn.getNotification();
+	private static Message toMessage(List<Event> events, int dropped) {
+		Message message;
+		if (events.size() == 1) {
+			message = new Message(toElement(events.get(0)));
+		} else {
+			Element digest = new Element("notificationDigest", null, events.size()
+					+ " notification events");
+			for (Event event : events)
+				digest.addChildElement(toElement(event));
+			message = new Message(digest);
+		}
+		if (dropped > 0) {
+			message.add(new Element("dropped", Integer.toString(dropped), dropped
+					+ " notification events dropped because of the rate limit"));
+		}
+		return message;
+	}
 
-		if (notification != null && notification.tickerText != null)
-			element.addChildElement(new Element("tickerText", notification.tickerText.toString(),
-					"Ticker Text: " + notification.tickerText));
-		element.addChildElement(new Element("packageName", sbn.getPackageName(), "Package: "
-				+ sbn.getPackageName()));
-		element.addChildElement(new Element("when", Long.toString(notification.when), "Posted: "
-				+ DateTimeUtil.fullFromUtc(notification.when)));
+	private static Element toElement(Event event) {
+		Element element;
+		if (event.mPosted) {
+			element = new Element("notificationPosted", null, "New notification posted");
+		} else {
+			element = new Element("notificationRemoved", null, "Notification removed");
+		}
+
+		if (event.mText != null)
+			element.addChildElement(new Element("tickerText", event.mText, "Ticker Text: "
+					+ event.mText));
+		element.addChildElement(new Element("packageName", event.mPackageName, "Package: "
+				+ event.mPackageName));
+		element.addChildElement(new Element("when", Long.toString(event.mWhen), "Posted: "
+				+ DateTimeUtil.fullFromUtc(event.mWhen)));
+		return element;
 	}
 }
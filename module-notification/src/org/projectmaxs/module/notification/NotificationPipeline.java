@@ -0,0 +1,285 @@
+/*
+    This file is part of Project MAXS.
+
+    MAXS and its modules is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    MAXS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with MAXS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.projectmaxs.module.notification;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The pipeline notification events pass before they are forwarded. It is pure Java and does not
+ * schedule anything on its own, the caller is responsible for invoking {@link #flush()} at the
+ * time returned by {@link #offer(Event)}. Events go through the following stages:
+ * <ol>
+ * <li>Package rules: events of denied packages, or of packages not allowed if there are allowed
+ * packages, are dropped.</li>
+ * <li>Coalescing: the first event starts a time window, all events within the window are
+ * delivered together once it ends.</li>
+ * <li>Deduplication: a later event with the same key replaces the pending one, so that e.g. a
+ * progress bar only results in its latest state.</li>
+ * <li>Rate limit: every delivery consumes a token of a global token bucket. If the bucket is
+ * empty, the window is kept open until a token is available. If more than the maximum number of
+ * events are pending in the meantime, the oldest ones are dropped and reported with the next
+ * delivery.</li>
+ * </ol>
+ */
+public class NotificationPipeline {
+
+	public static final long DEFAULT_WINDOW = 5000;
+	public static final int DEFAULT_BUCKET_CAPACITY = 5;
+	public static final long DEFAULT_REFILL_INTERVAL = 60 * 1000;
+	public static final int DEFAULT_MAX_PENDING = 100;
+
+	public interface Clock {
+		long currentTimeMillis();
+	}
+
+	public static final Clock SYSTEM_CLOCK = new Clock() {
+		@Override
+		public long currentTimeMillis() {
+			return System.currentTimeMillis();
+		}
+	};
+
+	public interface Sink {
+		/**
+		 * Deliver the events of a coalescing window.
+		 * 
+		 * @param events
+		 *            the events, in the order they have been offered
+		 * @param dropped
+		 *            the number of events dropped since the last delivery, because too many
+		 *            events were pending while waiting for the rate limit
+		 */
+		void deliver(List<Event> events, int dropped);
+	}
+
+	private final long mWindow;
+	private final int mBucketCapacity;
+	private final long mRefillInterval;
+	private final int mMaxPending;
+	private final Clock mClock;
+	private final Sink mSink;
+
+	private final Map<String, Event> mPending = new LinkedHashMap<String, Event>();
+
+	private Set<String> mAllowedPackages = Collections.emptySet();
+	private Set<String> mDeniedPackages = Collections.emptySet();
+
+	private long mFlushTime = -1;
+	private int mTokens;
+	private long mLastRefill;
+	private int mUnreportedDrops;
+
+	private long mDroppedByRule;
+	private long mDeduplicated;
+	private long mDroppedByRateLimit;
+	private long mDelivered;
+
+	public NotificationPipeline(Sink sink) {
+		this(DEFAULT_WINDOW, DEFAULT_BUCKET_CAPACITY, DEFAULT_REFILL_INTERVAL, DEFAULT_MAX_PENDING,
+				SYSTEM_CLOCK, sink);
+	}
+
+	/**
+	 * @param window
+	 *            the coalescing window in milliseconds
+	 * @param bucketCapacity
+	 *            the maximum number of deliveries in a burst
+	 * @param refillInterval
+	 *            the interval in milliseconds after which a token is added to the bucket
+	 * @param maxPending
+	 *            the maximum number of pending events
+	 * @param clock
+	 * @param sink
+	 */
+	public NotificationPipeline(long window, int bucketCapacity, long refillInterval,
+			int maxPending, Clock clock, Sink sink) {
+		if (window < 0 || bucketCapacity < 1 || refillInterval < 1 || maxPending < 1) {
+			throw new IllegalArgumentException("Invalid pipeline parameters");
+		}
+		mWindow = window;
+		mBucketCapacity = bucketCapacity;
+		mRefillInterval = refillInterval;
+		mMaxPending = maxPending;
+		mClock = clock;
+		mSink = sink;
+		mTokens = bucketCapacity;
+		mLastRefill = clock.currentTimeMillis();
+	}
+
+	/**
+	 * Set the package rules. Denied packages take precedence. If the allowed packages are not
+	 * empty, then only events of those packages pass.
+	 * 
+	 * @param allowed
+	 * @param denied
+	 */
+	public synchronized void setPackageRules(Collection<String> allowed,
+			Collection<String> denied) {
+		mAllowedPackages = new HashSet<String>(allowed);
+		mDeniedPackages = new HashSet<String>(denied);
+	}
+
+	/**
+	 * Offer an event to the pipeline.
+	 * 
+	 * @param event
+	 * @return the time at which {@link #flush()} should be invoked, or -1 if nothing is pending
+	 */
+	public synchronized long offer(Event event) {
+		final String packageName = event.mPackageName;
+		if (mDeniedPackages.contains(packageName)
+				|| (!mAllowedPackages.isEmpty() && !mAllowedPackages.contains(packageName))) {
+			mDroppedByRule++;
+			return mFlushTime;
+		}
+
+		final String key = (event.mPosted ? '+' : '-') + event.mKey;
+		// Remove a pending event first, so that the latest event takes its place in the order
+		if (mPending.remove(key) != null) mDeduplicated++;
+		mPending.put(key, event);
+		if (mPending.size() > mMaxPending) {
+			Iterator<Event> it = mPending.values().iterator();
+			it.next();
+			it.remove();
+			mDroppedByRateLimit++;
+			mUnreportedDrops++;
+		}
+
+		if (mFlushTime == -1) mFlushTime = mClock.currentTimeMillis() + mWindow;
+		return mFlushTime;
+	}
+
+	/**
+	 * Deliver the pending events, if the coalescing window has ended and a token is available.
+	 * 
+	 * @return the time at which flush() should be invoked again, or -1 if nothing is pending
+	 */
+	public synchronized long flush() {
+		return flush(false);
+	}
+
+	/**
+	 * Deliver the pending events, even if the coalescing window has not ended yet. The rate limit
+	 * still applies, i.e. the events stay pending if no token is available.
+	 */
+	public synchronized void flushNow() {
+		flush(true);
+	}
+
+	private long flush(boolean ignoreWindow) {
+		if (mPending.isEmpty()) {
+			mFlushTime = -1;
+			return mFlushTime;
+		}
+		final long now = mClock.currentTimeMillis();
+		if (!ignoreWindow && now < mFlushTime) return mFlushTime;
+
+		refill(now);
+		if (mTokens == 0) {
+			// Keep the window open, later events are delivered together with the pending ones
+			mFlushTime = mLastRefill + mRefillInterval;
+			return mFlushTime;
+		}
+
+		List<Event> events = new ArrayList<Event>(mPending.values());
+		mPending.clear();
+		mFlushTime = -1;
+		mTokens--;
+		mDelivered += events.size();
+		final int dropped = mUnreportedDrops;
+		mUnreportedDrops = 0;
+		mSink.deliver(events, dropped);
+		return mFlushTime;
+	}
+
+	private void refill(long now) {
+		final long tokens = (now - mLastRefill) / mRefillInterval;
+		if (tokens <= 0) return;
+		mTokens = (int) Math.min(mBucketCapacity, mTokens + tokens);
+		if (mTokens == mBucketCapacity) {
+			mLastRefill = now;
+		} else {
+			mLastRefill += tokens * mRefillInterval;
+		}
+	}
+
+	public synchronized long getDroppedByRule() {
+		return mDroppedByRule;
+	}
+
+	public synchronized long getDeduplicated() {
+		return mDeduplicated;
+	}
+
+	public synchronized long getDroppedByRateLimit() {
+		return mDroppedByRateLimit;
+	}
+
+	public synchronized long getDelivered() {
+		return mDelivered;
+	}
+
+	public synchronized int getPending() {
+		return mPending.size();
+	}
+
+	/**
+	 * Get the counters of the pipeline as machine readable string.
+	 * 
+	 * @return the counters, e.g. "delivered=3 deduplicated=1 dropped-by-rule=0 ..."
+	 */
+	public synchronized String getCounters() {
+		return "delivered=" + mDelivered + " deduplicated=" + mDeduplicated + " dropped-by-rule="
+				+ mDroppedByRule + " dropped-by-rate-limit=" + mDroppedByRateLimit + " pending="
+				+ mPending.size();
+	}
+
+	public static class Event {
+		public final String mKey;
+		public final String mPackageName;
+		public final boolean mPosted;
+		public final String mText;
+		public final long mWhen;
+
+		/**
+		 * @param key
+		 *            the key identifying the notification
+		 * @param packageName
+		 * @param posted
+		 *            true if the notification was posted, false if it was removed
+		 * @param text
+		 *            the ticker text, may be null
+		 * @param when
+		 */
+		public Event(String key, String packageName, boolean posted, String text, long when) {
+			mKey = key;
+			mPackageName = packageName;
+			mPosted = posted;
+			mText = text;
+			mWhen = when;
+		}
+	}
+}
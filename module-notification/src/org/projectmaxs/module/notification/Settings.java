@@ -17,6 +17,10 @@
 
 package org.projectmaxs.module.notification;
 
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
 import org.projectmaxs.shared.global.util.Log.DebugLogSettings;
 
 import android.content.Context;
@@ -31,6 +35,8 @@ public class Settings implements OnSharedPreferenceChangeListener, DebugLogSetti
 	private final String NOTIFICATION_TICKERTEXT;
 	private final String NOTIFICATION_POSTED;
 	private final String NOTIFICATION_REMOVED;
+	private final String NOTIFICATION_ALLOWED_PACKAGES;
+	private final String NOTIFICATION_DENIED_PACKAGES;
 
 	private static Settings sSettings;
 
@@ -51,6 +57,10 @@ public class Settings implements OnSharedPreferenceChangeListener, DebugLogSetti
 		NOTIFICATION_TICKERTEXT = context.getString(R.string.pref_notification_tickertext_key);
 		NOTIFICATION_POSTED = context.getString(R.string.pref_notification_posted_key);
 		NOTIFICATION_REMOVED = context.getString(R.string.pref_notification_removed_key);
+		NOTIFICATION_ALLOWED_PACKAGES = context
+				.getString(R.string.pref_notification_allowed_packages_key);
+		NOTIFICATION_DENIED_PACKAGES = context
+				.getString(R.string.pref_notification_denied_packages_key);
 
 		mSharedPreferences.registerOnSharedPreferenceChangeListener(this);
 	}
@@ -71,6 +81,30 @@ public class Settings implements OnSharedPreferenceChangeListener, DebugLogSetti
 		return mSharedPreferences.getBoolean(NOTIFICATION_REMOVED, false);
 	}
 
+	public Set<String> getAllowedPackages() {
+		return getPackages(NOTIFICATION_ALLOWED_PACKAGES);
+	}
+
+	public Set<String> getDeniedPackages() {
+		return getPackages(NOTIFICATION_DENIED_PACKAGES);
+	}
+
+	public boolean isPackageRulesKey(String key) {
+		return NOTIFICATION_ALLOWED_PACKAGES.equals(key)
+				|| NOTIFICATION_DENIED_PACKAGES.equals(key);
+	}
+
+	private Set<String> getPackages(String key) {
+		String packages = mSharedPreferences.getString(key, "");
+		if (packages.trim().isEmpty()) return Collections.emptySet();
+
+		Set<String> res = new HashSet<String>();
+		for (String pkg : packages.split("[,\\s]+")) {
+			if (!pkg.isEmpty()) res.add(pkg);
+		}
+		return res;
+	}
+
 	public SharedPreferences getSharedPreferences() {
 		return mSharedPreferences;
 	}
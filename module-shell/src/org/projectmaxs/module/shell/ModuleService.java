@@ -20,7 +20,9 @@ package org.projectmaxs.module.shell;
 import java.util.HashSet;
 import java.util.Set;
 
+import org.projectmaxs.module.shell.commands.AbstractShell;
 import org.projectmaxs.module.shell.commands.RootShellExecute;
+import org.projectmaxs.module.shell.commands.ShellCancel;
 import org.projectmaxs.module.shell.commands.ShellExecute;
 import org.projectmaxs.shared.global.jul.JULHandler;
 import org.projectmaxs.shared.global.util.Log;
@@ -44,8 +46,13 @@ public class ModuleService extends MAXSModuleIntentService {
 			);
 	// @formatter:on
 
-	public static final SupraCommand SHELL = new SupraCommand("shell", "sh");
-	public static final SupraCommand ROOT_SHELL = new SupraCommand("rshell", "root");
+	// Every shell command runs in its own pooled session, and cancel must not wait for the command
+	// it cancels. The executor timeout is only a fallback for a command that could not be
+	// terminated by the timeout of AbstractShell.
+	public static final SupraCommand SHELL = new SupraCommand("shell", "sh").setConcurrent()
+			.setTimeout(AbstractShell.COMMAND_TIMEOUT + 60 * 1000);
+	public static final SupraCommand ROOT_SHELL = new SupraCommand("rshell", "root")
+			.setConcurrent().setTimeout(AbstractShell.COMMAND_TIMEOUT + 60 * 1000);
 
 	public static final SupraCommand[] sCOMMANDS;
 
@@ -54,6 +61,7 @@ public class ModuleService extends MAXSModuleIntentService {
 
 		SupraCommand.register(ShellExecute.class, commands);
 		SupraCommand.register(RootShellExecute.class, commands);
+		SupraCommand.register(ShellCancel.class, commands);
 
 		sCOMMANDS = commands.toArray(new SupraCommand[commands.size()]);
 	}
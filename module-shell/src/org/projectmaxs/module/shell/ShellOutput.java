@@ -0,0 +1,79 @@
+/*
+    This file is part of Project MAXS.
+
+    MAXS and its modules is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    MAXS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with MAXS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.projectmaxs.module.shell;
+
+/**
+ * Collects the output of a shell command and sends it in batches of lines. A batch is send once
+ * it is full, or when {@link #flush()} is called, e.g. periodically while the command is running.
+ * Every line is send at most once, {@link #finish()} returns the lines that have not been send.
+ */
+public abstract class ShellOutput implements ShellSessionPool.LineListener {
+
+	private final int mLineBatchSize;
+	private final StringBuilder mPending = new StringBuilder();
+
+	private int mPendingLines;
+	private boolean mFinished;
+
+	public ShellOutput(int lineBatchSize) {
+		mLineBatchSize = lineBatchSize;
+	}
+
+	/**
+	 * Send a batch of lines.
+	 * 
+	 * @param lines
+	 *            the lines, each terminated by a newline
+	 */
+	protected abstract void send(String lines);
+
+	@Override
+	public void onLine(String line) {
+		append(line);
+	}
+
+	public synchronized void append(String line) {
+		if (mFinished) return;
+		mPending.append(line).append('\n');
+		if (++mPendingLines >= mLineBatchSize) flush();
+	}
+
+	/**
+	 * Send the pending lines. Does nothing after {@link #finish()}. Since the lines are send while
+	 * holding the lock, a concurrent {@link #finish()} waits until they are send.
+	 */
+	public synchronized void flush() {
+		if (mFinished || mPendingLines == 0) return;
+		send(mPending.toString());
+		mPending.setLength(0);
+		mPendingLines = 0;
+	}
+
+	/**
+	 * Finish the output, lines appended afterwards are discarded.
+	 * 
+	 * @return the lines that have not been send, or null if there are none
+	 */
+	public synchronized String finish() {
+		mFinished = true;
+		if (mPendingLines == 0) return null;
+		final String lines = mPending.toString();
+		mPending.setLength(0);
+		mPendingLines = 0;
+		return lines;
+	}
+}
@@ -0,0 +1,399 @@
+/*
+    This file is part of Project MAXS.
+
+    MAXS and its modules is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    MAXS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with MAXS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.projectmaxs.module.shell;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.security.SecureRandom;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.projectmaxs.shared.global.util.Log;
+
+/**
+ * A pool of persistent shell sessions. Starting a shell, and especially a root shell, is
+ * expensive, so sessions are reused for subsequent commands. Idle sessions get closed after
+ * {@link #IDLE_TIMEOUT}.
+ * <p>
+ * Every command runs in its own subshell with stdin redirected from /dev/null, so that changes of
+ * the working directory or the environment do not leak into the next command using the session,
+ * and the command can not consume the input of the session. The session's shell has job control
+ * enabled, so that every subshell becomes the leader of its own process group, which allows to
+ * terminate all processes started by the command. A session is only returned to the pool if its
+ * shell is still alive after the command and the command was not cancelled.
+ * </p>
+ * <p>
+ * The pool also keeps track of the running commands by their MAXS command id, so that they can
+ * be cancelled.
+ * </p>
+ */
+public class ShellSessionPool {
+
+	private static final Log LOG = Log.getLog();
+
+	public static final long IDLE_TIMEOUT = 5 * 60 * 1000;
+
+	/**
+	 * The maximum number of idle sessions kept per session kind (root and non-root).
+	 */
+	private static final int MAX_IDLE_SESSIONS = 2;
+
+	private static ShellSessionPool sShellSessionPool;
+
+	public static synchronized ShellSessionPool getInstance() {
+		if (sShellSessionPool == null) {
+			sShellSessionPool = new ShellSessionPool(new String[] { "sh" },
+					new String[] { "su" });
+		}
+		return sShellSessionPool;
+	}
+
+	/**
+	 * Receives the output of a command line by line.
+	 */
+	public interface LineListener {
+		void onLine(String line);
+	}
+
+	private final String[] mShell;
+	private final String[] mRootShell;
+
+	private final Deque<Session> mIdleSessions = new ArrayDeque<Session>();
+	private final Deque<Session> mIdleRootSessions = new ArrayDeque<Session>();
+	private final Map<Integer, Session> mRunningCommands = new HashMap<Integer, Session>();
+
+	private final ScheduledThreadPoolExecutor mScheduler = new ScheduledThreadPoolExecutor(1);
+
+	private boolean mSweepScheduled;
+
+	/**
+	 * Create a new pool.
+	 * 
+	 * @param shell
+	 *            the command line starting a shell
+	 * @param rootShell
+	 *            the command line starting a root shell
+	 */
+	ShellSessionPool(String[] shell, String[] rootShell) {
+		mShell = shell;
+		mRootShell = rootShell;
+		mScheduler.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+	}
+
+	/**
+	 * Get an idle session from the pool, or start a new one if there is none.
+	 * 
+	 * @param root
+	 *            if a root session is required
+	 * @return a session for exclusive use until it is released
+	 * @throws IOException
+	 *             if the shell could not be started
+	 */
+	public Session acquire(boolean root) throws IOException {
+		synchronized (this) {
+			Session session = idleSessions(root).pollFirst();
+			if (session != null) {
+				LOG.d("acquire: reusing {} session", session);
+				return session;
+			}
+		}
+		// Start the shell without holding the lock, this may take a while
+		Session session = new Session(root ? mRootShell : mShell, root);
+		LOG.d("acquire: started new {} session", session);
+		return session;
+	}
+
+	/**
+	 * Release a session acquired with {@link #acquire(boolean)}. The session is closed if its
+	 * shell terminated, if its command was cancelled or if there are already enough idle
+	 * sessions.
+	 * 
+	 * @param session
+	 */
+	public void release(Session session) {
+		synchronized (this) {
+			Deque<Session> idleSessions = idleSessions(session.mRoot);
+			if (session.isReusable() && idleSessions.size() < MAX_IDLE_SESSIONS) {
+				session.mLastUsed = System.currentTimeMillis();
+				idleSessions.addFirst(session);
+				scheduleSweep();
+				return;
+			}
+		}
+		session.close();
+	}
+
+	public synchronized void addRunningCommand(int id, Session session) {
+		mRunningCommands.put(id, session);
+	}
+
+	/**
+	 * Remove the running command with the given id.
+	 * 
+	 * @param id
+	 * @return false if the command was not running anymore, i.e. if it was cancelled
+	 */
+	public synchronized boolean removeRunningCommand(int id) {
+		return mRunningCommands.remove(id) != null;
+	}
+
+	public synchronized Set<Integer> getRunningCommandIds() {
+		return Collections.unmodifiableSet(new TreeSet<Integer>(mRunningCommands.keySet()));
+	}
+
+	/**
+	 * Cancel the running command with the given id, see {@link Session#cancel()}.
+	 * 
+	 * @param id
+	 * @return true if a command with the given id was running
+	 */
+	public boolean cancel(int id) {
+		Session session;
+		synchronized (this) {
+			session = mRunningCommands.remove(id);
+		}
+		if (session == null) return false;
+		LOG.d("cancel: terminating command {}", id);
+		session.cancel();
+		return true;
+	}
+
+	public ScheduledExecutorService getScheduler() {
+		return mScheduler;
+	}
+
+	private Deque<Session> idleSessions(boolean root) {
+		return root ? mIdleRootSessions : mIdleSessions;
+	}
+
+	private void scheduleSweep() {
+		if (mSweepScheduled) return;
+		mSweepScheduled = true;
+		mScheduler.schedule(mSweep, IDLE_TIMEOUT, TimeUnit.MILLISECONDS);
+	}
+
+	private final Runnable mSweep = new Runnable() {
+		@Override
+		public void run() {
+			final long oldestLastUsed = System.currentTimeMillis() - IDLE_TIMEOUT;
+			Deque<Session> toClose = new ArrayDeque<Session>();
+			synchronized (ShellSessionPool.this) {
+				mSweepScheduled = false;
+				removeIdle(mIdleSessions, oldestLastUsed, toClose);
+				removeIdle(mIdleRootSessions, oldestLastUsed, toClose);
+				if (!mIdleSessions.isEmpty() || !mIdleRootSessions.isEmpty()) scheduleSweep();
+			}
+			for (Session session : toClose) {
+				LOG.d("sweep: closing idle {} session", session);
+				session.close();
+			}
+		}
+	};
+
+	private static void removeIdle(Deque<Session> sessions, long oldestLastUsed,
+			Deque<Session> removed) {
+		for (Iterator<Session> it = sessions.iterator(); it.hasNext();) {
+			Session session = it.next();
+			if (session.mLastUsed <= oldestLastUsed) {
+				it.remove();
+				removed.add(session);
+			}
+		}
+	}
+
+	public static class Session {
+
+		private static final SecureRandom RANDOM = new SecureRandom();
+
+		private final String[] mShellCommand;
+		private final boolean mRoot;
+		private final Process mProcess;
+		private final Writer mInput;
+		private final BufferedReader mOutput;
+
+		/**
+		 * Prefixes the lines written by the session itself, i.e. not by the command. Random, so
+		 * that the output of a command can not be mistaken for them.
+		 */
+		private final String mMarker;
+
+		private long mLastUsed;
+
+		// Guarded by this
+		private boolean mAlive = true;
+		private boolean mCancelled;
+		private int mCommandPid;
+
+		private Session(String[] shellCommand, boolean root) throws IOException {
+			mShellCommand = shellCommand;
+			mRoot = root;
+			mProcess = new ProcessBuilder(shellCommand).redirectErrorStream(true).start();
+			mInput = new OutputStreamWriter(mProcess.getOutputStream(), "UTF-8");
+			mOutput = new BufferedReader(new InputStreamReader(mProcess.getInputStream(),
+					"UTF-8"));
+			mMarker = "--MAXS-" + Long.toHexString(RANDOM.nextLong()) + "-- ";
+			// Shells without job control when there is no terminal complain on stderr, which is
+			// part of the output
+			mInput.write("set -m 2>/dev/null\n");
+			mInput.flush();
+		}
+
+		/**
+		 * Execute the command in a subshell and wait for it to finish.
+		 * 
+		 * @param command
+		 * @param listener
+		 *            receives the output of the command, stdout and stderr are merged
+		 * @return the exit code of the command
+		 * @throws IOException
+		 *             if the shell terminated, the session can not be used anymore
+		 */
+		public int execute(String command, LineListener listener) throws IOException {
+			try {
+				// The newline before the closing parenthesis terminates a trailing comment
+				mInput.write("(" + command + "\n) </dev/null 2>&1 &\n" + "echo \"" + mMarker
+						+ "pid $!\"\n" + "wait $!\n" + "echo \"" + mMarker + "exit $?\"\n");
+				mInput.flush();
+
+				String line;
+				while ((line = mOutput.readLine()) != null) {
+					final int markerIndex = line.indexOf(mMarker);
+					if (markerIndex == -1) {
+						listener.onLine(line);
+						continue;
+					}
+					// Output without a trailing newline precedes the marker
+					if (markerIndex > 0) listener.onLine(line.substring(0, markerIndex));
+					final String[] status = line.substring(markerIndex + mMarker.length()).split(
+							" ");
+					final int value = Integer.parseInt(status[1]);
+					if ("exit".equals(status[0])) {
+						synchronized (this) {
+							mCommandPid = 0;
+						}
+						return value;
+					}
+					synchronized (this) {
+						mCommandPid = value;
+					}
+				}
+				throw new IOException("Shell terminated");
+			} catch (IOException | RuntimeException e) {
+				destroy();
+				throw e;
+			}
+		}
+
+		/**
+		 * Cancel the running command by sending SIGTERM to the process group of its subshell,
+		 * which includes the processes of pipelines and of commands started in the background.
+		 * If the shell has no job control, only the subshell is signalled. The signal is send by
+		 * a new shell of the same kind, since the command may run as root. If the subshell's pid
+		 * is not known yet, e.g. because the shell still waits for the rest of an incomplete
+		 * command, or if sending the signal fails, the session's shell is destroyed instead.
+		 * <p>
+		 * A cancelled session is not returned to the pool, as processes which ignore the signal,
+		 * or output still buffered by the shell, would leak into the next command.
+		 * </p>
+		 */
+		public void cancel() {
+			final int pid;
+			synchronized (this) {
+				if (!mAlive) return;
+				mCancelled = true;
+				pid = mCommandPid;
+			}
+			if (pid == 0) {
+				destroy();
+			} else {
+				kill(pid);
+			}
+		}
+
+		private void kill(int pid) {
+			try {
+				Process process = new ProcessBuilder(mShellCommand).redirectErrorStream(true)
+						.start();
+				Writer input = new OutputStreamWriter(process.getOutputStream(), "UTF-8");
+				// The process group only exists if the subshell was started with job control
+				input.write("kill -TERM -" + pid + " 2>/dev/null || kill -TERM " + pid
+						+ "\nexit $?\n");
+				input.close();
+				// Discard the output, there should be none
+				while (process.getInputStream().read() != -1)
+					;
+				if (process.waitFor() == 0) return;
+				LOG.w("kill: could not terminate command, exit code {}", process.exitValue());
+			} catch (IOException e) {
+				LOG.w("kill: could not start shell", e);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			synchronized (this) {
+				// The command finished in the meantime
+				if (mCommandPid != pid) return;
+			}
+			destroy();
+		}
+
+		synchronized boolean isAlive() {
+			return mAlive;
+		}
+
+		synchronized boolean isReusable() {
+			return mAlive && !mCancelled;
+		}
+
+		void close() {
+			synchronized (this) {
+				if (!mAlive) return;
+			}
+			try {
+				mInput.write("exit\n");
+				mInput.flush();
+			} catch (IOException e) {
+				LOG.w("close: could not exit shell", e);
+			}
+			destroy();
+		}
+
+		private void destroy() {
+			synchronized (this) {
+				mAlive = false;
+			}
+			// Also closes the streams of the process, which unblocks a pending read
+			mProcess.destroy();
+		}
+
+		@Override
+		public String toString() {
+			return mRoot ? "root" : "non-root";
+		}
+	}
+}
@@ -18,30 +18,109 @@
 package org.projectmaxs.module.shell.commands;
 
 import java.io.IOException;
-import java.util.concurrent.TimeoutException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import org.projectmaxs.module.shell.ShellOutput;
+import org.projectmaxs.module.shell.ShellSessionPool;
+import org.projectmaxs.module.shell.ShellSessionPool.Session;
 import org.projectmaxs.shared.global.Message;
+import org.projectmaxs.shared.mainmodule.Command;
+import org.projectmaxs.shared.module.MAXSModuleIntentService;
 import org.projectmaxs.shared.module.SubCommand;
 import org.projectmaxs.shared.module.SupraCommand;
-import org.sufficientlysecure.rootcommands.Shell;
-import org.sufficientlysecure.rootcommands.command.SimpleCommand;
 
 public abstract class AbstractShell extends SubCommand {
 
+	/**
+	 * The number of output lines after which the output is send as message.
+	 */
+	private static final int LINE_BATCH_SIZE = 50;
+
+	/**
+	 * The interval in which the pending output of a running command is send.
+	 */
+	private static final long FLUSH_INTERVAL = 2000;
+
+	/**
+	 * The time after which a command gets terminated. Use the cancel command to terminate it
+	 * earlier.
+	 */
+	public static final int COMMAND_TIMEOUT = 30 * 60 * 1000;
+
 	public AbstractShell(SupraCommand supraCommand, String name, boolean isDefaultWithoutArguments,
 			boolean isDefaultWithArguments) {
 		super(supraCommand, name, isDefaultWithoutArguments, isDefaultWithArguments);
 	}
 
-	static final Message execute(Shell shell, String command) throws IOException, TimeoutException {
-		SimpleCommand simpleCommand = new SimpleCommand(command);
-		shell.add(simpleCommand).waitForFinish();
-
-		String output = simpleCommand.getOutput();
-		Message message = new Message(output);
+	/**
+	 * Execute the command in a pooled shell session. The output is send in batches of lines while
+	 * the command is running, the returned message contains the remaining output.
+	 * 
+	 * @param root
+	 * @param shellCommand
+	 * @param command
+	 * @param service
+	 * @return the message with the remaining output
+	 * @throws IOException
+	 *             if the shell could not be started
+	 */
+	static final Message execute(boolean root, String shellCommand, Command command,
+			final MAXSModuleIntentService service) throws IOException {
+		final ShellSessionPool pool = ShellSessionPool.getInstance();
+		final int id = command.getId();
+		final ShellOutput output = new ShellOutput(LINE_BATCH_SIZE) {
+			@Override
+			protected void send(String lines) {
+				service.send(new Message(lines), id);
+			}
+		};
+		final AtomicBoolean timedOut = new AtomicBoolean();
 
-		shell.close();
+		Session session = pool.acquire(root);
+		pool.addRunningCommand(id, session);
+		ScheduledFuture<?> flusher = pool.getScheduler().scheduleWithFixedDelay(
+				new Runnable() {
+					@Override
+					public void run() {
+						output.flush();
+					}
+				}, FLUSH_INTERVAL, FLUSH_INTERVAL, TimeUnit.MILLISECONDS);
+		ScheduledFuture<?> timeout = pool.getScheduler().schedule(new Runnable() {
+			@Override
+			public void run() {
+				timedOut.set(true);
+				pool.cancel(id);
+			}
+		}, COMMAND_TIMEOUT, TimeUnit.MILLISECONDS);
+		int exitCode = -1;
+		boolean terminated = false;
+		boolean cancelled;
+		try {
+			exitCode = session.execute(shellCommand, output);
+		} catch (IOException e) {
+			terminated = true;
+		} finally {
+			timeout.cancel(false);
+			flusher.cancel(false);
+			// A cancelled command has already been removed from the running commands
+			cancelled = !pool.removeRunningCommand(id);
+			pool.release(session);
+		}
 
-		return message;
+		if (timedOut.get()) {
+			output.append("[Command timed out]");
+		} else if (cancelled) {
+			output.append("[Command cancelled]");
+		} else if (terminated) {
+			output.append("[Shell terminated]");
+		}
+		// finish() waits for a flush that is still running, so no line is send twice
+		final String remaining = output.finish();
+		if (remaining == null) {
+			return new Message("[Command finished with exit code " + exitCode + "]");
+		}
+		return new Message(remaining);
 	}
 }
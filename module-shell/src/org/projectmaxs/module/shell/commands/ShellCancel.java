@@ -0,0 +1,59 @@
+/*
+    This file is part of Project MAXS.
+
+    MAXS and its modules is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    MAXS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with MAXS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.projectmaxs.module.shell.commands;
+
+import java.util.Set;
+
+import org.projectmaxs.module.shell.ModuleService;
+import org.projectmaxs.module.shell.ShellSessionPool;
+import org.projectmaxs.shared.global.Message;
+import org.projectmaxs.shared.mainmodule.Command;
+import org.projectmaxs.shared.module.MAXSModuleIntentService;
+import org.projectmaxs.shared.module.SubCommand;
+
+public class ShellCancel extends SubCommand {
+
+	public ShellCancel() {
+		super(ModuleService.SHELL, "cancel", false, false);
+		setHelp("[id]", "Cancel the running shell command with the given id, "
+				+ "or list the ids of the running commands");
+	}
+
+	@Override
+	public Message execute(String arguments, Command command, MAXSModuleIntentService service)
+			throws Throwable {
+		ShellSessionPool pool = ShellSessionPool.getInstance();
+		if (arguments == null || arguments.trim().isEmpty()) {
+			Set<Integer> ids = pool.getRunningCommandIds();
+			if (ids.isEmpty()) return new Message("No running shell commands");
+			return new Message("Running shell commands: " + ids);
+		}
+
+		final int id;
+		try {
+			id = Integer.parseInt(arguments.trim());
+		} catch (NumberFormatException e) {
+			return new Message("Not a command id: " + arguments);
+		}
+		if (pool.cancel(id)) {
+			return new Message("Cancelled shell command " + id);
+		}
+		return new Message("No running shell command with id " + id);
+	}
+
+}
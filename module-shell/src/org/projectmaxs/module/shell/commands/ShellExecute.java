@@ -21,7 +21,6 @@ import org.projectmaxs.module.shell.ModuleService;
 import org.projectmaxs.shared.global.Message;
 import org.projectmaxs.shared.mainmodule.Command;
 import org.projectmaxs.shared.module.MAXSModuleIntentService;
-import org.sufficientlysecure.rootcommands.Shell;
 
 public class ShellExecute extends AbstractShell {
 
@@ -33,10 +32,7 @@ public class ShellExecute extends AbstractShell {
 	@Override
 	public Message execute(String arguments, Command command, MAXSModuleIntentService service)
 			throws Throwable {
-		Shell shell = Shell.startShell();
-		Message message = execute(shell, arguments);
-
-		return message;
+		return execute(false, arguments, command, service);
 	}
 
 }
@@ -49,11 +49,13 @@ public class SMSReceiver extends MAXSBroadcastReceiver {
 		String lastSender = null;
 		Contact contact = null;
 		Message message = new Message("New SMS Received");
+		Map<String, Contact> contacts = ContactUtil.getInstance(context).contactsByNumbers(
+				msg.keySet());
 		for (String sender : msg.keySet()) {
 			StringBuilder smsBody = msg.get(sender);
 			LOG.d("Received sms from " + sender + ": " + smsBody);
 
-			contact = ContactUtil.getInstance(context).contactByNumber(sender);
+			contact = contacts != null ? contacts.get(sender) : null;
 			lastSender = sender;
 
 			String contactString = ContactUtil.prettyPrint(sender, contact);
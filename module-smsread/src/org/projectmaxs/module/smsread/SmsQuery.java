@@ -0,0 +1,224 @@
+/*
+    This file is part of Project MAXS.
+
+    MAXS and its modules is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    MAXS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with MAXS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.projectmaxs.module.smsread;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+import org.projectmaxs.shared.global.messagecontent.ContactNumber;
+import org.projectmaxs.shared.global.util.SharedStringUtil;
+
+/**
+ * A query for SMS messages. All filters are translated into a selection of the SMS content
+ * provider, so that only matching rows are read. The arguments are parsed as follows, a leading
+ * integer is the count, options precede the optional contact or number:
+ * <ul>
+ * <li>-n count: the maximum number of messages</li>
+ * <li>-f folder: inbox, sent, draft, outbox, failed or queued</li>
+ * <li>-s date: only messages received at or after date (yyyy-MM-dd)</li>
+ * <li>-e date: only messages received before date (yyyy-MM-dd)</li>
+ * <li>-u: only unread messages</li>
+ * <li>-r: only read messages</li>
+ * </ul>
+ */
+public class SmsQuery {
+
+	public static final int DEFAULT_COUNT = 5;
+
+	/**
+	 * The maximum number of addresses in one selection, well below SQLite's limit of 999 host
+	 * parameters.
+	 */
+	public static final int MAX_ADDRESSES = 100;
+
+	private static final String[] FOLDERS = { "all", "inbox", "sent", "draft", "outbox", "failed",
+			"queued" };
+
+	int mCount = DEFAULT_COUNT;
+	int mFolder = -1;
+	long mSince = -1;
+	long mUntil = -1;
+	Boolean mRead;
+	String mContactInfo;
+
+	private final Set<String> mAddresses = new LinkedHashSet<String>();
+
+	private SmsQuery() {}
+
+	public static SmsQuery parse(String arguments) {
+		SmsQuery query = new SmsQuery();
+		String rest = arguments == null ? "" : arguments.trim();
+		while (rest.startsWith("-")) {
+			final String[] split = rest.split("\\s+", 3);
+			final String option = split[0];
+			if ("-u".equals(option) || "-r".equals(option)) {
+				query.mRead = "-r".equals(option);
+				rest = rest.substring(option.length()).trim();
+				continue;
+			}
+			if (split.length < 2) {
+				throw new IllegalArgumentException("Option " + option + " requires a value");
+			}
+			final String value = split[1];
+			if ("-n".equals(option)) {
+				query.mCount = parseCount(value);
+			} else if ("-f".equals(option)) {
+				query.mFolder = parseFolder(value);
+			} else if ("-s".equals(option)) {
+				query.mSince = parseDate(value);
+			} else if ("-e".equals(option)) {
+				query.mUntil = parseDate(value);
+			} else {
+				throw new IllegalArgumentException("Unknown option: " + option);
+			}
+			rest = split.length > 2 ? split[2] : "";
+		}
+
+		// Backwards compatibility with 'sms show <count>'
+		if (SharedStringUtil.isInteger(rest)) {
+			query.mCount = parseCount(rest);
+			rest = "";
+		}
+		if (!rest.isEmpty()) query.mContactInfo = rest;
+		return query;
+	}
+
+	/**
+	 * Check if the query has a contact or number that needs to be resolved to the addresses with
+	 * {@link #addAddresses(Collection)} before the selection can be build.
+	 * 
+	 * @return true if the contact info needs to be resolved
+	 */
+	public boolean hasContactInfo() {
+		return mContactInfo != null;
+	}
+
+	public String getContactInfo() {
+		return mContactInfo;
+	}
+
+	public int getCount() {
+		return mCount;
+	}
+
+	/**
+	 * Restrict the query to the given addresses. Numbers are cleaned, duplicates are ignored.
+	 * 
+	 * @param numbers
+	 */
+	public void addAddresses(Collection<String> numbers) {
+		for (String number : numbers) {
+			if (mAddresses.size() >= MAX_ADDRESSES) break;
+			mAddresses.add(ContactNumber.cleanNumber(number));
+		}
+	}
+
+	public boolean hasAddresses() {
+		return !mAddresses.isEmpty();
+	}
+
+	/**
+	 * Build the selection of the query. The arguments of the selection are added to the given
+	 * list.
+	 * 
+	 * @param selectionArgs
+	 * @return the selection, or null if the query matches all messages
+	 */
+	public String toSelection(List<String> selectionArgs) {
+		List<String> clauses = new ArrayList<String>(5);
+		if (!mAddresses.isEmpty()) {
+			StringBuilder sb = new StringBuilder("(");
+			boolean first = true;
+			for (String address : mAddresses) {
+				if (!first) sb.append(" OR ");
+				// Matches the address regardless of the formatting and the country prefix
+				sb.append("PHONE_NUMBERS_EQUAL(address, ?)");
+				selectionArgs.add(address);
+				first = false;
+			}
+			clauses.add(sb.append(')').toString());
+		}
+		if (mFolder > 0) {
+			clauses.add("type = ?");
+			selectionArgs.add(Integer.toString(mFolder));
+		}
+		if (mSince >= 0) {
+			clauses.add("date >= ?");
+			selectionArgs.add(Long.toString(mSince));
+		}
+		if (mUntil >= 0) {
+			clauses.add("date < ?");
+			selectionArgs.add(Long.toString(mUntil));
+		}
+		if (mRead != null) {
+			clauses.add("read = ?");
+			selectionArgs.add(mRead ? "1" : "0");
+		}
+		if (clauses.isEmpty()) return null;
+
+		StringBuilder sb = new StringBuilder();
+		for (String clause : clauses) {
+			if (sb.length() > 0) sb.append(" AND ");
+			sb.append(clause);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * A short description of the query, used as the headline of the result.
+	 * 
+	 * @return the description
+	 */
+	public String describe() {
+		StringBuilder sb = new StringBuilder("Last ").append(mCount);
+		if (mRead != null) sb.append(mRead ? " read" : " unread");
+		sb.append(" SMS messages");
+		if (mFolder > 0) sb.append(" in ").append(FOLDERS[mFolder]);
+		if (mContactInfo != null) sb.append(" with ").append(mContactInfo);
+		return sb.toString();
+	}
+
+	private static int parseCount(String value) {
+		int count = Integer.parseInt(value);
+		if (count < 1) throw new IllegalArgumentException("Invalid count: " + value);
+		return count;
+	}
+
+	private static int parseFolder(String value) {
+		for (int i = 1; i < FOLDERS.length; i++) {
+			if (FOLDERS[i].equalsIgnoreCase(value)) return i;
+		}
+		throw new IllegalArgumentException("Unknown folder: " + value);
+	}
+
+	private static long parseDate(String value) {
+		SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd", Locale.US);
+		format.setLenient(false);
+		try {
+			return format.parse(value).getTime();
+		} catch (ParseException e) {
+			throw new IllegalArgumentException("Invalid date, use yyyy-MM-dd: " + value);
+		}
+	}
+}
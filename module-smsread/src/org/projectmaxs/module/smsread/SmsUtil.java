@@ -17,8 +17,12 @@
 
 package org.projectmaxs.module.smsread;
 
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.projectmaxs.shared.global.messagecontent.Contact;
 import org.projectmaxs.shared.global.messagecontent.Sms;
@@ -39,35 +43,126 @@ public class SmsUtil {
 	private static final Uri SMS_SENTBOX_CONTENT_URI = Uri
 			.withAppendedPath(SMS_CONTENT_URI, "sent");
 
+	/**
+	 * Receives the results of {@link SmsUtil#query(SmsQuery, int, Context, SmsConsumer)} in
+	 * chunks.
+	 */
+	public interface SmsConsumer {
+		void consume(List<Sms> sms);
+	}
+
 	public static final List<Sms> getOrderedSMS(String selection, String[] selectionArgs,
 			int maxResults, Context context) {
-		List<Sms> res = new LinkedList<Sms>();
+		final List<Sms> res = new LinkedList<Sms>();
+		query(selection, selectionArgs, maxResults, Integer.MAX_VALUE, context, new SmsConsumer() {
+			@Override
+			public void consume(List<Sms> sms) {
+				res.addAll(sms);
+			}
+		});
+		return res;
+	}
+
+	/**
+	 * Query the SMS messages matching the given query, newest first.
+	 * 
+	 * @param query
+	 * @param chunkSize
+	 *            the maximum number of messages passed to the consumer at once
+	 * @param context
+	 * @param consumer
+	 * @return the number of messages passed to the consumer
+	 */
+	public static final int query(SmsQuery query, int chunkSize, Context context,
+			SmsConsumer consumer) {
+		List<String> selectionArgs = new ArrayList<String>();
+		String selection = query.toSelection(selectionArgs);
+		return query(selection, selectionArgs.toArray(new String[selectionArgs.size()]),
+				query.getCount(), chunkSize, context, consumer);
+	}
+
+	private static final int query(String selection, String[] selectionArgs, int maxResults,
+			int chunkSize, Context context, SmsConsumer consumer) {
 		final String[] projection = new String[] { "address", "body", "date", "type" };
 		String sortOrder = "date DESC";
+		// The SMS provider does not support a limit query parameter, appending it to the sort
+		// order is the only way to prevent it from reading all matching rows
 		if (maxResults > 0) sortOrder += " limit " + maxResults;
 		Cursor c = context.getContentResolver().query(SMS_CONTENT_URI, projection, selection,
 				selectionArgs, sortOrder);
 		if (c == null) {
-			LOG.w("getOrderedSMS: cursor was null");
-			return res;
+			LOG.w("query: cursor was null");
+			return 0;
 		}
 
-		if (!c.moveToFirst()) return res;
-		ContactUtil contactUtil = ContactUtil.getInstance(context);
-		do {
-			String address = c.getString(c.getColumnIndexOrThrow("address"));
-			int type = c.getInt(c.getColumnIndexOrThrow("type"));
-			String body = c.getString(c.getColumnIndexOrThrow("body"));
-			long date = c.getLong(c.getColumnIndexOrThrow("date"));
+		int count = 0;
+		try {
+			final int addressColumn = c.getColumnIndexOrThrow("address");
+			final int bodyColumn = c.getColumnIndexOrThrow("body");
+			final int dateColumn = c.getColumnIndexOrThrow("date");
+			final int typeColumn = c.getColumnIndexOrThrow("type");
+
+			// Emit the messages while iterating over the cursor, the contacts are resolved per
+			// chunk, so that the first chunk does not wait for all rows and their contacts
+			List<SmsRow> rows = new ArrayList<SmsRow>();
+			while (c.moveToNext()) {
+				rows.add(new SmsRow(c.getString(addressColumn), c.getString(bodyColumn),
+						c.getInt(typeColumn), c.getLong(dateColumn)));
+				if (rows.size() >= chunkSize) {
+					consumer.consume(toSms(rows, context));
+					count += rows.size();
+					rows = new ArrayList<SmsRow>();
+				}
+			}
+			if (!rows.isEmpty()) {
+				consumer.consume(toSms(rows, context));
+				count += rows.size();
+			}
+		} finally {
+			c.close();
+		}
+		return count;
+	}
 
-			Contact contact = contactUtil.contactByNumber(address);
-			String contactInfo = ContactUtil.prettyPrint(address, contact);
-			res.add(new Sms(contactInfo, body, getType(type), date));
-		} while (c.moveToNext());
+	/**
+	 * Convert the rows of one chunk to Sms instances, resolving the contacts of their distinct
+	 * addresses at once.
+	 * 
+	 * @param rows
+	 * @param context
+	 * @return the messages
+	 */
+	private static List<Sms> toSms(List<SmsRow> rows, Context context) {
+		Set<String> addresses = new HashSet<String>();
+		for (SmsRow row : rows) {
+			if (row.mAddress != null) addresses.add(row.mAddress);
+		}
+		Map<String, Contact> contacts = ContactUtil.getInstance(context).contactsByNumbers(
+				addresses);
 
+		List<Sms> res = new ArrayList<Sms>(rows.size());
+		for (SmsRow row : rows) {
+			Contact contact = contacts != null ? contacts.get(row.mAddress) : null;
+			String contactInfo = ContactUtil.prettyPrint(row.mAddress, contact);
+			res.add(new Sms(contactInfo, row.mBody, getType(row.mType), row.mDate));
+		}
 		return res;
 	}
 
+	private static final class SmsRow {
+		final String mAddress;
+		final String mBody;
+		final int mType;
+		final long mDate;
+
+		SmsRow(String address, String body, int type, long date) {
+			mAddress = address;
+			mBody = body;
+			mType = type;
+			mDate = date;
+		}
+	}
+
 	public static final Sms.Type getType(int type) {
 		// from android.provider.Telephony.TextBasedSmsColumns
 		switch (type) {
@@ -14,48 +14,97 @@
     You should have received a copy of the GNU General Public License
     along with MAXS.  If not, see <http://www.gnu.org/licenses/>.
  */
-
 package org.projectmaxs.module.smsread.commands;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 
+import org.projectmaxs.module.smsread.SmsQuery;
 import org.projectmaxs.module.smsread.SmsUtil;
 import org.projectmaxs.shared.global.Message;
+import org.projectmaxs.shared.global.messagecontent.Contact;
+import org.projectmaxs.shared.global.messagecontent.ContactNumber;
 import org.projectmaxs.shared.global.messagecontent.Sms;
 import org.projectmaxs.shared.global.messagecontent.Text;
-import org.projectmaxs.shared.global.util.SharedStringUtil;
 import org.projectmaxs.shared.mainmodule.Command;
+import org.projectmaxs.shared.module.ContactUtil;
 import org.projectmaxs.shared.module.MAXSModuleIntentService;
 import org.projectmaxs.shared.module.ModuleConstants;
 import org.projectmaxs.shared.module.SubCommand;
 
 public class SmsShow extends SubCommand {
 
+	/**
+	 * The number of SMS messages after which the messages are send, so that the first messages
+	 * arrive before all messages have been read.
+	 */
+	private static final int CHUNK_SIZE = 25;
+
 	public SmsShow() {
 		super(ModuleConstants.SMS, "show", true);
-		setHelp("<count>", "Show the last 5 or $count SMS messages");
+		setHelp("[<count>] [-n <count>] [-f <folder>] [-s <yyyy-MM-dd>] [-e <yyyy-MM-dd>] [-u|-r]"
+				+ " [<contact|number>]",
+				"Show the last 5 or $count SMS messages, optionally only the ones in folder "
+						+ "(inbox, sent, draft, outbox, failed, queued), since or until a date, "
+						+ "unread or read, or with a contact or number");
 	}
 
 	@Override
-	public Message execute(String arguments, Command command, MAXSModuleIntentService service)
-			throws Throwable {
-		if (arguments != null && !SharedStringUtil.isInteger(arguments)) {
-			// TODO show last messages by string (e.g. contact name or number)
-			return new Message("not implemented yet");
+	public Message execute(String arguments, Command command,
+			final MAXSModuleIntentService service) throws Throwable {
+		final SmsQuery query;
+		try {
+			query = SmsQuery.parse(arguments);
+		} catch (IllegalArgumentException e) {
+			return new Message(e.getMessage());
 		}
 
-		int count;
-		if (arguments == null) {
-			count = 5;
-		} else {
-			count = Integer.parseInt(arguments);
+		if (query.hasContactInfo()) {
+			final String contactInfo = query.getContactInfo();
+			final String cleanNumber = ContactNumber.cleanNumber(contactInfo);
+			if (ContactNumber.isNumber(cleanNumber)) {
+				query.addAddresses(Collections.singleton(cleanNumber));
+			} else {
+				Collection<Contact> contacts = ContactUtil.getInstance(service).lookupContacts(
+						contactInfo);
+				if (contacts == null) {
+					return new Message("Contacts module not installed, can only search by number");
+				}
+				List<String> numbers = new ArrayList<String>();
+				for (Contact contact : contacts) {
+					for (ContactNumber number : contact.getNumbers()) {
+						numbers.add(number.getNumber());
+					}
+				}
+				query.addAddresses(numbers);
+			}
+			if (!query.hasAddresses()) {
+				return new Message("No contact with a number found for '" + contactInfo + "'");
+			}
 		}
-		Message msg = new Message();
-		msg.add(Text.createBoldNL("Last " + count + " SMS messages"));
-		List<Sms> sms = SmsUtil.getOrderedSMS(null, null, count, service);
-		msg.addAll(sms);
 
-		return msg;
+		final int id = command.getId();
+		final Message[] pending = new Message[] { new Message() };
+		pending[0].add(Text.createBoldNL(query.describe()));
+		int count = SmsUtil.query(query, CHUNK_SIZE, service, new SmsUtil.SmsConsumer() {
+			boolean mFirst = true;
+
+			@Override
+			public void consume(List<Sms> sms) {
+				// Send the previous chunk, the last chunk is returned as result of the command
+				if (!mFirst) {
+					service.send(pending[0], id);
+					pending[0] = new Message();
+				}
+				pending[0].addAll(sms);
+				mFirst = false;
+			}
+		});
+		if (count == 0) return new Message("No matching SMS messages found");
+
+		return pending[0];
 	}
 
 }
@@ -0,0 +1,274 @@
+/*
+    This file is part of Project MAXS.
+
+    MAXS and its modules is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    MAXS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with MAXS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.projectmaxs.module.smssend;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tracks the sent and delivered status of every part of the send SMS messages in memory. Once all
+ * parts of a SMS message are resolved, or the SMS message timed out, a single report with the
+ * aggregated status is created.
+ * <p>
+ * A part is resolved if sending it failed, if it got delivered or, if delivery is not tracked, if
+ * it got sent. The callbacks of the parts may arrive in any order, a delivered part counts as
+ * sent, even if its sent callback did not arrive yet.
+ * </p>
+ * This class has no Android dependencies, persisting the status is up to the caller.
+ */
+public class DeliveryTracker {
+
+	public static final int STATUS_UNTRACKED = -1;
+	public static final int STATUS_PENDING = 0;
+	public static final int STATUS_OK = 1;
+	public static final int STATUS_GENERIC_FAILURE = 2;
+	public static final int STATUS_NO_SERVICE = 3;
+	public static final int STATUS_NULL_PDU = 4;
+	public static final int STATUS_RADIO_OFF = 5;
+	public static final int STATUS_UNKNOWN_FAILURE = 6;
+
+	public static final long DEFAULT_TIMEOUT = 15 * 60 * 1000;
+
+	private final Map<Integer, TrackedSms> mTracked = new HashMap<Integer, TrackedSms>();
+	private final long mTimeout;
+
+	public DeliveryTracker(long timeout) {
+		mTimeout = timeout;
+	}
+
+	public long getTimeout() {
+		return mTimeout;
+	}
+
+	/**
+	 * Start tracking a SMS message.
+	 * 
+	 * @param cmdId
+	 * @param receiverInfo
+	 * @param shortText
+	 * @param partCount
+	 * @param trackSent
+	 * @param trackDelivered
+	 * @param now
+	 * @return the tracked SMS message
+	 */
+	public synchronized TrackedSms track(int cmdId, String receiverInfo, String shortText,
+			int partCount, boolean trackSent, boolean trackDelivered, long now) {
+		TrackedSms sms = new TrackedSms(cmdId, receiverInfo, shortText,
+				initialStatus(partCount, trackSent), initialStatus(partCount, trackDelivered),
+				now + mTimeout);
+		mTracked.put(cmdId, sms);
+		return sms;
+	}
+
+	/**
+	 * Track a SMS message whose status was restored, e.g. from a database after the process got
+	 * restarted.
+	 * 
+	 * @param sms
+	 */
+	public synchronized void restore(TrackedSms sms) {
+		if (mTracked.containsKey(sms.mCmdId)) return;
+		mTracked.put(sms.mCmdId, sms);
+	}
+
+	public synchronized boolean isTracked(int cmdId) {
+		return mTracked.containsKey(cmdId);
+	}
+
+	/**
+	 * Record the status of a part. Recording the same status twice has no effect.
+	 * 
+	 * @param cmdId
+	 * @param part
+	 * @param delivered
+	 *            true if the status is a delivery status, false if it is a sent status
+	 * @param status
+	 * @return the report if this status resolved the SMS message, null otherwise
+	 */
+	public synchronized Report onPartStatus(int cmdId, int part, boolean delivered, int status) {
+		TrackedSms sms = mTracked.get(cmdId);
+		if (sms == null) return null;
+
+		int[] statuses = delivered ? sms.mDelivered : sms.mSent;
+		if (part < 0 || part >= statuses.length) return null;
+		if (statuses[part] == STATUS_UNTRACKED) return null;
+		statuses[part] = status;
+
+		if (!sms.isResolved()) return null;
+		mTracked.remove(cmdId);
+		return sms.createReport(false);
+	}
+
+	/**
+	 * Remove all SMS messages whose deadline has passed.
+	 * 
+	 * @param now
+	 * @return the reports of the timed out SMS messages
+	 */
+	public synchronized List<Report> expire(long now) {
+		List<Report> reports = new ArrayList<Report>();
+		for (Iterator<TrackedSms> it = mTracked.values().iterator(); it.hasNext();) {
+			TrackedSms sms = it.next();
+			if (sms.mDeadline > now) continue;
+			it.remove();
+			reports.add(sms.createReport(true));
+		}
+		return reports;
+	}
+
+	/**
+	 * Get the earliest deadline of the tracked SMS messages.
+	 * 
+	 * @return the earliest deadline or -1 if no SMS message is tracked
+	 */
+	public synchronized long nextDeadline() {
+		long res = -1;
+		for (TrackedSms sms : mTracked.values()) {
+			if (res == -1 || sms.mDeadline < res) res = sms.mDeadline;
+		}
+		return res;
+	}
+
+	private static int[] initialStatus(int partCount, boolean tracked) {
+		int[] res = new int[partCount];
+		Arrays.fill(res, tracked ? STATUS_PENDING : STATUS_UNTRACKED);
+		return res;
+	}
+
+	private static boolean isFailure(int status) {
+		return status >= STATUS_GENERIC_FAILURE;
+	}
+
+	public static String statusToString(int status) {
+		switch (status) {
+		case STATUS_UNTRACKED:
+			return "untracked";
+		case STATUS_PENDING:
+			return "pending";
+		case STATUS_OK:
+			return "ok";
+		case STATUS_GENERIC_FAILURE:
+			return "generic failure";
+		case STATUS_NO_SERVICE:
+			return "no service";
+		case STATUS_NULL_PDU:
+			return "null PDU";
+		case STATUS_RADIO_OFF:
+			return "radio off";
+		default:
+			return "unknown failure";
+		}
+	}
+
+	public static class TrackedSms {
+		public final int mCmdId;
+		public final String mReceiverInfo;
+		public final String mShortText;
+		public final long mDeadline;
+
+		final int[] mSent;
+		final int[] mDelivered;
+
+		/**
+		 * Create a tracked SMS message.
+		 * 
+		 * @param cmdId
+		 * @param receiverInfo
+		 * @param shortText
+		 * @param sent
+		 *            the sent status of every part
+		 * @param delivered
+		 *            the delivery status of every part
+		 * @param deadline
+		 */
+		public TrackedSms(int cmdId, String receiverInfo, String shortText, int[] sent,
+				int[] delivered, long deadline) {
+			if (sent.length != delivered.length) {
+				throw new IllegalArgumentException("Part count mismatch");
+			}
+			mCmdId = cmdId;
+			mReceiverInfo = receiverInfo;
+			mShortText = shortText;
+			mSent = sent;
+			mDelivered = delivered;
+			mDeadline = deadline;
+		}
+
+		public int getPartCount() {
+			return mSent.length;
+		}
+
+		boolean isResolved() {
+			for (int i = 0; i < mSent.length; i++) {
+				if (!isResolved(i)) return false;
+			}
+			return true;
+		}
+
+		private boolean isResolved(int part) {
+			final int sent = mSent[part];
+			final int delivered = mDelivered[part];
+			if (isFailure(sent) || isFailure(delivered)) return true;
+			if (delivered != STATUS_UNTRACKED) return delivered != STATUS_PENDING;
+			return sent != STATUS_PENDING;
+		}
+
+		Report createReport(boolean timedOut) {
+			final int partCount = mSent.length;
+			final boolean deliveryTracked = mDelivered[0] != STATUS_UNTRACKED;
+			int sent = 0, delivered = 0, failed = 0;
+			int failure = STATUS_OK;
+			for (int i = 0; i < partCount; i++) {
+				if (mSent[i] == STATUS_OK || mDelivered[i] == STATUS_OK) sent++;
+				if (mDelivered[i] == STATUS_OK) delivered++;
+				if (isFailure(mSent[i]) || isFailure(mDelivered[i])) {
+					failed++;
+					if (failure == STATUS_OK) failure = Math.max(mSent[i], mDelivered[i]);
+				}
+			}
+
+			StringBuilder sb = new StringBuilder("SMS to ").append(mReceiverInfo);
+			sb.append(": sent ").append(sent).append(" of ").append(partCount);
+			if (deliveryTracked) {
+				sb.append(", delivered ").append(delivered).append(" of ").append(partCount);
+			}
+			if (failed > 0) {
+				sb.append(", failed ").append(failed).append(" of ").append(partCount);
+				sb.append(" (").append(statusToString(failure)).append(')');
+			}
+			if (timedOut) sb.append(", timed out");
+			sb.append(": ").append(mShortText);
+			return new Report(mCmdId, sb.toString());
+		}
+	}
+
+	public static class Report {
+		public final int mCmdId;
+		public final String mText;
+
+		Report(int cmdId, String text) {
+			mCmdId = cmdId;
+			mText = text;
+		}
+	}
+}
@@ -17,6 +17,7 @@
 
 package org.projectmaxs.module.smssend;
 
+import org.projectmaxs.module.smssend.database.SMSPartTable;
 import org.projectmaxs.module.smssend.database.SMSTable;
 import org.projectmaxs.shared.global.util.Log;
 import org.projectmaxs.shared.module.MAXSPurgeOldCommandsReceiver;
@@ -35,9 +36,10 @@ public class PurgeOldCommandsReceiver extends MAXSPurgeOldCommandsReceiver {
 				+ " ID(s) that could get deleted from SMSTable. Current entry count: "
 				+ smsTable.getEntryCount());
 
-		smsTable.purgeEntries(commandIds);
+		int purged = smsTable.purgeEntries(commandIds);
+		SMSPartTable.getInstance(context).purgeEntries(commandIds);
 
-		LOG.d("purgeOldCommands: Purged " + commandIds.length + " entries. Current entry count: "
+		LOG.d("purgeOldCommands: Purged " + purged + " entries. Current entry count: "
 				+ smsTable.getEntryCount());
 	}
 
@@ -14,103 +14,214 @@
     You should have received a copy of the GNU General Public License
     along with MAXS.  If not, see <http://www.gnu.org/licenses/>.
  */
-
 package org.projectmaxs.module.smssend;
 
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.projectmaxs.module.smssend.DeliveryTracker.Report;
+import org.projectmaxs.module.smssend.DeliveryTracker.TrackedSms;
 import org.projectmaxs.module.smssend.commands.AbstractSmsSendCommand;
+import org.projectmaxs.module.smssend.database.SMSPartTable;
 import org.projectmaxs.module.smssend.database.SMSTable;
 import org.projectmaxs.module.smssend.database.SMSTable.SMSInfo;
 import org.projectmaxs.shared.global.Message;
-import org.projectmaxs.shared.global.messagecontent.Contact;
 import org.projectmaxs.shared.global.util.Log;
-import org.projectmaxs.shared.module.ContactUtil;
 import org.projectmaxs.shared.module.MainUtil;
 
 import android.app.Activity;
+import android.app.AlarmManager;
+import android.app.PendingIntent;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.telephony.SmsManager;
 
+/**
+ * Receives the sent and delivered intents of every SMS part. The status of the part is recorded
+ * in the {@link DeliveryTracker} and persisted with a single row update. Once all parts of a SMS
+ * message are resolved, or the SMS message timed out, a single report is send.
+ */
 public class SMSPendingIntentReceiver extends BroadcastReceiver {
 
 	public static final String SMS_SENT_ACTION = ModuleService.PACKAGE + ".SMS_SENT";
 	public static final String SMS_DELIVERED_ACTION = ModuleService.PACKAGE + ".SMS_DELIVERED";
+	private static final String SMS_TIMEOUT_ACTION = ModuleService.PACKAGE + ".SMS_TIMEOUT";
 
 	private static final Log LOG = Log.getLog();
 
+	private static final DeliveryTracker sTracker = new DeliveryTracker(
+			DeliveryTracker.DEFAULT_TIMEOUT);
+
+	/**
+	 * The SMS messages whose report was sent, but not yet handed off.
+	 */
+	private static final Set<Integer> sReporting = Collections
+			.synchronizedSet(new HashSet<Integer>());
+
+	/**
+	 * The deadline the timeout alarm is set for, or -1 if no alarm is set.
+	 */
+	private static long sScheduledDeadline = -1;
+
+	/**
+	 * Start tracking the status of a SMS message. The receiver info is stored, so that the status
+	 * callbacks of the parts do not need to lookup the contact again.
+	 * 
+	 * @param context
+	 * @param cmdId
+	 * @param receiverInfo
+	 * @param shortText
+	 * @param partCount
+	 * @param trackSent
+	 * @param trackDelivered
+	 */
+	public static void track(Context context, int cmdId, String receiverInfo, String shortText,
+			int partCount, boolean trackSent, boolean trackDelivered) {
+		final long now = System.currentTimeMillis();
+		SMSTable.getInstance(context).addSms(cmdId, receiverInfo, shortText, partCount, now);
+		SMSPartTable.getInstance(context).addParts(cmdId, partCount, trackSent, trackDelivered);
+		sTracker.track(cmdId, receiverInfo, shortText, partCount, trackSent, trackDelivered, now);
+		scheduleTimeout(context);
+	}
+
 	@Override
 	public void onReceive(Context context, Intent intent) {
-		Message message = null;
+		handleIntent(context, intent);
+		// Keep the process alive until the reports have been handed off and marked as reported
+		MainUtil.finishWhenDelivered(goAsync(), context);
+	}
+
+	private void handleIntent(Context context, Intent intent) {
 		String action = intent.getAction();
+		if (SMS_TIMEOUT_ACTION.equals(action)) {
+			synchronized (SMSPendingIntentReceiver.class) {
+				sScheduledDeadline = -1;
+			}
+			// The process may have been restarted since the SMS messages where send
+			for (int cmdId : SMSTable.getInstance(context).getUnreportedCmdIds()) {
+				maybeRestore(cmdId, context);
+			}
+			reportExpired(context);
+			return;
+		}
+
 		int partNum = intent.getIntExtra(AbstractSmsSendCommand.PART_NUM_EXTRA, -1);
 		int cmdId = intent.getIntExtra(AbstractSmsSendCommand.CMD_ID_EXTRA, -1);
 		int res = getResultCode();
-		LOG.d("onReceive: action=" + action + " partNum=" + partNum + " cmdId=" + cmdId + " res="
-				+ res);
-		SMSTable smsTable = SMSTable.getInstance(context);
-		SMSInfo smsInfo = smsTable.getSMSInfo(cmdId);
-		Contact contact = ContactUtil.getInstance(context).contactByNumber(smsInfo.mReceiver);
+		LOG.d("onReceive: action={} partNum={} cmdId={} res={}", action, partNum, cmdId, res);
+
+		final boolean delivered;
+		final int status;
 		if (SMS_SENT_ACTION.equals(action)) {
-			String sentIntents = smsTable.getIntents(cmdId, SMSTable.IntentType.SENT);
-			sentIntents = markPart(sentIntents, partNum, smsResultToChar(res));
-			smsTable.updateIntents(cmdId, sentIntents, SMSTable.IntentType.SENT);
-			if (allMarkedNoError(sentIntents)) {
-				message = new Message("SMS sent to "
-						+ ContactUtil.prettyPrint(smsInfo.mReceiver, contact) + ": "
-						+ smsInfo.mShortText);
-			}
-			// TODO Add mechanism to display sent failure reasons
+			delivered = false;
+			status = smsResultToStatus(res);
 		} else if (SMS_DELIVERED_ACTION.equals(action)) {
-			String deliveredIntents = smsTable.getIntents(cmdId, SMSTable.IntentType.DELIVERED);
-			deliveredIntents = markPart(deliveredIntents, partNum, RESULT_NO_ERROR_CHAR);
-			smsTable.updateIntents(cmdId, deliveredIntents, SMSTable.IntentType.DELIVERED);
-			if (allMarkedNoError(deliveredIntents)) {
-				message = new Message("SMS delivered to "
-						+ ContactUtil.prettyPrint(smsInfo.mReceiver, contact) + ": "
-						+ smsInfo.mShortText);
-			}
+			delivered = true;
+			status = DeliveryTracker.STATUS_OK;
 		} else {
 			throw new IllegalStateException("Unknown action=" + action
 					+ " in SMSPendingIntentReceiver");
 		}
-		if (message != null) MainUtil.send(message, context);
-	}
 
-	private static String markPart(String intents, int partNum, char mark) {
-		char[] intentsChars = intents.toCharArray();
-		intentsChars[partNum] = mark;
-		return new String(intentsChars);
+		SMSPartTable.getInstance(context).setStatus(cmdId, partNum, delivered, status);
+		if (maybeRestore(cmdId, context)) {
+			Report report = sTracker.onPartStatus(cmdId, partNum, delivered, status);
+			if (report != null) send(report, context);
+		}
+		reportExpired(context);
 	}
 
-	private static boolean allMarkedNoError(String intents) {
-		char[] intentsChars = intents.toCharArray();
-		for (int i = 0; i < intentsChars.length; i++)
-			if (intentsChars[i] != RESULT_NO_ERROR_CHAR) return false;
+	/**
+	 * Make sure that the SMS message is tracked, restoring its status from the database if the
+	 * process was restarted since it was send.
+	 * 
+	 * @param cmdId
+	 * @param context
+	 * @return true if the SMS message is tracked, false if it is unknown or was already reported
+	 */
+	private static boolean maybeRestore(int cmdId, Context context) {
+		if (sTracker.isTracked(cmdId)) return true;
+		// Resolved, but not yet marked as reported
+		if (sReporting.contains(cmdId)) return false;
 
+		SMSInfo smsInfo = SMSTable.getInstance(context).getUnreportedSMSInfo(cmdId);
+		if (smsInfo == null) return false;
+
+		int[][] status = SMSPartTable.getInstance(context).getStatus(cmdId, smsInfo.mPartCount);
+		sTracker.restore(new TrackedSms(cmdId, smsInfo.mReceiverInfo, smsInfo.mShortText,
+				status[0], status[1], smsInfo.mTimestamp + sTracker.getTimeout()));
 		return true;
 	}
 
-	private static final char RESULT_NO_ERROR_CHAR = 'X';
-	private static final char RESULT_ERROR_GENERIC_FAILURE_CHAR = 'G';
-	private static final char RESULT_ERROR_NO_SERVICE_CHAR = 'S';
-	private static final char RESULT_ERROR_NULL_PDU_CHAR = 'P';
-	private static final char RESULT_ERROR_RADIO_OFF_CHAR = 'R';
+	private static void reportExpired(Context context) {
+		List<Report> reports = sTracker.expire(System.currentTimeMillis());
+		for (Report report : reports) {
+			send(report, context);
+		}
+		scheduleTimeout(context);
+	}
+
+	/**
+	 * Send the report. The SMS message is only marked as reported once the report has been handed
+	 * off, so that it is restored and reported again if the process dies before.
+	 * 
+	 * @param report
+	 * @param context
+	 */
+	private static void send(final Report report, final Context context) {
+		sReporting.add(report.mCmdId);
+		MainUtil.send(new Message(report.mText), context);
+		MainUtil.runWhenDelivered(context, new Runnable() {
+			@Override
+			public void run() {
+				SMSTable.getInstance(context).setReported(report.mCmdId);
+				sReporting.remove(report.mCmdId);
+			}
+		});
+	}
+
+	/**
+	 * Set the timeout alarm to the earliest deadline of the tracked SMS messages. The alarm is only
+	 * changed if the earliest deadline changed, i.e. once per SMS message and not on every part
+	 * callback.
+	 * 
+	 * @param context
+	 */
+	private static synchronized void scheduleTimeout(Context context) {
+		long nextDeadline = sTracker.nextDeadline();
+		if (nextDeadline == sScheduledDeadline) return;
+		sScheduledDeadline = nextDeadline;
+
+		Intent intent = new Intent(context, SMSPendingIntentReceiver.class);
+		intent.setAction(SMS_TIMEOUT_ACTION);
+		PendingIntent operation = PendingIntent.getBroadcast(context, 0, intent,
+				PendingIntent.FLAG_UPDATE_CURRENT);
+		AlarmManager alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+		if (nextDeadline == -1) {
+			alarmManager.cancel(operation);
+		} else {
+			alarmManager.set(AlarmManager.RTC, nextDeadline, operation);
+		}
+	}
 
-	private static char smsResultToChar(int res) {
+	private static int smsResultToStatus(int res) {
 		switch (res) {
 		case Activity.RESULT_OK:
-			return RESULT_NO_ERROR_CHAR;
+			return DeliveryTracker.STATUS_OK;
 		case SmsManager.RESULT_ERROR_GENERIC_FAILURE:
-			return RESULT_ERROR_GENERIC_FAILURE_CHAR;
+			return DeliveryTracker.STATUS_GENERIC_FAILURE;
 		case SmsManager.RESULT_ERROR_NO_SERVICE:
-			return RESULT_ERROR_NO_SERVICE_CHAR;
+			return DeliveryTracker.STATUS_NO_SERVICE;
 		case SmsManager.RESULT_ERROR_NULL_PDU:
-			return RESULT_ERROR_NULL_PDU_CHAR;
+			return DeliveryTracker.STATUS_NULL_PDU;
 		case SmsManager.RESULT_ERROR_RADIO_OFF:
-			return RESULT_ERROR_RADIO_OFF_CHAR;
+			return DeliveryTracker.STATUS_RADIO_OFF;
 		default:
-			throw new IllegalStateException("unknown res=" + res);
+			LOG.w("smsResultToStatus: unknown res={}", res);
+			return DeliveryTracker.STATUS_UNKNOWN_FAILURE;
 		}
 	}
 }
@@ -22,7 +22,6 @@ import java.util.List;
 
 import org.projectmaxs.module.smssend.SMSPendingIntentReceiver;
 import org.projectmaxs.module.smssend.Settings;
-import org.projectmaxs.module.smssend.database.SMSTable;
 import org.projectmaxs.shared.global.Message;
 import org.projectmaxs.shared.global.messagecontent.Contact;
 import org.projectmaxs.shared.global.messagecontent.Element;
@@ -142,13 +141,17 @@ public abstract class AbstractSmsSendCommand extends SubCommand {
 		}
 
 		int partCount = parts.size();
-		SMSTable smsTable = SMSTable.getInstance(mService);
 		boolean notifySentEnabled = mSettings.notifySentEnabled();
 		boolean notifyDeliveredEnabled = mSettings.notifyDeliveredEnabled();
 
 		if (notifySentEnabled || notifyDeliveredEnabled) {
-			smsTable.addSms(cmdId, receiver, SharedStringUtil.shorten(text, 20), partCount,
-					notifySentEnabled, notifyDeliveredEnabled);
+			// Resolve the contact once here, instead of in every sent and delivered callback
+			Contact receiverContact = contact != null ? contact : ContactUtil.getInstance(
+					mService).contactByNumber(receiver);
+			SMSPendingIntentReceiver.track(mService, cmdId,
+					ContactUtil.prettyPrint(receiver, receiverContact),
+					SharedStringUtil.shorten(text, 20), partCount, notifySentEnabled,
+					notifyDeliveredEnabled);
 			if (notifySentEnabled) {
 				sentIntents = createPendingIntents(partCount, cmdId,
 						SMSPendingIntentReceiver.SMS_SENT_ACTION,
@@ -0,0 +1,141 @@
+/*
+    This file is part of Project MAXS.
+
+    MAXS and its modules is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    MAXS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with MAXS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.projectmaxs.module.smssend.database;
+
+import java.util.Arrays;
+
+import org.projectmaxs.module.smssend.DeliveryTracker;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * The sent and delivered status of every part of the SMS messages in {@link SMSTable}, one row
+ * per part. Status updates are a single row update, without reading the previous status first.
+ * The status values are the ones of {@link DeliveryTracker}.
+ */
+public class SMSPartTable {
+	private static final String TABLE_NAME = "sms_part";
+	private static final String COLUMN_NAME_CMD_ID = "cmdID";
+	private static final String COLUMN_NAME_PART = "part";
+	private static final String COLUMN_NAME_SENT = "sent";
+	private static final String COLUMN_NAME_DELIVERED = "delivered";
+
+	// @formatter:off
+	public static final String CREATE_TABLE =
+		"CREATE TABLE " +  TABLE_NAME +
+		" (" +
+		 COLUMN_NAME_CMD_ID + SMSSendDatabase.INTEGER_TYPE + SMSSendDatabase.NOT_NULL + SMSSendDatabase.COMMA_SEP +
+		 COLUMN_NAME_PART + SMSSendDatabase.INTEGER_TYPE + SMSSendDatabase.NOT_NULL + SMSSendDatabase.COMMA_SEP +
+		 COLUMN_NAME_SENT + SMSSendDatabase.INTEGER_TYPE + SMSSendDatabase.NOT_NULL + SMSSendDatabase.COMMA_SEP +
+		 COLUMN_NAME_DELIVERED + SMSSendDatabase.INTEGER_TYPE + SMSSendDatabase.NOT_NULL + SMSSendDatabase.COMMA_SEP +
+		 "PRIMARY KEY (" + COLUMN_NAME_CMD_ID + SMSSendDatabase.COMMA_SEP + COLUMN_NAME_PART + ")" +
+		" )";
+	// @formatter:on
+
+	public static final String DELETE_TABLE = SMSSendDatabase.DROP_TABLE + TABLE_NAME;
+
+	private static final String WHERE_PART = COLUMN_NAME_CMD_ID + "=? AND " + COLUMN_NAME_PART
+			+ "=?";
+
+	private static SMSPartTable sSmsPartTable;
+
+	public static SMSPartTable getInstance(Context context) {
+		if (sSmsPartTable == null) sSmsPartTable = new SMSPartTable(context);
+		return sSmsPartTable;
+	}
+
+	private final SQLiteDatabase mDatabase;
+
+	private SMSPartTable(Context context) {
+		mDatabase = SMSSendDatabase.getInstance(context).getWritableDatabase();
+	}
+
+	public void addParts(int cmdId, int partCount, boolean trackSent, boolean trackDelivered) {
+		ContentValues values = new ContentValues();
+		values.put(COLUMN_NAME_CMD_ID, cmdId);
+		values.put(COLUMN_NAME_SENT, trackSent ? DeliveryTracker.STATUS_PENDING
+				: DeliveryTracker.STATUS_UNTRACKED);
+		values.put(COLUMN_NAME_DELIVERED, trackDelivered ? DeliveryTracker.STATUS_PENDING
+				: DeliveryTracker.STATUS_UNTRACKED);
+
+		mDatabase.beginTransaction();
+		try {
+			for (int i = 0; i < partCount; i++) {
+				values.put(COLUMN_NAME_PART, i);
+				long res = mDatabase.insert(TABLE_NAME, null, values);
+				if (res == -1) {
+					throw new IllegalStateException("Could not insert part status in database");
+				}
+			}
+			mDatabase.setTransactionSuccessful();
+		} finally {
+			mDatabase.endTransaction();
+		}
+	}
+
+	public void setStatus(int cmdId, int part, boolean delivered, int status) {
+		ContentValues values = new ContentValues();
+		values.put(delivered ? COLUMN_NAME_DELIVERED : COLUMN_NAME_SENT, status);
+
+		final String[] whereArgs = new String[] { Integer.toString(cmdId), Integer.toString(part) };
+		mDatabase.update(TABLE_NAME, values, WHERE_PART, whereArgs);
+	}
+
+	/**
+	 * Get the status of all parts of a SMS message.
+	 * 
+	 * @param cmdId
+	 * @param partCount
+	 * @return two arrays, the sent and the delivered status of every part
+	 */
+	public int[][] getStatus(int cmdId, int partCount) {
+		final int[] sent = new int[partCount];
+		final int[] delivered = new int[partCount];
+		// Parts without a row are treated as untracked
+		Arrays.fill(sent, DeliveryTracker.STATUS_UNTRACKED);
+		Arrays.fill(delivered, DeliveryTracker.STATUS_UNTRACKED);
+
+		final String[] columns = new String[] { COLUMN_NAME_PART, COLUMN_NAME_SENT,
+				COLUMN_NAME_DELIVERED };
+		final String[] selectionArgs = new String[] { Integer.toString(cmdId) };
+		Cursor c = mDatabase.query(TABLE_NAME, columns, COLUMN_NAME_CMD_ID + "=?", selectionArgs,
+				null, null, null);
+		try {
+			while (c.moveToNext()) {
+				int part = c.getInt(0);
+				if (part < 0 || part >= partCount) continue;
+				sent[part] = c.getInt(1);
+				delivered[part] = c.getInt(2);
+			}
+		} finally {
+			c.close();
+		}
+		return new int[][] { sent, delivered };
+	}
+
+	public void emptyTable() {
+		mDatabase.delete(TABLE_NAME, null, null);
+	}
+
+	public int purgeEntries(int[] commandIds) {
+		return SMSSendDatabase.deleteIn(mDatabase, TABLE_NAME, COLUMN_NAME_CMD_ID, commandIds);
+	}
+}
@@ -25,7 +25,7 @@ import android.database.sqlite.SQLiteOpenHelper;
 
 public class SMSSendDatabase extends SQLiteOpenHelper {
 
-	private static final int DATABASE_VERSION = 1;
+	private static final int DATABASE_VERSION = 2;
 	private static final String DATABASE_NAME = ModuleService.PACKAGE + ".db";
 
 	public static final String TEXT_TYPE = " TEXT";
@@ -40,10 +40,11 @@ public class SMSSendDatabase extends SQLiteOpenHelper {
 	// @formatter:off
 	private static final String[] SQL_CREATE_ENTRIES = new String[] {
 				SMSTable.CREATE_TABLE,
-
+				SMSPartTable.CREATE_TABLE,
 	};
 	private static final String[] SQL_DELETE_ENTRIES = new String[] {
 		SMSTable.DELETE_TABLE,
+		SMSPartTable.DELETE_TABLE,
 	};
 	// @formatter:on
 
@@ -80,6 +81,44 @@ public class SMSSendDatabase extends SQLiteOpenHelper {
 		}
 	}
 
+	/**
+	 * The maximum number of host parameters used in a single statement, below SQLite's default
+	 * limit of 999.
+	 */
+	private static final int MAX_HOST_PARAMETERS = 500;
+
+	/**
+	 * Delete all rows of the given table where the integer column has one of the given values.
+	 * 
+	 * @param db
+	 * @param table
+	 * @param column
+	 * @param values
+	 * @return the number of deleted rows
+	 */
+	static int deleteIn(SQLiteDatabase db, String table, String column, int[] values) {
+		int deleted = 0;
+		db.beginTransaction();
+		try {
+			for (int start = 0; start < values.length; start += MAX_HOST_PARAMETERS) {
+				final int count = Math.min(MAX_HOST_PARAMETERS, values.length - start);
+				final String[] whereArgs = new String[count];
+				final StringBuilder where = new StringBuilder(column).append(" IN (");
+				for (int i = 0; i < count; i++) {
+					if (i > 0) where.append(',');
+					where.append('?');
+					whereArgs[i] = Integer.toString(values[start + i]);
+				}
+				where.append(')');
+				deleted += db.delete(table, where.toString(), whereArgs);
+			}
+			db.setTransactionSuccessful();
+		} finally {
+			db.endTransaction();
+		}
+		return deleted;
+	}
+
 	private static void deleteTables(SQLiteDatabase db) {
 		for (String s : SQL_DELETE_ENTRIES) {
 			db.execSQL(s + SEMICOLON_SEP);
@@ -14,37 +14,40 @@
     You should have received a copy of the GNU General Public License
     along with MAXS.  If not, see <http://www.gnu.org/licenses/>.
  */
-
 package org.projectmaxs.module.smssend.database;
 
-import org.projectmaxs.shared.global.util.SharedStringUtil;
+import java.util.ArrayList;
+import java.util.List;
 
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
-import android.text.TextUtils;
 
+/**
+ * The SMS messages whose sent or delivered status is tracked. The status of the single parts is
+ * kept in {@link SMSPartTable}.
+ */
 public class SMSTable {
 	private static final String TABLE_NAME = "sms";
 	private static final String COLUMN_NAME_CMD_ID = "cmdID";
-	private static final String COLUMN_NAME_RECEIVER = "receiver";
+	private static final String COLUMN_NAME_RECEIVER_INFO = "receiverInfo";
 	private static final String COLUMN_NAME_SHORT_TEXT = "shortText";
 	private static final String COLUMN_NAME_PART_COUNT = "partCount";
-	private static final String COLUMN_NAME_DELIVERED_INTENTS = "deliveredIntents";
-	private static final String COLUMN_NAME_SENT_INTENTS = "sentIntents";
+	private static final String COLUMN_NAME_TIMESTAMP = "timestamp";
+	private static final String COLUMN_NAME_REPORTED = "reported";
 
 	// @formatter:off
 	public static final String CREATE_TABLE =
 		"CREATE TABLE " +  TABLE_NAME +
 		" (" +
 		 COLUMN_NAME_CMD_ID + SMSSendDatabase.INTEGER_TYPE + " PRIMARY KEY" + SMSSendDatabase.COMMA_SEP +
-		 COLUMN_NAME_RECEIVER + SMSSendDatabase.TEXT_TYPE + SMSSendDatabase.NOT_NULL + SMSSendDatabase.COMMA_SEP +
+		 COLUMN_NAME_RECEIVER_INFO + SMSSendDatabase.TEXT_TYPE + SMSSendDatabase.NOT_NULL + SMSSendDatabase.COMMA_SEP +
 		 COLUMN_NAME_SHORT_TEXT + SMSSendDatabase.TEXT_TYPE + SMSSendDatabase.NOT_NULL + SMSSendDatabase.COMMA_SEP +
  		 COLUMN_NAME_PART_COUNT + SMSSendDatabase.INTEGER_TYPE + SMSSendDatabase.NOT_NULL + SMSSendDatabase.COMMA_SEP +
-		 COLUMN_NAME_DELIVERED_INTENTS + SMSSendDatabase.TEXT_TYPE + SMSSendDatabase.COMMA_SEP +
-		 COLUMN_NAME_SENT_INTENTS + SMSSendDatabase.TEXT_TYPE +
+		 COLUMN_NAME_TIMESTAMP + SMSSendDatabase.INTEGER_TYPE + SMSSendDatabase.NOT_NULL + SMSSendDatabase.COMMA_SEP +
+		 COLUMN_NAME_REPORTED + SMSSendDatabase.INTEGER_TYPE + SMSSendDatabase.NOT_NULL + " DEFAULT 0" +
 		" )";
 	// @formatter:on
 
@@ -63,61 +66,79 @@ public class SMSTable {
 		mDatabase = SMSSendDatabase.getInstance(context).getWritableDatabase();
 	}
 
-	public void addSms(int cmdId, String receiver, String shortText, int partCount,
-			boolean createSentIntents, boolean createDeliveredIntents) {
+	public void addSms(int cmdId, String receiverInfo, String shortText, int partCount,
+			long timestamp) {
 		ContentValues values = new ContentValues();
 		values.put(COLUMN_NAME_CMD_ID, cmdId);
-		values.put(COLUMN_NAME_RECEIVER, receiver);
+		values.put(COLUMN_NAME_RECEIVER_INFO, receiverInfo);
 		values.put(COLUMN_NAME_SHORT_TEXT, shortText);
 		values.put(COLUMN_NAME_PART_COUNT, partCount);
-		if (createSentIntents) values.put(COLUMN_NAME_SENT_INTENTS, createIntentEntry(partCount));
-		if (createDeliveredIntents)
-			values.put(COLUMN_NAME_DELIVERED_INTENTS, createIntentEntry(partCount));
+		values.put(COLUMN_NAME_TIMESTAMP, timestamp);
 
 		long res = mDatabase.insert(TABLE_NAME, null, values);
 		if (res == -1) throw new IllegalStateException("Could not insert status info in database");
 	}
 
-	public enum IntentType {
-		SENT, DELIVERED,
-	}
-
-	public void updateIntents(int cmdId, String intents, IntentType intentType) {
+	/**
+	 * Mark the SMS message as reported, so that late status updates do not cause another report.
+	 * 
+	 * @param cmdId
+	 */
+	public void setReported(int cmdId) {
 		ContentValues values = new ContentValues();
-		values.put(getColumnFor(intentType), intents);
+		values.put(COLUMN_NAME_REPORTED, 1);
 
 		final String[] whereArgs = new String[] { Integer.toString(cmdId) };
 		mDatabase.update(TABLE_NAME, values, COLUMN_NAME_CMD_ID + "=?", whereArgs);
 	}
 
-	public String getIntents(int cmdId, IntentType intentType) {
-		final String intentColumn = getColumnFor(intentType);
-		final String[] columns = new String[] { intentColumn };
+	/**
+	 * Get the info of a not yet reported SMS message.
+	 * 
+	 * @param cmdId
+	 * @return the info or null if there is no such SMS message or if it was already reported
+	 */
+	public SMSInfo getUnreportedSMSInfo(int cmdId) {
+		final String[] columns = new String[] { COLUMN_NAME_RECEIVER_INFO, COLUMN_NAME_SHORT_TEXT,
+				COLUMN_NAME_PART_COUNT, COLUMN_NAME_TIMESTAMP };
 		final String[] selectionArgs = new String[] { Integer.toString(cmdId) };
-		Cursor c = mDatabase.query(TABLE_NAME, columns, COLUMN_NAME_CMD_ID + "=?", selectionArgs,
-				null, null, null);
+		Cursor c = mDatabase.query(TABLE_NAME, columns, COLUMN_NAME_CMD_ID + "=? AND "
+				+ COLUMN_NAME_REPORTED + "=0", selectionArgs, null, null, null);
 
-		String res = null;
-		if (c.moveToFirst()) {
-			res = c.getString(c.getColumnIndexOrThrow(intentColumn));
+		SMSInfo res = null;
+		try {
+			if (c.moveToFirst()) {
+				String receiverInfo = c.getString(c
+						.getColumnIndexOrThrow(COLUMN_NAME_RECEIVER_INFO));
+				String shortText = c.getString(c.getColumnIndexOrThrow(COLUMN_NAME_SHORT_TEXT));
+				int partCount = c.getInt(c.getColumnIndexOrThrow(COLUMN_NAME_PART_COUNT));
+				long timestamp = c.getLong(c.getColumnIndexOrThrow(COLUMN_NAME_TIMESTAMP));
+				res = new SMSInfo(cmdId, receiverInfo, shortText, partCount, timestamp);
+			}
+		} finally {
+			c.close();
 		}
-		c.close();
 		return res;
 	}
 
-	public SMSInfo getSMSInfo(int cmdId) {
-		final String[] columns = new String[] { COLUMN_NAME_RECEIVER, COLUMN_NAME_SHORT_TEXT };
-		final String[] selectionArgs = new String[] { Integer.toString(cmdId) };
-		Cursor c = mDatabase.query(TABLE_NAME, columns, COLUMN_NAME_CMD_ID + "=?", selectionArgs,
-				null, null, null);
-
-		SMSInfo res = null;
-		if (c.moveToFirst()) {
-			String receiver = c.getString(c.getColumnIndexOrThrow(COLUMN_NAME_RECEIVER));
-			String shortText = c.getString(c.getColumnIndexOrThrow(COLUMN_NAME_SHORT_TEXT));
-			res = new SMSInfo(receiver, shortText);
+	/**
+	 * Get the command IDs of all SMS messages that where not reported yet.
+	 * 
+	 * @return the command IDs
+	 */
+	public List<Integer> getUnreportedCmdIds() {
+		final String[] columns = new String[] { COLUMN_NAME_CMD_ID };
+		Cursor c = mDatabase.query(TABLE_NAME, columns, COLUMN_NAME_REPORTED + "=0", null, null,
+				null, null);
+
+		List<Integer> res = new ArrayList<Integer>(c.getCount());
+		try {
+			while (c.moveToNext()) {
+				res.add(c.getInt(0));
+			}
+		} finally {
+			c.close();
 		}
-		c.close();
 		return res;
 	}
 
@@ -125,41 +146,28 @@ public class SMSTable {
 		mDatabase.delete(TABLE_NAME, null, null);
 	}
 
-	public void purgeEntries(int[] commandIds) {
-		String[] commandIdsStrings = SharedStringUtil.toStringArray(commandIds);
-		mDatabase.delete(TABLE_NAME, COLUMN_NAME_CMD_ID + " IN ( ? )",
-				new String[] { TextUtils.join(",", commandIdsStrings) });
+	public int purgeEntries(int[] commandIds) {
+		return SMSSendDatabase.deleteIn(mDatabase, TABLE_NAME, COLUMN_NAME_CMD_ID, commandIds);
 	}
 
 	public long getEntryCount() {
 		return DatabaseUtils.queryNumEntries(mDatabase, TABLE_NAME);
 	}
 
-	private static String createIntentEntry(int intentCount) {
-		char[] charArray = new char[intentCount];
-		for (int i = 0; i < charArray.length; i++)
-			charArray[i] = '_';
-		return new String(charArray);
-	}
-
-	private static String getColumnFor(IntentType intentType) {
-		switch (intentType) {
-		case SENT:
-			return COLUMN_NAME_SENT_INTENTS;
-		case DELIVERED:
-			return COLUMN_NAME_DELIVERED_INTENTS;
-		default:
-			throw new IllegalStateException();
-		}
-	}
-
 	public static class SMSInfo {
-		public final String mReceiver;
+		public final int mCmdId;
+		public final String mReceiverInfo;
 		public final String mShortText;
+		public final int mPartCount;
+		public final long mTimestamp;
 
-		public SMSInfo(String receiver, String shortText) {
-			mReceiver = receiver;
+		public SMSInfo(int cmdId, String receiverInfo, String shortText, int partCount,
+				long timestamp) {
+			mCmdId = cmdId;
+			mReceiverInfo = receiverInfo;
 			mShortText = shortText;
+			mPartCount = partCount;
+			mTimestamp = timestamp;
 		}
 	}
 }
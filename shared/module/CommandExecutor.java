@@ -0,0 +1,322 @@
+/*
+    This file is part of Project MAXS.
+
+    MAXS and its modules is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    MAXS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with MAXS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.projectmaxs.shared.module;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executes the commands of a {@link MAXSModuleIntentService} on a bounded pool of worker threads.
+ * <p>
+ * Commands are started in the order they arrived, as long as there is a free worker and the
+ * concurrency limit of their {@link SupraCommand} is not exceeded. Supra commands are serial unless
+ * marked as concurrent (see {@link SupraCommand#setConcurrent()}). Serial commands run
+ * exclusively: they wait for all previously started commands to finish, and no other command is
+ * started while they run. A slow concurrent command therefore no longer blocks quick concurrent
+ * commands queued behind it.
+ * </p>
+ * <p>
+ * If the supra command has a timeout set, then the worker executing the command gets interrupted
+ * once the timeout is exceeded and {@link Task#onTimeout()} is invoked.
+ * </p>
+ */
+public class CommandExecutor {
+
+	public static final int DEFAULT_WORKER_COUNT = 3;
+
+	private final String mName;
+	private final int mWorkerCount;
+	private final ExecutorService mWorkers;
+	private final ScheduledThreadPoolExecutor mTimeoutScheduler;
+
+	// All fields below are guarded by 'this'
+
+	private final LinkedList<Task> mWaiting = new LinkedList<Task>();
+	private final Map<SupraCommand, Integer> mRunningPerCommand =
+			new HashMap<SupraCommand, Integer>();
+
+	private int mRunning;
+	private boolean mExclusiveRunning;
+	private boolean mShutdown;
+
+	private int mMaxQueueDepth;
+	private long mExecuted;
+	private long mTimedOut;
+
+	public CommandExecutor(String name) {
+		this(name, DEFAULT_WORKER_COUNT);
+	}
+
+	public CommandExecutor(String name, int workerCount) {
+		if (workerCount <= 0) {
+			throw new IllegalArgumentException("workerCount must be greater zero");
+		}
+		mName = name;
+		mWorkerCount = workerCount;
+		// There are never more tasks submitted to the workers as there are worker threads, the
+		// waiting tasks are queued in mWaiting
+		mWorkers = new ThreadPoolExecutor(workerCount, workerCount, 30L, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(),
+				new NamedThreadFactory(name + " Worker", false));
+		((ThreadPoolExecutor) mWorkers).allowCoreThreadTimeOut(true);
+		// The timeout thread must not keep the process alive, and does not need to linger once
+		// there are no more timeouts scheduled
+		mTimeoutScheduler = new ScheduledThreadPoolExecutor(1, new NamedThreadFactory(name
+				+ " Timeout", true));
+		mTimeoutScheduler.setKeepAliveTime(30L, TimeUnit.SECONDS);
+		mTimeoutScheduler.allowCoreThreadTimeOut(true);
+		mTimeoutScheduler.setRemoveOnCancelPolicy(true);
+	}
+
+	/**
+	 * Queue the given task for execution.
+	 * 
+	 * @param task
+	 */
+	public synchronized void execute(Task task) {
+		if (mShutdown) {
+			throw new IllegalStateException("CommandExecutor " + mName + " is shut down");
+		}
+		mWaiting.add(task);
+		mMaxQueueDepth = Math.max(mMaxQueueDepth, mWaiting.size());
+		dispatch();
+	}
+
+	/**
+	 * Check if there are no waiting or running tasks.
+	 * 
+	 * @return true if the executor is idle
+	 */
+	public synchronized boolean isIdle() {
+		return mWaiting.isEmpty() && mRunning == 0;
+	}
+
+	/**
+	 * Get the number of tasks waiting to be executed.
+	 * 
+	 * @return the number of waiting tasks
+	 */
+	public synchronized int getQueueDepth() {
+		return mWaiting.size();
+	}
+
+	public synchronized int getMaxQueueDepth() {
+		return mMaxQueueDepth;
+	}
+
+	public synchronized int getRunningCount() {
+		return mRunning;
+	}
+
+	public synchronized long getExecutedCount() {
+		return mExecuted;
+	}
+
+	public synchronized long getTimedOutCount() {
+		return mTimedOut;
+	}
+
+	/**
+	 * Shut the executor down. Running tasks are finished, waiting tasks and the timeouts of the
+	 * running tasks are discarded.
+	 */
+	public synchronized void shutdown() {
+		mShutdown = true;
+		mWaiting.clear();
+		mWorkers.shutdown();
+		mTimeoutScheduler.shutdownNow();
+	}
+
+	/**
+	 * Wait until the running tasks finished after {@link #shutdown()}.
+	 * 
+	 * @param timeout
+	 * @param unit
+	 * @return true if all worker threads terminated
+	 * @throws InterruptedException
+	 */
+	public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+		return mWorkers.awaitTermination(timeout, unit)
+				&& mTimeoutScheduler.awaitTermination(timeout, unit);
+	}
+
+	private void dispatch() {
+		// Called with 'this' held
+		Iterator<Task> it = mWaiting.iterator();
+		while (it.hasNext()) {
+			if (mShutdown || mExclusiveRunning || mRunning >= mWorkerCount) return;
+
+			final Task task = it.next();
+			final SupraCommand supraCommand = task.mSupraCommand;
+			if (supraCommand.isSerial()) {
+				// Serial commands act as barrier: They wait until all previous commands are
+				// finished and no following command may overtake them
+				if (mRunning > 0) return;
+				mExclusiveRunning = true;
+			} else {
+				final int maxConcurrency = supraCommand.getMaxConcurrency();
+				if (maxConcurrency > 0 && getRunning(supraCommand) >= maxConcurrency) continue;
+			}
+
+			it.remove();
+			mRunning++;
+			mRunningPerCommand.put(supraCommand, getRunning(supraCommand) + 1);
+			mWorkers.execute(new Worker(task));
+		}
+	}
+
+	private synchronized void onFinished(Task task) {
+		final SupraCommand supraCommand = task.mSupraCommand;
+		mRunning--;
+		mExecuted++;
+		if (supraCommand.isSerial()) mExclusiveRunning = false;
+		final int running = getRunning(supraCommand) - 1;
+		if (running > 0) {
+			mRunningPerCommand.put(supraCommand, running);
+		} else {
+			mRunningPerCommand.remove(supraCommand);
+		}
+		dispatch();
+	}
+
+	private synchronized void onTimedOut() {
+		mTimedOut++;
+	}
+
+	private int getRunning(SupraCommand supraCommand) {
+		Integer running = mRunningPerCommand.get(supraCommand);
+		return running == null ? 0 : running;
+	}
+
+	private class Worker implements Runnable {
+		private final Task mTask;
+
+		private Worker(Task task) {
+			mTask = task;
+		}
+
+		@Override
+		public void run() {
+			final Thread thread = Thread.currentThread();
+			final long timeout = mTask.mSupraCommand.getTimeout();
+			ScheduledFuture<?> timeoutFuture = null;
+			if (timeout > 0 && !mTimeoutScheduler.isShutdown()) {
+				timeoutFuture = mTimeoutScheduler.schedule(new Runnable() {
+					@Override
+					public void run() {
+						if (!mTask.timeOut(thread)) return;
+						onTimedOut();
+						mTask.onTimeout();
+					}
+				}, timeout, TimeUnit.MILLISECONDS);
+			}
+			try {
+				mTask.run();
+			} finally {
+				if (timeoutFuture != null) timeoutFuture.cancel(false);
+				mTask.finish();
+				// Don't let a late interrupt of a timed out task leak into the next task
+				Thread.interrupted();
+				onFinished(mTask);
+			}
+		}
+	}
+
+	/**
+	 * A command to execute.
+	 */
+	public static abstract class Task implements Runnable {
+
+		private final SupraCommand mSupraCommand;
+		private final AtomicBoolean mReplied = new AtomicBoolean();
+
+		private boolean mFinished;
+		private boolean mTimedOut;
+
+		public Task(SupraCommand supraCommand) {
+			mSupraCommand = supraCommand;
+		}
+
+		/**
+		 * Check if the task exceeded its timeout. A timed out task should discard its result.
+		 * 
+		 * @return true if the task timed out
+		 */
+		public final synchronized boolean isTimedOut() {
+			return mTimedOut;
+		}
+
+		/**
+		 * Claim the right to send the reply of this task. Exactly one caller, either the task
+		 * sending its result or the timeout handling, gets true.
+		 * 
+		 * @return true if the caller must send the reply, false if it was already claimed
+		 */
+		public final boolean claimReply() {
+			return mReplied.compareAndSet(false, true);
+		}
+
+		/**
+		 * Invoked, from a different thread than the one executing the task, once the task
+		 * exceeded the timeout of its supra command and did not claim its reply yet.
+		 */
+		protected abstract void onTimeout();
+
+		private synchronized boolean timeOut(Thread thread) {
+			if (mFinished) return false;
+			// The task is already sending its result, let it finish
+			if (!claimReply()) return false;
+			mTimedOut = true;
+			thread.interrupt();
+			return true;
+		}
+
+		private synchronized void finish() {
+			mFinished = true;
+		}
+	}
+
+	private static class NamedThreadFactory implements ThreadFactory {
+		private final String mName;
+		private final boolean mDaemon;
+		private final AtomicInteger mThreadNumber = new AtomicInteger();
+
+		private NamedThreadFactory(String name, boolean daemon) {
+			mName = name;
+			mDaemon = daemon;
+		}
+
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, mName + " #" + mThreadNumber.incrementAndGet());
+			thread.setDaemon(mDaemon);
+			return thread;
+		}
+	}
+}
@@ -20,7 +20,12 @@ package org.projectmaxs.shared.module;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.projectmaxs.shared.global.GlobalConstants;
 import org.projectmaxs.shared.global.messagecontent.Contact;
@@ -39,6 +44,7 @@ import android.provider.ContactsContract.CommonDataKinds.Phone;
 import android.provider.ContactsContract.Contacts;
 import android.provider.ContactsContract.Data;
 import android.provider.ContactsContract.PhoneLookup;
+import android.telephony.PhoneNumberUtils;
 
 public class ContactUtil {
 
@@ -77,6 +83,32 @@ public class ContactUtil {
 	private static final String LIMIT = " LIMIT";
 	private static final String LIMIT_1 = LIMIT + " 1";
 
+	/**
+	 * The maximum number of arguments bound to a single query. SQLite's default limit of host
+	 * parameters is 999.
+	 */
+	private static final int MAX_SELECTION_ARGS = 500;
+
+	/**
+	 * The maximum number of phone numbers matched by a single query. Every number adds a
+	 * PHONE_NUMBERS_EQUAL() term to the selection, which is evaluated for every phone number row.
+	 */
+	private static final int MAX_NUMBERS_PER_QUERY = 50;
+
+	/**
+	 * The number of trailing digits used to pre-select the candidates when matching numbers. This
+	 * is the same number of digits Android's loose phone number comparison considers.
+	 */
+	private static final int NUMBER_MATCH_DIGITS = 7;
+
+	private static final int CONTACT_CACHE_SIZE = 128;
+
+	/**
+	 * Contacts may change, so only cache them for a short time. Long enough for a burst of SMS or
+	 * the listing of the last SMS messages.
+	 */
+	private static final long CONTACT_CACHE_MAX_AGE_MILLIS = 60 * 1000;
+
 	public static Uri maxsContactUriFrom(Uri uri) {
 		String pathSegment = uri.getEncodedPath();
 		return Uri.withAppendedPath(CONTACTS_MODULE_AUTHORITY, pathSegment);
@@ -100,6 +132,8 @@ public class ContactUtil {
 
 	private final Context mContext;
 	private final ContentResolver mContentResolver;
+	private final ContactCache mContactCache = new ContactCache(CONTACT_CACHE_SIZE,
+			CONTACT_CACHE_MAX_AGE_MILLIS);
 
 	public boolean contactsReadModuleInstalled() {
 		return PackageManagerUtil.getInstance(mContext).isPackageInstalled(CONTACTS_MODULE_PACKAGE);
@@ -137,6 +171,9 @@ public class ContactUtil {
 		number = ContactNumber.cleanNumber(number);
 		if (!ContactNumber.isNumber(number)) return null;
 
+		CacheEntry cached = mContactCache.get(number);
+		if (cached != null) return cached.getContact();
+
 		Uri uri = Uri.withAppendedPath(MAXS_PHONE_LOOKUP_CONTENT_FILTER_URI, Uri.encode(number));
 		final String[] projection = new String[] { PhoneLookup.LOOKUP_KEY, DISPLAY_NAME };
 		Cursor c = mContentResolver.query(uri, projection, null, null, null);
@@ -150,9 +187,140 @@ public class ContactUtil {
 		}
 		c.close();
 
+		mContactCache.put(number, contact);
 		return contact;
 	}
 
+	/**
+	 * Lookup exactly one contact for each of the given numbers.
+	 * <p>
+	 * Unlike calling {@link #contactByNumber(String)} for every number, this method matches up to
+	 * {@value #MAX_NUMBERS_PER_QUERY} numbers with a single query, and then retrieves the numbers
+	 * of all matched contacts at once. Recently resolved numbers are answered from a cache.
+	 * </p>
+	 * 
+	 * @param numbers
+	 * @return a map from the given numbers to their contact, numbers without a contact are mapped
+	 *         to null. Or null if the contactsread module is not installed.
+	 */
+	public Map<String, Contact> contactsByNumbers(Collection<String> numbers) {
+		if (!contactsReadModuleInstalled()) return null;
+
+		Map<String, Contact> res = new HashMap<String, Contact>(numbers.size());
+		// Clean number to the given numbers that need to be resolved
+		Map<String, List<String>> toResolve = new HashMap<String, List<String>>();
+		for (String number : numbers) {
+			if (res.containsKey(number)) continue;
+
+			String cleanNumber = ContactNumber.cleanNumber(number);
+			if (!ContactNumber.isNumber(cleanNumber)) {
+				res.put(number, null);
+				continue;
+			}
+			CacheEntry cached = mContactCache.get(cleanNumber);
+			if (cached != null) {
+				res.put(number, cached.getContact());
+				continue;
+			}
+			List<String> originalNumbers = toResolve.get(cleanNumber);
+			if (originalNumbers == null) {
+				originalNumbers = new LinkedList<String>();
+				toResolve.put(cleanNumber, originalNumbers);
+			}
+			originalNumbers.add(number);
+		}
+		if (toResolve.isEmpty()) return res;
+
+		if (toResolve.size() == 1) {
+			// A single phone lookup uses the phone lookup index
+			Map.Entry<String, List<String>> entry = toResolve.entrySet().iterator().next();
+			Contact contact = contactByNumber(entry.getKey());
+			for (String number : entry.getValue()) {
+				res.put(number, contact);
+			}
+			return res;
+		}
+
+		// Query only the phone numbers that match one of the numbers, and match them in memory,
+		// instead of performing a phone lookup and a contact number query for every single number
+		// @formatter:off
+		final String[] projection = new String[] {
+				Data._ID,
+				Data.LOOKUP_KEY,
+				DISPLAY_NAME,
+				Phone.NUMBER,
+				};
+		// @formatter:on
+		Map<String, Contact> contacts = new HashMap<String, Contact>();
+		Map<String, List<NumberRow>> rowsByNumberSuffix = new HashMap<String, List<NumberRow>>();
+		// A row may match numbers of different chunks
+		Set<Long> seenRows = new HashSet<Long>();
+		for (List<String> chunk : chunks(toResolve.keySet(), MAX_NUMBERS_PER_QUERY)) {
+			final String[] selectionArgs = new String[chunk.size() + 1];
+			final StringBuilder selection = new StringBuilder(Data.MIMETYPE).append("=?")
+					.append(AND).append('(');
+			selectionArgs[0] = Phone.CONTENT_ITEM_TYPE;
+			for (int i = 0; i < chunk.size(); i++) {
+				if (i > 0) selection.append(" OR ");
+				selection.append("PHONE_NUMBERS_EQUAL(").append(Phone.NUMBER).append(", ?)");
+				selectionArgs[i + 1] = chunk.get(i);
+			}
+			selection.append(')');
+			Cursor c = mContentResolver.query(MAXS_DATA_CONTENT_URI, projection,
+					selection.toString(), selectionArgs, null);
+			try {
+				final int idIndex = c.getColumnIndexOrThrow(Data._ID);
+				final int lookupKeyIndex = c.getColumnIndexOrThrow(Data.LOOKUP_KEY);
+				final int displayNameIndex = c.getColumnIndexOrThrow(DISPLAY_NAME);
+				final int numberIndex = c.getColumnIndexOrThrow(Phone.NUMBER);
+				while (c.moveToNext()) {
+					if (!seenRows.add(c.getLong(idIndex))) continue;
+					String number = c.getString(numberIndex);
+					if (number == null || !ContactNumber.isNumber(number)) continue;
+
+					String lookupKey = c.getString(lookupKeyIndex);
+					Contact contact = contacts.get(lookupKey);
+					if (contact == null) {
+						contact = new Contact(c.getString(displayNameIndex), lookupKey);
+						contacts.put(lookupKey, contact);
+					}
+
+					String cleanRowNumber = ContactNumber.cleanNumber(number);
+					String suffix = numberSuffix(cleanRowNumber);
+					List<NumberRow> rows = rowsByNumberSuffix.get(suffix);
+					if (rows == null) {
+						rows = new ArrayList<NumberRow>(1);
+						rowsByNumberSuffix.put(suffix, rows);
+					}
+					rows.add(new NumberRow(cleanRowNumber, contact));
+				}
+			} finally {
+				c.close();
+			}
+		}
+		// The contacts are returned with all their numbers
+		lookupContactNumbersFor(contacts.values());
+
+		for (Map.Entry<String, List<String>> entry : toResolve.entrySet()) {
+			final String cleanNumber = entry.getKey();
+			Contact contact = null;
+			List<NumberRow> rows = rowsByNumberSuffix.get(numberSuffix(cleanNumber));
+			if (rows != null) {
+				for (NumberRow row : rows) {
+					if (PhoneNumberUtils.compare(cleanNumber, row.mNumber)) {
+						contact = row.mContact;
+						break;
+					}
+				}
+			}
+			mContactCache.put(cleanNumber, contact);
+			for (String number : entry.getValue()) {
+				res.put(number, contact);
+			}
+		}
+		return res;
+	}
+
 	/**
 	 * Get all contacts for a given number
 	 * 
@@ -307,6 +475,95 @@ public class ContactUtil {
 		return res;
 	}
 
+	/**
+	 * Lookup exactly one contact for each of the given names.
+	 * <p>
+	 * Unlike {@link #contactByName(String)}, the names have to match the display name of the
+	 * contact exactly. Uses a constant number of queries for up to {@value #MAX_SELECTION_ARGS}
+	 * names.
+	 * </p>
+	 * 
+	 * @param names
+	 * @return a map from the given names to their contact, names without a contact are mapped to
+	 *         null. Or null if the contactsread module is not installed.
+	 */
+	public Map<String, Contact> contactsByNames(Collection<String> names) {
+		if (!contactsReadModuleInstalled()) return null;
+
+		Map<String, Contact> res = new HashMap<String, Contact>(names.size());
+		final String[] projection = new String[] { Contacts.LOOKUP_KEY, DISPLAY_NAME };
+		for (List<String> chunk : chunks(names)) {
+			Cursor c = mContentResolver.query(MAXS_CONTACTS_CONTENT_URI, projection, DISPLAY_NAME
+					+ inPlaceholders(chunk.size()), chunk.toArray(new String[chunk.size()]), null);
+			try {
+				while (c.moveToNext()) {
+					String displayName = c.getString(c.getColumnIndexOrThrow(DISPLAY_NAME));
+					String lookupKey = c.getString(c.getColumnIndexOrThrow(Contacts.LOOKUP_KEY));
+					if (res.containsKey(displayName)) continue;
+					res.put(displayName, new Contact(displayName, lookupKey));
+				}
+			} finally {
+				c.close();
+			}
+		}
+
+		lookupContactNumbersFor(res.values());
+
+		for (String name : names) {
+			if (!res.containsKey(name)) res.put(name, null);
+		}
+		return res;
+	}
+
+	/**
+	 * Lookup the numbers for the given contacts. Uses one query for up to
+	 * {@value #MAX_SELECTION_ARGS} contacts.
+	 * 
+	 * @param contacts
+	 * @see #lookupContactNumbersFor(Contact)
+	 */
+	public void lookupContactNumbersFor(Collection<Contact> contacts) {
+		if (!contactsReadModuleInstalled()) return;
+
+		Map<String, Contact> contactsByLookupKey = new HashMap<String, Contact>(contacts.size());
+		for (Contact contact : contacts) {
+			if (contact == null || contact.getLookupKey() == null) continue;
+			contactsByLookupKey.put(contact.getLookupKey(), contact);
+		}
+
+		// @formatter:off
+		final String[] projection = new String[] {
+				Data.LOOKUP_KEY,
+				Phone.NUMBER,
+				Phone.TYPE,
+				Phone.LABEL,
+				Phone.IS_SUPER_PRIMARY
+				};
+		// @formatter:on
+		for (List<String> chunk : chunks(contactsByLookupKey.keySet())) {
+			final String selection = Data.LOOKUP_KEY + inPlaceholders(chunk.size()) + AND
+					+ Data.MIMETYPE + "='" + Phone.CONTENT_ITEM_TYPE + "'";
+			Cursor c = mContentResolver.query(MAXS_DATA_CONTENT_URI, projection, selection,
+					chunk.toArray(new String[chunk.size()]), null);
+			try {
+				while (c.moveToNext()) {
+					String number = c.getString(c.getColumnIndexOrThrow(Phone.NUMBER));
+					if (number == null || !ContactNumber.isNumber(number)) continue;
+					Contact contact = contactsByLookupKey.get(c.getString(c
+							.getColumnIndexOrThrow(Data.LOOKUP_KEY)));
+					if (contact == null) continue;
+					int type = c.getInt(c.getColumnIndexOrThrow(Phone.TYPE));
+					String label = c.getString(c.getColumnIndexOrThrow(Phone.LABEL));
+					boolean superPrimary = c.getInt(c
+							.getColumnIndexOrThrow(Phone.IS_SUPER_PRIMARY)) > 0;
+					contact.addNumber(number, type, label, superPrimary);
+				}
+			} finally {
+				c.close();
+			}
+		}
+	}
+
 	/**
 	 * Lookup the numbers for a given contact.
 	 * 
@@ -350,6 +607,39 @@ public class ContactUtil {
 		c.close();
 	}
 
+	private static String numberSuffix(String cleanNumber) {
+		final int length = cleanNumber.length();
+		if (length <= NUMBER_MATCH_DIGITS) return cleanNumber;
+		return cleanNumber.substring(length - NUMBER_MATCH_DIGITS);
+	}
+
+	private static String inPlaceholders(int count) {
+		StringBuilder sb = new StringBuilder(" IN (");
+		for (int i = 0; i < count; i++) {
+			if (i > 0) sb.append(',');
+			sb.append('?');
+		}
+		sb.append(')');
+		return sb.toString();
+	}
+
+	private static List<List<String>> chunks(Collection<String> strings) {
+		return chunks(strings, MAX_SELECTION_ARGS);
+	}
+
+	private static List<List<String>> chunks(Collection<String> strings, int chunkSize) {
+		List<List<String>> res = new LinkedList<List<String>>();
+		List<String> chunk = null;
+		for (String string : strings) {
+			if (chunk == null || chunk.size() == chunkSize) {
+				chunk = new ArrayList<String>(Math.min(strings.size(), chunkSize));
+				res.add(chunk);
+			}
+			chunk.add(string);
+		}
+		return res;
+	}
+
 	/**
 	 * Pretty print for a given contact and contactInfo. If contact is null, only contactInfo will
 	 * be returned. Otherwise {@code"<contact.getDisplayName()> (<contactInfo>)"} will get
@@ -388,4 +678,75 @@ public class ContactUtil {
 		return res;
 	}
 
+	/**
+	 * A size bounded LRU cache from clean numbers to contacts, whose entries expire after a given
+	 * time. Also caches that a number has no contact.
+	 */
+	private static class ContactCache {
+
+		private final long mMaxAgeMillis;
+		private final Map<String, CacheEntry> mEntries;
+
+		private ContactCache(final int maxSize, long maxAgeMillis) {
+			mMaxAgeMillis = maxAgeMillis;
+			mEntries = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true) {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> eldest) {
+					return size() > maxSize;
+				}
+			};
+		}
+
+		/**
+		 * Get the cache entry for the given number.
+		 * 
+		 * @param cleanNumber
+		 * @return the entry, or null if the number is not cached or its entry expired
+		 */
+		synchronized CacheEntry get(String cleanNumber) {
+			CacheEntry entry = mEntries.get(cleanNumber);
+			if (entry == null) return null;
+			if (System.currentTimeMillis() - entry.mTimestamp > mMaxAgeMillis) {
+				mEntries.remove(cleanNumber);
+				return null;
+			}
+			return entry;
+		}
+
+		synchronized void put(String cleanNumber, Contact contact) {
+			// Store a copy, callers may modify the contact afterwards
+			mEntries.put(cleanNumber, new CacheEntry(contact == null ? null : contact.copy()));
+		}
+	}
+
+	private static class CacheEntry {
+		private final Contact mContact;
+		private final long mTimestamp = System.currentTimeMillis();
+
+		private CacheEntry(Contact contact) {
+			mContact = contact;
+		}
+
+		/**
+		 * Get the cached contact. Every caller gets its own copy, as contacts are mutable.
+		 * 
+		 * @return a copy of the cached contact, or null if the number has no contact
+		 */
+		private Contact getContact() {
+			if (mContact == null) return null;
+			return mContact.copy();
+		}
+	}
+
+	private static class NumberRow {
+		private final String mNumber;
+		private final Contact mContact;
+
+		private NumberRow(String number, Contact contact) {
+			mNumber = number;
+			mContact = contact;
+		}
+	}
 }
@@ -37,6 +37,8 @@ public abstract class MAXSBroadcastReceiver extends BroadcastReceiver {
 		}
 
 		MainUtil.send(message, context);
+		// Keep the process alive until the message has been handed off
+		MainUtil.finishWhenDelivered(goAsync(), context);
 	}
 
 	public abstract Message onReceiveReturnMessage(Context context, Intent intent);
@@ -27,22 +27,22 @@ import java.util.concurrent.ConcurrentHashMap;
 import org.projectmaxs.shared.global.GlobalConstants;
 import org.projectmaxs.shared.global.jul.JULHandler;
 import org.projectmaxs.shared.global.messagecontent.Text;
+import org.projectmaxs.shared.global.util.CommandMetrics;
 import org.projectmaxs.shared.global.util.Log;
+import org.projectmaxs.shared.global.util.MetricsForwarder;
 import org.projectmaxs.shared.mainmodule.Command;
+import org.projectmaxs.shared.mainmodule.MainModuleConstants;
 
 import android.app.Service;
 import android.content.Context;
 import android.content.Intent;
 import android.os.Build;
 import android.os.Handler;
-import android.os.HandlerThread;
 import android.os.IBinder;
-import android.os.Looper;
-import android.os.Message;
 
 /**
  * MAXSModuleIntentService is meant for modules to handle their PERFORM_COMMAND
- * intents.
+ * intents. The commands are executed concurrently by a {@link CommandExecutor}.
  * 
  * @author Florian Schmaus flo@geekplace.eu
  * 
@@ -52,34 +52,28 @@ public abstract class MAXSModuleIntentService extends Service {
 		JULHandler.setAsDefaultUncaughtExceptionHandler();
 	}
 
-	private static final int WHAT = 42;
-
 	private final Log mLog;
 	private final String mName;
 	private final Map<String, SupraCommand> mCommands;
 
-	private volatile Looper mServiceLooper;
-	private volatile ServiceHandler mServiceHandler;
+	private volatile CommandExecutor mCommandExecutor;
+	private volatile Handler mMainHandler;
 	private volatile Set<Object> mPendingActions = Collections
 			.newSetFromMap(new ConcurrentHashMap<Object, Boolean>());
 
-	private String mVersion;
+	private volatile int mLastStartId;
 
-	private final class ServiceHandler extends Handler {
-		public ServiceHandler(Looper looper) {
-			super(looper);
-		}
+	private String mVersion;
 
+	private final Runnable mStopIfIdle = new Runnable() {
 		@Override
-		public void handleMessage(Message msg) {
-			onHandleIntent((Intent) msg.obj);
-			if (!hasMessages(WHAT) && mPendingActions.isEmpty()) {
-				mLog.d("handleMessage: stopSelf hasMessasges=" + hasMessages(WHAT)
-						+ " actionsEmpty=" + mPendingActions.isEmpty() + " startId=" + msg.arg1);
-				stopSelf(msg.arg1);
+		public void run() {
+			if (mCommandExecutor.isIdle() && mPendingActions.isEmpty()) {
+				mLog.d("stopIfIdle: stopSelf startId=" + mLastStartId);
+				stopSelf(mLastStartId);
 			}
 		}
-	}
+	};
 
 	public MAXSModuleIntentService(Log log, String name, SupraCommand[] commands) {
 		super();
@@ -98,11 +92,9 @@ public abstract class MAXSModuleIntentService extends Service {
 	public void onCreate() {
 		super.onCreate();
 		initLog(this);
-		HandlerThread thread = new HandlerThread("MAXSModuleIntentService[" + mName + "]");
-		thread.start();
-
-		mServiceLooper = thread.getLooper();
-		mServiceHandler = new ServiceHandler(mServiceLooper);
+		MetricsForwarder.install(this, MainModuleConstants.MAIN_MODULE_SERVICE);
+		mCommandExecutor = newCommandExecutor("MAXSModuleIntentService[" + mName + "]");
+		mMainHandler = new Handler();
 		int versionResource = -1;
 		try {
 			Class<?> r = Class.forName(getPackageName() + ".R$string");
@@ -122,7 +114,20 @@ public abstract class MAXSModuleIntentService extends Service {
 
 	@Override
 	public void onDestroy() {
-		mServiceLooper.quit();
+		mMainHandler.removeCallbacks(mStopIfIdle);
+		mCommandExecutor.shutdown();
+		super.onDestroy();
+	}
+
+	/**
+	 * Create the executor used to execute the commands of this service. Modules may override this
+	 * to use a different number of workers.
+	 * 
+	 * @param name
+	 * @return a new command executor
+	 */
+	protected CommandExecutor newCommandExecutor(String name) {
+		return new CommandExecutor(name);
 	}
 
 	@Override
@@ -131,12 +136,42 @@ public abstract class MAXSModuleIntentService extends Service {
 	}
 
 	@Override
-	public int onStartCommand(Intent intent, int flags, int startId) {
-		Message msg = mServiceHandler.obtainMessage();
-		msg.arg1 = startId;
-		msg.obj = intent;
-		msg.what = 42;
-		mServiceHandler.sendMessage(msg);
+	public int onStartCommand(final Intent intent, int flags, int startId) {
+		mLastStartId = startId;
+		final Command command = intent == null ? null : intent
+				.<Command> getParcelableExtra(GlobalConstants.EXTRA_COMMAND);
+		if (command == null) {
+			mLog.e("onStartCommand: intent without command: " + intent);
+			mMainHandler.post(mStopIfIdle);
+			return START_NOT_STICKY;
+		}
+		SupraCommand supraCommand = mCommands.get(command.getCommand());
+		if (supraCommand == null) {
+			// Unknown commands are reported by onHandleIntent, which does not touch any state
+			supraCommand = new SupraCommand(command.getCommand()).setConcurrent();
+		}
+		final long queuedNanos = CommandMetrics.now();
+		mCommandExecutor.execute(new CommandExecutor.Task(supraCommand) {
+			@Override
+			public void run() {
+				final String name = command.getCommand();
+				CommandMetrics.recordSince(CommandMetrics.MODULE_QUEUED, name, queuedNanos);
+				final long startNanos = CommandMetrics.now();
+				try {
+					onHandleIntent(intent, this);
+				} finally {
+					CommandMetrics.recordSince(CommandMetrics.MODULE_EXECUTE, name, startNanos);
+					mMainHandler.post(mStopIfIdle);
+				}
+			}
+
+			@Override
+			protected void onTimeout() {
+				Text text = new Text();
+				text.addBold("Timeout").addNL(" handling command " + command);
+				send(new org.projectmaxs.shared.global.Message(text), command.getId());
+			}
+		});
 		return START_NOT_STICKY;
 	}
 
@@ -146,15 +181,10 @@ public abstract class MAXSModuleIntentService extends Service {
 
 	public final void removePendingAction(Object action) {
 		mPendingActions.remove(action);
-		if (!mServiceHandler.hasMessages(WHAT) && mPendingActions.isEmpty()) {
-			mLog.d("removePendingAction: stopSelf hasMessasges="
-					+ mServiceHandler.hasMessages(WHAT) + " actionsEmpty="
-					+ mPendingActions.isEmpty());
-			stopSelf();
-		}
+		mMainHandler.post(mStopIfIdle);
 	}
 
-	protected final void onHandleIntent(Intent intent) {
+	protected final void onHandleIntent(Intent intent, CommandExecutor.Task task) {
 		mLog.d("onHandleIntent: " + intent.getAction());
 		Command command = intent.getParcelableExtra(GlobalConstants.EXTRA_COMMAND);
 
@@ -193,6 +223,8 @@ public abstract class MAXSModuleIntentService extends Service {
 			message = new org.projectmaxs.shared.global.Message(text);
 		}
 		if (message == null) return;
+		// The user already got a timeout message
+		if (!task.claimReply()) return;
 
 		// make sure the id is set
 		send(message, command.getId());
@@ -205,7 +237,21 @@ public abstract class MAXSModuleIntentService extends Service {
 		send(message);
 	}
 
+	/**
+	 * Send the message to MAXS main. The service keeps running until the message has been handed
+	 * off.
+	 * 
+	 * @param message
+	 */
 	public final void send(org.projectmaxs.shared.global.Message message) {
+		final Object undelivered = new Object();
+		addPendingAction(undelivered);
 		MainUtil.send(message, this);
+		MainUtil.runWhenDelivered(this, new Runnable() {
+			@Override
+			public void run() {
+				removePendingAction(undelivered);
+			}
+		});
 	}
 }
@@ -19,14 +19,94 @@ package org.projectmaxs.shared.module;
 
 import org.projectmaxs.shared.global.GlobalConstants;
 import org.projectmaxs.shared.global.Message;
+import org.projectmaxs.shared.global.util.MessageChannel;
 import org.projectmaxs.shared.mainmodule.MainModuleConstants;
 
+import android.content.BroadcastReceiver;
+import android.content.BroadcastReceiver.PendingResult;
 import android.content.Context;
 import android.content.Intent;
 
 public class MainUtil {
 
+	private static MessageChannel sMessageChannel;
+
+	/**
+	 * Send the message to MAXS main. Messages are delivered in batches over a bound service. If
+	 * this is not possible, e.g. because an old version of MAXS main is installed, then an Intent
+	 * is used.
+	 * <p>
+	 * The message is delivered asynchronously, it is lost if the process is killed before. Only
+	 * use this method from components that keep the process alive until
+	 * {@link #runWhenDelivered(Context, Runnable)} reports the delivery, e.g. from a running
+	 * service. BroadcastReceivers use {@link #finishWhenDelivered(PendingResult, Context)}, other
+	 * callers {@link #sendNow(Message, Context)}.
+	 * </p>
+	 * 
+	 * @param message
+	 * @param context
+	 */
 	public static final void send(Message message, Context context) {
+		getMessageChannel(context).send(message);
+	}
+
+	/**
+	 * Send the message to MAXS main with an Intent before returning. The messages still queued
+	 * for delivery are sent first.
+	 * 
+	 * @param message
+	 * @param context
+	 */
+	public static final void sendNow(Message message, Context context) {
+		getMessageChannel(context).sendNow(message);
+	}
+
+	/**
+	 * Run the callback once all messages sent so far have been handed off to MAXS main. The
+	 * callback may run on a background thread.
+	 * 
+	 * @param context
+	 * @param callback
+	 */
+	public static final void runWhenDelivered(Context context, Runnable callback) {
+		getMessageChannel(context).runWhenDrained(callback);
+	}
+
+	/**
+	 * Finish the pending result of a BroadcastReceiver, obtained with
+	 * {@link BroadcastReceiver#goAsync()}, once all messages sent so far have been handed off to
+	 * MAXS main. This keeps the process alive until then.
+	 * 
+	 * @param pendingResult
+	 * @param context
+	 */
+	public static final void finishWhenDelivered(final PendingResult pendingResult,
+			Context context) {
+		runWhenDelivered(context, new Runnable() {
+			@Override
+			public void run() {
+				pendingResult.finish();
+			}
+		});
+	}
+
+	private static synchronized MessageChannel getMessageChannel(final Context context) {
+		if (sMessageChannel == null) {
+			Intent bindIntent = new Intent(GlobalConstants.ACTION_BIND_MESSAGE_CHANNEL);
+			bindIntent.setClassName(GlobalConstants.MAIN_PACKAGE,
+					MainModuleConstants.MAIN_MESSAGE_CHANNEL_SERVICE);
+			final Context applicationContext = context.getApplicationContext();
+			sMessageChannel = new MessageChannel(applicationContext, bindIntent) {
+				@Override
+				protected void sendViaIntent(Message message) {
+					MainUtil.sendViaIntent(message, applicationContext);
+				}
+			};
+		}
+		return sMessageChannel;
+	}
+
+	private static void sendViaIntent(Message message, Context context) {
 		Intent replyIntent = new Intent(GlobalConstants.ACTION_SEND_MESSAGE);
 		replyIntent.setClassName(GlobalConstants.MAIN_PACKAGE,
 				MainModuleConstants.MAIN_MODULE_SERVICE);
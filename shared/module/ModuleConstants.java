@@ -23,7 +23,8 @@ public class ModuleConstants {
 
 	public static final SupraCommand SMS = new SupraCommand("sms", "s");
 	public static final SupraCommand BLUEOOTH = new SupraCommand("bluetooth", "bt");
-	public static final SupraCommand CONTACT = new SupraCommand("contact", "c");
+	public static final SupraCommand CONTACT = new SupraCommand("contact", "c")
+			.setConcurrent();
 	public static final SupraCommand WIFI = new SupraCommand("wifi", "w");
 
 	public static final String SMSWRITE_MODULE_PACKAGE = GlobalConstants.MODULE_PACKAGE
@@ -37,6 +37,10 @@ public class SupraCommand {
 	private SubCommand mDefaultWithArguments;
 	private SubCommand mDefaultWithoutArguments;
 
+	private boolean mSerial = true;
+	private int mMaxConcurrency;
+	private long mTimeout;
+
 	public SupraCommand(String command) {
 		this(command, null);
 	}
@@ -54,6 +58,57 @@ public class SupraCommand {
 		return mShortCommand;
 	}
 
+	/**
+	 * Allow the sub commands of this command to be executed concurrently with other commands of the
+	 * module. Commands are serial by default: They are executed exclusively, i.e. not concurrently
+	 * with any other command of the module, and in the order they arrived relative to all other
+	 * commands. Only mark a command as concurrent if none of its sub commands depends on the
+	 * outcome of previous commands, modifies state other commands depend on, or keeps per
+	 * execution state in its (shared) SubCommand instance.
+	 * 
+	 * @return this
+	 */
+	public SupraCommand setConcurrent() {
+		mSerial = false;
+		return this;
+	}
+
+	public boolean isSerial() {
+		return mSerial;
+	}
+
+	/**
+	 * Set the maximum number of concurrently executed sub commands of this command.
+	 * 
+	 * @param maxConcurrency
+	 *            the maximum number, or zero for no limit other than the number of workers
+	 * @return this
+	 */
+	public SupraCommand setMaxConcurrency(int maxConcurrency) {
+		mMaxConcurrency = maxConcurrency;
+		return this;
+	}
+
+	public int getMaxConcurrency() {
+		return mMaxConcurrency;
+	}
+
+	/**
+	 * Set the time after which the execution of a sub command of this command is interrupted.
+	 * 
+	 * @param timeout
+	 *            the timeout in milliseconds, or zero for no timeout
+	 * @return this
+	 */
+	public SupraCommand setTimeout(long timeout) {
+		mTimeout = timeout;
+		return this;
+	}
+
+	public long getTimeout() {
+		return mTimeout;
+	}
+
 	/**
 	 * Check if a sub command of the given name exists
 	 * 
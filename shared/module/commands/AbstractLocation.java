@@ -27,7 +27,8 @@ import android.location.LocationManager;
 
 public abstract class AbstractLocation extends SubCommand {
 
-	public static final SupraCommand LOCATION = new SupraCommand("location");
+	public static final SupraCommand LOCATION = new SupraCommand("location")
+			.setConcurrent();
 
 	protected AbstractLocation(String name, boolean isDefaultWithoutArguments) {
 		super(LOCATION, name, isDefaultWithoutArguments);
@@ -51,7 +51,7 @@ public class TransformMessageContent {
 		StringBuilder sb = new StringBuilder();
 		Iterator<AbstractElement> it = message.getElementsIt();
 		while (it.hasNext())
-			sb.append(XML.toSB(it.next()));
+			XML.toSB(it.next(), sb);
 
 		return sb.toString();
 	}
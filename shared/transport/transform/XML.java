@@ -17,13 +17,393 @@
 
 package org.projectmaxs.shared.transport.transform;
 
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+
 import org.projectmaxs.shared.global.messagecontent.AbstractElement;
+import org.projectmaxs.shared.global.messagecontent.CommandHelp;
+import org.projectmaxs.shared.global.messagecontent.Contact;
+import org.projectmaxs.shared.global.messagecontent.ContactNumber;
+import org.projectmaxs.shared.global.messagecontent.Element;
+import org.projectmaxs.shared.global.messagecontent.FormatedText;
+import org.projectmaxs.shared.global.messagecontent.NewLine;
+import org.projectmaxs.shared.global.messagecontent.Sms;
+import org.projectmaxs.shared.global.messagecontent.Text;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
 
+/**
+ * Serializes message content to XML and parses it back. Every element type has its own XML
+ * element, {@link Element}s use their XML name. All element names are unqualified, the namespace is
+ * set by the enclosing element of the transport. The formatting of {@link Text} is kept by the
+ * XHTML like child elements b, i, font and br.
+ * <p>
+ * The parsed {@link Element}s are not human readable, as their human readable name is not part of
+ * the XML. Elements whose XML name is the name of another element type, e.g. "sms", can not be told
+ * apart from those and must not be used.
+ * </p>
+ */
 public class XML {
 
-	protected static StringBuilder toSB(AbstractElement element) {
-		// TODO
-		return null;
+	public static final String TEXT = "text";
+	public static final String CONTACT = "contact";
+	public static final String NUMBER = "number";
+	public static final String SMS = "sms";
+	public static final String COMMAND_HELP = "command-help";
+
+	public static final String BOLD = "b";
+	public static final String ITALIC = "i";
+	public static final String FONT = "font";
+	public static final String NEW_LINE = "br";
+
+	public static void toSB(AbstractElement element, StringBuilder sb) {
+		if (element instanceof Contact) {
+			toSB((Contact) element, sb);
+		} else if (element instanceof ContactNumber) {
+			toSB((ContactNumber) element, sb);
+		} else if (element instanceof Element) {
+			toSB((Element) element, sb);
+		} else if (element instanceof Sms) {
+			toSB((Sms) element, sb);
+		} else if (element instanceof Text) {
+			toSB((Text) element, sb);
+		} else if (element instanceof CommandHelp) {
+			toSB((CommandHelp) element, sb);
+		} else {
+			throw new IllegalStateException("Unknown sublcass of AbstractElement");
+		}
+	}
+
+	private static void toSB(Contact contact, StringBuilder sb) {
+		sb.append('<').append(CONTACT);
+		attribute("name", contact.getDisplayName(), sb);
+		attribute("nickname", contact.getNickname(), sb);
+		attribute("lookupKey", contact.getLookupKey(), sb);
+		if (!contact.hasNumbers()) {
+			sb.append("/>");
+			return;
+		}
+		sb.append('>');
+		for (ContactNumber number : contact.getNumbers())
+			toSB(number, sb);
+		closeTag(CONTACT, sb);
+	}
+
+	private static void toSB(ContactNumber contactNumber, StringBuilder sb) {
+		sb.append('<').append(NUMBER);
+		attribute("type", contactNumber.getType().name().toLowerCase(Locale.US), sb);
+		attribute("label", contactNumber.getLabel(), sb);
+		if (contactNumber.isSuperPrimary()) attribute("primary", "true", sb);
+		sb.append('>');
+		escape(contactNumber.getNumber(), sb);
+		closeTag(NUMBER, sb);
+	}
+
+	private static void toSB(Element element, StringBuilder sb) {
+		final String name = element.getXMLName();
+		sb.append('<').append(name).append('>');
+		if (element.getText() != null) escape(element.getText(), sb);
+		Iterator<AbstractElement> it = element.getChildElementIterator();
+		while (it.hasNext())
+			toSB(it.next(), sb);
+		closeTag(name, sb);
+	}
+
+	private static void toSB(Sms sms, StringBuilder sb) {
+		sb.append('<').append(SMS);
+		attribute("type", sms.getType().name().toLowerCase(Locale.US), sb);
+		attribute("contact", sms.getContact(), sb);
+		attribute("date", Long.toString(sms.getDate()), sb);
+		sb.append('>');
+		escape(sms.getBody(), sb);
+		closeTag(SMS, sb);
+	}
+
+	private static void toSB(Text text, StringBuilder sb) {
+		sb.append('<').append(TEXT).append('>');
+		for (FormatedText ft : text.getTexts())
+			toSB(ft, sb);
+		closeTag(TEXT, sb);
+	}
+
+	private static void toSB(FormatedText formatedText, StringBuilder sb) {
+		if (FormatedText.isNewLine(formatedText)) {
+			sb.append('<').append(NEW_LINE).append("/>");
+			return;
+		}
+		final String font = formatedText.getFont();
+		if (font != null) {
+			sb.append('<').append(FONT);
+			attribute("family", font, sb);
+			sb.append('>');
+		}
+		if (formatedText.isBold()) sb.append('<').append(BOLD).append('>');
+		if (formatedText.isItalic()) sb.append('<').append(ITALIC).append('>');
+		escape(formatedText.toString(), sb);
+		if (formatedText.isItalic()) closeTag(ITALIC, sb);
+		if (formatedText.isBold()) closeTag(BOLD, sb);
+		if (font != null) closeTag(FONT, sb);
+	}
+
+	private static void toSB(CommandHelp commandHelp, StringBuilder sb) {
+		sb.append('<').append(COMMAND_HELP);
+		attribute("command", commandHelp.mCommand, sb);
+		attribute("subCommand", commandHelp.mSubCommand, sb);
+		if (commandHelp.mArgType != null) {
+			attribute("argType", commandHelp.mArgType.name().toLowerCase(Locale.US),
+					sb);
+		}
+		attribute("arg", commandHelp.mArgString, sb);
+		sb.append('>');
+		escape(commandHelp.mHelp, sb);
+		closeTag(COMMAND_HELP, sb);
+	}
+
+	/**
+	 * Parse the message content serialized by {@link #toSB(AbstractElement, StringBuilder)}. The
+	 * parser must be positioned at the start tag of the enclosing element. When this method
+	 * returns, the parser is positioned at the end tag of the enclosing element.
+	 * 
+	 * @param parser
+	 * @return the elements of the message content
+	 * @throws XmlPullParserException
+	 * @throws IOException
+	 */
+	public static List<AbstractElement> parse(XmlPullParser parser)
+			throws XmlPullParserException, IOException {
+		List<AbstractElement> elements = new ArrayList<AbstractElement>();
+		final int depth = parser.getDepth();
+		while (true) {
+			switch (next(parser)) {
+			case XmlPullParser.START_TAG:
+				elements.add(parseElement(parser));
+				break;
+			case XmlPullParser.END_TAG:
+				if (parser.getDepth() == depth) return elements;
+				break;
+			default:
+				break;
+			}
+		}
+	}
+
+	private static AbstractElement parseElement(XmlPullParser parser)
+			throws XmlPullParserException, IOException {
+		switch (parser.getName()) {
+		case TEXT:
+			return parseText(parser);
+		case CONTACT:
+			return parseContact(parser);
+		case NUMBER:
+			return parseContactNumber(parser);
+		case SMS:
+			return parseSms(parser);
+		case COMMAND_HELP:
+			return parseCommandHelp(parser);
+		default:
+			return parseElementTree(parser);
+		}
 	}
 
+	private static Text parseText(XmlPullParser parser) throws XmlPullParserException,
+			IOException {
+		Text text = new Text();
+		final int depth = parser.getDepth();
+		int bold = 0;
+		int italic = 0;
+		// The empty string stands for a font element without family
+		Deque<String> fonts = new ArrayDeque<String>();
+		while (true) {
+			switch (next(parser)) {
+			case XmlPullParser.START_TAG:
+				switch (parser.getName()) {
+				case BOLD:
+					bold++;
+					break;
+				case ITALIC:
+					italic++;
+					break;
+				case FONT:
+					String family = parser.getAttributeValue("", "family");
+					fonts.push(family != null ? family : "");
+					break;
+				case NEW_LINE:
+					text.add(NewLine.getInstance());
+					break;
+				default:
+					break;
+				}
+				break;
+			case XmlPullParser.END_TAG:
+				if (parser.getDepth() == depth) return text;
+				switch (parser.getName()) {
+				case BOLD:
+					bold--;
+					break;
+				case ITALIC:
+					italic--;
+					break;
+				case FONT:
+					fonts.pop();
+					break;
+				default:
+					break;
+				}
+				break;
+			case XmlPullParser.TEXT:
+				String font = fonts.isEmpty() || fonts.peek().isEmpty() ? null : fonts.peek();
+				text.add(new FormatedText(parser.getText(), font, bold > 0, italic > 0));
+				break;
+			default:
+				break;
+			}
+		}
+	}
+
+	private static Contact parseContact(XmlPullParser parser) throws XmlPullParserException,
+			IOException {
+		Contact contact = new Contact(parser.getAttributeValue("", "name"),
+				parser.getAttributeValue("", "lookupKey"));
+		contact.setNickname(parser.getAttributeValue("", "nickname"));
+		final int depth = parser.getDepth();
+		while (true) {
+			switch (next(parser)) {
+			case XmlPullParser.START_TAG:
+				if (NUMBER.equals(parser.getName())) {
+					contact.addNumber(parseContactNumber(parser));
+				} else {
+					parseElementTree(parser);
+				}
+				break;
+			case XmlPullParser.END_TAG:
+				if (parser.getDepth() == depth) return contact;
+				break;
+			default:
+				break;
+			}
+		}
+	}
+
+	private static ContactNumber parseContactNumber(XmlPullParser parser)
+			throws XmlPullParserException, IOException {
+		ContactNumber.NumberType type = parseEnum(ContactNumber.NumberType.class,
+				parser.getAttributeValue("", "type"), parser);
+		String label = parser.getAttributeValue("", "label");
+		boolean primary = "true".equals(parser.getAttributeValue("", "primary"));
+		return new ContactNumber(type, parser.nextText(), label, primary);
+	}
+
+	private static Sms parseSms(XmlPullParser parser) throws XmlPullParserException, IOException {
+		Sms.Type type = parseEnum(Sms.Type.class, parser.getAttributeValue("", "type"), parser);
+		String contact = parser.getAttributeValue("", "contact");
+		String dateString = parser.getAttributeValue("", "date");
+		long date;
+		try {
+			date = dateString != null ? Long.parseLong(dateString) : 0;
+		} catch (NumberFormatException e) {
+			throw new XmlPullParserException("Invalid date: " + dateString, parser, e);
+		}
+		return new Sms(contact, parser.nextText(), type, date);
+	}
+
+	private static CommandHelp parseCommandHelp(XmlPullParser parser)
+			throws XmlPullParserException, IOException {
+		String command = parser.getAttributeValue("", "command");
+		String subCommand = parser.getAttributeValue("", "subCommand");
+		CommandHelp.ArgType argType = parseEnum(CommandHelp.ArgType.class,
+				parser.getAttributeValue("", "argType"), parser);
+		String arg = parser.getAttributeValue("", "arg");
+		String help = parser.nextText();
+		if (arg != null) return new CommandHelp(command, subCommand, arg, help);
+		return new CommandHelp(command, subCommand, argType, help);
+	}
+
+	private static Element parseElementTree(XmlPullParser parser) throws XmlPullParserException,
+			IOException {
+		Element element = new Element(parser.getName());
+		StringBuilder text = new StringBuilder();
+		boolean hasChildElements = false;
+		final int depth = parser.getDepth();
+		while (true) {
+			switch (next(parser)) {
+			case XmlPullParser.START_TAG:
+				element.addChildElement(parseElement(parser));
+				hasChildElements = true;
+				break;
+			case XmlPullParser.END_TAG:
+				if (parser.getDepth() != depth) break;
+				// Ignore the whitespace between child elements
+				if (text.length() > 0 && !(hasChildElements && text.toString().trim().isEmpty())) {
+					element.setText(text.toString());
+				}
+				return element;
+			case XmlPullParser.TEXT:
+				text.append(parser.getText());
+				break;
+			default:
+				break;
+			}
+		}
+	}
+
+	private static <E extends Enum<E>> E parseEnum(Class<E> enumClass, String value,
+			XmlPullParser parser) throws XmlPullParserException {
+		if (value == null) return null;
+		try {
+			return Enum.valueOf(enumClass, value.toUpperCase(Locale.US));
+		} catch (IllegalArgumentException e) {
+			throw new XmlPullParserException("Invalid " + enumClass.getSimpleName() + ": " + value,
+					parser, e);
+		}
+	}
+
+	private static int next(XmlPullParser parser) throws XmlPullParserException, IOException {
+		int event = parser.next();
+		if (event == XmlPullParser.END_DOCUMENT) {
+			throw new XmlPullParserException("Unexpected end of document", parser, null);
+		}
+		return event;
+	}
+
+	private static void attribute(String name, String value, StringBuilder sb) {
+		if (value == null) return;
+		sb.append(' ').append(name).append("='");
+		escape(value, sb);
+		sb.append('\'');
+	}
+
+	private static void closeTag(String name, StringBuilder sb) {
+		sb.append("</").append(name).append('>');
+	}
+
+	private static void escape(CharSequence cs, StringBuilder sb) {
+		if (cs == null) return;
+		for (int i = 0; i < cs.length(); i++) {
+			char c = cs.charAt(i);
+			switch (c) {
+			case '<':
+				sb.append("&lt;");
+				break;
+			case '>':
+				sb.append("&gt;");
+				break;
+			case '&':
+				sb.append("&amp;");
+				break;
+			case '\'':
+				sb.append("&apos;");
+				break;
+			case '"':
+				sb.append("&quot;");
+				break;
+			default:
+				sb.append(c);
+			}
+		}
+	}
 }
@@ -42,6 +42,7 @@ import org.projectmaxs.shared.global.GlobalConstants;
 import org.projectmaxs.shared.global.jul.JULHandler;
 import org.projectmaxs.shared.global.util.Log.DebugLogSettings;
 import org.projectmaxs.shared.global.util.SharedStringUtil;
+import org.projectmaxs.transport.xmpp.database.MessagesTable;
 import org.projectmaxs.transport.xmpp.xmppservice.XMPPSocketFactory;
 
 import android.content.Context;
@@ -88,6 +89,8 @@ public class Settings implements OnSharedPreferenceChangeListener, DebugLogSetti
 	private final String LAST_ACTIVE_NETWORK;
 	private final String XMPP_INTENT;
 	private final String XMPP_INTENT_SHARED_TOKEN;
+	private final String MESSAGE_QUEUE_MAX_ENTRIES;
+	private final String MESSAGE_QUEUE_MAX_AGE;
 
 	private final Set<String> XMPP_CONNECTION_SETTINGS;
 
@@ -141,6 +144,9 @@ public class Settings implements OnSharedPreferenceChangeListener, DebugLogSetti
 		XMPP_INTENT = context.getString(R.string.pref_app_xmpp_intent_key);
 		XMPP_INTENT_SHARED_TOKEN = context
 				.getString(R.string.pref_app_xmpp_intent_shared_token_key);
+		MESSAGE_QUEUE_MAX_ENTRIES = context
+				.getString(R.string.pref_app_message_queue_max_entries_key);
+		MESSAGE_QUEUE_MAX_AGE = context.getString(R.string.pref_app_message_queue_max_age_key);
 		mSharedPreferences.registerOnSharedPreferenceChangeListener(this);
 
 		setDnsDebug();
@@ -450,6 +456,41 @@ public class Settings implements OnSharedPreferenceChangeListener, DebugLogSetti
 		return res;
 	}
 
+	/**
+	 * Get the maximum number of messages in the {@link MessagesTable}.
+	 * 
+	 * @return the maximum number of queued messages
+	 */
+	public int getMessageQueueMaxEntries() {
+		return getPositiveInt(MESSAGE_QUEUE_MAX_ENTRIES, MessagesTable.DEFAULT_MAX_ENTRIES);
+	}
+
+	/**
+	 * Get the maximum age of the messages in the {@link MessagesTable}.
+	 * 
+	 * @return the maximum age of a queued message in milliseconds
+	 */
+	public long getMessageQueueMaxAge() {
+		final long day = 24 * 60 * 60 * 1000L;
+		return getPositiveInt(MESSAGE_QUEUE_MAX_AGE, (int) (MessagesTable.DEFAULT_MAX_AGE / day))
+				* day;
+	}
+
+	/**
+	 * Get the integer value of a preference edited as text. Invalid values, e.g. an empty
+	 * string, yield the default value.
+	 */
+	private int getPositiveInt(String key, int defaultValue) {
+		final String string = mSharedPreferences.getString(key, null);
+		if (string == null) return defaultValue;
+		try {
+			final int value = Integer.parseInt(string.trim());
+			return value > 0 ? value : defaultValue;
+		} catch (NumberFormatException e) {
+			return defaultValue;
+		}
+	}
+
 	@Override
 	public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
 		for (String s : XMPP_CONNECTION_SETTINGS) {
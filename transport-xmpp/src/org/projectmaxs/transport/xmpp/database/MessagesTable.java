@@ -17,10 +17,8 @@
 
 package org.projectmaxs.transport.xmpp.database;
 
-import java.util.LinkedList;
-import java.util.List;
-
 import org.projectmaxs.shared.global.Message;
+import org.projectmaxs.shared.global.util.Log;
 import org.projectmaxs.shared.global.util.ParcelableUtil;
 import org.projectmaxs.shared.maintransport.CommandOrigin;
 import org.projectmaxs.transport.xmpp.util.Constants;
@@ -28,15 +26,35 @@ import org.projectmaxs.transport.xmpp.util.Constants;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 
 /**
  * Don't get confused by the name of the Table. It's meant for XMPP messages and IQ packets.
- * 
+ * <p>
+ * The table is the durable queue of messages that could not be send. Every entry has a sequence
+ * number, which defines the send order. Entries are only deleted after they have been consumed,
+ * i.e. send, so if the process dies while the queue is flushed, the not yet send messages stay
+ * in the table. The queue is capped by the number of entries and by their age, the oldest
+ * entries are dropped first.
+ * </p>
  */
 public class MessagesTable {
 
+	private static final Log LOG = Log.getLog();
+
+	public static final int DEFAULT_MAX_ENTRIES = 1000;
+	public static final long DEFAULT_MAX_AGE = 7 * 24 * 60 * 60 * 1000L;
+
+	/**
+	 * The number of consumed rows after which they get deleted while streaming the table. If the
+	 * process dies while streaming, at most this many messages will be send twice.
+	 */
+	private static final int CONSUME_DELETE_CHUNK_SIZE = 10;
+
 	private static final String TABLE_NAME = "messages";
+	private static final String COLUMN_NAME_SEQUENCE = "sequence";
+	private static final String COLUMN_NAME_TIMESTAMP = "timestamp";
 	private static final String COLUMN_NAME_MESSAGE = "message";
 	private static final String COLUMN_NAME_INTENT_ACTION = "intentAction";
 	private static final String COLUMN_NAME_ISSUER_INFO = "issuerInfo";
@@ -46,15 +64,69 @@ public class MessagesTable {
 	public static final String CREATE_TABLE =
 		"CREATE TABLE " +  TABLE_NAME +
 		" (" +
+		 COLUMN_NAME_SEQUENCE + XMPPDatabase.INTEGER_TYPE + " PRIMARY KEY AUTOINCREMENT" + XMPPDatabase.COMMA_SEP +
+		 COLUMN_NAME_TIMESTAMP + XMPPDatabase.INTEGER_TYPE + XMPPDatabase.NOT_NULL + XMPPDatabase.COMMA_SEP +
 		 COLUMN_NAME_INTENT_ACTION + XMPPDatabase.TEXT_TYPE + XMPPDatabase.NOT_NULL + XMPPDatabase.COMMA_SEP +
 		 COLUMN_NAME_ISSUER_INFO + XMPPDatabase.TEXT_TYPE + XMPPDatabase.COMMA_SEP +
 		 COLUMN_NAME_ISSUER_ID + XMPPDatabase.TEXT_TYPE + XMPPDatabase.COMMA_SEP +
-		 COLUMN_NAME_MESSAGE + XMPPDatabase.BLOB_TYPE +
+		 COLUMN_NAME_MESSAGE + XMPPDatabase.BLOB_TYPE + XMPPDatabase.NOT_NULL +
 		" )";
 	// @formatter:on
 
 	public static final String DELETE_TABLE = XMPPDatabase.DROP_TABLE + TABLE_NAME;
 
+	/**
+	 * Convert the table of database version 3 and earlier, which had neither a sequence number nor
+	 * a timestamp, into the queue. The entries keep their order and get the current time as
+	 * timestamp. Their messages, which may still be marshalled Parcels, are stored encoded.
+	 * 
+	 * @param db
+	 */
+	static void upgradeToVersion4(SQLiteDatabase db) {
+		final String oldTable = TABLE_NAME + "_v3";
+		db.execSQL("ALTER TABLE " + TABLE_NAME + " RENAME TO " + oldTable);
+		db.execSQL(CREATE_TABLE);
+
+		final long now = System.currentTimeMillis();
+		final String[] projection = { COLUMN_NAME_MESSAGE, COLUMN_NAME_INTENT_ACTION,
+				COLUMN_NAME_ISSUER_INFO, COLUMN_NAME_ISSUER_ID };
+		Cursor c = db.query(oldTable, projection, null, null, null, null, "rowid");
+		int migrated = 0;
+		try {
+			while (c.moveToNext()) {
+				final Message message = decodeVersion3(c.getBlob(0));
+				if (message == null) continue;
+				ContentValues values = new ContentValues();
+				values.put(COLUMN_NAME_TIMESTAMP, now);
+				values.put(COLUMN_NAME_MESSAGE, message.toBytes());
+				values.put(COLUMN_NAME_INTENT_ACTION, c.getString(1));
+				values.put(COLUMN_NAME_ISSUER_INFO, c.getString(2));
+				values.put(COLUMN_NAME_ISSUER_ID, c.getString(3));
+				db.insert(TABLE_NAME, null, values);
+				migrated++;
+			}
+		} finally {
+			c.close();
+		}
+		db.execSQL(XMPPDatabase.DROP_TABLE + oldTable);
+		LOG.i("upgradeToVersion4: migrated " + migrated + " queued messages");
+	}
+
+	private static Message decodeVersion3(byte[] bytes) {
+		if (bytes == null) return null;
+		try {
+			return Message.fromBytes(bytes);
+		} catch (RuntimeException e) {
+			// Not encoded, but marshalled with the legacy Parcel format
+		}
+		try {
+			return ParcelableUtil.unmarshall(bytes, Message.CREATOR);
+		} catch (RuntimeException e) {
+			LOG.w("upgradeToVersion4: could not decode queued message, dropping it", e);
+			return null;
+		}
+	}
+
 	private static MessagesTable sXMPPMessageTable;
 
 	public static MessagesTable getInstance(Context context) {
@@ -64,54 +136,182 @@ public class MessagesTable {
 
 	private final SQLiteDatabase mDatabase;
 
+	private int mMaxEntries = DEFAULT_MAX_ENTRIES;
+	private long mMaxAge = DEFAULT_MAX_AGE;
+
+	/**
+	 * The number of entries dropped because of the caps, or because they could not be decoded,
+	 * since the process has been started.
+	 */
+	private long mDroppedCount;
+
 	private MessagesTable(Context context) {
 		mDatabase = XMPPDatabase.getInstance(context).getWritableDatabase();
 	}
 
-	public void addMessage(Message message, String intentAction, String issuerId, String issuerInfo) {
+	/**
+	 * Set the caps of the queue. They are applied the next time a message is added.
+	 * 
+	 * @param maxEntries
+	 *            the maximum number of queued messages
+	 * @param maxAge
+	 *            the maximum age of a queued message in milliseconds
+	 */
+	public synchronized void setLimits(int maxEntries, long maxAge) {
+		if (maxEntries < 1) throw new IllegalArgumentException("maxEntries must be positive");
+		if (maxAge < 1) throw new IllegalArgumentException("maxAge must be positive");
+		mMaxEntries = maxEntries;
+		mMaxAge = maxAge;
+	}
+
+	public synchronized long getDroppedCount() {
+		return mDroppedCount;
+	}
+
+	/**
+	 * Add a message to the end of the queue.
+	 * 
+	 * @param message
+	 * @param intentAction
+	 * @param issuerInfo
+	 * @param issuerId
+	 * @return the sequence number of the new entry
+	 */
+	public synchronized long addMessage(Message message, String intentAction, String issuerInfo,
+			String issuerId) {
 		ContentValues values = new ContentValues();
-		values.put(COLUMN_NAME_MESSAGE, ParcelableUtil.marshall(message));
+		values.put(COLUMN_NAME_TIMESTAMP, System.currentTimeMillis());
+		values.put(COLUMN_NAME_MESSAGE, message.toBytes());
 		values.put(COLUMN_NAME_INTENT_ACTION, intentAction);
 		values.put(COLUMN_NAME_ISSUER_INFO, issuerInfo);
 		values.put(COLUMN_NAME_ISSUER_ID, issuerId);
 
-		long res = mDatabase.insert(TABLE_NAME, null, values);
-		if (res == -1) throw new IllegalStateException("Could not insert command in database");
+		long sequence;
+		mDatabase.beginTransaction();
+		try {
+			sequence = mDatabase.insert(TABLE_NAME, null, values);
+			if (sequence == -1) {
+				throw new IllegalStateException("Could not insert message in database");
+			}
+			enforceLimits();
+			mDatabase.setTransactionSuccessful();
+		} finally {
+			mDatabase.endTransaction();
+		}
+		return sequence;
 	}
 
-	public List<Entry> getAllAndDelete() {
-		List<Entry> entries = new LinkedList<Entry>();
-		Cursor c = mDatabase.query(TABLE_NAME, null, null, null, null, null, null);
-		if (!c.moveToFirst()) {
+	public long size() {
+		return DatabaseUtils.queryNumEntries(mDatabase, TABLE_NAME);
+	}
+
+	/**
+	 * Stream all entries currently in the queue, in the order they were added, to the given
+	 * consumer. Consumed entries get deleted, entries added while consuming are not streamed. If
+	 * the consumer returns false, then streaming stops and the not consumed entries stay in the
+	 * queue.
+	 * 
+	 * @param consumer
+	 * @return the number of consumed entries
+	 */
+	public int consumeAll(EntryConsumer consumer) {
+		final long maxSequence = DatabaseUtils.longForQuery(mDatabase, "SELECT IFNULL(MAX("
+				+ COLUMN_NAME_SEQUENCE + "), 0) FROM " + TABLE_NAME, null);
+		if (maxSequence == 0) return 0;
+
+		final String[] projection = { COLUMN_NAME_SEQUENCE, COLUMN_NAME_MESSAGE,
+				COLUMN_NAME_INTENT_ACTION, COLUMN_NAME_ISSUER_INFO, COLUMN_NAME_ISSUER_ID };
+		Cursor c = mDatabase.query(TABLE_NAME, projection, COLUMN_NAME_SEQUENCE + "<= ?",
+				new String[] { Long.toString(maxSequence) }, null, null, COLUMN_NAME_SEQUENCE);
+
+		int consumed = 0;
+		long lastConsumedSequence = 0;
+		long lastDeletedSequence = 0;
+		try {
+			final int sequenceIndex = c.getColumnIndexOrThrow(COLUMN_NAME_SEQUENCE);
+			final int messageIndex = c.getColumnIndexOrThrow(COLUMN_NAME_MESSAGE);
+			final int intentActionIndex = c.getColumnIndexOrThrow(COLUMN_NAME_INTENT_ACTION);
+			final int issuerInfoIndex = c.getColumnIndexOrThrow(COLUMN_NAME_ISSUER_INFO);
+			final int issuerIdIndex = c.getColumnIndexOrThrow(COLUMN_NAME_ISSUER_ID);
+			while (c.moveToNext()) {
+				final long sequence = c.getLong(sequenceIndex);
+				Message message = null;
+				try {
+					message = Message.fromBytes(c.getBlob(messageIndex));
+				} catch (RuntimeException e) {
+					LOG.w("consumeAll: could not decode message " + sequence + ", dropping it", e);
+					synchronized (this) {
+						mDroppedCount++;
+					}
+				}
+				// Messages that can not be decoded are considered consumed
+				if (message != null) {
+					CommandOrigin origin = new CommandOrigin(Constants.PACKAGE,
+							c.getString(intentActionIndex), c.getString(issuerInfoIndex),
+							c.getString(issuerIdIndex));
+					if (!consumer.consume(new Entry(sequence, message, origin))) break;
+				}
+
+				consumed++;
+				lastConsumedSequence = sequence;
+				if (consumed % CONSUME_DELETE_CHUNK_SIZE == 0) {
+					deleteUpTo(lastConsumedSequence);
+					lastDeletedSequence = lastConsumedSequence;
+				}
+			}
+		} finally {
 			c.close();
-			return entries;
 		}
 
-		do {
-			byte[] messageBytes = c.getBlob(c.getColumnIndexOrThrow(COLUMN_NAME_MESSAGE));
-			Message message = ParcelableUtil.unmarshall(messageBytes, Message.CREATOR);
-			String intentAction = c.getString(c.getColumnIndexOrThrow(COLUMN_NAME_INTENT_ACTION));
-			String issuerId = c.getString(c.getColumnIndexOrThrow(COLUMN_NAME_ISSUER_ID));
-			String issuerInfo = c.getString(c.getColumnIndexOrThrow(COLUMN_NAME_ISSUER_INFO));
-			entries.add(new Entry(message, new CommandOrigin(Constants.PACKAGE, intentAction,
-					issuerInfo, issuerId)));
-		} while (c.moveToNext());
-
-		// Delete all rows with the given origin after we have read out the
-		// values
-		mDatabase.delete(TABLE_NAME, null, null);
-
-		c.close();
-		return entries;
+		if (lastConsumedSequence > lastDeletedSequence) deleteUpTo(lastConsumedSequence);
+		return consumed;
+	}
+
+	private void deleteUpTo(long sequence) {
+		mDatabase.delete(TABLE_NAME, COLUMN_NAME_SEQUENCE + "<= ?",
+				new String[] { Long.toString(sequence) });
+	}
+
+	private void enforceLimits() {
+		final long oldest = System.currentTimeMillis() - mMaxAge;
+		int dropped = mDatabase.delete(TABLE_NAME, COLUMN_NAME_TIMESTAMP + "< ?",
+				new String[] { Long.toString(oldest) });
+
+		final long excess = size() - mMaxEntries;
+		if (excess > 0) {
+			final long lastDropped = DatabaseUtils.longForQuery(mDatabase, "SELECT "
+					+ COLUMN_NAME_SEQUENCE + " FROM " + TABLE_NAME + " ORDER BY "
+					+ COLUMN_NAME_SEQUENCE + " LIMIT 1 OFFSET " + (excess - 1), null);
+			dropped += mDatabase.delete(TABLE_NAME, COLUMN_NAME_SEQUENCE + "<= ?",
+					new String[] { Long.toString(lastDropped) });
+		}
+
+		if (dropped > 0) {
+			mDroppedCount += dropped;
+			LOG.w("enforceLimits: dropped " + dropped + " queued messages, " + mDroppedCount
+					+ " in total");
+		}
 	}
 
 	public static class Entry {
+		public final long mSequence;
 		public final Message mMessage;
 		public final CommandOrigin mOrigin;
 
-		private Entry(Message message, CommandOrigin origin) {
+		private Entry(long sequence, Message message, CommandOrigin origin) {
+			mSequence = sequence;
 			mMessage = message;
 			mOrigin = origin;
 		}
 	}
+
+	public interface EntryConsumer {
+		/**
+		 * Consume the given entry, e.g. by sending its message.
+		 * 
+		 * @param entry
+		 * @return true if the entry was consumed and can be deleted, false to abort
+		 */
+		boolean consume(Entry entry);
+	}
 }
@@ -0,0 +1,156 @@
+/*
+    This file is part of Project MAXS.
+
+    MAXS and its modules is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    MAXS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with MAXS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.projectmaxs.transport.xmpp.database;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.jivesoftware.smack.packet.Stanza;
+import org.projectmaxs.shared.global.util.Log;
+import org.projectmaxs.transport.xmpp.database.SendUnackedStanzasTable.StanzaConsumer;
+
+import android.content.Context;
+
+/**
+ * A write-behind journal for send but unacknowledged stanzas.
+ * <p>
+ * Adding and removing stanzas only records the operation in memory. A single background thread
+ * writes all recorded operations within one transaction to the {@link SendUnackedStanzasTable}.
+ * Stanzas that are acknowledged before they were written never touch the database. This keeps
+ * the database, and its fsync latency, out of Smack's send path.
+ * </p>
+ */
+public class SendUnackedStanzasJournal {
+
+	private static final Log LOG = Log.getLog();
+
+	private static SendUnackedStanzasJournal sSendUnackedStanzasJournal;
+
+	public static synchronized SendUnackedStanzasJournal getInstance(Context context) {
+		if (sSendUnackedStanzasJournal == null)
+			sSendUnackedStanzasJournal = new SendUnackedStanzasJournal(context);
+		return sSendUnackedStanzasJournal;
+	}
+
+	private final SendUnackedStanzasTable mTable;
+
+	/**
+	 * Guards {@link #mPendingAdds} and {@link #mPendingRemoves}.
+	 */
+	private final Object mPendingLock = new Object();
+
+	/**
+	 * Stanza id to stanza XML of the stanzas not yet written, in send order.
+	 */
+	private final Map<String, String> mPendingAdds = new LinkedHashMap<String, String>();
+
+	private final Set<String> mPendingRemoves = new HashSet<String>();
+
+	/**
+	 * Ensures that only one thread at a time writes the pending operations, and that
+	 * {@link #flush()} returns only after all operations recorded so far are committed.
+	 */
+	private final Object mWriteLock = new Object();
+
+	private final Executor mWriterExecutor = new ThreadPoolExecutor(0, 1, 1000L,
+			TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>());
+
+	private final Runnable mFlushRunnable = new Runnable() {
+		@Override
+		public void run() {
+			flush();
+		}
+	};
+
+	private boolean mFlushScheduled;
+
+	private SendUnackedStanzasJournal(Context context) {
+		mTable = SendUnackedStanzasTable.getInstance(context);
+	}
+
+	public void add(Stanza stanza) {
+		final String id = stanza.getStanzaId();
+		final String xml = stanza.toXML(null).toString();
+		synchronized (mPendingLock) {
+			mPendingAdds.put(id, xml);
+			scheduleFlush();
+		}
+	}
+
+	public void remove(String id) {
+		synchronized (mPendingLock) {
+			// The stanza may also be already in the database, e.g. because it got re-send after a
+			// reconnect, so always record the removal
+			mPendingAdds.remove(id);
+			mPendingRemoves.add(id);
+			scheduleFlush();
+		}
+	}
+
+	/**
+	 * Write all pending operations to the database.
+	 */
+	public void flush() {
+		synchronized (mWriteLock) {
+			final Set<String> toRemove;
+			final Map<String, String> toAdd;
+			synchronized (mPendingLock) {
+				mFlushScheduled = false;
+				if (mPendingAdds.isEmpty() && mPendingRemoves.isEmpty()) return;
+				toRemove = new HashSet<String>(mPendingRemoves);
+				toAdd = new LinkedHashMap<String, String>(mPendingAdds);
+				mPendingRemoves.clear();
+				mPendingAdds.clear();
+			}
+			try {
+				mTable.removeAndAdd(toRemove, toAdd);
+			} catch (RuntimeException e) {
+				LOG.e("flush: could not write " + toAdd.size() + " additions and "
+						+ toRemove.size() + " removals", e);
+			}
+		}
+	}
+
+	/**
+	 * Flush the pending operations and stream all unacknowledged stanzas to the given consumer.
+	 * Stanzas are deleted once they got consumed.
+	 * 
+	 * @param consumer
+	 * @return the number of consumed stanzas
+	 * @see SendUnackedStanzasTable#consumeAll(StanzaConsumer)
+	 */
+	public int consumeAll(StanzaConsumer consumer) {
+		synchronized (mWriteLock) {
+			flush();
+			return mTable.consumeAll(consumer);
+		}
+	}
+
+	private void scheduleFlush() {
+		// Called with mPendingLock held
+		if (mFlushScheduled) return;
+		mFlushScheduled = true;
+		mWriterExecutor.execute(mFlushRunnable);
+	}
+}
@@ -17,8 +17,8 @@
 
 package org.projectmaxs.transport.xmpp.database;
 
-import java.util.LinkedList;
-import java.util.List;
+import java.util.Collection;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -28,16 +28,28 @@ import org.jivesoftware.smack.util.PacketParserUtils;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 
 /**
  * Holds send but unacknowledged, by means of XEP-198: Stream Management, stanzas.
+ * <p>
+ * Rows are kept in insertion order (rowid). Use {@link SendUnackedStanzasJournal} to write to
+ * this table, which batches the inserts and removals into single transactions.
+ * </p>
  */
 public class SendUnackedStanzasTable {
 
 	private static final Logger LOGGER = Logger.getLogger(SendUnackedStanzasTable.class.getName());
 
+	/**
+	 * The number of consumed rows after which they get deleted while streaming the table.
+	 */
+	private static final int CONSUME_DELETE_CHUNK_SIZE = 100;
+
 	private static final String TABLE_NAME = "sendunackedstanzas";
+	private static final String INDEX_NAME = TABLE_NAME + "_stanzaId_idx";
+	private static final String COLUMN_NAME_ROWID = "rowid";
 	private static final String COLUMN_NAME_STANZA_ID = "stanzaId";
 	private static final String COLUMN_NAME_STANZA_XML = "stanzaXml";
 
@@ -48,6 +60,10 @@ public class SendUnackedStanzasTable {
 		 COLUMN_NAME_STANZA_ID + XMPPDatabase.TEXT_TYPE + XMPPDatabase.NOT_NULL + XMPPDatabase.COMMA_SEP +
 		 COLUMN_NAME_STANZA_XML + XMPPDatabase.TEXT_TYPE + XMPPDatabase.NOT_NULL +
 		" )";
+
+	public static final String CREATE_INDEX =
+		"CREATE INDEX " + INDEX_NAME + " ON " + TABLE_NAME +
+		" (" + COLUMN_NAME_STANZA_ID + ")";
 	// @formatter:on
 
 	public static final String DELETE_TABLE = XMPPDatabase.DROP_TABLE + TABLE_NAME;
@@ -65,43 +81,98 @@ public class SendUnackedStanzasTable {
 		mDatabase = XMPPDatabase.getInstance(context).getWritableDatabase();
 	}
 
-	public void addStanza(Stanza stanza) {
-		ContentValues values = new ContentValues();
-		values.put(COLUMN_NAME_STANZA_ID, stanza.getStanzaId());
-		values.put(COLUMN_NAME_STANZA_XML, stanza.toXML(null).toString());
-
-		long res = mDatabase.insert(TABLE_NAME, null, values);
-		if (res == -1) throw new IllegalStateException("Could not insert command in database");
+	/**
+	 * Remove the rows with the given stanza ids and add the given stanzas afterwards, all within a
+	 * single transaction.
+	 * 
+	 * @param toRemove
+	 *            the ids of the stanzas that got acknowledged
+	 * @param toAdd
+	 *            a map from stanza id to stanza XML, in send order
+	 */
+	public void removeAndAdd(Collection<String> toRemove, Map<String, String> toAdd) {
+		mDatabase.beginTransaction();
+		try {
+			for (String id : toRemove) {
+				mDatabase.delete(TABLE_NAME, COLUMN_NAME_STANZA_ID + "= ?", new String[] { id, });
+			}
+			ContentValues values = new ContentValues();
+			for (Map.Entry<String, String> entry : toAdd.entrySet()) {
+				values.put(COLUMN_NAME_STANZA_ID, entry.getKey());
+				values.put(COLUMN_NAME_STANZA_XML, entry.getValue());
+				long res = mDatabase.insert(TABLE_NAME, null, values);
+				if (res == -1) {
+					LOGGER.warning("Could not insert stanza with id " + entry.getKey()
+							+ " in database");
+				}
+			}
+			mDatabase.setTransactionSuccessful();
+		} finally {
+			mDatabase.endTransaction();
+		}
 	}
 
-	public List<Stanza> getAllAndDelete() {
-		List<Stanza> entries = new LinkedList<>();
-		Cursor c = mDatabase.query(TABLE_NAME, null, null, null, null, null, null);
-		if (!c.moveToFirst()) {
+	/**
+	 * Stream all stanzas currently in the table, in the order they were added, to the given
+	 * consumer. Consumed rows get deleted. Rows added while consuming are not streamed. If the
+	 * consumer returns false, then streaming stops and the not consumed rows stay in the table.
+	 * 
+	 * @param consumer
+	 * @return the number of consumed stanzas
+	 */
+	public int consumeAll(StanzaConsumer consumer) {
+		final long maxRowId = DatabaseUtils.longForQuery(mDatabase, "SELECT IFNULL(MAX("
+				+ COLUMN_NAME_ROWID + "), 0) FROM " + TABLE_NAME, null);
+		if (maxRowId == 0) return 0;
+
+		final String[] projection = { COLUMN_NAME_ROWID, COLUMN_NAME_STANZA_XML };
+		Cursor c = mDatabase.query(TABLE_NAME, projection, COLUMN_NAME_ROWID + "<= ?",
+				new String[] { Long.toString(maxRowId) }, null, null, COLUMN_NAME_ROWID);
+
+		int consumed = 0;
+		long lastConsumedRowId = 0;
+		long lastDeletedRowId = 0;
+		try {
+			final int rowIdIndex = c.getColumnIndexOrThrow(COLUMN_NAME_ROWID);
+			final int xmlIndex = c.getColumnIndexOrThrow(COLUMN_NAME_STANZA_XML);
+			while (c.moveToNext()) {
+				final long rowId = c.getLong(rowIdIndex);
+				Stanza stanza = null;
+				try {
+					stanza = PacketParserUtils.parseStanza(c.getString(xmlIndex));
+				} catch (Exception e) {
+					LOGGER.log(Level.WARNING, "could not parse stanza", e);
+				}
+				// Stanzas that can not be parsed are considered consumed
+				if (stanza != null && !consumer.consume(stanza)) break;
+
+				consumed++;
+				lastConsumedRowId = rowId;
+				if (consumed % CONSUME_DELETE_CHUNK_SIZE == 0) {
+					deleteUpTo(lastConsumedRowId);
+					lastDeletedRowId = lastConsumedRowId;
+				}
+			}
+		} finally {
 			c.close();
-			return entries;
 		}
 
-		do {
-			byte[] stanzaBytes = c.getBlob(c.getColumnIndexOrThrow(COLUMN_NAME_STANZA_XML));
-			Stanza stanza;
-			try {
-				stanza = PacketParserUtils.parseStanza(new String(stanzaBytes));
-				entries.add(stanza);
-			} catch (Exception e) {
-				LOGGER.log(Level.WARNING, "could not parse stanza", e);
-			}
-		} while (c.moveToNext());
-
-		// Delete all rows
-		mDatabase.delete(TABLE_NAME, null, null);
+		if (lastConsumedRowId > lastDeletedRowId) deleteUpTo(lastConsumedRowId);
+		return consumed;
+	}
 
-		c.close();
-		return entries;
+	private void deleteUpTo(long rowId) {
+		mDatabase.delete(TABLE_NAME, COLUMN_NAME_ROWID + "<= ?",
+				new String[] { Long.toString(rowId) });
 	}
 
-	public boolean removeId(String id) {
-		int res = mDatabase.delete(TABLE_NAME, COLUMN_NAME_STANZA_ID + "= ?", new String[] { id, });
-		return res > 0;
+	public interface StanzaConsumer {
+		/**
+		 * Consume the given stanza.
+		 * 
+		 * @param stanza
+		 * @return true if the stanza was consumed, false to abort
+		 */
+		boolean consume(Stanza stanza);
 	}
 }
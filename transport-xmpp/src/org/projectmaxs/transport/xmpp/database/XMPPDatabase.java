@@ -25,7 +25,7 @@ import android.database.sqlite.SQLiteOpenHelper;
 
 public class XMPPDatabase extends SQLiteOpenHelper {
 
-	private static final int DATABASE_VERSION = 2;
+	private static final int DATABASE_VERSION = 4;
 	private static final String DATABASE_NAME = Constants.PACKAGE + ".db";
 
 	public static final String TEXT_TYPE = " TEXT";
@@ -42,6 +42,7 @@ public class XMPPDatabase extends SQLiteOpenHelper {
 				XMPPEntityCapsTable.CREATE_TABLE,
 				MessagesTable.CREATE_TABLE, 
 				SendUnackedStanzasTable.CREATE_TABLE,
+				SendUnackedStanzasTable.CREATE_INDEX,
 	};
 	private static final String[] SQL_DELETE_ENTRIES = new String[] {
 		XMPPEntityCapsTable.DELETE_TABLE,
@@ -66,10 +67,26 @@ public class XMPPDatabase extends SQLiteOpenHelper {
 		createTables(db);
 	}
 
+	/**
+	 * Upgrade the database step by step, so that the queued messages survive.
+	 * <ul>
+	 * <li>3: the index on the stanza IDs of the unacked stanzas</li>
+	 * <li>4: the messages table became a queue with sequence numbers and timestamps</li>
+	 * </ul>
+	 */
 	@Override
 	public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-		deleteTables(db);
-		createTables(db);
+		if (oldVersion < 2) {
+			deleteTables(db);
+			createTables(db);
+			return;
+		}
+		if (oldVersion < 3) {
+			db.execSQL(SendUnackedStanzasTable.CREATE_INDEX + SEMICOLON_SEP);
+		}
+		if (oldVersion < 4) {
+			MessagesTable.upgradeToVersion4(db);
+		}
 	}
 
 	private static void createTables(SQLiteDatabase db) {
@@ -55,16 +55,19 @@ public class XMPPEntityCapsTable {
 		mDatabase = XMPPDatabase.getInstance(context).getWritableDatabase();
 	}
 
+	/**
+	 * Add the discover info for the given node. If there is already a discover info for the node,
+	 * then nothing is changed, as the node's verification string already identifies the info.
+	 * 
+	 * @param node
+	 * @param info
+	 */
 	public void addDiscoverInfo(String node, CharSequence info) {
-		if (containsNode(node)) return;
-
 		ContentValues values = new ContentValues();
 		values.put(COLUMN_NAME_NODE, node);
 		values.put(COLUMN_NAME_INFO, info.toString());
 
-		long res = mDatabase.insert(TABLE_NAME, null, values);
-		if (res == -1)
-			throw new IllegalStateException("Could not insert discover info in database");
+		mDatabase.insertWithOnConflict(TABLE_NAME, null, values, SQLiteDatabase.CONFLICT_IGNORE);
 	}
 
 	public Map<String, String> getDiscoverInfos() {
@@ -0,0 +1,57 @@
+/*
+    This file is part of Project MAXS.
+
+    MAXS and its modules is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    MAXS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with MAXS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.projectmaxs.transport.xmpp.smack.provider;
+
+import java.io.IOException;
+
+import org.jivesoftware.smack.SmackException;
+import org.jivesoftware.smack.provider.ExtensionElementProvider;
+import org.jivesoftware.smack.provider.ProviderManager;
+import org.projectmaxs.shared.global.Message;
+import org.projectmaxs.shared.transport.transform.XML;
+import org.projectmaxs.transport.xmpp.smack.stanza.MAXSContent;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+public class MAXSContentProvider extends ExtensionElementProvider<MAXSContent> {
+
+	public static final MAXSContentProvider INSTANCE = new MAXSContentProvider();
+
+	private MAXSContentProvider() {}
+
+	@Override
+	public MAXSContent parse(XmlPullParser parser, int initialDepth)
+			throws XmlPullParserException, IOException, SmackException {
+		String idString = parser.getAttributeValue("", "id");
+		boolean success = !"false".equals(parser.getAttributeValue("", "success"));
+		String requestId = parser.getAttributeValue("", "request");
+
+		Message message = new Message(XML.parse(parser));
+		try {
+			message.setId(idString != null ? Integer.parseInt(idString) : Message.NO_ID);
+		} catch (NumberFormatException e) {
+			throw new XmlPullParserException("Invalid command ID: " + idString, parser, e);
+		}
+		message.setSuccess(success);
+		return new MAXSContent(message, requestId);
+	}
+
+	public static void setup() {
+		ProviderManager.addExtensionProvider(MAXSContent.ELEMENT, MAXSContent.NAMESPACE, INSTANCE);
+	}
+}
@@ -0,0 +1,58 @@
+/*
+    This file is part of Project MAXS.
+
+    MAXS and its modules is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    MAXS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with MAXS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.projectmaxs.transport.xmpp.smack.stanza;
+
+import org.jivesoftware.smack.packet.IQ;
+
+/**
+ * A MAXS command send as IQ request. The result of the command is send back as
+ * {@link MAXSContentIQ} with the same stanza ID.
+ * 
+ * <pre>
+ * {@code
+ * <iq type='set' id='x1'>
+ *   <command xmlns='https://projectmaxs.org/command'>sms read</command>
+ * </iq>
+ * }
+ * </pre>
+ */
+public class MAXSCommandIQ extends IQ {
+
+	public static final String ELEMENT = "command";
+	public static final String NAMESPACE = MAXSElement.NAMESPACE + "/command";
+
+	private final String mCommand;
+
+	public MAXSCommandIQ(String command) {
+		super(ELEMENT, NAMESPACE);
+		setType(IQ.Type.set);
+		mCommand = command;
+	}
+
+	public String getCommand() {
+		return mCommand;
+	}
+
+	@Override
+	protected IQChildElementXmlStringBuilder getIQChildElementBuilder(
+			IQChildElementXmlStringBuilder xml) {
+		xml.rightAngleBracket();
+		xml.escape(mCommand);
+		return xml;
+	}
+}
@@ -0,0 +1,108 @@
+/*
+    This file is part of Project MAXS.
+
+    MAXS and its modules is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    MAXS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with MAXS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.projectmaxs.transport.xmpp.smack.stanza;
+
+import org.jivesoftware.smack.packet.ExtensionElement;
+import org.jivesoftware.smack.packet.Stanza;
+import org.jivesoftware.smack.util.XmlStringBuilder;
+import org.projectmaxs.shared.global.Message;
+import org.projectmaxs.shared.transport.transform.TransformMessageContent;
+
+/**
+ * The structured content of a MAXS message, i.e. the command ID, the success flag and the message
+ * content serialized by {@link org.projectmaxs.shared.transport.transform.XML}. The first reply to
+ * a {@link MAXSCommandIQ} carries the content as {@link MAXSContentIQ}. An IQ request has exactly
+ * one result, so further replies carry it as extension of a message, with the stanza ID of the
+ * request as 'request' attribute.
+ * 
+ * <pre>
+ * {@code
+ * <message to='master@example.org/phone'>
+ *   <content xmlns='https://projectmaxs.org/content' id='42' success='true' request='x1'>
+ *     <sms type='inbox' contact='Alice' date='1400000000000'>Hi</sms>
+ *   </content>
+ *   <maxs xmlns='https://projectmaxs.org'/>
+ * </message>
+ * }
+ * </pre>
+ */
+public class MAXSContent implements ExtensionElement {
+
+	public static final String ELEMENT = "content";
+	public static final String NAMESPACE = MAXSElement.NAMESPACE + "/content";
+
+	private final Message mMessage;
+	private final String mRequestId;
+
+	/**
+	 * Create a new content element.
+	 * 
+	 * @param message
+	 * @param requestId
+	 *            the stanza ID of the {@link MAXSCommandIQ} this content replies to, or null if it
+	 *            is the IQ result
+	 */
+	public MAXSContent(Message message, String requestId) {
+		mMessage = message;
+		mRequestId = requestId;
+	}
+
+	public Message getMessage() {
+		return mMessage;
+	}
+
+	public String getRequestId() {
+		return mRequestId;
+	}
+
+	@Override
+	public String getElementName() {
+		return ELEMENT;
+	}
+
+	@Override
+	public String getNamespace() {
+		return NAMESPACE;
+	}
+
+	@Override
+	public XmlStringBuilder toXML(String enclosingNamespace) {
+		XmlStringBuilder xml = new XmlStringBuilder(this);
+		appendContent(xml);
+		xml.closeElement(this);
+		return xml;
+	}
+
+	/**
+	 * Append the attributes and the child elements, i.e. everything after the element name up to
+	 * the end tag.
+	 * 
+	 * @param xml
+	 */
+	void appendContent(XmlStringBuilder xml) {
+		xml.attribute("id", mMessage.getId());
+		xml.attribute("success", Boolean.toString(mMessage.isSuccess()));
+		xml.optAttribute("request", mRequestId);
+		xml.rightAngleBracket();
+		xml.append(TransformMessageContent.toXML(mMessage));
+	}
+
+	public static MAXSContent from(Stanza stanza) {
+		return stanza.getExtension(ELEMENT, NAMESPACE);
+	}
+}
@@ -0,0 +1,58 @@
+/*
+    This file is part of Project MAXS.
+
+    MAXS and its modules is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    MAXS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with MAXS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.projectmaxs.transport.xmpp.smack.stanza;
+
+import org.jivesoftware.smack.packet.IQ;
+
+/**
+ * The structured result of a {@link MAXSCommandIQ}, see {@link MAXSContent}.
+ * 
+ * <pre>
+ * {@code
+ * <iq type='result' id='x1'>
+ *   <content xmlns='https://projectmaxs.org/content' id='42' success='true'>
+ *     <sms type='inbox' contact='Alice' date='1400000000000'>Hi</sms>
+ *   </content>
+ * </iq>
+ * }
+ * </pre>
+ */
+public class MAXSContentIQ extends IQ {
+
+	public static final String ELEMENT = MAXSContent.ELEMENT;
+	public static final String NAMESPACE = MAXSContent.NAMESPACE;
+
+	private final MAXSContent mContent;
+
+	public MAXSContentIQ(MAXSContent content) {
+		super(ELEMENT, NAMESPACE);
+		setType(IQ.Type.result);
+		mContent = content;
+	}
+
+	public MAXSContent getContent() {
+		return mContent;
+	}
+
+	@Override
+	protected IQChildElementXmlStringBuilder getIQChildElementBuilder(
+			IQChildElementXmlStringBuilder xml) {
+		mContent.appendContent(xml);
+		return xml;
+	}
+}
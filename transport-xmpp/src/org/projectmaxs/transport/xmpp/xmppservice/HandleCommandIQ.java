@@ -0,0 +1,68 @@
+/*
+    This file is part of Project MAXS.
+
+    MAXS and its modules is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    MAXS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with MAXS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.projectmaxs.transport.xmpp.xmppservice;
+
+import org.jivesoftware.smack.XMPPConnection;
+import org.jivesoftware.smack.iqrequest.AbstractIqRequestHandler;
+import org.jivesoftware.smack.iqrequest.IQRequestHandler;
+import org.jivesoftware.smack.packet.IQ;
+import org.jivesoftware.smack.packet.StanzaError;
+import org.projectmaxs.shared.global.util.CommandMetrics;
+import org.projectmaxs.shared.global.util.Log;
+import org.projectmaxs.transport.xmpp.Settings;
+import org.projectmaxs.transport.xmpp.smack.stanza.MAXSCommandIQ;
+
+/**
+ * Handles commands send as {@link MAXSCommandIQ} by master JIDs. The result is send
+ * asynchronously, once MAXS main replied, as IQ result by {@link XMPPService}. Further replies to
+ * the same command are send as messages.
+ */
+public class HandleCommandIQ extends StateChangeListener {
+
+	private static final Log LOG = Log.getLog();
+
+	private final XMPPService mXMPPService;
+	private final Settings mSettings;
+
+	private final AbstractIqRequestHandler mCommandIQHandler = new AbstractIqRequestHandler(
+			MAXSCommandIQ.ELEMENT, MAXSCommandIQ.NAMESPACE, IQ.Type.set,
+			IQRequestHandler.Mode.async) {
+		@Override
+		public IQ handleIQRequest(IQ iqRequest) {
+			final long receivedNanos = CommandMetrics.now();
+			if (!mSettings.isMasterJID(iqRequest.getFrom())) {
+				LOG.w("Ignoring command IQ from non-master JID: " + iqRequest.getFrom());
+				return IQ.createErrorResponse(iqRequest, StanzaError.Condition.forbidden);
+			}
+			MAXSCommandIQ commandIQ = (MAXSCommandIQ) iqRequest;
+			mXMPPService.newCommandFromIQ(commandIQ, receivedNanos);
+			// The response is send once the command was performed
+			return null;
+		}
+	};
+
+	public HandleCommandIQ(XMPPService xmppService) {
+		mXMPPService = xmppService;
+		mSettings = Settings.getInstance(xmppService.getContext());
+	}
+
+	@Override
+	public void newConnection(XMPPConnection connection) {
+		connection.registerIQRequestHandler(mCommandIQHandler);
+	}
+}
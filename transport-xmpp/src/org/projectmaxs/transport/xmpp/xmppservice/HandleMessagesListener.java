@@ -17,19 +17,23 @@
 
 package org.projectmaxs.transport.xmpp.xmppservice;
 
-import java.util.List;
-
 import org.jivesoftware.smack.XMPPConnection;
+import org.projectmaxs.shared.global.util.Log;
 import org.projectmaxs.transport.xmpp.database.MessagesTable;
 import org.projectmaxs.transport.xmpp.database.MessagesTable.Entry;
+import org.projectmaxs.transport.xmpp.database.MessagesTable.EntryConsumer;
 
 public class HandleMessagesListener extends StateChangeListener {
+
+	private static final Log LOG = Log.getLog();
+
 	private final MessagesTable mMessagesTable;
 	private final XMPPService mXMPPService;
 
 	/**
 	 * HandleMessagesListener takes care of messages that could not been sent
-	 * and are therefore stored in the database for later submission.
+	 * and are therefore stored in the database for later submission. A
+	 * message is only removed from the database once it has been send.
 	 * 
 	 */
 	public HandleMessagesListener(XMPPService xmppService) {
@@ -39,9 +43,12 @@ public class HandleMessagesListener extends StateChangeListener {
 
 	@Override
 	public void connected(XMPPConnection connection) {
-		List<Entry> entries = mMessagesTable.getAllAndDelete();
-		for (Entry e : entries)
-			mXMPPService.send(e.mMessage, e.mOrigin);
-
+		int sent = mMessagesTable.consumeAll(new EntryConsumer() {
+			@Override
+			public boolean consume(Entry entry) {
+				return mXMPPService.send(entry.mMessage, entry.mOrigin, false);
+			}
+		});
+		if (sent > 0) LOG.d("connected: sent {} queued messages", sent);
 	}
 }
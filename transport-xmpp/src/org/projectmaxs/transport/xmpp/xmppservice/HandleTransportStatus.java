@@ -31,6 +31,7 @@ import org.projectmaxs.shared.global.util.DateTimeUtil;
 import org.projectmaxs.shared.global.util.Log;
 import org.projectmaxs.shared.maintransport.TransportConstants;
 import org.projectmaxs.transport.xmpp.Settings;
+import org.projectmaxs.transport.xmpp.database.MessagesTable;
 import org.projectmaxs.transport.xmpp.util.Constants;
 
 import android.content.Context;
@@ -185,11 +186,15 @@ public class HandleTransportStatus extends StateChangeListener {
 	}
 
 	public void sendStatus() {
+		String status = mStatusString;
+		final long dropped = MessagesTable.getInstance(mContext).getDroppedCount();
+		if (dropped > 0) status += " (" + dropped + " queued messages dropped)";
+
 		Intent intent = new Intent(TransportConstants.ACTION_UPDATE_TRANSPORT_STATUS);
 		intent.setClassName(TransportConstants.MAIN_PACKAGE,
 				TransportConstants.MAIN_TRANSPORT_SERVICE);
 		intent.putExtra(GlobalConstants.EXTRA_PACKAGE, Constants.PACKAGE);
-		intent.putExtra(GlobalConstants.EXTRA_CONTENT, mStatusString);
+		intent.putExtra(GlobalConstants.EXTRA_CONTENT, status);
 		mContext.startService(intent);
 	}
 }
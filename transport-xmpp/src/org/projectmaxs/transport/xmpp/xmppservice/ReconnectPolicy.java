@@ -0,0 +1,142 @@
+/*
+    This file is part of Project MAXS.
+
+    MAXS and its modules is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    MAXS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with MAXS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.projectmaxs.transport.xmpp.xmppservice;
+
+import java.util.Random;
+
+/**
+ * The reconnect delay policy: capped exponential backoff with decorrelated jitter. Every delay is
+ * chosen randomly between the base delay and three times the previous delay, but never exceeds
+ * the maximum delay. The jitter prevents many clients from reconnecting in lockstep, e.g. after a
+ * server restart.
+ * <p>
+ * This class is not thread-safe.
+ * </p>
+ */
+public class ReconnectPolicy {
+
+	public static final long DEFAULT_BASE_DELAY_MILLIS = 10 * 1000;
+	public static final long DEFAULT_MAX_DELAY_MILLIS = 30 * 60 * 1000;
+
+	public interface Clock {
+		long currentTimeMillis();
+	}
+
+	public static final Clock SYSTEM_CLOCK = new Clock() {
+		@Override
+		public long currentTimeMillis() {
+			return System.currentTimeMillis();
+		}
+	};
+
+	private final long mBaseDelayMillis;
+	private final long mMaxDelayMillis;
+	private final Clock mClock;
+	private final Random mRandom;
+
+	private long mPreviousDelayMillis;
+	private int mAttempts;
+	private long mNextAttemptAt = -1;
+	private String mLastError;
+
+	public ReconnectPolicy() {
+		this(DEFAULT_BASE_DELAY_MILLIS, DEFAULT_MAX_DELAY_MILLIS, SYSTEM_CLOCK, new Random());
+	}
+
+	public ReconnectPolicy(long baseDelayMillis, long maxDelayMillis, Clock clock, Random random) {
+		if (baseDelayMillis <= 0 || maxDelayMillis < baseDelayMillis) {
+			throw new IllegalArgumentException("Invalid delays: base=" + baseDelayMillis + " max="
+					+ maxDelayMillis);
+		}
+		mBaseDelayMillis = baseDelayMillis;
+		mMaxDelayMillis = maxDelayMillis;
+		mClock = clock;
+		mRandom = random;
+		mPreviousDelayMillis = baseDelayMillis;
+	}
+
+	/**
+	 * Record a failed connection attempt and compute the delay until the next attempt.
+	 * 
+	 * @param error
+	 *            the reason of the failure, may be null
+	 * @return the delay in milliseconds
+	 */
+	public long nextDelay(String error) {
+		mAttempts++;
+		mLastError = error;
+
+		final long upperBound = Math.min(mMaxDelayMillis, mPreviousDelayMillis * 3);
+		long delay = mBaseDelayMillis;
+		if (upperBound > mBaseDelayMillis) {
+			delay += (long) (mRandom.nextDouble() * (upperBound - mBaseDelayMillis));
+		}
+		delay = Math.min(mMaxDelayMillis, delay);
+
+		mPreviousDelayMillis = delay;
+		mNextAttemptAt = mClock.currentTimeMillis() + delay;
+		return delay;
+	}
+
+	/**
+	 * Record that the next attempt is performed now, e.g. because a new network became available.
+	 */
+	public void attemptNow() {
+		mNextAttemptAt = mClock.currentTimeMillis();
+	}
+
+	/**
+	 * Record that no attempt is scheduled, e.g. because there is no network.
+	 */
+	public void suspend() {
+		mNextAttemptAt = -1;
+	}
+
+	/**
+	 * Reset the backoff after a successful connection.
+	 */
+	public void reset() {
+		mPreviousDelayMillis = mBaseDelayMillis;
+		mAttempts = 0;
+		mNextAttemptAt = -1;
+	}
+
+	public int getAttempts() {
+		return mAttempts;
+	}
+
+	/**
+	 * Get the time of the next connection attempt.
+	 * 
+	 * @return the time in milliseconds since the epoch, or -1 if no attempt is scheduled
+	 */
+	public long getNextAttemptAt() {
+		return mNextAttemptAt;
+	}
+
+	public String getLastError() {
+		return mLastError;
+	}
+
+	@Override
+	public String toString() {
+		long nextIn = mNextAttemptAt == -1 ? -1 : mNextAttemptAt - mClock.currentTimeMillis();
+		return "attempts=" + mAttempts + " nextAttemptInMillis=" + nextIn + " lastError="
+				+ mLastError;
+	}
+}
@@ -0,0 +1,151 @@
+/*
+    This file is part of Project MAXS.
+
+    MAXS and its modules is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    MAXS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with MAXS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.projectmaxs.transport.xmpp.xmppservice;
+
+import org.projectmaxs.shared.global.util.Log;
+
+import android.os.Handler;
+
+/**
+ * Schedules the reconnection attempts of {@link XMPPService} according to a
+ * {@link ReconnectPolicy}. While there is no network, no attempts are scheduled. Once a usable
+ * network becomes available, an attempt suspended because of the missing network is performed
+ * right away, instead of waiting for the possibly long backoff delay. An attempt that is waiting
+ * for its backoff delay is not affected by {@link #onNetworkAvailable()}.
+ */
+public class ReconnectScheduler {
+
+	private static final Log LOG = Log.getLog();
+
+	/**
+	 * The delay of the attempt after a network became available. Give the system a moment to
+	 * settle, e.g. to update the DNS server information, before trying to connect.
+	 */
+	private static final long NETWORK_AVAILABLE_DELAY_MILLIS = 1000;
+
+	private final ReconnectPolicy mPolicy;
+	private final Runnable mReconnectRunnable;
+
+	private Handler mHandler;
+
+	private boolean mPending;
+
+	/**
+	 * If the pending attempt was suspended by {@link #onNetworkLost()}.
+	 */
+	private boolean mSuspended;
+
+	public ReconnectScheduler(ReconnectPolicy policy, final Runnable reconnect) {
+		mPolicy = policy;
+		mReconnectRunnable = new Runnable() {
+			@Override
+			public void run() {
+				synchronized (ReconnectScheduler.this) {
+					mPending = false;
+					mSuspended = false;
+				}
+				reconnect.run();
+			}
+		};
+	}
+
+	/**
+	 * Schedule a reconnection attempt after a failed one.
+	 * 
+	 * @param error
+	 *            the reason of the failure, may be null
+	 */
+	public synchronized void schedule(String error) {
+		final long delay = mPolicy.nextDelay(error);
+		LOG.d("schedule: scheduling reconnect in " + delay + "ms. " + mPolicy);
+		post(delay);
+	}
+
+	/**
+	 * Invoked when a usable network became available. If the pending attempt was suspended
+	 * because there was no network, then it is performed right away. Otherwise the backoff delay
+	 * of the pending attempt is kept.
+	 */
+	public synchronized void onNetworkAvailable() {
+		if (!mPending || !mSuspended) return;
+		LOG.d("onNetworkAvailable: reconnecting now");
+		mPolicy.attemptNow();
+		post(NETWORK_AVAILABLE_DELAY_MILLIS);
+	}
+
+	/**
+	 * Invoked when there is no network. A pending attempt is not performed until
+	 * {@link #onNetworkAvailable()} is invoked.
+	 */
+	public synchronized void onNetworkLost() {
+		if (!mPending) return;
+		LOG.d("onNetworkLost: suspending reconnect");
+		getHandler().removeCallbacks(mReconnectRunnable);
+		mPolicy.suspend();
+		mSuspended = true;
+	}
+
+	/**
+	 * Invoked after a successful connection, resets the backoff.
+	 */
+	public synchronized void onConnected() {
+		cancel();
+		mPolicy.reset();
+	}
+
+	/**
+	 * Cancel the pending attempt, if any.
+	 */
+	public synchronized void cancel() {
+		mPending = false;
+		mSuspended = false;
+		if (mHandler != null) mHandler.removeCallbacks(mReconnectRunnable);
+		mPolicy.suspend();
+	}
+
+	public synchronized int getAttempts() {
+		return mPolicy.getAttempts();
+	}
+
+	public synchronized long getNextAttemptAt() {
+		return mPolicy.getNextAttemptAt();
+	}
+
+	public synchronized String getLastError() {
+		return mPolicy.getLastError();
+	}
+
+	@Override
+	public synchronized String toString() {
+		return mPolicy.toString();
+	}
+
+	private void post(long delay) {
+		Handler handler = getHandler();
+		handler.removeCallbacks(mReconnectRunnable);
+		handler.postDelayed(mReconnectRunnable, delay);
+		mPending = true;
+		mSuspended = false;
+	}
+
+	private Handler getHandler() {
+		// Create the Handler lazily, on the thread scheduling the first attempt
+		if (mHandler == null) mHandler = new Handler();
+		return mHandler;
+	}
+}
@@ -17,8 +17,6 @@
 
 package org.projectmaxs.transport.xmpp.xmppservice;
 
-import java.util.List;
-
 import org.jivesoftware.smack.SmackException.NotConnectedException;
 import org.jivesoftware.smack.StanzaListener;
 import org.jivesoftware.smack.XMPPConnection;
@@ -28,7 +26,8 @@ import org.jivesoftware.smack.tcp.XMPPTCPConnection;
 import org.jivesoftware.smack.util.Async;
 import org.jivesoftware.smack.util.StringUtils;
 import org.projectmaxs.shared.global.util.Log;
-import org.projectmaxs.transport.xmpp.database.SendUnackedStanzasTable;
+import org.projectmaxs.transport.xmpp.database.SendUnackedStanzasJournal;
+import org.projectmaxs.transport.xmpp.database.SendUnackedStanzasTable.StanzaConsumer;
 
 /**
  * Add send but unacknowledged stanzas to a database. The stanza entries in the database will get
@@ -39,10 +38,11 @@ public class SendStanzaDatabaseHandler extends StateChangeListener {
 
 	private static Log LOG = Log.getLog();
 
-	private final SendUnackedStanzasTable mSendUnackedStanzasTable;
+	private final SendUnackedStanzasJournal mSendUnackedStanzasJournal;
 
 	public SendStanzaDatabaseHandler(XMPPService xmppService) {
-		mSendUnackedStanzasTable = SendUnackedStanzasTable.getInstance(xmppService.getContext());
+		mSendUnackedStanzasJournal = SendUnackedStanzasJournal.getInstance(xmppService
+				.getContext());
 	}
 
 	@Override
@@ -72,7 +72,7 @@ public class SendStanzaDatabaseHandler extends StateChangeListener {
 						return;
 					}
 				}
-				mSendUnackedStanzasTable.addStanza(stanza);
+				mSendUnackedStanzasJournal.add(stanza);
 			}
 			// Match all stanza by using 'null' as filter
 		}, null);
@@ -85,31 +85,32 @@ public class SendStanzaDatabaseHandler extends StateChangeListener {
 				if (StringUtils.isNullOrEmpty(id)) {
 					return;
 				}
-				mSendUnackedStanzasTable.removeId(id);
+				mSendUnackedStanzasJournal.remove(id);
 			}
 		});
 	}
 
 	@Override
 	public void connected(final XMPPConnection connection) {
-		final List<Stanza> toResend = mSendUnackedStanzasTable.getAllAndDelete();
-		if (toResend.isEmpty()) {
-			return;
-		}
 		Async.go(new Runnable() {
 			@Override
 			public void run() {
-				for (Stanza stanza : toResend) {
-					try {
-						connection.sendStanza(stanza);
-					} catch (NotConnectedException | InterruptedException e) {
-						// Simply abort if sending the stanzas throws an exception. We could
-						// consider re-adding the stanzas that weren't send to the database, but
-						// right now, just abort.
-						LOG.w("resend unacked stanzas got exception, aborting", e);
-						break;
+				int resend = mSendUnackedStanzasJournal.consumeAll(new StanzaConsumer() {
+					@Override
+					public boolean consume(Stanza stanza) {
+						try {
+							connection.sendStanza(stanza);
+						} catch (NotConnectedException | InterruptedException e) {
+							// Abort if sending the stanzas throws an exception. The stanzas that
+							// weren't send stay in the database and will be re-send on the next
+							// connect.
+							LOG.w("resend unacked stanzas got exception, aborting", e);
+							return false;
+						}
+						return true;
 					}
-				}
+				});
+				if (resend > 0) LOG.d("connected: re-send " + resend + " unacked stanzas");
 			}
 		}, "Re-send unacked stanzas");
 	}
@@ -0,0 +1,255 @@
+/*
+    This file is part of Project MAXS.
+
+    MAXS and its modules is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    MAXS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with MAXS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.projectmaxs.transport.xmpp.xmppservice;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jivesoftware.smack.StanzaListener;
+import org.jivesoftware.smack.XMPPConnection;
+import org.jivesoftware.smack.filter.StanzaFilter;
+import org.jivesoftware.smack.filter.StanzaTypeFilter;
+import org.jivesoftware.smack.packet.Presence;
+import org.jivesoftware.smack.packet.Stanza;
+import org.jivesoftware.smackx.caps.EntityCapsManager;
+import org.jivesoftware.smackx.disco.packet.DiscoverInfo;
+import org.jivesoftware.smackx.xhtmlim.XHTMLManager;
+import org.jivesoftware.smackx.xhtmlim.packet.XHTMLExtension;
+import org.jxmpp.jid.Jid;
+import org.projectmaxs.shared.global.util.Log;
+
+/**
+ * Remembers which full JIDs support XHTML-IM, so that sending a message does not require a
+ * service discovery round trip per recipient.
+ * <p>
+ * The memo is filled from the entity caps of the recipients presence, or, if the caps are unknown,
+ * by a service discovery query on a background thread. Available presences of master JIDs trigger
+ * this eagerly. Every available presence of a JID invalidates its memo entry, as the capabilities
+ * may have changed. Every invalidation starts a new generation of the JID's entry, and the result
+ * of a query is only stored if no invalidation happened while it was in flight. Other presences,
+ * i.e. the JID becoming unavailable, remove the JID's entry and generation, so that the memo only
+ * holds the JIDs that are online. {@link #supportsXHTMLIM(Jid)} never blocks.
+ * </p>
+ */
+public class XHTMLIMCapabilityMemo extends StateChangeListener {
+
+	private static final Log LOG = Log.getLog();
+
+	private final StanzaFilter mMasterPresenceFilter;
+
+	private final Map<Jid, Boolean> mMemo = new ConcurrentHashMap<Jid, Boolean>();
+	private final Set<Jid> mPendingQueries = Collections
+			.newSetFromMap(new ConcurrentHashMap<Jid, Boolean>());
+
+	/**
+	 * The generation of the JID's memo entry, guarded by mMemo. The generations are unique, they
+	 * are taken from mNextGeneration.
+	 */
+	private final Map<Jid, Long> mGenerations = new HashMap<Jid, Long>();
+	private final AtomicLong mNextGeneration = new AtomicLong();
+
+	private final ThreadPoolExecutor mQueryExecutor = new ThreadPoolExecutor(0, 1, 60L,
+			TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+
+	private volatile XMPPConnection mConnection;
+
+	private final StanzaListener mPresenceListener = new StanzaListener() {
+		@Override
+		public void processStanza(Stanza stanza) {
+			Presence presence = (Presence) stanza;
+			Jid from = presence.getFrom();
+			if (from == null || !from.hasResource()) return;
+
+			if (!presence.isAvailable()) {
+				forget(from);
+				return;
+			}
+			invalidate(from);
+			if (mMasterPresenceFilter.accept(presence)) resolve(from);
+		}
+	};
+
+	/**
+	 * Create a new memo.
+	 * 
+	 * @param masterPresenceFilter
+	 *            accepts the presences of master JIDs
+	 */
+	public XHTMLIMCapabilityMemo(StanzaFilter masterPresenceFilter) {
+		mMasterPresenceFilter = masterPresenceFilter;
+	}
+
+	@Override
+	public void newConnection(XMPPConnection connection) {
+		mConnection = connection;
+		clear();
+		connection.addAsyncStanzaListener(mPresenceListener, StanzaTypeFilter.PRESENCE);
+	}
+
+	@Override
+	public void disconnected(XMPPConnection connection) {
+		clear();
+	}
+
+	/**
+	 * Check if the given full JID supports XHTML-IM. If this is not known yet, then false is
+	 * returned and the capabilities of the JID are determined in the background.
+	 * 
+	 * @param jid
+	 *            a full JID
+	 * @return true if the JID is known to support XHTML-IM
+	 */
+	public boolean supportsXHTMLIM(Jid jid) {
+		Boolean supported = mMemo.get(jid);
+		if (supported != null) return supported;
+
+		resolve(jid);
+		supported = mMemo.get(jid);
+		return supported != null && supported;
+	}
+
+	/**
+	 * Query if the given JID supports XHTML-IM. Invoked on the query thread.
+	 * 
+	 * @param connection
+	 * @param jid
+	 * @return true if the JID supports XHTML-IM
+	 * @throws Exception
+	 */
+	boolean query(XMPPConnection connection, Jid jid) throws Exception {
+		return XHTMLManager.isServiceEnabled(connection, jid);
+	}
+
+	/**
+	 * Wait until the queries submitted so far are done.
+	 * 
+	 * @throws InterruptedException
+	 * @throws ExecutionException
+	 */
+	void awaitPendingQueries() throws InterruptedException, ExecutionException {
+		mQueryExecutor.submit(new Runnable() {
+			@Override
+			public void run() {
+			}
+		}).get();
+	}
+
+	private void resolve(final Jid jid) {
+		long generation = generation(jid);
+		Boolean supported = fromEntityCaps(jid);
+		if (supported != null) {
+			store(jid, generation, supported);
+			return;
+		}
+
+		final XMPPConnection connection = mConnection;
+		if (connection == null) return;
+		if (!mPendingQueries.add(jid)) return;
+		mQueryExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					// Query again if the JID's entry got invalidated while the query was in
+					// flight, as the result may be stale
+					while (connection == mConnection) {
+						Long generation = currentGeneration(jid);
+						// The JID became unavailable, don't memoize it again
+						if (generation == null) break;
+						if (store(jid, generation, query(connection, jid))) break;
+					}
+				} catch (Exception e) {
+					LOG.w("Could not determine XHTML-IM support of " + jid, e);
+				} finally {
+					mPendingQueries.remove(jid);
+				}
+			}
+		});
+	}
+
+	private long generation(Jid jid) {
+		synchronized (mMemo) {
+			Long generation = mGenerations.get(jid);
+			if (generation == null) {
+				generation = mNextGeneration.incrementAndGet();
+				mGenerations.put(jid, generation);
+			}
+			return generation;
+		}
+	}
+
+	private Long currentGeneration(Jid jid) {
+		synchronized (mMemo) {
+			return mGenerations.get(jid);
+		}
+	}
+
+	private void invalidate(Jid jid) {
+		synchronized (mMemo) {
+			mGenerations.put(jid, mNextGeneration.incrementAndGet());
+			mMemo.remove(jid);
+		}
+	}
+
+	private void forget(Jid jid) {
+		synchronized (mMemo) {
+			mGenerations.remove(jid);
+			mMemo.remove(jid);
+		}
+	}
+
+	private boolean store(Jid jid, long generation, boolean supported) {
+		synchronized (mMemo) {
+			Long currentGeneration = mGenerations.get(jid);
+			if (currentGeneration == null || currentGeneration != generation) return false;
+			mMemo.put(jid, supported);
+			return true;
+		}
+	}
+
+	/**
+	 * Get the number of JIDs the memo keeps track of.
+	 * 
+	 * @return the number of JIDs
+	 */
+	int size() {
+		synchronized (mMemo) {
+			return mGenerations.size();
+		}
+	}
+
+	private void clear() {
+		synchronized (mMemo) {
+			mGenerations.clear();
+			mMemo.clear();
+		}
+	}
+
+	private static Boolean fromEntityCaps(Jid jid) {
+		DiscoverInfo info = EntityCapsManager.getDiscoverInfoByUser(jid);
+		if (info == null) return null;
+		return info.containsFeature(XHTMLExtension.NAMESPACE);
+	}
+}
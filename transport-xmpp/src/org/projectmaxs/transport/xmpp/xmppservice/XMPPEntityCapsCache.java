@@ -17,6 +17,14 @@
 
 package org.projectmaxs.transport.xmpp.xmppservice;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
 import org.jivesoftware.smack.util.PacketParserUtils;
 import org.jivesoftware.smackx.caps.EntityCapsManager;
 import org.jivesoftware.smackx.caps.cache.EntityCapsPersistentCache;
@@ -30,10 +38,23 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 
+/**
+ * The persistent entity caps cache. Looked up DiscoverInfos are kept in a size-bounded in-memory
+ * cache in front of {@link XMPPEntityCapsTable}, which is written asynchronously. The DiscoverInfos
+ * are stored in a compact form (see {@link #toCompactForm(DiscoverInfo)}) that can be loaded
+ * without the XML parser. DiscoverInfos that can't be represented in the compact form, e.g.
+ * because they contain extended information, are stored as XML.
+ */
 public class XMPPEntityCapsCache implements EntityCapsPersistentCache {
 
 	private final static Log LOG = Log.getLog();
 
+	private static final int MEMORY_CACHE_SIZE = 128;
+
+	private static final String COMPACT_FORM_HEADER = "C1";
+	private static final char SEPARATOR = '\t';
+	private static final char LINE_SEPARATOR = '\n';
+
 	static {
 		EntityCapsManager.setDefaultEntityNode(GlobalConstants.HOMEPAGE_URL);
 		// We assume the number of XMPP entities the MAXS account is able to retrieve the presence
@@ -46,20 +67,47 @@ public class XMPPEntityCapsCache implements EntityCapsPersistentCache {
 	public static void onCreate(Context context) {
 		if (sXMPPEntityCapsCache != null) return;
 		sXMPPEntityCapsCache = new XMPPEntityCapsCache(context);
+		EntityCapsManager.setPersistentCache(sXMPPEntityCapsCache);
 	}
 
 	public static void onDestroy(Context context) {
 		if (sXMPPEntityCapsCache == null) return;
+		EntityCapsManager.setPersistentCache(null);
 		context.unregisterReceiver(sXMPPEntityCapsCache.mStorageLowReceiver);
+		// Pending writes are still performed, but no new ones are accepted
+		sXMPPEntityCapsCache.mWriteExecutor.shutdown();
 		sXMPPEntityCapsCache = null;
 	}
 
-	private final XMPPEntityCapsTable mXMPPEntityCapsTable;
-	private final BroadcastReceiver mStorageLowReceiver;
+	/**
+	 * The storage of the DiscoverInfos in their stored form, i.e. {@link XMPPEntityCapsTable}.
+	 */
+	interface Storage {
+		void addDiscoverInfo(String node, String storedForm);
+
+		String getDiscoverInfo(String node);
+
+		void emptyTable();
+	}
+
+	private final Storage mStorage;
+	private BroadcastReceiver mStorageLowReceiver;
+
+	private final ThreadPoolExecutor mWriteExecutor = new ThreadPoolExecutor(0, 1, 60L,
+			TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+
+	private final Map<String, DiscoverInfo> mMemoryCache = new LinkedHashMap<String, DiscoverInfo>(
+			16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, DiscoverInfo> eldest) {
+			return size() > MEMORY_CACHE_SIZE;
+		}
+	};
 
 	private XMPPEntityCapsCache(Context context) {
-		mXMPPEntityCapsTable = XMPPEntityCapsTable.getInstance(context);
-		EntityCapsManager.setPersistentCache(this);
+		this(asStorage(XMPPEntityCapsTable.getInstance(context)));
 
 		mStorageLowReceiver = new BroadcastReceiver() {
 			@Override
@@ -72,26 +120,214 @@ public class XMPPEntityCapsCache implements EntityCapsPersistentCache {
 				Intent.ACTION_DEVICE_STORAGE_LOW));
 	}
 
+	XMPPEntityCapsCache(Storage storage) {
+		mStorage = storage;
+	}
+
+	private static Storage asStorage(final XMPPEntityCapsTable table) {
+		return new Storage() {
+			@Override
+			public void addDiscoverInfo(String node, String storedForm) {
+				table.addDiscoverInfo(node, storedForm);
+			}
+
+			@Override
+			public String getDiscoverInfo(String node) {
+				return table.getDiscoverInfo(node);
+			}
+
+			@Override
+			public void emptyTable() {
+				table.emptyTable();
+			}
+		};
+	}
+
+	/**
+	 * Wait until the writes submitted so far have been performed.
+	 * 
+	 * @throws InterruptedException
+	 */
+	void awaitPendingWrites() throws InterruptedException {
+		try {
+			mWriteExecutor.submit(new Runnable() {
+				@Override
+				public void run() {
+				}
+			}).get();
+		} catch (RejectedExecutionException e) {
+			mWriteExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
 	@Override
-	public void addDiscoverInfoByNodePersistent(String node, DiscoverInfo info) {
-		mXMPPEntityCapsTable.addDiscoverInfo(node, info.toXML(null));
+	public void addDiscoverInfoByNodePersistent(final String node, final DiscoverInfo info) {
+		synchronized (mMemoryCache) {
+			if (mMemoryCache.containsKey(node)) return;
+			mMemoryCache.put(node, info);
+		}
+		final String storedForm = toStoredForm(info);
+		write(new Runnable() {
+			@Override
+			public void run() {
+				mStorage.addDiscoverInfo(node, storedForm);
+			}
+		});
 	}
 
 	@Override
 	public void emptyCache() {
-		mXMPPEntityCapsTable.emptyTable();
+		synchronized (mMemoryCache) {
+			mMemoryCache.clear();
+		}
+		write(new Runnable() {
+			@Override
+			public void run() {
+				mStorage.emptyTable();
+			}
+		});
 	}
 
 	@Override
 	public DiscoverInfo lookup(String nodeVer) {
-		String infoString = mXMPPEntityCapsTable.getDiscoverInfo(nodeVer);
+		synchronized (mMemoryCache) {
+			DiscoverInfo info = mMemoryCache.get(nodeVer);
+			if (info != null) return info;
+		}
+
+		// Pending writes may not have reached the table yet, but their DiscoverInfo is still in
+		// the memory cache unless it was evicted
+		String infoString = mStorage.getDiscoverInfo(nodeVer);
 		if (infoString == null) return null;
 
+		DiscoverInfo info = fromStoredForm(infoString);
+		if (info == null) return null;
+
+		synchronized (mMemoryCache) {
+			mMemoryCache.put(nodeVer, info);
+		}
+		return info;
+	}
+
+	private void write(Runnable write) {
 		try {
-			return (DiscoverInfo) PacketParserUtils.parseStanza(infoString);
+			mWriteExecutor.execute(write);
+		} catch (RejectedExecutionException e) {
+			// The cache was destroyed, XMPPEntityCapsTable may already be closed
+			LOG.w("Not writing to EntityCaps cache, it was destroyed");
+		}
+	}
+
+	static String toStoredForm(DiscoverInfo info) {
+		String compactForm = toCompactForm(info);
+		if (compactForm != null) return compactForm;
+		return info.toXML(null).toString();
+	}
+
+	static DiscoverInfo fromStoredForm(String storedForm) {
+		if (storedForm.startsWith(COMPACT_FORM_HEADER + LINE_SEPARATOR)) {
+			return fromCompactForm(storedForm);
+		}
+
+		try {
+			return (DiscoverInfo) PacketParserUtils.parseStanza(storedForm);
 		} catch (Exception e) {
 			LOG.e("Could not parse looked up DiscoverInfo from EntityCaps cache", e);
 			return null;
 		}
 	}
+
+	/**
+	 * Convert the DiscoverInfo to the compact form. The compact form consists of a header line
+	 * followed by an optional node line ("n"), identity lines ("i") and feature lines ("f"), the
+	 * fields of each line are separated by tabs.
+	 * 
+	 * @param info
+	 * @return the compact form or null if the DiscoverInfo can't be represented in the compact
+	 *         form
+	 */
+	private static String toCompactForm(DiscoverInfo info) {
+		// Extended information (XEP-0128) is part of the caps hash, but not of the compact form
+		if (!info.getExtensions().isEmpty()) return null;
+
+		StringBuilder sb = new StringBuilder(256);
+		sb.append(COMPACT_FORM_HEADER).append(LINE_SEPARATOR);
+		if (info.getNode() != null) {
+			if (!appendLine(sb, "n", info.getNode())) return null;
+		}
+		for (DiscoverInfo.Identity identity : info.getIdentities()) {
+			if (!appendLine(sb, "i", identity.getCategory(), identity.getType(),
+					identity.getName(), identity.getLanguage())) return null;
+		}
+		for (DiscoverInfo.Feature feature : info.getFeatures()) {
+			if (!appendLine(sb, "f", feature.getVar())) return null;
+		}
+		return sb.toString();
+	}
+
+	private static boolean appendLine(StringBuilder sb, String type, String... fields) {
+		sb.append(type);
+		for (String field : fields) {
+			if (field == null) field = "";
+			if (field.indexOf(SEPARATOR) != -1 || field.indexOf(LINE_SEPARATOR) != -1) {
+				return false;
+			}
+			sb.append(SEPARATOR).append(field);
+		}
+		sb.append(LINE_SEPARATOR);
+		return true;
+	}
+
+	/**
+	 * Convert the compact form back to a DiscoverInfo.
+	 * 
+	 * @param compactForm
+	 * @return the DiscoverInfo or null if the compact form is malformed
+	 */
+	private static DiscoverInfo fromCompactForm(String compactForm) {
+		DiscoverInfo info = new DiscoverInfo();
+		String[] lines = compactForm.split(String.valueOf(LINE_SEPARATOR));
+		// Start at 1 to skip the header line
+		for (int i = 1; i < lines.length; i++) {
+			// Use a negative limit to keep trailing empty fields
+			String[] fields = lines[i].split(String.valueOf(SEPARATOR), -1);
+			final int expectedFields;
+			switch (fields[0]) {
+			case "n":
+			case "f":
+				expectedFields = 2;
+				break;
+			case "i":
+				expectedFields = 5;
+				break;
+			default:
+				LOG.e("Unknown line in compact DiscoverInfo form: " + lines[i]);
+				return null;
+			}
+			if (fields.length != expectedFields) {
+				LOG.e("Malformed line in compact DiscoverInfo form: " + lines[i]);
+				return null;
+			}
+
+			switch (fields[0]) {
+			case "n":
+				info.setNode(fields[1]);
+				break;
+			case "i":
+				info.addIdentity(new DiscoverInfo.Identity(fields[1], fields[2],
+						emptyToNull(fields[3]), emptyToNull(fields[4])));
+				break;
+			case "f":
+				info.addFeature(fields[1]);
+				break;
+			}
+		}
+		return info;
+	}
+
+	private static String emptyToNull(String string) {
+		return string.isEmpty() ? null : string;
+	}
 }
@@ -20,8 +20,6 @@ package org.projectmaxs.transport.xmpp.xmppservice;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.PipedInputStream;
-import java.io.PipedOutputStream;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -43,8 +41,8 @@ import org.projectmaxs.shared.global.aidl.IMAXSIncomingFileTransferService;
 import org.projectmaxs.shared.global.aidl.IMAXSOutgoingFileTransferService;
 import org.projectmaxs.shared.global.util.AsyncServiceTask;
 import org.projectmaxs.shared.global.util.Log;
-import org.projectmaxs.shared.global.util.ParcelFileDescriptorUtil;
 import org.projectmaxs.shared.global.util.SharedStringUtil;
+import org.projectmaxs.shared.global.util.TransferUtil;
 import org.projectmaxs.transport.xmpp.Settings;
 
 import android.app.Service;
@@ -140,25 +138,28 @@ public class XMPPFileTransfer extends StateChangeListener implements FileTransfe
 							return;
 						}
 						OutputStream os = new ParcelFileDescriptor.AutoCloseOutputStream(pfd);
-
-						int len;
-						byte[] buf = new byte[1024];
-
 						try {
-							while ((len = is.read(buf)) > 0) {
-								os.write(buf, 0, len);
-							}
+							TransferUtil.copy(is, os, TransferUtil.DEFAULT_BUFFER_SIZE,
+									new TransferUtil.ProgressListener() {
+										@Override
+										public void onProgress(long transferred,
+												long bytesPerSecond) {
+											LOG.d("fileTransferRequest: " + filename + ' '
+													+ transferred + '/' + size + " bytes, "
+													+ bytesPerSecond + " bytes/s");
+										}
+
+										@Override
+										public void onFinished(long transferred,
+												long bytesPerSecond) {
+											LOG.d("fileTransferRequest: " + filename
+													+ " finished, " + transferred + " bytes, "
+													+ bytesPerSecond + " bytes/s");
+										}
+									});
 						} finally {
-							try {
-								is.close();
-							} catch (IOException e1) {
-								LOG.e("fleTransferRequest", e1);
-							}
-							try {
-								os.close();
-							} catch (IOException e1) {
-								LOG.e("fleTransferRequest", e1);
-							}
+							TransferUtil.closeQuietly(is);
+							TransferUtil.closeQuietly(os);
 						}
 					}
 				},
@@ -228,22 +229,22 @@ public class XMPPFileTransfer extends StateChangeListener implements FileTransfe
 					LOG.e("outgoingFileTransfer: Invalid JID", e);
 					return null;
 				}
-				PipedInputStream is = new PipedInputStream();
-				OutputStream os;
-				ParcelFileDescriptor pfd;
+				// Hand out the write side of a pipe and let Smack read directly from its read side.
+				// No additional thread or copy step is required.
+				ParcelFileDescriptor[] pipe;
 				try {
-					os = new PipedOutputStream(is);
-					pfd = ParcelFileDescriptorUtil.pipeTo(os);
+					pipe = ParcelFileDescriptor.createPipe();
 				} catch (IOException e) {
-					LOG.e("outgoingFileTransfer: no connection");
+					LOG.e("outgoingFileTransfer: could not create pipe", e);
 					return null;
 				}
+				InputStream is = new ParcelFileDescriptor.AutoCloseInputStream(pipe[0]);
 
 				OutgoingFileTransfer transfer = sFileTransferManager
 						.createOutgoingFileTransfer(toJID);
 				transfer.sendStream(is, filename, size, description);
 
-				return pfd;
+				return pipe[1];
 			}
 
 		};
@@ -22,8 +22,10 @@ import java.text.Normalizer;
 import java.text.Normalizer.Form;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CopyOnWriteArraySet;
 
@@ -37,8 +39,10 @@ import org.jivesoftware.smack.XMPPConnection;
 import org.jivesoftware.smack.debugger.JulDebugger;
 import org.jivesoftware.smack.debugger.SmackDebugger;
 import org.jivesoftware.smack.debugger.SmackDebuggerFactory;
+import org.jivesoftware.smack.filter.StanzaFilter;
 import org.jivesoftware.smack.packet.Message;
 import org.jivesoftware.smack.packet.Presence;
+import org.jivesoftware.smack.packet.Stanza;
 import org.jivesoftware.smack.roster.Roster;
 import org.jivesoftware.smack.roster.RosterLoadedListener;
 import org.jivesoftware.smack.roster.RosterUtil;
@@ -57,7 +61,6 @@ import org.jivesoftware.smackx.disco.ServiceDiscoveryManager;
 import org.jivesoftware.smackx.disco.packet.DiscoverInfo;
 import org.jivesoftware.smackx.iqlast.LastActivityManager;
 import org.jivesoftware.smackx.ping.PingManager;
-import org.jivesoftware.smackx.xhtmlim.XHTMLManager;
 import org.jxmpp.jid.BareJid;
 import org.jxmpp.jid.EntityBareJid;
 import org.jxmpp.jid.EntityFullJid;
@@ -66,8 +69,11 @@ import org.jxmpp.jid.Jid;
 import org.jxmpp.jid.impl.JidCreate;
 import org.jxmpp.stringprep.XmppStringprepException;
 import org.projectmaxs.shared.global.GlobalConstants;
+import org.projectmaxs.shared.global.util.CommandMetrics;
 import org.projectmaxs.shared.global.util.FileUtil;
 import org.projectmaxs.shared.global.util.Log;
+import org.projectmaxs.shared.global.util.LogBuffer;
+import org.projectmaxs.shared.global.util.MetricsForwarder;
 import org.projectmaxs.shared.maintransport.CommandOrigin;
 import org.projectmaxs.shared.maintransport.CurrentStatus;
 import org.projectmaxs.shared.maintransport.TransportConstants;
@@ -75,7 +81,13 @@ import org.projectmaxs.shared.transport.PrngFixes;
 import org.projectmaxs.shared.transport.transform.TransformMessageContent;
 import org.projectmaxs.transport.xmpp.Settings;
 import org.projectmaxs.transport.xmpp.database.MessagesTable;
+import org.projectmaxs.transport.xmpp.smack.provider.MAXSCommandIQProvider;
+import org.projectmaxs.transport.xmpp.smack.provider.MAXSContentIQProvider;
+import org.projectmaxs.transport.xmpp.smack.provider.MAXSContentProvider;
 import org.projectmaxs.transport.xmpp.smack.provider.MAXSElementProvider;
+import org.projectmaxs.transport.xmpp.smack.stanza.MAXSCommandIQ;
+import org.projectmaxs.transport.xmpp.smack.stanza.MAXSContent;
+import org.projectmaxs.transport.xmpp.smack.stanza.MAXSContentIQ;
 import org.projectmaxs.transport.xmpp.smack.stanza.MAXSElement;
 import org.projectmaxs.transport.xmpp.util.ConnectivityManagerUtil;
 import org.projectmaxs.transport.xmpp.util.Constants;
@@ -85,11 +97,15 @@ import android.annotation.SuppressLint;
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
-import android.os.Handler;
 
 public class XMPPService {
 	private static final Log LOG = Log.getLog();
 
+	/**
+	 * The number of answered command IQ requests that are remembered.
+	 */
+	private static final int MAX_ANSWERED_IQ_REQUESTS = 64;
+
 	@SuppressLint("StaticFieldLeak")
 	private static XMPPService sXMPPService;
 
@@ -99,6 +115,7 @@ public class XMPPService {
 	private final MessagesTable mMessagesTable;
 	private final Context mContext;
 	private final HandleTransportStatus mHandleTransportStatus;
+	private final XHTMLIMCapabilityMemo mXHTMLIMCapabilityMemo;
 
 	private XMPPStatus mXMPPStatus;
 	private State mState = State.Disconnected;
@@ -148,16 +165,34 @@ public class XMPPService {
 			}
 		});
 		MAXSElementProvider.setup();
+		MAXSCommandIQProvider.setup();
+		MAXSContentIQProvider.setup();
+		MAXSContentProvider.setup();
 	}
 
-	private final Runnable mReconnectRunnable = new Runnable() {
+	/**
+	 * The command IQ requests, identified by requester and stanza ID, whose result has been claimed
+	 * by a reply.
+	 */
+	private final Map<String, Boolean> mAnsweredIQRequests = new LinkedHashMap<String, Boolean>(
+			16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
 		@Override
-		public void run() {
-			LOG.d("scheduleReconnect: calling tryToConnect");
-			tryToConnect();
+		protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+			return size() > MAX_ANSWERED_IQ_REQUESTS;
 		}
 	};
 
+	private final ReconnectScheduler mReconnectScheduler = new ReconnectScheduler(
+			new ReconnectPolicy(), new Runnable() {
+				@Override
+				public void run() {
+					LOG.d("scheduleReconnect: calling tryToConnect");
+					tryToConnect();
+				}
+			});
+
 	/**
 	 * Switch boolean to ensure that the disconnected(XMPPConnection) listeners are
 	 * only run if there was a previous connected connection.
@@ -166,9 +201,6 @@ public class XMPPService {
 
 	private XMPPTCPConnectionConfiguration mConnectionConfiguration;
 	private XMPPTCPConnection mConnection;
-	private Handler mReconnectHandler;
-
-	private int mReconnectionAttemptCount;
 
 	/**
 	 * Get an XMPPService
@@ -192,17 +224,26 @@ public class XMPPService {
 		XMPPBundleAndDefer.initialize(context);
 
 		mContext = context;
+		MetricsForwarder.install(context, TransportConstants.MAIN_TRANSPORT_SERVICE);
 		mSettings = Settings.getInstance(context);
 		mMessagesTable = MessagesTable.getInstance(context);
 
 		// SendStanzaDatabaseHandler should be the first
 		addListener(new SendStanzaDatabaseHandler(this));
 		addListener(new HandleChatPacketListener(this));
+		addListener(new HandleCommandIQ(this));
 		addListener(new HandleConnectionListener(this));
 		addListener(new HandleMessagesListener(this));
 		addListener(new XMPPPingManager(this));
 		addListener(new XMPPFileTransfer(context));
 		addListener(new XMPPPrivacyList(mSettings));
+		mXHTMLIMCapabilityMemo = new XHTMLIMCapabilityMemo(new StanzaFilter() {
+			@Override
+			public boolean accept(Stanza stanza) {
+				return mSettings.isMasterJID(stanza.getFrom());
+			}
+		});
+		addListener(mXHTMLIMCapabilityMemo);
 
 		mHandleTransportStatus = new HandleTransportStatus(context);
 		addListener(mHandleTransportStatus);
@@ -288,24 +329,44 @@ public class XMPPService {
 	}
 
 	public void send(org.projectmaxs.shared.global.Message message, CommandOrigin origin) {
+		send(message, origin, true);
+	}
+
+	/**
+	 * Send the message.
+	 * 
+	 * @param message
+	 * @param origin
+	 * @param queueOnFailure
+	 *            if the message should be added to the {@link MessagesTable} if it could not be
+	 *            send
+	 * @return false if the message could not be send and should be retried later
+	 */
+	boolean send(org.projectmaxs.shared.global.Message message, CommandOrigin origin,
+			boolean queueOnFailure) {
+		final long startNanos = CommandMetrics.now();
 		// If the origin is null, then we are receiving a broadcast message from
 		// main. TODO document that origin can be null
 		if (origin == null) {
-			sendAsMessage(message, null, null);
-			return;
+			boolean res = sendAsMessage(message, null, null, queueOnFailure);
+			CommandMetrics.recordSince(CommandMetrics.TRANSPORT_SEND, null, startNanos);
+			return res;
 		}
 
 		String action = origin.getIntentAction();
 		String originId = origin.getOriginId();
 		String originIssuerInfo = origin.getOriginIssuerInfo();
 
+		boolean res;
 		if (Constants.ACTION_SEND_AS_MESSAGE.equals(action)) {
-			sendAsMessage(message, originIssuerInfo, originId);
+			res = sendAsMessage(message, originIssuerInfo, originId, queueOnFailure);
 		} else if (Constants.ACTION_SEND_AS_IQ.equals(action)) {
-			sendAsIQ(message, originIssuerInfo, originId);
+			res = sendAsIQ(message, originIssuerInfo, originId, queueOnFailure);
 		} else {
 			throw new IllegalStateException("XMPPService send: unknown action=" + action);
 		}
+		CommandMetrics.recordSince(CommandMetrics.TRANSPORT_SEND, null, startNanos);
+		return res;
 	}
 
 	public XMPPConnection getConnection() {
@@ -349,15 +410,27 @@ public class XMPPService {
 		return mContext;
 	}
 
-	private void sendAsMessage(org.projectmaxs.shared.global.Message message,
+	/**
+	 * Add the message to the {@link MessagesTable}, so that it is send once connected. The caps
+	 * of the queue are taken from the settings.
+	 */
+	private void queue(org.projectmaxs.shared.global.Message message, String action,
 			String originIssuerInfo, String originId) {
+		mMessagesTable.setLimits(mSettings.getMessageQueueMaxEntries(),
+				mSettings.getMessageQueueMaxAge());
+		mMessagesTable.addMessage(message, action, originIssuerInfo, originId);
+	}
+
+	private boolean sendAsMessage(org.projectmaxs.shared.global.Message message,
+			String originIssuerInfo, String originId, boolean queueOnFailure) {
 		if (!shouldUseXmppConnection()) {
 			// TODO I think that this could for example happen when the service
 			// is not started but e.g. the SMS receiver get's a new message.
-			LOG.i("sendAsMessage: Not connected, adding message to DB. mConnection=" + mConnection);
-			mMessagesTable.addMessage(message, Constants.ACTION_SEND_AS_MESSAGE, originIssuerInfo,
-					originId);
-			return;
+			LOG.i("sendAsMessage: Not connected. mConnection=" + mConnection);
+			if (queueOnFailure) {
+				queue(message, Constants.ACTION_SEND_AS_MESSAGE, originIssuerInfo, originId);
+			}
+			return false;
 		}
 
 		Message packet = new Message();
@@ -427,8 +500,9 @@ public class XMPPService {
 			try {
 				to = JidCreate.entityFullFrom(originIssuerInfo);
 			} catch (XmppStringprepException e) {
-				LOG.e("Could not convert originIssueInfo to full JID", e);
-				return;
+				// Retrying won't help, deliver the reply to the master JIDs instead of dropping it
+				LOG.e("Could not convert originIssueInfo to full JID, broadcasting the reply", e);
+				return sendAsMessage(message, null, originId, queueOnFailure);
 			}
 			toList.add(to);
 		}
@@ -439,34 +513,109 @@ public class XMPPService {
 				continue;
 			}
 
-			try {
-				atLeastOneSupportsXHTMLIM = XHTMLManager.isServiceEnabled(mConnection, jid);
-			} catch (Exception e) {
-				atLeastOneSupportsXHTMLIM = false;
-			}
+			atLeastOneSupportsXHTMLIM = mXHTMLIMCapabilityMemo.supportsXHTMLIM(jid);
 			if (atLeastOneSupportsXHTMLIM) break;
 		}
 		if (atLeastOneSupportsXHTMLIM)
 			XHTMLIMUtil.addXHTMLIM(packet, TransformMessageContent.toFormatedText(message));
 
+		boolean res = true;
 		try {
 			MultipleRecipientManager.send(mConnection, packet, toList, null, null);
 		} catch (Exception e) {
-			LOG.e("sendAsMessage: Got Exception, adding message to DB", e);
-			mMessagesTable.addMessage(message, Constants.ACTION_SEND_AS_MESSAGE, originIssuerInfo,
-					originId);
+			LOG.e("sendAsMessage: Got Exception", e);
+			if (queueOnFailure) {
+				queue(message, Constants.ACTION_SEND_AS_MESSAGE, originIssuerInfo, originId);
+			}
+			res = false;
 		}
 
 		// Stop the current bundleAndDefer *after* the message has been sent.
 		XMPPBundleAndDefer.stopCurrentBundleAndDefer();
+		return res;
 	}
 
-	private void sendAsIQ(org.projectmaxs.shared.global.Message message, String originIssuerInfo,
-			String issuerId) {
-		// in a not so far future
+	/**
+	 * Send the message as structured reply to the command IQ with the given stanza ID. An IQ
+	 * request has exactly one result, so only the first reply is send as {@link MAXSContentIQ}
+	 * result. Further replies, e.g. the chunks of a long listing, are send as messages with a
+	 * {@link MAXSContent} extension referencing the request.
+	 * 
+	 * @param message
+	 * @param originIssuerInfo
+	 *            the JID that send the command IQ
+	 * @param issuerId
+	 *            the stanza ID of the command IQ
+	 */
+	private boolean sendAsIQ(org.projectmaxs.shared.global.Message message,
+			String originIssuerInfo, String issuerId, boolean queueOnFailure) {
+		if (!shouldUseXmppConnection()) {
+			LOG.i("sendAsIQ: Not connected. mConnection=" + mConnection);
+			if (queueOnFailure) {
+				queue(message, Constants.ACTION_SEND_AS_IQ, originIssuerInfo, issuerId);
+			}
+			return false;
+		}
+
+		Jid to;
+		try {
+			to = JidCreate.from(originIssuerInfo);
+		} catch (XmppStringprepException e) {
+			// Retrying won't help, deliver the reply to the master JIDs instead of dropping it
+			LOG.e("Could not convert originIssueInfo to JID, broadcasting the reply", e);
+			return sendAsMessage(message, null, issuerId, queueOnFailure);
+		}
+
+		final String request = to + " " + issuerId;
+		// Claim the IQ result before sending it, so that concurrent replies to the same request
+		// send exactly one result and the rest as messages
+		final boolean answered;
+		synchronized (mAnsweredIQRequests) {
+			answered = mAnsweredIQRequests.put(request, Boolean.TRUE) != null;
+		}
+
+		final Stanza stanza;
+		if (answered) {
+			Message packet = new Message(to);
+			packet.addExtension(new MAXSContent(message, issuerId));
+			CarbonExtension.Private.addTo(packet);
+			MAXSElement.addTo(packet);
+			stanza = packet;
+		} else {
+			MAXSContentIQ iq = new MAXSContentIQ(new MAXSContent(message, null));
+			iq.setTo(to);
+			iq.setStanzaId(issuerId);
+			stanza = iq;
+		}
+		try {
+			mConnection.sendStanza(stanza);
+		} catch (InterruptedException | NotConnectedException e) {
+			LOG.e("sendAsIQ: Got Exception", e);
+			if (!answered) {
+				// The IQ result was not send, release the claim so that the next reply sends it
+				synchronized (mAnsweredIQRequests) {
+					mAnsweredIQRequests.remove(request);
+				}
+			}
+			if (queueOnFailure) {
+				queue(message, Constants.ACTION_SEND_AS_IQ, originIssuerInfo, issuerId);
+			}
+			return false;
+		}
+		return true;
+	}
+
+	protected void newCommandFromIQ(MAXSCommandIQ commandIQ, long receivedNanos) {
+		String command = commandIQ.getCommand().trim();
+		String issuerInfo = commandIQ.getFrom().toString();
+		LOG.d("newCommandFromIQ: command={} from={}", command, issuerInfo);
+
+		CommandOrigin origin = new CommandOrigin(Constants.PACKAGE, Constants.ACTION_SEND_AS_IQ,
+				issuerInfo, commandIQ.getStanzaId());
+		performCommand(command, origin, receivedNanos);
 	}
 
-	protected void newMessageFromMasterJID(Message message) {
+	protected void newMessageFromMasterJID(Message message, long receivedNanos) {
 		String command = message.getBody();
 		if (command == null) {
 			LOG.e("newMessageFromMasterJID: empty body");
@@ -480,39 +629,53 @@ public class XMPPService {
 		command = command.trim();
 
 		String issuerInfo = message.getFrom().toString();
-		LOG.d("newMessageFromMasterJID: command=" + command + " from=" + issuerInfo);
+		LOG.d("newMessageFromMasterJID: command={} from={}", command, issuerInfo);
 
-		Intent intent = new Intent(GlobalConstants.ACTION_PERFORM_COMMAND);
 		CommandOrigin origin = new CommandOrigin(Constants.PACKAGE,
 				Constants.ACTION_SEND_AS_MESSAGE, issuerInfo, null);
+		performCommand(command, origin, receivedNanos);
+	}
+
+	/**
+	 * Hand the command over to main.
+	 * 
+	 * @param command
+	 * @param origin
+	 * @param receivedNanos
+	 *            the {@link CommandMetrics#now()} timestamp of the command's arrival, main records
+	 *            the time until it handles the command
+	 */
+	private void performCommand(String command, CommandOrigin origin, long receivedNanos) {
+		Intent intent = new Intent(GlobalConstants.ACTION_PERFORM_COMMAND);
 		intent.putExtra(TransportConstants.EXTRA_COMMAND, command);
 		intent.putExtra(TransportConstants.EXTRA_COMMAND_ORIGIN, origin);
+		intent.putExtra(TransportConstants.EXTRA_RECEIVED_NANOS, receivedNanos);
+		if (TransportConstants.LOG_COMMAND.equalsIgnoreCase(command)) {
+			// main only has its own log, add ours, which also contains the log of Smack
+			intent.putExtra(TransportConstants.EXTRA_TRANSPORT_LOG, LogBuffer.getInstance().dump(
+					TransportConstants.LOG_LINES));
+		}
 		intent.setClassName(GlobalConstants.MAIN_PACKAGE,
 				TransportConstants.MAIN_TRANSPORT_SERVICE);
 		ComponentName cn = mContext.startService(intent);
 		if (cn == null) {
-			LOG.e("newMessageFromMasterJID: could not start main transport service");
+			LOG.e("performCommand: could not start main transport service");
 		}
 	}
 
 	private void scheduleReconnect(String optionalReason) {
-		if (mReconnectHandler == null) mReconnectHandler = new Handler();
-		newState(State.WaitingForRetry, optionalReason);
-		mReconnectHandler.removeCallbacks(mReconnectRunnable);
-		int reconnectDelaySeconds;
-		final int MINIMAL_DELAY_SECONDS = 10;
-		final int ATTEMPTS_WITHOUT_PENALTY = 60;
-		if (mReconnectionAttemptCount <= ATTEMPTS_WITHOUT_PENALTY) {
-			reconnectDelaySeconds = MINIMAL_DELAY_SECONDS;
-		} else {
-			int delayFunctionResult = MINIMAL_DELAY_SECONDS * ((int) Math
-					.pow(mReconnectionAttemptCount - ATTEMPTS_WITHOUT_PENALTY - 1, 1.2));
-			// Maximum delay is 30 minutes
-			reconnectDelaySeconds = Math.max(delayFunctionResult, 60 * 30);
+		if (!ConnectivityManagerUtil.hasDataConnection(mContext)) {
+			// Don't retry without network, NETWORK_CONNECTED will trigger the next attempt
+			LOG.d("scheduleReconnect: no data connection, waiting for network");
+			newState(State.WaitingForNetwork, optionalReason);
+			return;
 		}
-		mReconnectionAttemptCount++;
-		LOG.d("scheduleReconnect: scheduling reconnect in " + reconnectDelaySeconds + " seconds");
-		mReconnectHandler.postDelayed(mReconnectRunnable, reconnectDelaySeconds * 1000);
+		newState(State.WaitingForRetry, optionalReason);
+		mReconnectScheduler.schedule(optionalReason);
+	}
+
+	public ReconnectScheduler getReconnectScheduler() {
+		return mReconnectScheduler;
 	}
 
 	private void newState(State newState) {
@@ -579,7 +742,7 @@ public class XMPPService {
 	}
 
 	private synchronized void changeState(State desiredState) {
-		LOG.d("changeState: mState=" + mState + ", desiredState=" + desiredState);
+		LOG.d("changeState: mState={}, desiredState={}", mState, desiredState);
 		switch (mState) {
 		case Connected:
 			switch (desiredState) {
@@ -631,19 +794,26 @@ public class XMPPService {
 		case WaitingForRetry:
 			switch (desiredState) {
 			case WaitingForNetwork:
+				mReconnectScheduler.onNetworkLost();
 				newState(State.WaitingForNetwork);
 				break;
 			case Connected:
-				// Do nothing here, instead, wait until the reconnect runnable did it's job.
+				// Don't call tryToConnect() here, instead, let the reconnect scheduler do it's job.
 				// Otherwise deadlocks may occur, because the connection attempts will block the
 				// main thread, which will prevent SmackAndroid from receiving the
 				// ConnecvitvityChange receiver and calling Resolver.refresh(). So we have no
-				// up-to-date DNS server information, which will cause connect to fail.
+				// up-to-date DNS server information, which will cause connect to fail. But if a
+				// network became available after the attempt was suspended, there is no need to
+				// wait for the backoff delay. Other connect() requests, e.g. a repeated start of
+				// the service, keep the backoff delay.
+				if (ConnectivityManagerUtil.hasDataConnection(mContext)) {
+					mReconnectScheduler.onNetworkAvailable();
+				}
 				break;
 			case InstantDisconnected:
 			case Disconnected:
 				newState(desiredState);
-				mReconnectHandler.removeCallbacks(mReconnectRunnable);
+				mReconnectScheduler.cancel();
 				break;
 			default:
 				throw new IllegalStateException();
@@ -733,7 +903,7 @@ public class XMPPService {
 		} catch (Exception e) {
 			XMPPBundleAndDefer.enableBundleAndDefer();
 			LOG.e("tryToConnect: Exception from connect()", e);
-			if (e instanceof ConnectionException) {
+			if (e instanceof ConnectionException && LOG.isDebugLogEnabled()) {
 				ConnectionException ce = (ConnectionException) e;
 				String error = "The following host's failed to connect to:";
 				for (HostAddress ha : ce.getFailedAddresses())
@@ -770,7 +940,7 @@ public class XMPPService {
 			}
 		}
 
-		mReconnectionAttemptCount = 0;
+		mReconnectScheduler.onConnected();
 		newState(State.Connected);
 
 		LOG.d("tryToConnect: successfully connected \\o/");
@@ -780,7 +950,7 @@ public class XMPPService {
 		if (mConnection != null) {
 			if (mConnection.isConnected()) {
 				newState(State.Disconnecting);
-				LOG.d("disconnectConnection: disconnect start. instant=" + instant);
+				LOG.d("disconnectConnection: disconnect start. instant={}", instant);
 				if (instant) {
 					mConnection.instantShutdown();
 				} else {